@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import not.alexa.hermes.IllegalTopicException;
+import not.alexa.hermes.audio.AudioFrame;
+import not.alexa.hermes.audio.AudioPlayBytes;
+import not.alexa.hermes.benchmarks.TopicDispatchBenchmark.DispatchApi;
+import not.alexa.netobjects.BaseException;
+import not.alexa.netobjects.Context;
+
+/**
+ * Handling of binary payloads. A frame is 20ms of 16kHz mono audio in WAV format (as send by a satellite).
+ * 
+ * @author notalexa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinaryFrameBenchmark {
+	private static final int FRAME_SIZE=44+640;
+
+	private DispatchApi api;
+	private byte[] frame;
+	private AudioFrame audioFrame;
+
+	@Setup
+	public void setup() throws BaseException {
+		api=new DispatchApi(Context.createRootContext());
+		frame=new byte[FRAME_SIZE];
+		for(int i=44;i<frame.length;i++) {
+			frame[i]=(byte)i;
+		}
+		audioFrame=new AudioFrame("kitchen",frame);
+	}
+
+	@Benchmark
+	public AudioFrame forTopic() throws IllegalTopicException {
+		return audioFrame.forTopic("hermes/audioServer/livingroom/audioFrame");
+	}
+
+	@Benchmark
+	public byte[] encode() throws BaseException {
+		return api.encode(audioFrame);
+	}
+
+	@Benchmark
+	public void receivedAudioFrame() throws BaseException, IllegalTopicException {
+		api.dispatch("hermes/audioServer/kitchen/audioFrame",frame);
+	}
+
+	@Benchmark
+	public void receivedPlayBytes() throws BaseException, IllegalTopicException {
+		api.dispatch("hermes/audioServer/kitchen/playBytes/0815",frame);
+	}
+
+	@Benchmark
+	public AudioPlayBytes createPlayBytes() {
+		return new AudioPlayBytes("kitchen","0815",frame);
+	}
+}
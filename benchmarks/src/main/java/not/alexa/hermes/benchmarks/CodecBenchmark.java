@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import not.alexa.hermes.HermesApi;
+import not.alexa.hermes.HermesMessage;
+import not.alexa.netobjects.BaseException;
+import not.alexa.netobjects.Context;
+import not.alexa.netobjects.coding.CodingScheme;
+import not.alexa.netobjects.coding.json.JsonCodingScheme;
+
+/**
+ * JSON encoding (using {@link HermesApi#encode(HermesMessage)}) and decoding of every JSON encoded hermes message.
+ * Decoding uses the same coding scheme setup as the api.
+ * 
+ * @author notalexa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+	@Param({"FeaturesRequest","Features","HandleToggleOn","HandleToggleOff","PhonemesRequest","Phonemes","G2PError",
+		"Say","SayFinished","TTSError","VoicesRequest","Voices",
+		"HotwordToggleOn","HotwordToggleOff","HotwordsRequest","Hotwords","HotwordDetected","HotwordError",
+		"StartSession","SessionStarted","SessionQueued","ContinueSession","EndSession","SessionEnded","Configure","DialogueIntentNotRecognized","DialogueError",
+		"AsrToggleOn","AsrToggleOff","StartListening","StopListening","TextCaptured","AsrTrain","AsrTrainSuccess","ASRError",
+		"AudioRecordError","AudioPlayError","AudioToggleOn","AudioToggleOff","AudioSetVolume","AudioDevicesRequest","AudioDevices","AudioPlayFinished",
+		"NluTrain","NluTrainSuccess","NLUError","Query","NluIntentNotRecognized","NLUIntent"})
+	String message;
+
+	private Context context;
+	private HermesApi api;
+	private HermesMessage<?> msg;
+	private Class<?> type;
+	private CodingScheme scheme;
+	private byte[] encoded;
+
+	@Setup
+	public void setup() throws BaseException {
+		context=Context.createRootContext();
+		api=new HermesApi(context);
+		msg=Messages.create(message);
+		type=msg.getClass();
+		scheme=JsonCodingScheme.RESTRICTED_SCHEME.newBuilder().setIndent("","").build().newBuilder().setRootType(type).build();
+		encoded=api.encode(msg);
+	}
+
+	@Benchmark
+	public byte[] encode() throws BaseException {
+		return api.encode(msg);
+	}
+
+	@Benchmark
+	public Object decode() throws BaseException {
+		return scheme.createDecoder(context,encoded).decode(type);
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import not.alexa.hermes.media.io.MappedFileInputStream;
+import not.alexa.hermes.media.io.SeekableFileInputStream;
+import not.alexa.hermes.media.io.SeekableInputStream;
+
+/**
+ * Reading a (large) local file like the MP3 decoder does: Sequentially in chunks of the size of an MP3 frame (128kbit/s at 44.1kHz)
+ * and after seeking to random positions. Compares the file based and the memory mapped {@link SeekableInputStream}.
+ * The file is read from the page cache in both cases, opening (and mapping) the file is part of each measurement.
+ * 
+ * @author notalexa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileReadBenchmark {
+	private static final int FRAME_SIZE=418;
+	private static final int SEEKS=64;
+
+	@Param({"4","64"})
+	int sizeInMb;
+
+	@Param({"file","mapped"})
+	String access;
+
+	private File file;
+	private byte[] frame;
+	private long[] positions;
+
+	@Setup
+	public void setup() throws IOException {
+		file=File.createTempFile("benchmark",".audio");
+		file.deleteOnExit();
+		Random random=new Random(4711);
+		byte[] block=new byte[1024*1024];
+		random.nextBytes(block);
+		try(OutputStream out=new FileOutputStream(file)) {
+			for(int i=0;i<sizeInMb;i++) {
+				out.write(block);
+			}
+		}
+		frame=new byte[FRAME_SIZE];
+		positions=new long[SEEKS];
+		for(int i=0;i<SEEKS;i++) {
+			positions[i]=(long)(random.nextDouble()*(file.length()-FRAME_SIZE));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	private SeekableInputStream open() throws IOException {
+		return "mapped".equals(access)?new MappedFileInputStream(file):new SeekableFileInputStream(file);
+	}
+
+	/**
+	 * Read the first MB of the file.
+	 */
+	@Benchmark
+	public int sequential() throws IOException {
+		int total=0;
+		try(SeekableInputStream in=open()) {
+			int n;
+			while(total<1024*1024&&(n=in.read(frame,0,FRAME_SIZE))>0) {
+				total+=n;
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Seek to random positions and read one frame each.
+	 */
+	@Benchmark
+	public int seekAndRead() throws IOException {
+		int total=0;
+		try(SeekableInputStream in=open()) {
+			for(long position:positions) {
+				in.seekTo(position);
+				total+=in.read(frame,0,FRAME_SIZE);
+			}
+		}
+		return total;
+	}
+}
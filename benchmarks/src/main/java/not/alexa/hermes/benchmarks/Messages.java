@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import not.alexa.hermes.Feature;
+import not.alexa.hermes.HermesApi.AsrToken;
+import not.alexa.hermes.HermesApi.Device;
+import not.alexa.hermes.HermesApi.Device.Mode;
+import not.alexa.hermes.HermesApi.Intent;
+import not.alexa.hermes.HermesApi.Slot;
+import not.alexa.hermes.HermesMessage;
+import not.alexa.hermes.asr.ASRError;
+import not.alexa.hermes.asr.StartListening;
+import not.alexa.hermes.asr.StopListening;
+import not.alexa.hermes.asr.TextCaptured;
+import not.alexa.hermes.audio.AudioDevicesRequest;
+import not.alexa.hermes.audio.AudioPlayError;
+import not.alexa.hermes.audio.AudioPlayFinished;
+import not.alexa.hermes.audio.AudioRecordError;
+import not.alexa.hermes.audio.AudioSetVolume;
+import not.alexa.hermes.audio.AudioToggleOff;
+import not.alexa.hermes.audio.AudioToggleOn;
+import not.alexa.hermes.dialogue.Configure;
+import not.alexa.hermes.dialogue.Configure.IntentConfig;
+import not.alexa.hermes.dialogue.ContinueSession;
+import not.alexa.hermes.dialogue.DialogueError;
+import not.alexa.hermes.dialogue.EndSession;
+import not.alexa.hermes.dialogue.IntentNotRecognized;
+import not.alexa.hermes.dialogue.StartSession;
+import not.alexa.hermes.dialogue.StartSession.Init;
+import not.alexa.hermes.features.FeaturesRequest;
+import not.alexa.hermes.g2p.G2PError;
+import not.alexa.hermes.g2p.Phonemes.Result;
+import not.alexa.hermes.g2p.PhonemesRequest;
+import not.alexa.hermes.hotword.HotwordDetected;
+import not.alexa.hermes.hotword.HotwordError;
+import not.alexa.hermes.hotword.Hotwords.Model;
+import not.alexa.hermes.hotword.HotwordsRequest;
+import not.alexa.hermes.intent.handling.ToggleOff;
+import not.alexa.hermes.intent.handling.ToggleOn;
+import not.alexa.hermes.nlu.NLUError;
+import not.alexa.hermes.nlu.Query;
+import not.alexa.hermes.nlu.Train;
+import not.alexa.hermes.tts.Say;
+import not.alexa.hermes.tts.TTSError;
+import not.alexa.hermes.tts.VoicesRequest;
+import not.alexa.hermes.tts.Voices.Voice;
+
+/**
+ * Sample instances of all JSON encoded hermes messages (the binary messages are handled in {@link BinaryFrameBenchmark}).
+ * 
+ * @author notalexa
+ *
+ */
+final class Messages {
+	private static final Map<String,Supplier<HermesMessage<?>>> MESSAGES=new LinkedHashMap<>();
+	static {
+		MESSAGES.put("FeaturesRequest",()->new FeaturesRequest("default","id"));
+		MESSAGES.put("Features",()->new FeaturesRequest("default","id").createAnswer("default",Feature.values()));
+		MESSAGES.put("HandleToggleOn",()->new ToggleOn());
+		MESSAGES.put("HandleToggleOff",()->new ToggleOff());
+		MESSAGES.put("PhonemesRequest",()->new PhonemesRequest(new String[] { "example"}));
+		MESSAGES.put("Phonemes",()->new PhonemesRequest(new String[] { "example"}).createAnswer(Collections.singletonMap("example", new Result[] {new Result(new String[] { "e" },false)})));
+		MESSAGES.put("G2PError",()->new G2PError("error"));
+		MESSAGES.put("Say",()->new Say("Hello world"));
+		MESSAGES.put("SayFinished",()->new Say("Hello world").createFinished());
+		MESSAGES.put("TTSError",()->new TTSError("error"));
+		MESSAGES.put("VoicesRequest",()->new VoicesRequest());
+		MESSAGES.put("Voices",()->new VoicesRequest().createAnswer(new Voice[] { new Voice("id","de","voice")}));
+		MESSAGES.put("HotwordToggleOn",()->new not.alexa.hermes.hotword.ToggleOn());
+		MESSAGES.put("HotwordToggleOff",()->new not.alexa.hermes.hotword.ToggleOff());
+		MESSAGES.put("HotwordsRequest",()->new HotwordsRequest());
+		MESSAGES.put("Hotwords",()->new HotwordsRequest().createAnswer(new Model[] { new Model("id",new String[] { "wakeup"},"version","personal")}));
+		MESSAGES.put("HotwordDetected",()->new HotwordDetected("wakewordId","modelId"));
+		MESSAGES.put("HotwordError",()->new HotwordError("error"));
+		MESSAGES.put("StartSession",()->new StartSession(new Init(false,"Hello"),"default","custom"));
+		MESSAGES.put("SessionStarted",()->new StartSession(new Init(false,"Hello"),"default","custom").createStarted("sessionId"));
+		MESSAGES.put("SessionQueued",()->new StartSession(new Init(false,"Hello"),"default","custom").createQueued("sessionId"));
+		MESSAGES.put("ContinueSession",()->new ContinueSession("sessionId","custom","text",null,false));
+		MESSAGES.put("EndSession",()->new EndSession("sessionId","text","custom"));
+		MESSAGES.put("SessionEnded",()->new EndSession("sessionId","text","custom").createAnswer("default"));
+		MESSAGES.put("Configure",()->new Configure(new IntentConfig[] { new IntentConfig("intent",false) }));
+		MESSAGES.put("DialogueIntentNotRecognized",()->new IntentNotRecognized("sessionId","input words","default","custom"));
+		MESSAGES.put("DialogueError",()->new DialogueError("error"));
+		MESSAGES.put("AsrToggleOn",()->new not.alexa.hermes.asr.ToggleOn());
+		MESSAGES.put("AsrToggleOff",()->new not.alexa.hermes.asr.ToggleOff());
+		MESSAGES.put("StartListening",()->new StartListening());
+		MESSAGES.put("StopListening",()->new StopListening());
+		MESSAGES.put("TextCaptured",()->new TextCaptured("input words",1f,2.1f,"default",null,null,null));
+		MESSAGES.put("AsrTrain",()->new not.alexa.hermes.asr.Train("graph_path","default",null));
+		MESSAGES.put("AsrTrainSuccess",()->new not.alexa.hermes.asr.Train("graph_path","default",null).createSuccess());
+		MESSAGES.put("ASRError",()->new ASRError("error"));
+		MESSAGES.put("AudioRecordError",()->new AudioRecordError("error"));
+		MESSAGES.put("AudioPlayError",()->new AudioPlayError("error"));
+		MESSAGES.put("AudioToggleOn",()->new AudioToggleOn());
+		MESSAGES.put("AudioToggleOff",()->new AudioToggleOff());
+		MESSAGES.put("AudioSetVolume",()->new AudioSetVolume(0.5f));
+		MESSAGES.put("AudioDevicesRequest",()->new AudioDevicesRequest(new Mode[] { Mode.output},"default",false));
+		MESSAGES.put("AudioDevices",()->new AudioDevicesRequest(new Mode[] { Mode.output},"default",false).createAnswer(new Device[] { new Device(Mode.output,"deviceId","name","description",true)}));
+		MESSAGES.put("AudioPlayFinished",()->new AudioPlayFinished("requestId"));
+		MESSAGES.put("NluTrain",()->new Train("graph_path","default",null));
+		MESSAGES.put("NluTrainSuccess",()->new Train("graph_path","default",null).createSuccess());
+		MESSAGES.put("NLUError",()->new NLUError("error"));
+		MESSAGES.put("Query",()->Query.createBuilder("input words").setSiteId("default").setSessionId("sessionId").build());
+		MESSAGES.put("NluIntentNotRecognized",()->Query.createBuilder("input words").build().createError());
+		MESSAGES.put("NLUIntent",()->createIntent());
+	}
+
+	private Messages() {
+	}
+
+	/**
+	 * 
+	 * @param name the name of the message
+	 * @return a sample instance of the message
+	 */
+	static HermesMessage<?> create(String name) {
+		Supplier<HermesMessage<?>> supplier=MESSAGES.get(name);
+		if(supplier==null) {
+			throw new IllegalArgumentException("Unknown message "+name);
+		}
+		return supplier.get();
+	}
+
+	/**
+	 * 
+	 * @return a typical intent with slots and ASR tokens
+	 */
+	static HermesMessage<?> createIntent() {
+		return Query.createBuilder("turn on the light in the kitchen")
+				.setSiteId("default")
+				.setSessionId("sessionId")
+				.build().createAnswer()
+				.setIntent(new Intent("lightsOn",0.9f))
+				.addSlot(new Slot("room","room","kitchen","kitchen",null))
+				.addSlot(new Slot("state","state","on","on",null))
+				.setAsrTokens(new AsrToken[][] {
+					new AsrToken[] {
+						new AsrToken("turn",1f,0,4),
+						new AsrToken("on",1f,5,7),
+						new AsrToken("the",1f,8,11),
+						new AsrToken("light",1f,12,17),
+					}
+				})
+				.build();
+	}
+}
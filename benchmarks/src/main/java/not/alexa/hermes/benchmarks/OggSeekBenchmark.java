@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import not.alexa.hermes.media.io.MappedFileInputStream;
+import not.alexa.hermes.media.io.SeekableInputStream;
+import not.alexa.hermes.media.streams.OggPageIndex;
+
+/**
+ * Seek latency in a long ogg stream (44.1kHz, 160kbit/s, 4KB pages, with page data generated randomly).
+ * Compares the bisection of {@link OggPageIndex} (with a cold and a warm page cache) with a linear scan of the page headers.
+ * The linear scan is a lower bound for the former seeking strategy of reading every packet from the start of the stream.
+ * 
+ * @author notalexa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OggSeekBenchmark {
+	private static final int SERIAL=4711;
+	private static final int PAGE_SIZE=4096;
+	private static final int RATE=44100;
+	private static final int BYTES_PER_SECOND=20000;
+
+	@Param({"10","120"})
+	int minutes;
+
+	private File file;
+	private SeekableInputStream in;
+	private OggPageIndex warmIndex;
+	private long granules;
+	private Random random;
+	private byte[] header;
+
+	@Setup
+	public void setup() throws IOException {
+		file=File.createTempFile("benchmark",".ogg");
+		file.deleteOnExit();
+		Random data=new Random(4711);
+		byte[] body=new byte[PAGE_SIZE];
+		data.nextBytes(body);
+		long samplesPerPage=(long)PAGE_SIZE*RATE/BYTES_PER_SECOND;
+		long pages=(long)minutes*60*BYTES_PER_SECOND/PAGE_SIZE;
+		try(OutputStream out=new BufferedOutputStream(new FileOutputStream(file))) {
+			for(long page=0;page<pages;page++) {
+				int size=PAGE_SIZE-64+data.nextInt(128);
+				writePage(out,page*samplesPerPage,body,size);
+			}
+		}
+		granules=pages*samplesPerPage;
+		in=new MappedFileInputStream(file);
+		warmIndex=new OggPageIndex(in,SERIAL,file.length());
+		random=new Random(4712);
+		header=new byte[27+255];
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		in.close();
+		file.delete();
+	}
+
+	private static void writePage(OutputStream out,long granule,byte[] body,int size) throws IOException {
+		int segments=size/255+1;
+		byte[] header=new byte[27+segments];
+		header[0]='O';
+		header[1]='g';
+		header[2]='g';
+		header[3]='S';
+		for(int i=0;i<8;i++) {
+			header[6+i]=(byte)(granule>>>(8*i));
+		}
+		for(int i=0;i<4;i++) {
+			header[14+i]=(byte)(SERIAL>>>(8*i));
+		}
+		header[26]=(byte)segments;
+		for(int i=0;i<segments;i++) {
+			header[27+i]=(byte)Math.min(255,size-255*i);
+		}
+		out.write(header);
+		out.write(body,0,size);
+	}
+
+	private long target() {
+		return (long)(random.nextDouble()*granules);
+	}
+
+	@Benchmark
+	public long[] bisection() throws IOException {
+		return new OggPageIndex(in,SERIAL,file.length()).find(target());
+	}
+
+	@Benchmark
+	public long[] cachedBisection() throws IOException {
+		return warmIndex.find(target());
+	}
+
+	@Benchmark
+	public long linearScan() throws IOException {
+		long target=target();
+		long position=0;
+		long found=-1;
+		while(true) {
+			in.seekTo(position);
+			if(in.read(header,0,27)<27) {
+				return found;
+			}
+			long granule=0;
+			for(int i=7;i>=0;i--) {
+				granule=(granule<<8)|(header[6+i]&0xff);
+			}
+			if(granule>target) {
+				return found;
+			}
+			found=position;
+			int segments=header[26]&0xff;
+			in.read(header,27,segments);
+			position+=27+segments;
+			for(int i=0;i<segments;i++) {
+				position+=header[27+i]&0xff;
+			}
+		}
+	}
+}
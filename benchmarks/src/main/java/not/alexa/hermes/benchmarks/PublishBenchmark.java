@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import not.alexa.hermes.HermesApi;
+import not.alexa.hermes.HermesMessage;
+import not.alexa.hermes.tts.Say;
+import not.alexa.netobjects.BaseException;
+import not.alexa.netobjects.Context;
+import not.alexa.netobjects.api.Overlay;
+import not.alexa.netobjects.types.DefaultTypeLoader;
+
+/**
+ * The in-process publish loop back of {@link HermesApi}: Encode the message, resolve the topic, decode the message and call the handler.
+ * 
+ * @author notalexa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishBenchmark {
+	static volatile long handled;
+
+	private HermesApi api;
+	private Say say;
+	private HermesMessage<?> intent;
+
+	@Setup
+	public void setup() {
+		Context context=new DefaultTypeLoader().overlay(SayHandler.class).createContext();
+		api=new HermesApi(context,"default");
+		say=new Say("default","Hello world");
+		intent=Messages.createIntent();
+	}
+
+	@Benchmark
+	public void publishSay() throws BaseException {
+		api.publish(say);
+	}
+
+	@Benchmark
+	public void publishIntent() throws BaseException {
+		api.publish(intent);
+	}
+
+	@Overlay
+	public static class SayHandler extends Say {
+		@Override
+		public void received(HermesApi api) throws BaseException {
+			handled++;
+		}
+	}
+}
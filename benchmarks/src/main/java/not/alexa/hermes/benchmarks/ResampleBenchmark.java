@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import not.alexa.hermes.media.AudioStream;
+import not.alexa.hermes.media.streams.ByteArrayAudioStream;
+import not.alexa.hermes.media.streams.ResamplingStream;
+import not.alexa.hermes.media.streams.ResamplingStream.Quality;
+
+/**
+ * CPU cost of resampling one second of 16 bit stereo audio (a sine wave) to 48kHz. Compares the linear interpolation (read sample by sample
+ * as the former default implementation did) with the polyphase resampler of different qualities (read in blocks).
+ * 
+ * @author notalexa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResampleBenchmark {
+	private static final AudioFormat TARGET=new AudioFormat(48000f,16,2,true,false);
+
+	@Param({"44100","22050"})
+	int rate;
+
+	@Param({"LINEAR","LOW","MEDIUM","HIGH"})
+	Quality quality;
+
+	private byte[] data;
+	private AudioFormat format;
+	private final int[] samples=new int[AudioStream.BLOCK_SIZE];
+
+	@Setup
+	public void setup() {
+		format=new AudioFormat(rate,16,2,true,false);
+		data=new byte[4*rate];
+		for(int i=0;i<rate;i++) {
+			int s=(int)(16000*Math.sin(2*Math.PI*440*i/rate));
+			for(int c=0;c<2;c++) {
+				data[4*i+2*c]=(byte)s;
+				data[4*i+2*c+1]=(byte)(s>>8);
+			}
+		}
+	}
+
+	@Benchmark
+	public long resample() throws IOException {
+		AudioStream stream=ResamplingStream.create(new ByteArrayAudioStream(format,0,data),TARGET,quality);
+		long sum=0;
+		if(quality==Quality.LINEAR) {
+			int s;
+			while((s=stream.next())!=Integer.MAX_VALUE) {
+				sum+=s;
+			}
+		} else {
+			int n;
+			while((n=stream.read(samples,0,samples.length))>0) {
+				sum+=samples[n-1];
+			}
+		}
+		return sum;
+	}
+}
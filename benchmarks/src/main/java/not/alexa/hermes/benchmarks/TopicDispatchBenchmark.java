@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import not.alexa.hermes.HermesApi;
+import not.alexa.hermes.IllegalTopicException;
+import not.alexa.hermes.TopicTrie;
+import not.alexa.netobjects.BaseException;
+import not.alexa.netobjects.Context;
+
+/**
+ * Resolution of inbound topics. {@link #resolve()} measures the topic trie alone with a varying number of registered wildcard topics,
+ * {@link #receivedIntent()} and {@link #receivedUnknown()} the complete {@code HermesApi.received(String,byte[])} path.
+ * 
+ * @author notalexa
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicDispatchBenchmark {
+	private static final String[] TOPICS= {
+		"hermes/intent/lightsOn",
+		"hermes/hotword/wakeup/detected",
+		"hermes/audioServer/kitchen/audioFrame",
+		"hermes/audioServer/kitchen/playBytes/0815",
+		"hermes/audioServer/kitchen/playFinished",
+		"hermes/asr/kitchen/session/audioCaptured",
+		"extension/site17/topic/value",
+		"rhasspy/unknown/topic",
+	};
+
+	@Param({"10","100"})
+	int registrations;
+
+	private TopicTrie<String> trie;
+	private DispatchApi api;
+	private byte[] intent;
+	private int index;
+
+	@Setup
+	public void setup() throws BaseException {
+		trie=new TopicTrie<String>()
+			.put("hermes/intent/#","NLUIntent")
+			.put("hermes/hotword/+/detected","HotwordDetected")
+			.put("rhasspy/nlu/+/trainSuccess","TrainSuccess")
+			.put("rhasspy/asr/+/trainSuccess","TrainSuccess")
+			.put("hermes/asr/+/+/audioCaptured","AudioCaptured")
+			.put("hermes/audioServer/+/playFinished","AudioPlayFinished")
+			.put("hermes/audioServer/+/playBytes/+","AudioPlayBytes")
+			.put("hermes/audioServer/+/audioFrame","AudioFrame")
+			.put("hermes/audioServer/+/+/audioSessionFrame","AudioSessionFrame");
+		for(int i=0;i<registrations;i++) {
+			trie.put("extension/site"+i+"/+/value","Extension"+i);
+		}
+		api=new DispatchApi(Context.createRootContext());
+		intent=api.encode(Messages.createIntent());
+	}
+
+	@Benchmark
+	public String resolve() {
+		index=(index+1)&7;
+		return trie.get(TOPICS[index]);
+	}
+
+	@Benchmark
+	public void receivedIntent() throws BaseException, IllegalTopicException {
+		api.dispatch("hermes/intent/lightsOn",intent);
+	}
+
+	@Benchmark
+	public void receivedUnknown() throws BaseException, IllegalTopicException {
+		api.dispatch("rhasspy/unknown/topic",intent);
+	}
+
+	static class DispatchApi extends HermesApi {
+		DispatchApi(Context context) {
+			super(context);
+		}
+
+		void dispatch(String topic,byte[] data) throws BaseException, IllegalTopicException {
+			received(topic,data);
+		}
+	}
+}
@@ -92,6 +92,7 @@ public enum Feature {
 	}),
 	AudioOutput(new Entry[] {
 		new Entry("hermes/audioServer/<siteId>/playFinished",null),
+		new Entry("hermes/audioServer/<siteId>/streamFinished",null),
 		new Entry("hermes/error/audioServer/play",AudioPlayError.class),
 	},new Entry[] {
 		new Entry("hermes/audioServer/toggleOn",AudioToggleOn.class),
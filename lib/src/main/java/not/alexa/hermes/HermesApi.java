@@ -15,7 +15,7 @@
  */
 package not.alexa.hermes;
 
-import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -24,9 +24,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
@@ -39,8 +39,10 @@ import not.alexa.hermes.audio.AudioDevices;
 import not.alexa.hermes.audio.AudioDevicesRequest;
 import not.alexa.hermes.audio.AudioFrame;
 import not.alexa.hermes.audio.AudioPlayBytes;
+import not.alexa.hermes.audio.AudioPlayBytesStreaming;
 import not.alexa.hermes.audio.AudioPlayFinished;
 import not.alexa.hermes.audio.AudioSessionFrame;
+import not.alexa.hermes.audio.AudioStreamFinished;
 import not.alexa.hermes.audio.AudioToggleOff;
 import not.alexa.hermes.audio.AudioToggleOn;
 import not.alexa.hermes.dialogue.Configure;
@@ -101,20 +103,25 @@ public class HermesApi {
 	public static final Slot[] NO_SLOTS=new Slot[0];
 	public static final AsrToken[][] NO_ASR_TOKENS=new AsrToken[0][0];
 	public static final Device[] NO_DEVICE=new Device[0];
+	/**
+	 * The default timeout for answers in milliseconds.
+	 */
+	public static final long ANSWER_TIMEOUT=1000;
+	private static final TimingWheel ANSWER_TIMER=new TimingWheel("hermes-answer-timer",10,TimeUnit.MILLISECONDS,512);
 
 	private YamlCodingScheme prototype=JsonCodingScheme.RESTRICTED_SCHEME.newBuilder().setIndent("","").build();
-	private Map<Class<?>,CodingScheme> schemes=new HashMap<>();
+	private Map<Class<?>,CodingScheme> schemes=new ConcurrentHashMap<>();
 	private Context context;
 	protected String siteId;
 	private Feature[] features;
 	protected String[] topics;
-	Map<String,Class<? extends HermesMessage<?>>> classMap=new HashMap<>();
-	private Map<String,PendingAnswer<?>> pendingAnswers=new HashMap<>();
-	private Set<Class<?>> loadedClasses=new HashSet<>();
-	private Map<Class<? extends HermesMessage<?>>,Binary<?>> binaryPrototypes=new HashMap<>();
+	Map<String,Class<? extends HermesMessage<?>>> classMap=new ConcurrentHashMap<>();
+	private Map<String,PendingAnswer<?>> pendingAnswers=new ConcurrentHashMap<>();
+	private Set<Class<?>> loadedClasses=ConcurrentHashMap.newKeySet();
+	private Map<Class<? extends HermesMessage<?>>,Binary<?>> binaryPrototypes=new ConcurrentHashMap<>();
 	private HermesComponent[] loadedComponents;
 	protected Map<String,Class<? extends HermesMessage<?>>> extensions=new HashMap<>();
-	private List<TopicMatcher> topicMatchers=new ArrayList<>();
+	private TopicTrie<Class<? extends HermesMessage<?>>> topicTrie=new TopicTrie<>();
 	protected Map<String,Subscriber> subscribers=new HashMap<>();
 
 	/**
@@ -201,10 +208,22 @@ public class HermesApi {
 				if(extension.getKey().indexOf('+')<0&&extension.getKey().indexOf('#')<0) {
 					classMap.put(extension.getKey(), extension.getValue());
 				} else {
-					topicMatchers.add(new TopicMatcher(extension.getKey(),extension.getValue()));
+					topicTrie.put(extension.getKey(),extension.getValue());
 				}
 			}
 		}
+		// Registered last: The builtin topics take precedence over extensions with the same filter
+		topicTrie.put("hermes/intent/#",NLUIntent.class)
+			.put("hermes/hotword/+/detected",HotwordDetected.class)
+			.put("rhasspy/nlu/+/trainSuccess",TrainSuccess.class)
+			.put("rhasspy/asr/+/trainSuccess",not.alexa.hermes.asr.TrainSuccess.class)
+			.put("hermes/asr/+/+/audioCaptured",AudioCaptured.class)
+			.put("hermes/audioServer/+/playFinished",AudioPlayFinished.class)
+			.put("hermes/audioServer/+/streamFinished",AudioStreamFinished.class)
+			.put("hermes/audioServer/+/playBytes/+",AudioPlayBytes.class)
+			.put("hermes/audioServer/+/playBytesStreaming/+/+/+",AudioPlayBytesStreaming.class)
+			.put("hermes/audioServer/+/audioFrame",AudioFrame.class)
+			.put("hermes/audioServer/+/+/audioSessionFrame",AudioSessionFrame.class);
 		if(siteId!=null&&loader.hasOverlays(FeaturesRequest.class)) {
 			features.add(Feature.Features.initServer(siteId,topics, classMap));
 		}
@@ -268,7 +287,7 @@ public class HermesApi {
 		if(loader.hasOverlays(AudioFrame.class)||loader.hasOverlays(AudioSessionFrame.class)) {
 			Feature.AudioInput.initClient(siteId,topics, classMap);
 		}
-		if(loader.hasOverlays(AudioPlayFinished.class)) {
+		if(loader.hasOverlays(AudioPlayFinished.class)||loader.hasOverlays(AudioStreamFinished.class)) {
 			Feature.AudioOutput.initClient(siteId,topics, classMap);
 		}
 		if(siteId!=null&&loader.hasOverlays(AudioToggleOn.class)&&loader.hasOverlays(AudioToggleOff.class)) {
@@ -284,6 +303,17 @@ public class HermesApi {
 		this.features=features.toArray(new Feature[features.size()]);
 		this.topics=topics.toArray(new String[topics.size()]);
 		this.loadedClasses.addAll(classMap.values());
+		// Prepare the coding schemes of all known messages. In steady state, encoding and decoding never builds a scheme.
+		for(Class<? extends HermesMessage<?>> clazz:classMap.values()) {
+			getScheme(clazz);
+		}
+		for(Class<? extends HermesMessage<?>> clazz:topicTrie.values()) {
+			if(Binary.class.isAssignableFrom(clazz)) {
+				getBinaryPrototype(clazz);
+			} else {
+				getScheme(clazz);
+			}
+		}
 		for(HermesComponent component:components) {
 			component.startup(this,context);
 		}
@@ -291,40 +321,18 @@ public class HermesApi {
 	
 	protected void received(String topic,byte[] data) throws BaseException, IllegalTopicException {
 		Class<? extends HermesMessage<?>> hermesClass=classMap.get(topic);
-		HermesMessage<?> msg=null;
 		if(hermesClass==null) {
-			if(topic.startsWith("hermes/intent/")) {
-				hermesClass=NLUIntent.class;
-			} else if(topic.startsWith("hermes/hotword/")&&topic.endsWith("/detected")) {
-				hermesClass=HotwordDetected.class;
-			} else if(topic.startsWith("rhasspy/nlu/")&&topic.endsWith("/trainSuccess")) {
-				hermesClass=TrainSuccess.class;
-			} else if(topic.startsWith("rhasspy/asr/")&&topic.endsWith("/trainSuccess")) {
-				hermesClass=not.alexa.hermes.asr.TrainSuccess.class;
-			} else if(topic.startsWith("hermes/asr/")&&topic.endsWith("/audioCaptured")) {
-				receivedBinary(topic,AudioCaptured.class,data);
-			} else if(topic.startsWith("hermes/audioServer")) {
-				if(topic.endsWith("/playFinished")) {
-					hermesClass=AudioPlayFinished.class;
-				} else if(topic.indexOf("/playBytes/")>0) {
-					receivedBinary(topic, AudioPlayBytes.class, data);
-				} else if(topic.endsWith("/audioFrame")) {
-					receivedBinary(topic, AudioFrame.class, data);
-				} else if(topic.endsWith("/audioSessionFrame")) {
-					receivedBinary(topic, AudioSessionFrame.class, data);
-				}
-			} else for(TopicMatcher matcher:topicMatchers) {
-				if(matcher.matches(topic)) {
-					hermesClass=matcher.clazz;
-					break;
-				}
-			}
+			hermesClass=topicTrie.get(topic);
 		}
 		if(hermesClass!=null) {
-			msg=getScheme(hermesClass).createDecoder(context, data).decode(hermesClass);
-		}
-		if(msg!=null) {
-			received(msg.forTopic(topic));
+			if(Binary.class.isAssignableFrom(hermesClass)) {
+				receivedBinary(topic,hermesClass,data);
+			} else {
+				HermesMessage<?> msg=getScheme(hermesClass).createDecoder(context, data).decode(hermesClass);
+				if(msg!=null) {
+					received(msg.forTopic(topic));
+				}
+			}
 		}
 	}
 	
@@ -339,23 +347,16 @@ public class HermesApi {
 	}
 	
 	private void receivedBinary(String topic, Class<? extends HermesMessage<?>> clazz, byte[] data) throws BaseException,IllegalTopicException {
-		Binary<?> prototype=binaryPrototypes.computeIfAbsent(clazz,(c)->{
-			try {
-				return getScheme(clazz).createDecoder(context,"{}".getBytes()).decode(Binary.class);
-			} catch(Throwable t) {
-				return null;
-			}
-		});
+		Binary<?> prototype=getBinaryPrototype(clazz);
 		if(prototype!=null) {
-			prototype=prototype.forData(data);
-			received(prototype.forData(data).forTopic(topic));
+			received(prototype.forPayload(topic,data));
 		}
 	}
 
 	protected void received(HermesMessage<?> msg) throws BaseException {
 		if(msg instanceof RequestAnswer) {
 			String id=((RequestAnswer)msg).getId();
-			PendingAnswer<?> answer=pendingAnswers.get(id);
+			PendingAnswer<?> answer=id==null?null:pendingAnswers.get(id);
 			if(answer!=null) {
 				answer.set(msg);
 			}
@@ -363,11 +364,25 @@ public class HermesApi {
 		msg.received(this);
 	}
 	
-	private synchronized CodingScheme getScheme(@SuppressWarnings("rawtypes") Class<? extends HermesMessage> clazz) {
+	private Binary<?> getBinaryPrototype(Class<? extends HermesMessage<?>> clazz) {
+		Binary<?> prototype=binaryPrototypes.get(clazz);
+		if(prototype==null) {
+			prototype=binaryPrototypes.computeIfAbsent(clazz,(c)->{
+				try {
+					return getScheme(clazz).createDecoder(context,"{}".getBytes()).decode(Binary.class);
+				} catch(Throwable t) {
+					return null;
+				}
+			});
+		}
+		return prototype;
+	}
+	
+	private CodingScheme getScheme(@SuppressWarnings("rawtypes") Class<? extends HermesMessage> clazz) {
+		// Plain get first: computeIfAbsent may lock even if the scheme is present
 		CodingScheme scheme=schemes.get(clazz);
 		if(scheme==null) {
-			scheme=prototype.newBuilder().setRootType(clazz).build();
-			schemes.put(clazz, scheme);
+			scheme=schemes.computeIfAbsent(clazz,(c)->prototype.newBuilder().setRootType(c).build());
 		}
 		return scheme;
 	}
@@ -558,26 +573,62 @@ public class HermesApi {
 	 * @param msg the request
 	 * @param answerType the class of the answer
 	 * @return the answer to the request
-	 * @throws BaseException if an error occurs (especially a timeout error after 0.5 seconds).
-	 * 
+	 * @throws BaseException if an error occurs (especially a timeout error after {@value #ANSWER_TIMEOUT} milliseconds).
+	 * @see #publishForAnswer(HermesRequest, Class, long, TimeUnit)
 	 */
 	public <R extends HermesRequest&HermesMessage<?>, T extends RequestAnswer&HermesMessage<?>> T publishForAnswer(R msg,Class<T> answerType) throws BaseException {
+		try {
+			return publishForAnswer(msg,answerType,ANSWER_TIMEOUT,TimeUnit.MILLISECONDS).get();
+		} catch(ExecutionException e) {
+			return BaseException.throwException(e.getCause());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BaseException(BaseException.GENERAL, "Timeout");
+		}
+	}
+
+	/**
+	 * Method to publish a hermes message expecting an answer without blocking the caller. The first answer completes the future.
+	 * If no answer arrives in time, the future completes exceptionally with a timeout error. In any case, the request is
+	 * forgotten when the future completes (including cancellation of the future). Timeouts are handled by one timer thread
+	 * for all requests, so pending requests don't occupy threads. Note that dependent actions of the future run on the thread
+	 * receiving the answer (or on the timer thread) and should not block.
+	 * 
+	 * @param <R> the type of the request
+	 * @param <T> the type of the answer
+	 * @param msg the request
+	 * @param answerType the class of the answer
+	 * @param timeout the timeout
+	 * @param unit the unit of the timeout
+	 * @return a future completed with the answer to the request
+	 */
+	public <R extends HermesRequest&HermesMessage<?>, T extends RequestAnswer&HermesMessage<?>> CompletableFuture<T> publishForAnswer(R msg,Class<T> answerType,long timeout,TimeUnit unit) {
 		String id=createId();
 		((HermesRequest)msg).setId(id);
-		if(!loadedClasses.contains(answerType)) {
-			String topic=Feature.findTopic(answerType);
-			if(topic!=null) {
-				classMap.put(topic, answerType);
-				loadedClasses.add(answerType);
-				addTopic(topic);
-			} else {
-				throw new BaseException(BaseException.BAD_REQUEST,answerType.getName()+" has no registered topic");
+		PendingAnswer<T> answer=new PendingAnswer<T>();
+		try {
+			if(!loadedClasses.contains(answerType)) {
+				String topic=Feature.findTopic(answerType);
+				if(topic!=null) {
+					getScheme(answerType);
+					classMap.put(topic, answerType);
+					loadedClasses.add(answerType);
+					addTopic(topic);
+				} else {
+					throw new BaseException(BaseException.BAD_REQUEST,answerType.getName()+" has no registered topic");
+				}
 			}
+			pendingAnswers.put(id, answer);
+			TimingWheel.Timeout expiry=ANSWER_TIMER.schedule(()->answer.completeExceptionally(new BaseException(BaseException.GENERAL, "Timeout")),timeout,unit);
+			answer.whenComplete((result,t)->{
+				pendingAnswers.remove(id,answer);
+				expiry.cancel();
+			});
+			publish(msg);
+		} catch(Throwable t) {
+			answer.completeExceptionally(t);
 		}
-		PendingAnswer<T> answer;
-		pendingAnswers.put(id, answer=new PendingAnswer<T>(msg));
-		publish(msg);
-		return answer.await();
+		return answer;
 	}
 
 	/**
@@ -718,6 +769,8 @@ public class HermesApi {
 	
 	/**
 	 * Class representing binary data (for example {@link AudioFrame}.
+	 * <br>Received binaries share the payload of the MQTT message (no copy is made). Ids contained in the topic
+	 * (like the site id) are parsed lazily from the topic such that a received binary costs one object in addition to the payload.
 	 * 
 	 * @author notalexa
 	 *
@@ -725,6 +778,10 @@ public class HermesApi {
 	 */
 	public abstract static class Binary<T extends HermesMessage<T>> implements HermesMessage<T> {
 		protected byte[] data;
+		/**
+		 * The topic this binary was received on or {@code null} if the binary was created locally.
+		 */
+		protected String topic;
 		public Binary(byte[] data) {
 			this.data=data;
 		}
@@ -733,6 +790,14 @@ public class HermesApi {
 			return data;
 		}
 		
+		/**
+		 * 
+		 * @return a read only view of the payload (without copying the data)
+		 */
+		public ByteBuffer asBuffer() {
+			return data==null?ByteBuffer.allocate(0).asReadOnlyBuffer():ByteBuffer.wrap(data).asReadOnlyBuffer();
+		}
+		
 		public Binary<T> forData(byte[] data) {
 			try {
 				@SuppressWarnings("unchecked")
@@ -743,7 +808,63 @@ public class HermesApi {
 				return null;
 			}
 		}
-
+		
+		/**
+		 * Create the binary for a received payload. The default implementation is equivalent to
+		 * {@code forData(data).forTopic(topic)}. Subclasses should override this method to create only one copy of this binary.
+		 * 
+		 * @param topic the topic the payload was received on
+		 * @param data the payload
+		 * @return the binary
+		 * @throws IllegalTopicException if the topic doesn't match this binary
+		 */
+		public T forPayload(String topic,byte[] data) throws IllegalTopicException {
+			Binary<T> binary=forData(data);
+			return binary==null?null:binary.forTopic(topic);
+		}
+		
+		/**
+		 * Check if the topic matches the given filter. The filter may contain single level wildcards only.
+		 * 
+		 * @param topic the topic
+		 * @param filter the filter
+		 * @return {@code true} if the topic matches the filter
+		 */
+		protected static boolean matches(String topic,String filter) {
+			int t=0;
+			int l=topic.length();
+			for(int f=0;f<filter.length();f++) {
+				char c=filter.charAt(f);
+				if(c=='+') {
+					while(t<l&&topic.charAt(t)!='/') {
+						t++;
+					}
+				} else if(t<l&&topic.charAt(t)==c) {
+					t++;
+				} else {
+					return false;
+				}
+			}
+			return t==l;
+		}
+		
+		/**
+		 * 
+		 * @param topic the topic
+		 * @param index the index of the segment
+		 * @return the segment with the given index or {@code null} if the topic has less segments
+		 */
+		protected static String segment(String topic,int index) {
+			int start=0;
+			for(int i=0;i<index;i++) {
+				start=topic.indexOf('/',start)+1;
+				if(start==0) {
+					return null;
+				}
+			}
+			int end=topic.indexOf('/',start);
+			return end<0?topic.substring(start):topic.substring(start,end);
+		}
 	}
 	
 	/**
@@ -871,67 +992,13 @@ public class HermesApi {
 		String getId();
 	}
 	
-	private class PendingAnswer<T> extends WeakReference<Object> {
-		CountDownLatch latch;
-		T result;
-		
-		public PendingAnswer(Object referent) {
-			super(referent);
-			latch=new CountDownLatch(1);
-		}
-		
+	private static class PendingAnswer<T> extends CompletableFuture<T> {
 		@SuppressWarnings("unchecked")
 		private void set(Object result) {
-			this.result=(T)result;
-			latch.countDown();
-		}
-		private T await() throws BaseException {
-			try {
-				if(!latch.await(1000,TimeUnit.MILLISECONDS)) {
-					throw new BaseException(BaseException.GENERAL, "Timeout");
-				}
-			} catch(InterruptedException t) {
-				throw new BaseException(BaseException.GENERAL, "Timeout");
-			}
-			return result;
+			complete((T)result);
 		}
 	}
 
-	static class TopicMatcher {
-		String[] components;
-		boolean hasMultiLevelWildcard;
-		boolean hasEndWildcard;
-		Class<? extends HermesMessage<?>> clazz;
-		public TopicMatcher(String key, Class<? extends HermesMessage<?>> clazz) {
-			this.clazz=clazz;
-			if(key.endsWith("#")) {
-				hasEndWildcard=hasMultiLevelWildcard=true;
-				key=key.substring(0,key.length()-1);
-			} else {
-				hasEndWildcard=key.endsWith("+");
-			}
-			components=key.split("\\+");
-		}
-		
-		public boolean matches(String topic) {
-			int offset=0;
-			int c=0;
-			for(String component:components) {
-				if(topic.regionMatches(offset, component, 0,component.length())) {
-					c++;
-					int l=offset+component.length();
-					offset=topic.indexOf('/',offset+component.length());
-					if(offset<0) {
-						return c==components.length&&(hasEndWildcard||l==topic.length());
-					}
-				} else {
-					return false;
-				}
-			}
-			return hasMultiLevelWildcard;
-		}		
-	}
-	
 	/**
 	 * Subscriberinterface for a given topic (or class of topics).
 	 * 
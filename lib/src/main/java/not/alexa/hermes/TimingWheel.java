@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed timing wheel for a large number of timeouts which typically don't expire (like pending answers).
+ * Scheduling and cancelling are O(1) and don't block. Expiry is driven by one daemon thread which advances the wheel
+ * every tick (and is started with the first timeout). Timeouts expire at most one tick late and are never early.
+ * <br>Tasks run on the wheel thread and should therefore be short.
+ *
+ * @author notalexa
+ *
+ */
+public class TimingWheel {
+	private static final Logger LOGGER=LoggerFactory.getLogger(TimingWheel.class);
+	private static final int INIT=0;
+	private static final int CANCELLED=1;
+	private static final int EXPIRED=2;
+
+	private final String name;
+	private final long tickNanos;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<Entry> added=new ConcurrentLinkedQueue<>();
+	private final Queue<Entry> cancelled=new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending=new AtomicInteger();
+	private volatile Thread worker;
+	private volatile boolean stopped;
+	private volatile long startTime;
+	private long tick;
+
+	/**
+	 *
+	 * @param name the name of the wheel thread
+	 * @param tickDuration the duration of one tick
+	 * @param unit the unit of the tick duration
+	 * @param ticksPerWheel the number of buckets of the wheel (rounded up to the next power of two)
+	 */
+	public TimingWheel(String name,long tickDuration,TimeUnit unit,int ticksPerWheel) {
+		this.name=name;
+		this.tickNanos=Math.max(1,unit.toNanos(tickDuration));
+		int n=Integer.highestOneBit(Math.max(1,ticksPerWheel-1))<<1;
+		wheel=new Bucket[n];
+		for(int i=0;i<n;i++) {
+			wheel[i]=new Bucket();
+		}
+		mask=n-1;
+	}
+
+	/**
+	 * Schedule a task.
+	 *
+	 * @param task the task to run on expiry
+	 * @param delay the delay
+	 * @param unit the unit of the delay
+	 * @return the timeout which can be used to cancel the task
+	 */
+	public Timeout schedule(Runnable task,long delay,TimeUnit unit) {
+		if(stopped) {
+			throw new IllegalStateException(name+" stopped");
+		}
+		if(worker==null) {
+			start();
+		}
+		Entry entry=new Entry(task,System.nanoTime()-startTime+Math.max(0,unit.toNanos(delay)));
+		pending.incrementAndGet();
+		added.add(entry);
+		return entry;
+	}
+
+	/**
+	 *
+	 * @return the number of scheduled timeouts which are neither expired nor cancelled
+	 */
+	public int size() {
+		return pending.get();
+	}
+
+	/**
+	 * Stop the wheel. Scheduled tasks will not run.
+	 */
+	public synchronized void stop() {
+		stopped=true;
+		if(worker!=null) {
+			worker.interrupt();
+		}
+	}
+
+	private synchronized void start() {
+		if(worker==null) {
+			startTime=System.nanoTime();
+			worker=new Thread(this::run,name);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	private void run() {
+		while(!stopped) {
+			long deadline=(tick+1)*tickNanos;
+			long sleep=deadline-(System.nanoTime()-startTime);
+			if(sleep>0) try {
+				TimeUnit.NANOSECONDS.sleep(sleep);
+				continue;
+			} catch(InterruptedException e) {
+				continue;
+			}
+			removeCancelled();
+			transferAdded();
+			wheel[(int)(tick&mask)].expire(deadline);
+			tick++;
+		}
+	}
+
+	private void removeCancelled() {
+		Entry entry;
+		while((entry=cancelled.poll())!=null) {
+			if(entry.bucket!=null) {
+				entry.bucket.remove(entry);
+			}
+		}
+	}
+
+	private void transferAdded() {
+		Entry entry;
+		while((entry=added.poll())!=null) {
+			if(entry.state.get()==CANCELLED) {
+				continue;
+			}
+			long ticks=entry.deadline/tickNanos;
+			// Never schedule for a tick in the past
+			long target=Math.max(ticks,tick);
+			entry.rounds=(target-tick)/wheel.length;
+			wheel[(int)(target&mask)].add(entry);
+		}
+	}
+
+	/**
+	 * A scheduled task.
+	 */
+	public interface Timeout {
+		/**
+		 * Cancel this timeout.
+		 *
+		 * @return {@code true} if the timeout was cancelled by this call (and not expired or cancelled before)
+		 */
+		public boolean cancel();
+	}
+
+	private class Entry implements Timeout {
+		private final Runnable task;
+		private final long deadline;
+		private final AtomicInteger state=new AtomicInteger(INIT);
+		private long rounds;
+		private Entry prev;
+		private Entry next;
+		private Bucket bucket;
+
+		private Entry(Runnable task,long deadline) {
+			this.task=task;
+			this.deadline=deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if(state.compareAndSet(INIT,CANCELLED)) {
+				pending.decrementAndGet();
+				cancelled.add(this);
+				return true;
+			}
+			return false;
+		}
+
+		private void expire() {
+			if(state.compareAndSet(INIT,EXPIRED)) {
+				pending.decrementAndGet();
+				try {
+					task.run();
+				} catch(Throwable t) {
+					LOGGER.warn("Timeout task failed",t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Doubly linked list of entries. Only accessed by the wheel thread.
+	 */
+	private static class Bucket {
+		private Entry head;
+		private Entry tail;
+
+		private void add(Entry entry) {
+			entry.bucket=this;
+			if(head==null) {
+				head=tail=entry;
+			} else {
+				tail.next=entry;
+				entry.prev=tail;
+				tail=entry;
+			}
+		}
+
+		private void remove(Entry entry) {
+			if(entry.prev!=null) {
+				entry.prev.next=entry.next;
+			} else {
+				head=entry.next;
+			}
+			if(entry.next!=null) {
+				entry.next.prev=entry.prev;
+			} else {
+				tail=entry.prev;
+			}
+			entry.prev=entry.next=null;
+			entry.bucket=null;
+		}
+
+		private void expire(long deadline) {
+			Entry entry=head;
+			while(entry!=null) {
+				Entry next=entry.next;
+				if(entry.rounds<=0&&entry.deadline<=deadline) {
+					remove(entry);
+					entry.expire();
+				} else if(entry.state.get()==CANCELLED) {
+					remove(entry);
+				} else {
+					entry.rounds--;
+				}
+				entry=next;
+			}
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Segment level trie resolving topics against a set of MQTT topic filters. Filters may contain the single level wildcard {@code +}
+ * and the multi level wildcard {@code #} (as the last segment only).
+ * <br>Resolving a topic is proportional to the number of segments of the topic and independent of the number of registered filters. Segments
+ * are looked up without allocating substrings.
+ * <br>If more than one filter matches a topic, the most specific filter wins: A literal segment is preferred over {@code +} which is preferred
+ * over {@code #}. Unlike MQTT, the filter {@code a/#} doesn't match {@code a} itself (there is no hermes message published on the parent level).
+ * <p>The trie is not synchronized. It is intended to be filled once (typically on startup) and read concurrently afterwards.
+ *
+ * @author notalexa
+ *
+ * @param <T> the type of the values
+ */
+public class TopicTrie<T> {
+	private static final String[] NO_WILDCARDS=new String[0];
+	private final Node<T> root=new Node<>();
+
+	public TopicTrie() {
+	}
+
+	/**
+	 * Register a value for the given filter. A value already registered for this filter is replaced.
+	 *
+	 * @param filter the topic filter
+	 * @param value the value
+	 * @return this trie
+	 * @throws IllegalArgumentException if the filter is not a valid topic filter
+	 */
+	public TopicTrie<T> put(String filter,T value) {
+		if(value==null) {
+			throw new NullPointerException("value");
+		}
+		String[] segments=filter.split("/",-1);
+		Node<T> node=root;
+		for(int i=0;i<segments.length;i++) {
+			String segment=segments[i];
+			if("#".equals(segment)) {
+				if(i<segments.length-1) {
+					throw new IllegalArgumentException(filter);
+				}
+				if(node.multi==null) {
+					node.multi=new Node<>();
+				}
+				node=node.multi;
+			} else if("+".equals(segment)) {
+				if(node.plus==null) {
+					node.plus=new Node<>();
+				}
+				node=node.plus;
+			} else if(segment.indexOf('#')>=0||segment.indexOf('+')>=0) {
+				throw new IllegalArgumentException(filter);
+			} else {
+				node=node.add(segment);
+			}
+		}
+		node.value=value;
+		node.filter=segments;
+		return this;
+	}
+
+	/**
+	 *
+	 * @param topic the topic to resolve
+	 * @return the value of the most specific filter matching the topic or {@code null} if no filter matches
+	 */
+	public T get(String topic) {
+		Node<T> node=resolve(root,topic,0);
+		return node==null?null:node.value;
+	}
+
+	/**
+	 * Resolve the topic including the values of the wildcards.
+	 *
+	 * @param topic the topic to resolve
+	 * @return the match of the most specific filter or {@code null} if no filter matches
+	 */
+	public Match<T> match(String topic) {
+		Node<T> node=resolve(root,topic,0);
+		if(node==null) {
+			return null;
+		}
+		int n=0;
+		for(String segment:node.filter) {
+			if("+".equals(segment)||"#".equals(segment)) {
+				n++;
+			}
+		}
+		String[] wildcards=n==0?NO_WILDCARDS:new String[n];
+		int start=0;
+		n=0;
+		for(String segment:node.filter) {
+			int end=topic.indexOf('/',start);
+			if(end<0) {
+				end=topic.length();
+			}
+			if("#".equals(segment)) {
+				wildcards[n++]=topic.substring(start);
+				break;
+			} else if("+".equals(segment)) {
+				wildcards[n++]=topic.substring(start,end);
+			}
+			start=end+1;
+		}
+		return new Match<>(node.value,wildcards);
+	}
+
+	/**
+	 * 
+	 * @return the values of all registered filters
+	 */
+	public List<T> values() {
+		List<T> values=new ArrayList<>();
+		root.collect(values);
+		return values;
+	}
+
+	private Node<T> resolve(Node<T> node,String topic,int start) {
+		int end=topic.indexOf('/',start);
+		boolean last=end<0;
+		if(last) {
+			end=topic.length();
+		}
+		Node<T> next=node.child(topic,start,end);
+		if(next!=null) {
+			next=last?next.terminal():resolve(next,topic,end+1);
+			if(next!=null) {
+				return next;
+			}
+		}
+		if(node.plus!=null) {
+			next=last?node.plus.terminal():resolve(node.plus,topic,end+1);
+			if(next!=null) {
+				return next;
+			}
+		}
+		return node.multi;
+	}
+
+	/**
+	 * The result of a topic resolution.
+	 *
+	 * @author notalexa
+	 *
+	 * @param <T> the type of the value
+	 */
+	public static class Match<T> {
+		private final T value;
+		private final String[] wildcards;
+
+		private Match(T value,String[] wildcards) {
+			this.value=value;
+			this.wildcards=wildcards;
+		}
+
+		/**
+		 *
+		 * @return the value registered for the matching filter
+		 */
+		public T getValue() {
+			return value;
+		}
+
+		/**
+		 *
+		 * @return the topic segments matched by the wildcards of the filter in order of appearance. The value of a trailing {@code #}
+		 * is the remaining part of the topic.
+		 */
+		public String[] getWildcards() {
+			return wildcards;
+		}
+	}
+
+	private static final class Node<T> {
+		private String[] keys;
+		private Node<T>[] children;
+		private int size;
+		private Node<T> plus;
+		private Node<T> multi;
+		private T value;
+		private String[] filter;
+
+		private Node<T> terminal() {
+			return value==null?null:this;
+		}
+
+		private void collect(List<T> values) {
+			if(value!=null) {
+				values.add(value);
+			}
+			if(children!=null) for(Node<T> child:children) {
+				if(child!=null) {
+					child.collect(values);
+				}
+			}
+			if(plus!=null) {
+				plus.collect(values);
+			}
+			if(multi!=null) {
+				multi.collect(values);
+			}
+		}
+
+		private Node<T> child(String topic,int start,int end) {
+			if(size==0) {
+				return null;
+			}
+			int l=end-start;
+			int mask=keys.length-1;
+			for(int i=hash(topic,start,end)&mask;;i=(i+1)&mask) {
+				String key=keys[i];
+				if(key==null) {
+					return null;
+				} else if(key.length()==l&&topic.regionMatches(start,key,0,l)) {
+					return children[i];
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private Node<T> add(String segment) {
+			Node<T> child=child(segment,0,segment.length());
+			if(child==null) {
+				if(keys==null) {
+					keys=new String[4];
+					children=new Node[4];
+				} else if(2*(size+1)>keys.length) {
+					String[] oldKeys=keys;
+					Node<T>[] oldChildren=children;
+					keys=new String[2*oldKeys.length];
+					children=new Node[2*oldKeys.length];
+					for(int i=0;i<oldKeys.length;i++) {
+						if(oldKeys[i]!=null) {
+							insert(oldKeys[i],oldChildren[i]);
+						}
+					}
+				}
+				insert(segment,child=new Node<>());
+				size++;
+			}
+			return child;
+		}
+
+		private void insert(String key,Node<T> child) {
+			int mask=keys.length-1;
+			int i=hash(key,0,key.length())&mask;
+			while(keys[i]!=null) {
+				i=(i+1)&mask;
+			}
+			keys[i]=key;
+			children[i]=child;
+		}
+
+		private static int hash(String s,int start,int end) {
+			int h=0;
+			for(int i=start;i<end;i++) {
+				h=31*h+s.charAt(i);
+			}
+			return h^(h>>>16);
+		}
+	}
+}
@@ -22,6 +22,7 @@ import not.alexa.netobjects.api.ResolvableBy;
 
 @ResolvableBy("jackson")
 public class AudioCaptured extends Binary<AudioCaptured> implements HermesMessage<AudioCaptured> {
+	private static final String TOPIC="hermes/asr/+/+/audioCaptured";
 	protected String siteId;
 	protected String sessionId;
 	
@@ -37,14 +38,20 @@ public class AudioCaptured extends Binary<AudioCaptured> implements HermesMessag
 
 	@Override
 	public String getTopic() {
-		return "hermes/asr/"+siteId+"/"+sessionId+"/audioCaptured";
+		return topic==null?"hermes/asr/"+getSiteId()+"/"+getSessionId()+"/audioCaptured":topic;
 	}
 	
 	public String getSiteId() {
+		if(siteId==null&&topic!=null) {
+			siteId=segment(topic,2);
+		}
 		return siteId;
 	}
 	
 	public String getSessionId() {
+		if(sessionId==null&&topic!=null) {
+			sessionId=segment(topic,3);
+		}
 		return sessionId;
 	}
 	
@@ -53,6 +60,7 @@ public class AudioCaptured extends Binary<AudioCaptured> implements HermesMessag
 			AudioCaptured cloned=(AudioCaptured)clone();
 			cloned.sessionId=sessionId;
 			cloned.siteId=siteId;
+			cloned.topic=null;
 			return cloned;
 		} catch(Throwable t) {
 			return null;
@@ -60,15 +68,17 @@ public class AudioCaptured extends Binary<AudioCaptured> implements HermesMessag
 	}
 		
 	public AudioCaptured forTopic(String topic) throws IllegalTopicException {
-		if(topic.startsWith("hermes/asr/")&&topic.endsWith("/audioCaptured")) {
-			String siteId=topic.substring("hermes/asr/".length(),topic.length()-"/audioCaptured".length());
-			if(siteId.indexOf('/')>0) {
-				String sessionId=siteId.substring(siteId.indexOf('/')+1);
-				siteId=siteId.substring(0,sessionId.length()-2);
-				if(sessionId.indexOf('/')<0) {
-					return forIds(siteId,sessionId);
-				}
-			}
+		return forPayload(topic,data);
+	}
+
+	@Override
+	public AudioCaptured forPayload(String topic,byte[] data) throws IllegalTopicException {
+		if(matches(topic,TOPIC)) {
+			AudioCaptured captured=(AudioCaptured)forData(data);
+			captured.topic=topic;
+			captured.siteId=null;
+			captured.sessionId=null;
+			return captured;
 		}
 		throw new IllegalTopicException(topic);
 	}
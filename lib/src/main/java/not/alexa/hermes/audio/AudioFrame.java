@@ -22,6 +22,7 @@ import not.alexa.netobjects.api.ResolvableBy;
 
 @ResolvableBy("jackson")
 public class AudioFrame extends Binary<AudioFrame> implements HermesMessage<AudioFrame> {
+	private static final String TOPIC="hermes/audioServer/+/audioFrame";
 	protected String siteId;
 	
 	protected AudioFrame() {
@@ -35,10 +36,13 @@ public class AudioFrame extends Binary<AudioFrame> implements HermesMessage<Audi
 
 	@Override
 	public String getTopic() {
-		return "hermes/audioServer/"+siteId+"/audioFrame";
+		return topic==null?"hermes/audioServer/"+getSiteId()+"/audioFrame":topic;
 	}
 	
 	public String getSiteId() {
+		if(siteId==null&&topic!=null) {
+			siteId=segment(topic,2);
+		}
 		return siteId;
 	}
 	
@@ -46,6 +50,7 @@ public class AudioFrame extends Binary<AudioFrame> implements HermesMessage<Audi
 		try {
 			AudioFrame clone=(AudioFrame)clone();
 			clone.siteId=siteId;
+			clone.topic=null;
 			return clone;
 		} catch(Throwable t) {
 			return null;
@@ -53,11 +58,16 @@ public class AudioFrame extends Binary<AudioFrame> implements HermesMessage<Audi
 	}
 	
 	public AudioFrame forTopic(String topic) throws IllegalTopicException {
-		if(topic.startsWith("hermes/audioServer/")&&topic.endsWith("/audioFrame")) {
-			String siteId=topic.substring("hermes/audioServer/".length(),topic.length()-"/audioFrame".length());
-			if(siteId.indexOf('/')<0) {
-				return forSite(siteId);
-			}
+		return forPayload(topic,data);
+	}
+
+	@Override
+	public AudioFrame forPayload(String topic,byte[] data) throws IllegalTopicException {
+		if(matches(topic,TOPIC)) {
+			AudioFrame frame=(AudioFrame)forData(data);
+			frame.topic=topic;
+			frame.siteId=null;
+			return frame;
 		}
 		throw new IllegalTopicException(topic);
 	}
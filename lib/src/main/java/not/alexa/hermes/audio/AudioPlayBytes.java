@@ -22,6 +22,7 @@ import not.alexa.netobjects.api.ResolvableBy;
 
 @ResolvableBy("jackson")
 public class AudioPlayBytes extends Binary<AudioPlayBytes> implements HermesMessage<AudioPlayBytes> {
+	private static final String TOPIC="hermes/audioServer/+/playBytes/+";
 	protected String siteId;
 	protected String requestId;
 	
@@ -37,19 +38,25 @@ public class AudioPlayBytes extends Binary<AudioPlayBytes> implements HermesMess
 
 	@Override
 	public String getTopic() {
-		return "hermes/audioServer/"+siteId+"/playBytes/"+requestId;
+		return topic==null?"hermes/audioServer/"+getSiteId()+"/playBytes/"+getRequestId():topic;
 	}
 	
 	public String getSiteId() {
+		if(siteId==null&&topic!=null) {
+			siteId=segment(topic,2);
+		}
 		return siteId;
 	}
 
 	public String getRequestId() {
+		if(requestId==null&&topic!=null) {
+			requestId=segment(topic,4);
+		}
 		return requestId;
 	}
 	
 	public AudioPlayFinished createAnswer() {
-		return new AudioPlayFinished(siteId,requestId);
+		return new AudioPlayFinished(getSiteId(),getRequestId());
 	}
 
 	public AudioPlayBytes forIds(String siteId,String requestId) {
@@ -57,6 +64,7 @@ public class AudioPlayBytes extends Binary<AudioPlayBytes> implements HermesMess
 			AudioPlayBytes clone=(AudioPlayBytes)clone();
 			clone.siteId=siteId;
 			clone.requestId=requestId;
+			clone.topic=null;
 			return clone;
 		} catch(Throwable t) {
 			return null;
@@ -64,14 +72,17 @@ public class AudioPlayBytes extends Binary<AudioPlayBytes> implements HermesMess
 	}
 	
 	public AudioPlayBytes forTopic(String topic) throws IllegalTopicException {
-		if(topic.startsWith("hermes/audioServer/")&&topic.indexOf("/playBytes/")>0) {
-			String siteId=topic.substring("hermes/audioServer/".length(),topic.indexOf("/playBytes/"));
-			if(siteId.indexOf('/')<0) {
-				String requestId=topic.substring("hermes/audioServer/".length()+siteId.length()+"/playBytes/".length());
-				if(requestId.indexOf('/')<0) {
-					return forIds(siteId, requestId);
-				}
-			}
+		return forPayload(topic,data);
+	}
+
+	@Override
+	public AudioPlayBytes forPayload(String topic,byte[] data) throws IllegalTopicException {
+		if(matches(topic,TOPIC)) {
+			AudioPlayBytes bytes=(AudioPlayBytes)forData(data);
+			bytes.topic=topic;
+			bytes.siteId=null;
+			bytes.requestId=null;
+			return bytes;
 		}
 		throw new IllegalTopicException(topic);
 	}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.audio;
+
+import not.alexa.hermes.HermesApi.Binary;
+import not.alexa.hermes.HermesMessage;
+import not.alexa.hermes.IllegalTopicException;
+import not.alexa.netobjects.api.ResolvableBy;
+
+/**
+ * One chunk of audio played as part of a stream of chunks. Every chunk is a complete WAV file. The chunks of a request are numbered sequentially starting
+ * with {@code 0} and the last chunk is marked. The audio server answers with an {@link AudioPlayFinished} (see {@link #createAnswer()}) after the last chunk was played.
+ */
+@ResolvableBy("jackson")
+public class AudioPlayBytesStreaming extends Binary<AudioPlayBytesStreaming> implements HermesMessage<AudioPlayBytesStreaming> {
+	private static final String TOPIC="hermes/audioServer/+/playBytesStreaming/+/+/+";
+	protected String siteId;
+	protected String requestId;
+	protected int chunkIndex=-1;
+	protected Boolean lastChunk;
+
+	protected AudioPlayBytesStreaming() {
+		super(null);
+	}
+
+	public AudioPlayBytesStreaming(String siteId,String requestId,int chunkIndex,boolean lastChunk,byte[] data) {
+		super(data);
+		this.siteId=siteId;
+		this.requestId=requestId;
+		this.chunkIndex=chunkIndex;
+		this.lastChunk=lastChunk;
+	}
+
+	@Override
+	public String getTopic() {
+		return topic==null?"hermes/audioServer/"+getSiteId()+"/playBytesStreaming/"+getRequestId()+"/"+getChunkIndex()+"/"+(isLastChunk()?1:0):topic;
+	}
+
+	public String getSiteId() {
+		if(siteId==null&&topic!=null) {
+			siteId=segment(topic,2);
+		}
+		return siteId;
+	}
+
+	public String getRequestId() {
+		if(requestId==null&&topic!=null) {
+			requestId=segment(topic,4);
+		}
+		return requestId;
+	}
+
+	public int getChunkIndex() {
+		if(chunkIndex<0&&topic!=null) try {
+			chunkIndex=Integer.parseInt(segment(topic,5));
+		} catch(NumberFormatException e) {
+		}
+		return chunkIndex;
+	}
+
+	public boolean isLastChunk() {
+		if(lastChunk==null&&topic!=null) {
+			String segment=segment(topic,6);
+			lastChunk="1".equals(segment)||"true".equalsIgnoreCase(segment);
+		}
+		return lastChunk!=null&&lastChunk;
+	}
+
+	public AudioPlayFinished createAnswer() {
+		return new AudioPlayFinished(getSiteId(),getRequestId());
+	}
+
+	public AudioPlayBytesStreaming forTopic(String topic) throws IllegalTopicException {
+		return forPayload(topic,data);
+	}
+
+	@Override
+	public AudioPlayBytesStreaming forPayload(String topic,byte[] data) throws IllegalTopicException {
+		if(matches(topic,TOPIC)) {
+			AudioPlayBytesStreaming bytes=(AudioPlayBytesStreaming)forData(data);
+			bytes.topic=topic;
+			bytes.siteId=null;
+			bytes.requestId=null;
+			bytes.chunkIndex=-1;
+			bytes.lastChunk=null;
+			return bytes;
+		}
+		throw new IllegalTopicException(topic);
+	}
+}
@@ -22,6 +22,7 @@ import not.alexa.netobjects.api.ResolvableBy;
 
 @ResolvableBy("jackson")
 public class AudioSessionFrame extends Binary<AudioSessionFrame> implements HermesMessage<AudioSessionFrame> {
+	private static final String TOPIC="hermes/audioServer/+/+/audioSessionFrame";
 	protected String siteId;
 	protected String sessionId;
 	
@@ -37,14 +38,20 @@ public class AudioSessionFrame extends Binary<AudioSessionFrame> implements Herm
 
 	@Override
 	public String getTopic() {
-		return "hermes/audioServer/"+siteId+"/"+sessionId+"/audioSessionFrame";
+		return topic==null?"hermes/audioServer/"+getSiteId()+"/"+getSessionId()+"/audioSessionFrame":topic;
 	}
 	
 	public String getSiteId() {
+		if(siteId==null&&topic!=null) {
+			siteId=segment(topic,2);
+		}
 		return siteId;
 	}
 	
 	public String getSessionId() {
+		if(sessionId==null&&topic!=null) {
+			sessionId=segment(topic,3);
+		}
 		return sessionId;
 	}
 	
@@ -53,6 +60,7 @@ public class AudioSessionFrame extends Binary<AudioSessionFrame> implements Herm
 			AudioSessionFrame clone=(AudioSessionFrame)clone();
 			clone.siteId=siteId;
 			clone.sessionId=sessionId;
+			clone.topic=null;
 			return clone;
 		} catch(Throwable t) {
 			return null;
@@ -60,15 +68,17 @@ public class AudioSessionFrame extends Binary<AudioSessionFrame> implements Herm
 	}
 	
 	public AudioSessionFrame forTopic(String topic) throws IllegalTopicException {
-		if(topic.startsWith("hermes/audioServer/")&&topic.endsWith("/audioSessionFrame")) {
-			String siteId=topic.substring("hermes/audioServer/".length(),topic.length()-"/audioSessionFrame".length());
-			if(siteId.indexOf('/')>0) {
-				String sessionId=siteId.substring(siteId.indexOf('/')+1);
-				siteId=siteId.substring(0,sessionId.length()-2);
-				if(sessionId.indexOf('/')<0) {
-					return forIds(siteId,sessionId);
-				}
-			}
+		return forPayload(topic,data);
+	}
+
+	@Override
+	public AudioSessionFrame forPayload(String topic,byte[] data) throws IllegalTopicException {
+		if(matches(topic,TOPIC)) {
+			AudioSessionFrame frame=(AudioSessionFrame)forData(data);
+			frame.topic=topic;
+			frame.siteId=null;
+			frame.sessionId=null;
+			return frame;
 		}
 		throw new IllegalTopicException(topic);
 	}
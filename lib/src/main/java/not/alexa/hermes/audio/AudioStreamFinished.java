@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.audio;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import not.alexa.hermes.HermesMessage;
+import not.alexa.hermes.IllegalTopicException;
+
+/**
+ * Sent by the audio server (Rhasspy) after the last chunk of an {@link AudioPlayBytesStreaming} request was played. The request is
+ * identified by {@code id}.
+ */
+public class AudioStreamFinished implements HermesMessage<AudioStreamFinished> {
+	@JsonProperty protected String siteId;
+	@JsonProperty protected String id;
+	@JsonProperty protected String sessionId;
+
+	@JsonCreator
+	public AudioStreamFinished(@JsonProperty("id") String id,@JsonProperty("sessionId") String sessionId) {
+		this("default",id,sessionId);
+	}
+
+	public AudioStreamFinished(String siteId,String id,String sessionId) {
+		this.siteId=siteId;
+		this.id=id;
+		this.sessionId=sessionId;
+	}
+
+	@Override
+	public String getTopic() {
+		return "hermes/audioServer/"+siteId+"/streamFinished";
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	public AudioStreamFinished forSite(String siteId) {
+		try {
+			AudioStreamFinished clone=(AudioStreamFinished)clone();
+			clone.siteId=siteId;
+			return clone;
+		} catch(Throwable t) {
+			return null;
+		}
+	}
+
+	public AudioStreamFinished forTopic(String topic) throws IllegalTopicException {
+		if(topic.startsWith("hermes/audioServer/")&&topic.endsWith("/streamFinished")) {
+			String siteId=topic.substring("hermes/audioServer/".length(),topic.length()-"/streamFinished".length());
+			if(siteId.indexOf('/')<0) {
+				return forSite(siteId);
+			}
+		}
+		throw new IllegalTopicException(topic);
+	}
+}
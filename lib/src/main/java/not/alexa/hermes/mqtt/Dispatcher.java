@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.mqtt;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import not.alexa.hermes.TopicTrie;
+
+/**
+ * Dispatcher for inbound MQTT messages. Messages are processed by a fixed number of workers while messages with the same
+ * key are processed strictly in order of arrival. The key is either the site id (if the topic contains the site id as for
+ * example in {@code hermes/audioServer/<siteId>/playBytes/<requestId>}) or the topic itself.
+ * <br>Audio frames ({@code hermes/audioServer/<siteId>/audioFrame} and {@code hermes/asr/<siteId>/<sessionId>/audioCaptured}) are keyed by their topic
+ * and have a bounded queue. If this queue is full, the {@link Policy} decides how to proceed. All other messages are never dropped (their queue is
+ * unbounded). Since messages of one key are processed sequentially, a handler must not wait for the answer to a message with the same key.
+ * <br>After {@link #shutdown()}, arriving messages are dropped.
+ * <p>The dispatcher can be configured in the {@link HermesServer} setup:
+ * <pre>
+ * dispatcher:
+ *   workers: 4          # optional, the number of workers
+ *   queueSize: 256      # optional, the maximal number of pending audio frames per topic
+ *   policy: dropOldest  # optional, one of block, dropOldest or dropNewest (for audio frames)
+ *   ordering: site      # optional, one of site or topic
+ * </pre>
+ *
+ * @author notalexa
+ *
+ */
+public class Dispatcher {
+	private static final Logger LOGGER=LoggerFactory.getLogger(Dispatcher.class);
+	private static final int BATCH_SIZE=16;
+	private static final TopicTrie<Boolean> SITE_TOPICS=new TopicTrie<Boolean>()
+			.put("hermes/audioServer/+/#",true)
+			.put("hermes/asr/+/+/audioCaptured",true)
+			.put("rhasspy/asr/+/#",true)
+			.put("rhasspy/nlu/+/#",true);
+	private static final TopicTrie<Boolean> FRAME_TOPICS=new TopicTrie<Boolean>()
+			.put("hermes/audioServer/+/audioFrame",true)
+			.put("hermes/asr/+/+/audioCaptured",true);
+
+	/**
+	 * What to do if the queue of audio frames is full.
+	 */
+	public enum Policy {
+		/**
+		 * Block the MQTT callback until the queue has space again. This stalls the delivery of <b>all</b> messages (of every key).
+		 */
+		block,
+		/**
+		 * Drop the oldest pending frame.
+		 */
+		dropOldest,
+		/**
+		 * Drop the arriving frame.
+		 */
+		dropNewest;
+	}
+
+	/**
+	 * How to determine the key of a message.
+	 */
+	public enum Ordering {
+		/**
+		 * Use the site id if the topic contains it and the topic otherwise.
+		 */
+		site,
+		/**
+		 * Use the topic.
+		 */
+		topic;
+	}
+
+	@JsonProperty(defaultValue = "4") int workers;
+	@JsonProperty(defaultValue = "256") int queueSize;
+	@JsonProperty(defaultValue = "dropOldest") Policy policy;
+	@JsonProperty(defaultValue = "site") Ordering ordering;
+
+	private final ConcurrentHashMap<String,Lane> lanes=new ConcurrentHashMap<>();
+	private final AtomicLong dropped=new AtomicLong();
+	private volatile ThreadPoolExecutor executor;
+	private volatile boolean closed;
+
+	/**
+	 * Create a dispatcher with 4 workers, 256 pending audio frames per topic, the {@link Policy#dropOldest} policy and ordering by site.
+	 */
+	public Dispatcher() {
+		this(4,256,Policy.dropOldest,Ordering.site);
+	}
+
+	/**
+	 *
+	 * @param workers the number of workers
+	 * @param queueSize the maximal number of pending audio frames per topic
+	 * @param policy the policy if the queue of audio frames is full
+	 * @param ordering how to determine the key of a message
+	 */
+	public Dispatcher(int workers,int queueSize,Policy policy,Ordering ordering) {
+		this.workers=workers;
+		this.queueSize=queueSize;
+		this.policy=policy;
+		this.ordering=ordering;
+	}
+
+	/**
+	 * Execute the given task after all pending tasks with the same key. The task is dropped if the dispatcher is shut down.
+	 *
+	 * @param topic the topic of the message the task handles
+	 * @param task the task
+	 */
+	public void execute(String topic,Runnable task) {
+		String key=getKey(topic);
+		while(!closed) {
+			if(lanes.computeIfAbsent(key,Lane::new).add(task)) {
+				return;
+			}
+		}
+		dropped.incrementAndGet();
+	}
+
+	/**
+	 *
+	 * @return the number of messages dropped so far
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Shutdown the workers. Pending messages are discarded and blocked callbacks are released. The dispatcher cannot be restarted.
+	 */
+	public synchronized void shutdown() {
+		closed=true;
+		if(executor!=null) {
+			executor.shutdownNow();
+			executor=null;
+		}
+		for(Lane lane:lanes.values()) {
+			lane.close();
+		}
+		lanes.clear();
+	}
+
+	/**
+	 *
+	 * @return {@code true} if the dispatcher is shut down
+	 */
+	public boolean isShutdown() {
+		return closed;
+	}
+
+	protected String getKey(String topic) {
+		if(ordering==Ordering.site&&FRAME_TOPICS.match(topic)==null) {
+			TopicTrie.Match<Boolean> match=SITE_TOPICS.match(topic);
+			if(match!=null) {
+				return match.getWildcards()[0];
+			}
+		}
+		return topic;
+	}
+
+	/**
+	 *
+	 * @return the executor or {@code null} if the dispatcher is shut down
+	 */
+	private ThreadPoolExecutor getExecutor() {
+		ThreadPoolExecutor executor=this.executor;
+		if(executor==null) synchronized(this) {
+			if((executor=this.executor)==null&&!closed) {
+				AtomicInteger count=new AtomicInteger(1);
+				// Each lane is queued at most once, so the queue is bounded by the number of active keys
+				executor=new ThreadPoolExecutor(workers,workers,60,TimeUnit.SECONDS,new LinkedBlockingQueue<>(),runnable->new Thread(runnable, "mqtt-worker-"+count.getAndIncrement()));
+				executor.allowCoreThreadTimeOut(true);
+				this.executor=executor;
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * The pending tasks of one key. A lane is scheduled on the executor at most once at any time which guarantees the ordering.
+	 * Idle lanes are closed and removed.
+	 */
+	private class Lane implements Runnable {
+		private final String key;
+		private final ArrayDeque<Runnable> tasks=new ArrayDeque<>();
+		// Only frames are bounded (and dropped)
+		private final boolean frames;
+		private boolean scheduled;
+		private boolean closed;
+
+		Lane(String key) {
+			this.key=key;
+			frames=FRAME_TOPICS.match(key)!=null;
+		}
+
+		synchronized boolean add(Runnable task) {
+			if(closed) {
+				return false;
+			}
+			while(frames&&tasks.size()>=queueSize) {
+				switch(policy) {
+					case dropNewest:
+						dropped.incrementAndGet();
+						return true;
+					case dropOldest:
+						tasks.poll();
+						dropped.incrementAndGet();
+						break;
+					default:
+						try {
+							wait();
+						} catch(InterruptedException e) {
+							Thread.currentThread().interrupt();
+							dropped.incrementAndGet();
+							return true;
+						}
+						if(closed) {
+							return false;
+						}
+				}
+			}
+			tasks.add(task);
+			if(!scheduled) {
+				if(!schedule()) {
+					close();
+					return false;
+				}
+				scheduled=true;
+			}
+			return true;
+		}
+
+		private boolean schedule() {
+			ThreadPoolExecutor executor=getExecutor();
+			if(executor!=null) try {
+				executor.execute(this);
+				return true;
+			} catch(RejectedExecutionException e) {
+				// Shut down concurrently
+			}
+			return false;
+		}
+
+		synchronized void close() {
+			closed=true;
+			tasks.clear();
+			notifyAll();
+		}
+
+		private synchronized Runnable next() {
+			Runnable task=tasks.poll();
+			if(task!=null) {
+				notifyAll();
+			}
+			return task;
+		}
+
+		private synchronized boolean reschedule() {
+			if(tasks.isEmpty()) {
+				scheduled=false;
+				closed=true;
+				lanes.remove(key,this);
+				notifyAll();
+				return false;
+			}
+			return true;
+		}
+
+		@Override
+		public void run() {
+			// Process a limited batch only and requeue the lane to be fair with respect to other keys
+			for(int i=0;i<BATCH_SIZE;i++) {
+				Runnable task=next();
+				if(task==null) {
+					break;
+				}
+				try {
+					task.run();
+				} catch(Throwable t) {
+					LOGGER.warn("Dispatch of message for {} failed",key,t);
+				}
+			}
+			if(reschedule()&&!schedule()) {
+				close();
+			}
+		}
+	}
+}
@@ -16,10 +16,6 @@
 package not.alexa.hermes.mqtt;
 
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.paho.client.mqttv3.IMqttClient;
 import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
@@ -39,6 +35,7 @@ import not.alexa.netobjects.Context;
 /**
  * Attach the hermes API to an MQTT instance (the typical case).
  * <br>Use {@link #subscribeTo(MqttClient)} to subscribe to an MQTT instance using the given client.
+ * <br>Inbound messages are handled by a {@link Dispatcher} which processes messages of the same site in order.
  * 
  * @author notalexa
  *
@@ -46,13 +43,7 @@ import not.alexa.netobjects.Context;
 public class HermesMqtt extends HermesApi implements IMqttMessageListener {
 	private static Logger LOGGER=LoggerFactory.getLogger(HermesMqtt.class);
 	private IMqttClient client;
-	private final ExecutorService executorService= Executors.newCachedThreadPool(new ThreadFactory() {
-		final AtomicInteger count=new AtomicInteger(1);
-		@Override
-		public Thread newThread(Runnable runnable) {
-			return new Thread(runnable, "mqtt-worker-"+count.getAndIncrement());
-		}
-	});
+	private Dispatcher dispatcher=new Dispatcher();
 
 
 	public HermesMqtt(Context context,HermesComponent...components) {
@@ -63,6 +54,33 @@ public class HermesMqtt extends HermesApi implements IMqttMessageListener {
 		super(context,siteId,components);
 	}
 	
+	/**
+	 * Replace the dispatcher of inbound messages. This is possible before subscribing only.
+	 * 
+	 * @param dispatcher the dispatcher to use
+	 * @return this instance
+	 * @throws BaseException if the api is already subscribed
+	 */
+	public HermesMqtt setDispatcher(Dispatcher dispatcher) throws BaseException {
+		if(client!=null) {
+			throw new BaseException(BaseException.FORBIDDEN,"Api already subscribed to "+client.getServerURI());
+		}
+		if(dispatcher==null) {
+			throw new NullPointerException("Dispatcher");
+		}
+		this.dispatcher.shutdown();
+		this.dispatcher=dispatcher;
+		return this;
+	}
+	
+	/**
+	 * 
+	 * @return the dispatcher of inbound messages
+	 */
+	public Dispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
 	/**
 	 * Subscribe to an MQTT instance
 	 * 
@@ -128,7 +146,7 @@ public class HermesMqtt extends HermesApi implements IMqttMessageListener {
 
 	@Override
 	public void messageArrived(String topic, MqttMessage message) throws Exception {
-		executorService.execute(() -> {
+		dispatcher.execute(topic,() -> {
 			try {
 				received(topic,message.getPayload());
 			} catch(Throwable t) {
@@ -153,7 +171,7 @@ public class HermesMqtt extends HermesApi implements IMqttMessageListener {
 			return new IMqttMessageListener() {
 				@Override
 				public void messageArrived(String topic, MqttMessage message) throws Exception {
-					executorService.execute(() -> {
+					dispatcher.execute(topic,() -> {
 						subscriber.received(HermesMqtt.this, topic, message.getPayload());
 					});
 				}
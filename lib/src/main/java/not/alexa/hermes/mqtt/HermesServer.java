@@ -40,6 +40,9 @@ import not.alexa.netobjects.utils.BaseUtils;
  * <pre>
  * --- @expand
  * uri: tcp://${MQTT_HOST}:1883
+ * dispatcher: # optional
+ *   workers: 4
+ *   policy: dropOldest
  * components:
  * - class: not.alexa.hermes.intent.handling.Stack
  *   handlers: 
@@ -75,13 +78,14 @@ import not.alexa.netobjects.utils.BaseUtils;
  * </pre>
  * with environment variables {@code MQTT_HOST}, {@code DEFAULT_SINK}, {@code TTS_LOCALE}.
  * (and an tts script {@code tts.sh}
- * The various parameters are documents in the corresponding classes.
+ * The various parameters are documents in the corresponding classes (see {@link Dispatcher} for the dispatching of inbound messages).
  * 
  */
 public class HermesServer implements AutoCloseable {
 	@JsonProperty String uri;
 	@JsonProperty(defaultValue = "default") String siteId;
 	@JsonProperty HermesComponent[] components;
+	@JsonProperty Dispatcher dispatcher;
 	
 	private MqttClient client;
 	private HermesApi api;
@@ -129,6 +133,10 @@ public class HermesServer implements AutoCloseable {
 		components[components.length-1]=Feature.getFeatureComponent();
 		HermesMqtt api=new HermesMqtt(context, siteId, components);
 		try {
+			if(dispatcher!=null) {
+				// A dispatcher cannot be restarted, use a fresh one for each startup
+				api.setDispatcher(new Dispatcher(dispatcher.workers,dispatcher.queueSize,dispatcher.policy,dispatcher.ordering));
+			}
 			client=HermesMqtt.createClient(uri);
 			while(!client.isConnected()) try {
 				client.connect(createConnectOptions(true));
@@ -168,6 +176,9 @@ public class HermesServer implements AutoCloseable {
 			client.close();
 		} finally {
 			client=null;
+			if(api!=null) {
+				api.getDispatcher().shutdown();
+			}
 		}
 		api=null;
 	}
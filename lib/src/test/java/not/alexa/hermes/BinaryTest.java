@@ -0,0 +1,103 @@
+package not.alexa.hermes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.hermes.HermesApi.Binary;
+import not.alexa.hermes.asr.AudioCaptured;
+import not.alexa.hermes.audio.AudioFrame;
+import not.alexa.hermes.audio.AudioPlayBytes;
+import not.alexa.hermes.audio.AudioPlayBytesStreaming;
+import not.alexa.hermes.audio.AudioSessionFrame;
+
+public class BinaryTest {
+
+	public BinaryTest() {
+	}
+
+	@Test
+	void audioFrameTest() throws Throwable {
+		byte[] data=new byte[] { 1, 2, 3};
+		AudioFrame frame=new AudioFrame(null,null).forPayload("hermes/audioServer/site/audioFrame",data);
+		assertSame(data, frame.encoded());
+		assertEquals("site", frame.getSiteId());
+		assertEquals("hermes/audioServer/site/audioFrame", frame.getTopic());
+		AudioFrame other=frame.forSite("other");
+		assertSame(data, other.encoded());
+		assertEquals("other", other.getSiteId());
+		assertEquals("hermes/audioServer/other/audioFrame", other.getTopic());
+		assertEquals("site", frame.getSiteId());
+	}
+
+	@Test
+	void audioPlayBytesTest() throws Throwable {
+		AudioPlayBytes bytes=new AudioPlayBytes("x","y",null).forPayload("hermes/audioServer/site/playBytes/request",new byte[0]);
+		assertEquals("site", bytes.getSiteId());
+		assertEquals("request", bytes.getRequestId());
+		assertEquals("hermes/audioServer/site/playBytes/request", bytes.getTopic());
+		assertEquals("request", bytes.createAnswer().getRequestId());
+	}
+
+	@Test
+	void audioPlayBytesStreamingTest() throws Throwable {
+		AudioPlayBytesStreaming bytes=new AudioPlayBytesStreaming(null,null,0,false,null).forPayload("hermes/audioServer/site/playBytesStreaming/request/3/1",new byte[0]);
+		assertEquals("site", bytes.getSiteId());
+		assertEquals("request", bytes.getRequestId());
+		assertEquals(3, bytes.getChunkIndex());
+		assertTrue(bytes.isLastChunk());
+		assertEquals("request", bytes.createAnswer().getRequestId());
+		AudioPlayBytesStreaming chunk=new AudioPlayBytesStreaming("site","request",0,false,new byte[0]);
+		assertEquals("hermes/audioServer/site/playBytesStreaming/request/0/0", chunk.getTopic());
+		assertFalse(chunk.isLastChunk());
+	}
+
+	@Test
+	void sessionTest() throws Throwable {
+		AudioSessionFrame frame=new AudioSessionFrame(null,null,new byte[0]).forTopic("hermes/audioServer/site/session/audioSessionFrame");
+		assertEquals("site", frame.getSiteId());
+		assertEquals("session", frame.getSessionId());
+		AudioCaptured captured=new AudioCaptured(null,null,new byte[0]).forTopic("hermes/asr/site/session/audioCaptured");
+		assertEquals("site", captured.getSiteId());
+		assertEquals("session", captured.getSessionId());
+	}
+
+	@Test
+	void bufferTest() {
+		byte[] data=new byte[] { 1, 2, 3};
+		ByteBuffer buffer=new AudioFrame("site",data).asBuffer();
+		assertTrue(buffer.isReadOnly());
+		assertEquals(3, buffer.remaining());
+		data[0]=4;
+		assertEquals(4, buffer.get(0));
+		assertThrows(ReadOnlyBufferException.class,()->buffer.put(0,(byte)0));
+		assertEquals(0, new AudioFrame("site",null).asBuffer().remaining());
+	}
+
+	@Test
+	void illegalTopicTest() {
+		assertThrows(IllegalTopicException.class,()->new AudioFrame("site",null).forPayload("hermes/audioServer/site/x/audioFrame",new byte[0]));
+		assertThrows(IllegalTopicException.class,()->new AudioPlayBytes("site","id",null).forPayload("hermes/audioServer/site/playBytes",new byte[0]));
+		assertThrows(IllegalTopicException.class,()->new AudioPlayBytesStreaming("site","id",0,false,null).forPayload("hermes/audioServer/site/playBytesStreaming/id/0",new byte[0]));
+		assertThrows(IllegalTopicException.class,()->new AudioCaptured("site","id",null).forPayload("hermes/asr/site/audioCaptured",new byte[0]));
+	}
+
+	@Test
+	void matchesTest() {
+		assertTrue(Binary.matches("a/b/c","a/+/c"));
+		assertTrue(Binary.matches("a//c","a/+/c"));
+		assertFalse(Binary.matches("a/b/d","a/+/c"));
+		assertFalse(Binary.matches("a/b/x/c","a/+/c"));
+		assertEquals("b", Binary.segment("a/b/c",1));
+		assertEquals("c", Binary.segment("a/b/c",2));
+		assertNull(Binary.segment("a/b/c",3));
+	}
+}
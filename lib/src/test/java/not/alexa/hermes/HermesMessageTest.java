@@ -34,6 +34,7 @@ import not.alexa.hermes.audio.AudioPlayFinished;
 import not.alexa.hermes.audio.AudioRecordError;
 import not.alexa.hermes.audio.AudioSessionFrame;
 import not.alexa.hermes.audio.AudioSetVolume;
+import not.alexa.hermes.audio.AudioStreamFinished;
 import not.alexa.hermes.dialogue.Configure;
 import not.alexa.hermes.dialogue.Configure.IntentConfig;
 import not.alexa.hermes.dialogue.ContinueSession;
@@ -429,6 +430,12 @@ public class HermesMessageTest {
 					assertEquals("requestId", msg.getRequestId());
 					assertEquals("hermes/audioServer/default/playFinished", msg.getTopic());
 				}),
+				new TestData<AudioStreamFinished>(new AudioStreamFinished("site","requestId","sessionId"),msg->{
+					assertEquals("site", msg.getSiteId());
+					assertEquals("requestId", msg.getId());
+					assertEquals("sessionId", msg.getSessionId());
+					assertEquals("hermes/audioServer/site/streamFinished", msg.getTopic());
+				}),
 				new TestData<NLUError>(new NLUError("error"),msg->{
 					assertEquals("error",msg.getError());
 					assertEquals("default", msg.getSiteId());
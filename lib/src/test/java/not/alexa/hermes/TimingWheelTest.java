@@ -0,0 +1,71 @@
+package not.alexa.hermes;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.hermes.TimingWheel.Timeout;
+
+public class TimingWheelTest {
+
+	public TimingWheelTest() {
+	}
+
+	@Test
+	void expireTest() throws InterruptedException {
+		TimingWheel wheel=new TimingWheel("test-timer",5,TimeUnit.MILLISECONDS,8);
+		try {
+			CountDownLatch latch=new CountDownLatch(3);
+			long start=System.nanoTime();
+			long[] expired=new long[3];
+			// The last delay requires more than one round
+			long[] delays= { 10, 50, 200 };
+			for(int i=0;i<delays.length;i++) {
+				int index=i;
+				wheel.schedule(()->{
+					expired[index]=System.nanoTime()-start;
+					latch.countDown();
+				},delays[i],TimeUnit.MILLISECONDS);
+			}
+			assertTrue(latch.await(5,TimeUnit.SECONDS));
+			for(int i=0;i<delays.length;i++) {
+				assertTrue(expired[i]>=TimeUnit.MILLISECONDS.toNanos(delays[i]));
+			}
+			assertEquals(0, wheel.size());
+		} finally {
+			wheel.stop();
+		}
+	}
+
+	@Test
+	void cancelTest() throws InterruptedException {
+		TimingWheel wheel=new TimingWheel("test-timer",5,TimeUnit.MILLISECONDS,8);
+		try {
+			AtomicInteger count=new AtomicInteger();
+			Timeout[] timeouts=new Timeout[1000];
+			for(int i=0;i<timeouts.length;i++) {
+				timeouts[i]=wheel.schedule(()->count.incrementAndGet(),20+i%50,TimeUnit.MILLISECONDS);
+			}
+			assertEquals(1000, wheel.size());
+			for(int i=0;i<timeouts.length;i+=2) {
+				assertTrue(timeouts[i].cancel());
+				assertFalse(timeouts[i].cancel());
+			}
+			assertEquals(500, wheel.size());
+			for(int i=0;i<100&&wheel.size()>0;i++) {
+				Thread.sleep(20);
+			}
+			assertEquals(0, wheel.size());
+			assertEquals(500, count.get());
+			assertFalse(timeouts[1].cancel());
+		} finally {
+			wheel.stop();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package not.alexa.hermes;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.hermes.TopicTrie.Match;
+
+public class TopicTrieTest {
+
+	public TopicTrieTest() {
+	}
+
+	private TopicTrie<String> createTrie() {
+		return new TopicTrie<String>()
+			.put("hermes/intent/#","intent")
+			.put("hermes/intent/special","special")
+			.put("hermes/hotword/+/detected","hotword")
+			.put("hermes/audioServer/+/playFinished","playFinished")
+			.put("hermes/audioServer/+/playBytes/+","playBytes")
+			.put("hermes/audioServer/+/audioFrame","audioFrame")
+			.put("hermes/audioServer/+/+/audioSessionFrame","audioSessionFrame")
+			.put("hermes/audioServer/default/audioFrame","defaultFrame");
+	}
+
+	@Test
+	void getTest() {
+		TopicTrie<String> trie=createTrie();
+		assertEquals("intent", trie.get("hermes/intent/lightsOn"));
+		assertEquals("intent", trie.get("hermes/intent/a/b/c"));
+		assertEquals("special", trie.get("hermes/intent/special"));
+		assertEquals("intent", trie.get("hermes/intent/special/more"));
+		assertEquals("hotword", trie.get("hermes/hotword/wakeup/detected"));
+		assertEquals("playFinished", trie.get("hermes/audioServer/site/playFinished"));
+		assertEquals("playBytes", trie.get("hermes/audioServer/site/playBytes/request"));
+		assertEquals("audioFrame", trie.get("hermes/audioServer/site/audioFrame"));
+		assertEquals("defaultFrame", trie.get("hermes/audioServer/default/audioFrame"));
+		assertEquals("audioSessionFrame", trie.get("hermes/audioServer/site/session/audioSessionFrame"));
+		assertNull(trie.get("hermes/intent"));
+		assertNull(trie.get("hermes/hotword/detected"));
+		assertNull(trie.get("hermes/hotword/a/b/detected"));
+		assertNull(trie.get("hermes/audioServer/site/playBytes"));
+		assertNull(trie.get("hermes/audioServer/site/playBytes/request/more"));
+		assertNull(trie.get("rhasspy/tts/say"));
+		assertNull(trie.get(""));
+	}
+
+	@Test
+	void matchTest() {
+		TopicTrie<String> trie=createTrie();
+		Match<String> match=trie.match("hermes/audioServer/site/playBytes/request");
+		assertEquals("playBytes", match.getValue());
+		assertArrayEquals(new String[] { "site", "request"}, match.getWildcards());
+		match=trie.match("hermes/intent/a/b");
+		assertEquals("intent", match.getValue());
+		assertArrayEquals(new String[] { "a/b"}, match.getWildcards());
+		match=trie.match("hermes/audioServer/default/audioFrame");
+		assertEquals("defaultFrame", match.getValue());
+		assertEquals(0, match.getWildcards().length);
+		assertNull(trie.match("hermes/unknown"));
+	}
+
+	@Test
+	void growTest() {
+		TopicTrie<Integer> trie=new TopicTrie<>();
+		for(int i=0;i<100;i++) {
+			trie.put("topic/"+i+"/+",i);
+		}
+		for(int i=0;i<100;i++) {
+			assertEquals(i, trie.get("topic/"+i+"/x"));
+		}
+		assertNull(trie.get("topic/100/x"));
+	}
+
+	@Test
+	void illegalFilterTest() {
+		assertThrows(IllegalArgumentException.class,()->new TopicTrie<String>().put("hermes/#/intent","value"));
+		assertThrows(IllegalArgumentException.class,()->new TopicTrie<String>().put("hermes/in+tent","value"));
+	}
+}
@@ -0,0 +1,182 @@
+package not.alexa.hermes.mqtt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.hermes.mqtt.Dispatcher.Ordering;
+import not.alexa.hermes.mqtt.Dispatcher.Policy;
+
+public class DispatcherTest {
+	private static final String FRAMES="hermes/audioServer/site/audioFrame";
+
+	public DispatcherTest() {
+	}
+
+	@Test
+	void keyTest() {
+		Dispatcher dispatcher=new Dispatcher();
+		// Frames have a lane of their own
+		assertEquals("hermes/audioServer/site/audioFrame", dispatcher.getKey("hermes/audioServer/site/audioFrame"));
+		assertEquals("hermes/asr/site/session/audioCaptured", dispatcher.getKey("hermes/asr/site/session/audioCaptured"));
+		assertEquals("site", dispatcher.getKey("hermes/audioServer/site/playBytes/request"));
+		assertEquals("site", dispatcher.getKey("hermes/audioServer/site/playFinished"));
+		assertEquals("hermes/audioServer/toggleOn", dispatcher.getKey("hermes/audioServer/toggleOn"));
+		assertEquals("hermes/tts/say", dispatcher.getKey("hermes/tts/say"));
+		dispatcher=new Dispatcher(4,256,Policy.block,Ordering.topic);
+		assertEquals("hermes/audioServer/site/audioFrame", dispatcher.getKey("hermes/audioServer/site/audioFrame"));
+	}
+
+	@Test
+	void orderTest() throws InterruptedException {
+		Dispatcher dispatcher=new Dispatcher(4,16,Policy.block,Ordering.site);
+		try {
+			int n=1000;
+			List<List<Integer>> results=new ArrayList<>();
+			CountDownLatch latch=new CountDownLatch(4*n);
+			for(int site=0;site<4;site++) {
+				results.add(Collections.synchronizedList(new ArrayList<>()));
+			}
+			for(int i=0;i<n;i++) {
+				for(int site=0;site<4;site++) {
+					List<Integer> result=results.get(site);
+					int value=i;
+					dispatcher.execute("hermes/audioServer/site"+site+"/audioFrame",()->{
+						result.add(value);
+						latch.countDown();
+					});
+				}
+			}
+			assertTrue(latch.await(10,TimeUnit.SECONDS));
+			for(List<Integer> result:results) {
+				assertEquals(n, result.size());
+				for(int i=0;i<n;i++) {
+					assertEquals(i, result.get(i));
+				}
+			}
+			assertEquals(0, dispatcher.getDropped());
+		} finally {
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	void dropTest() throws InterruptedException {
+		for(Policy policy:new Policy[] { Policy.dropOldest, Policy.dropNewest}) {
+			Dispatcher dispatcher=new Dispatcher(1,4,policy,Ordering.topic);
+			try {
+				CountDownLatch started=new CountDownLatch(1);
+				CountDownLatch blocked=new CountDownLatch(1);
+				List<Integer> result=Collections.synchronizedList(new ArrayList<>());
+				dispatcher.execute(FRAMES,()->{
+					started.countDown();
+					try {
+						blocked.await();
+					} catch(InterruptedException e) {
+					}
+				});
+				assertTrue(started.await(10,TimeUnit.SECONDS));
+				for(int i=0;i<6;i++) {
+					int value=i;
+					dispatcher.execute(FRAMES,()->result.add(value));
+				}
+				assertEquals(2, dispatcher.getDropped());
+				blocked.countDown();
+				for(int i=0;i<100&&result.size()<4;i++) {
+					Thread.sleep(100);
+				}
+				if(policy==Policy.dropOldest) {
+					assertEquals(Arrays.asList(2,3,4,5), result);
+				} else {
+					assertEquals(Arrays.asList(0,1,2,3), result);
+				}
+			} finally {
+				dispatcher.shutdown();
+			}
+		}
+	}
+
+	@Test
+	void losslessTest() throws InterruptedException {
+		Dispatcher dispatcher=new Dispatcher(2,4,Policy.dropOldest,Ordering.site);
+		try {
+			CountDownLatch blocked=new CountDownLatch(1);
+			CountDownLatch played=new CountDownLatch(1);
+			List<Integer> result=Collections.synchronizedList(new ArrayList<>());
+			dispatcher.execute(FRAMES,()->{
+				try {
+					blocked.await();
+				} catch(InterruptedException e) {
+				}
+			});
+			for(int i=0;i<10;i++) {
+				dispatcher.execute(FRAMES,()->{});
+			}
+			// The frames overflow, but play bytes of the same site are processed
+			dispatcher.execute("hermes/audioServer/site/playBytes/request",()->played.countDown());
+			assertTrue(played.await(10,TimeUnit.SECONDS));
+			assertTrue(dispatcher.getDropped()>0);
+			long dropped=dispatcher.getDropped();
+			// Other messages are never dropped
+			CountDownLatch finished=new CountDownLatch(1);
+			dispatcher.execute("hermes/audioServer/site/playBytes/request",()->{
+				try {
+					finished.await();
+				} catch(InterruptedException e) {
+				}
+			});
+			for(int i=0;i<10;i++) {
+				int value=i;
+				dispatcher.execute("hermes/audioServer/site/playFinished",()->result.add(value));
+			}
+			finished.countDown();
+			blocked.countDown();
+			for(int i=0;i<100&&result.size()<10;i++) {
+				Thread.sleep(100);
+			}
+			assertEquals(Arrays.asList(0,1,2,3,4,5,6,7,8,9), result);
+			assertEquals(dropped, dispatcher.getDropped());
+		} finally {
+			dispatcher.shutdown();
+		}
+	}
+
+	@Test
+	void shutdownTest() throws InterruptedException {
+		Dispatcher dispatcher=new Dispatcher(1,1,Policy.block,Ordering.topic);
+		CountDownLatch started=new CountDownLatch(1);
+		CountDownLatch blocked=new CountDownLatch(1);
+		dispatcher.execute(FRAMES,()->{
+			started.countDown();
+			try {
+				blocked.await();
+			} catch(InterruptedException e) {
+			}
+		});
+		assertTrue(started.await(10,TimeUnit.SECONDS));
+		dispatcher.execute(FRAMES,()->{});
+		// The queue is full, the producer blocks until shutdown
+		Thread producer=new Thread(()->dispatcher.execute(FRAMES,()->{}));
+		producer.start();
+		Thread.sleep(200);
+		assertTrue(producer.isAlive());
+		dispatcher.shutdown();
+		producer.join(10000);
+		assertTrue(!producer.isAlive());
+		assertTrue(dispatcher.isShutdown());
+		long dropped=dispatcher.getDropped();
+		List<Integer> result=Collections.synchronizedList(new ArrayList<>());
+		dispatcher.execute("other",()->result.add(1));
+		Thread.sleep(200);
+		assertTrue(result.isEmpty());
+		assertEquals(dropped+1, dispatcher.getDropped());
+	}
+}
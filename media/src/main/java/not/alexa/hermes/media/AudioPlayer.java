@@ -180,6 +180,12 @@ public interface AudioPlayer extends AudioStream {
 	 */
 	public default void startup(Context context) {
 	}
+
+	/**
+	 * Shutdown this player (releasing resources acquired on startup).
+	 */
+	public default void shutdown() {
+	}
 	
 	/**
 	 * Request focus for the specified uri.
@@ -15,21 +15,18 @@
  */
 package not.alexa.hermes.media;
 
+import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.BooleanControl;
-import javax.sound.sampled.DataLine;
 import javax.sound.sampled.FloatControl;
 import javax.sound.sampled.LineEvent;
 import javax.sound.sampled.LineListener;
 import javax.sound.sampled.LineUnavailableException;
-import javax.sound.sampled.Mixer;
-import javax.sound.sampled.Mixer.Info;
 import javax.sound.sampled.SourceDataLine;
 
 import org.slf4j.Logger;
@@ -39,12 +36,17 @@ import not.alexa.hermes.media.streams.SourceDataLineDecorator;
 
 /**
  * Audio sink consuming data from a {@link MasterStream}.
+ * <br>The playing thread is released 5s after pausing. The line is kept open in standby for the configured
+ * standby delay afterwards such that resuming doesn't need to open the line again. Mixers are resolved once per format and profile
+ * (see {@link LineResolver}) and rescanned periodically while paused to detect plugged or unplugged devices.
  */
 public class AudioSink implements Runnable, AutoCloseable {
 	public static final BooleanControl.Type MIXINS=new BooleanControl.Type("MIXINS") {};
 	
 	private static final Logger LOGGER=LoggerFactory.getLogger(AudioSink.class);
 	private static final int RELEASE_DELAY=5;
+	private static final int STANDBY_DELAY=60;
+	private static final int RESCAN_INTERVAL=30;
 	private static final int BUFFER_SIZE=0x800;	
     protected final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
     		new ThreadFactory() {
@@ -61,13 +63,24 @@ public class AudioSink implements Runnable, AutoCloseable {
     private int pauseCount=0;
     private MasterStream stream;
     private SourceDataLine output;
+    private AudioFormat outputFormat;
     private Thread thread;
     private final Listener listener;
     private volatile boolean closed = true;
+    private volatile boolean shutdown;
     protected volatile boolean paused = true;
     private float volume;
-    private boolean mixerLogged;
-    private SourceDataLineDecorator lineDecorator;
+    private int standbyDelay=STANDBY_DELAY;
+    private final LineResolver lines;
+    private final SourceDataLineDecorator lineDecorator;
+    private final LineListener lineListener=new LineListener() {
+		@Override
+		public void update(LineEvent event) {
+			if(output==event.getLine()) {
+				stream.update(event);
+			}
+		}
+	};
 
     /**
      * Creates a new sink with the given listener and sets the initial volume.
@@ -80,7 +93,13 @@ public class AudioSink implements Runnable, AutoCloseable {
 			}
         }:listener;
         this.lineDecorator=lineDecorator;
+        lines=new LineResolver(lineDecorator);
         setVolume(initialVolume);
+        scheduler.scheduleWithFixedDelay(() -> {
+        	if(paused&&!shutdown) {
+        		lines.rescan();
+        	}
+        }, RESCAN_INTERVAL, RESCAN_INTERVAL, TimeUnit.SECONDS);
     }
     
 	AudioControls attach(MasterStream stream) {
@@ -104,10 +123,7 @@ public class AudioSink implements Runnable, AutoCloseable {
     		(thread = new Thread(this, "player-audio-sink")).start();
     	}
         paused = false;
-        BooleanControl muteControl=output==null||!output.isControlSupported(BooleanControl.Type.MUTE)?null:(BooleanControl)output.getControl(BooleanControl.Type.MUTE);
-        if(muteControl!=null) {
-        	muteControl.setValue(false);
-        }
+        mute(false);
         pauseCount++;
         synchronized (pauseLock) {
             pauseLock.notifyAll();
@@ -128,18 +144,36 @@ public class AudioSink implements Runnable, AutoCloseable {
      */
     public void pause() {
         paused = true;
-        BooleanControl muteControl=output==null||!output.isControlSupported(BooleanControl.Type.MUTE)?null:(BooleanControl)output.getControl(BooleanControl.Type.MUTE);
-        if(muteControl!=null) {
-        	muteControl.setValue(true);
-        }
+        mute(true);
         int c=++pauseCount;
         scheduler.schedule(() -> {
         	if(paused&&c==pauseCount) {
-        		close();
+        		release();
         	}
         }, RELEASE_DELAY, TimeUnit.SECONDS);
     }
 
+    private void mute(boolean mute) {
+    	SourceDataLine output=this.output;
+        BooleanControl muteControl=output==null||!output.isControlSupported(BooleanControl.Type.MUTE)?null:(BooleanControl)output.getControl(BooleanControl.Type.MUTE);
+        if(muteControl!=null) {
+        	muteControl.setValue(mute);
+        }
+    }
+
+    /**
+     * Sets the time a released line is kept open in standby.
+     *
+     * @param seconds the standby delay in seconds. A value of {@code 0} closes the line when the playing thread is released.
+     */
+    public void setStandbyDelay(int seconds) {
+    	standbyDelay=Math.max(0,seconds);
+    }
+
+    public int getStandbyDelay() {
+    	return standbyDelay;
+    }
+
     /**
      * Sets the volume
      *
@@ -177,10 +211,22 @@ public class AudioSink implements Runnable, AutoCloseable {
 	}
 
 
+    /**
+     * Release the playing thread. The line is put into standby.
+     */
+    private void release() {
+        closed = true;
+        Thread thread=this.thread;
+        if(thread!=null) {
+        	thread.interrupt();
+        }
+    }
+
     @Override
     public void close() {
-        closed = true;
-        thread.interrupt();
+    	shutdown = true;
+    	release();
+    	lines.close();
     }
 
     @Override
@@ -251,8 +297,18 @@ public class AudioSink implements Runnable, AutoCloseable {
 	                }
 	            }
 	        }
-            output.drain();
-            output.close();
+	        if(output!=null) {
+	        	SourceDataLine line=output;
+	        	output=null;
+	        	if(shutdown||standbyDelay==0) {
+	        		line.drain();
+	        		lines.close(line);
+	        	} else {
+	        		lines.standby(line,outputFormat);
+	        		long delay=standbyDelay*1000L;
+	        		scheduler.schedule(() -> lines.expire(delay), delay, TimeUnit.MILLISECONDS);
+	        	}
+	        }
         } catch (Throwable t) {
 	        LOGGER.error("Audio Sink stopped abnormally.",t);
         } finally {
@@ -267,18 +323,10 @@ public class AudioSink implements Runnable, AutoCloseable {
         void sinkError(Throwable t);
     }
     
-    private void closeLine(SourceDataLine line) {
-		line.stop();
-		line.flush();
-		line.close();
-		if(lineDecorator!=null) {
-			lineDecorator.dispose(line);
-		}
-    }
-    
     protected boolean start(AudioFormat format) {
        try {
-            if(acquireLine(format)) {
+            acquireLine(format);
+            if(output!=null) {
             	output.start();
             }
             return true;
@@ -288,40 +336,27 @@ public class AudioSink implements Runnable, AutoCloseable {
     }
     
     private boolean acquireLine(AudioFormat format) throws LineUnavailableException {
-        if (output == null || !output.getFormat().matches(format)||!output.isOpen()) {
+        if (output == null || !outputFormat.matches(format)||!Objects.equals(outputFormat.getProperty("profile"),format.getProperty("profile"))||!output.isOpen()) {
         	if(output!=null) try {
-        		closeLine(output);
+        		if(output.isOpen()) {
+        			// Keep the line for switching back
+        			lines.standby(output,outputFormat);
+        		} else {
+        			lines.close(output);
+        		}
         	} finally {
         		output=null;
         	}
-        	DataLine.Info info = new DataLine.Info(SourceDataLine.class, format, AudioSystem.NOT_SPECIFIED);
-    		if(!mixerLogged) for(Info o:AudioSystem.getMixerInfo()) {
-        		mixerLogged=true;
-    			LOGGER.info("Mixer: {} from {} (name={}, version={})",o.getDescription(),o.getVendor(),o.getName(),o.getVersion());
-    		}
-            for (Mixer.Info mixerInfo : AudioSystem.getMixerInfo()) {
-                Mixer mixer = AudioSystem.getMixer(mixerInfo);
-                if (mixer.isLineSupported(info)) {
-                	SourceDataLine out=(SourceDataLine)mixer.getLine(info);
-                	LOGGER.info("Use mixer {} for format {}.",mixer.getMixerInfo(),format);
-                	if(lineDecorator!=null) {
-                		out=lineDecorator.decorate(out);
-                	}
-                	output=out;
-                	SourceDataLine lineRef=out;
-                	output.addLineListener(new LineListener() {
-						@Override
-						public void update(LineEvent event) {
-							if(output==lineRef) {
-								stream.update(event);
-							}
-						}
-					});
-                	output.open(format);
-                	setVolume(volume);
-                	break;
-                }
-            }
+        	SourceDataLine out=lines.acquire(format);
+        	if(out!=null) {
+            	// Lines in standby are already registered
+            	out.removeLineListener(lineListener);
+            	out.addLineListener(lineListener);
+            	outputFormat=format;
+            	output=out;
+            	setVolume(volume);
+            	mute(false);
+        	}
             return output!=null;
         }
         return false;
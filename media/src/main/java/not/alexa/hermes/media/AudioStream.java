@@ -19,13 +19,14 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioFormat.Encoding;
 import javax.sound.sampled.LineEvent;
 import javax.sound.sampled.LineListener;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import not.alexa.hermes.media.streams.MP3AudioStream;
+import not.alexa.hermes.media.streams.ResamplingStream;
+import not.alexa.hermes.media.streams.ResamplingStream.Quality;
 import not.alexa.hermes.media.streams.VorbisStream;
 
 /**
@@ -76,7 +77,8 @@ public interface AudioStream extends AutoCloseable, LineListener {
 	
 	/**
 	 * Resample this stream to a different audio format. This method is basically intended to sample up secondary streams to the main audio format.
-	 * <br>The default implementation restricts itself to 16 bit signed pcm data (little endian) in mono or stereo format and uses linear interpolation.
+	 * <br>The default implementation uses a {@link ResamplingStream} of {@link Quality#MEDIUM medium} quality and supports signed pcm data with 8, 16 or 24 bits
+	 * and any number of channels. If only the number of channels or the sample size differs, samples are mapped without filtering.
 	 *  
 	 * @param format the new format to use
 	 * @return an audio stream representing {@code this} stream in the given format or {@code null}, if conversion is not supported.
@@ -85,108 +87,79 @@ public interface AudioStream extends AutoCloseable, LineListener {
 		if(format.equals(getFormat())) {
 			return this;
 		} else {
-			if(!format.getEncoding().equals(Encoding.PCM_SIGNED)
-					||format.isBigEndian()
-					||format.getChannels()>2
-					||format.getSampleSizeInBits()!=16) {
-				return null;
-			}
-			AudioStream baseStream=this;
-			try {
-				return new AudioStream() {
-					float ratio=baseStream.getFormat().getSampleRate()/format.getSampleRate();
-					int[][] accu=new int[2][format.getChannels()];
-					float offset=1f;
-					int channelOffset=0;
-					boolean done;
-					{
-						fill();
-					}
-					
-					@Override
-					public void update(LineEvent event) {
-						AudioStream.this.update(event);
-					}
-
-					private void fill() throws IOException {
-						int c1=accu[0].length;
-						int c2=baseStream.getFormat().getChannels();
-						for(int i=0;i<c1;i++) {
-							accu[0][i]=accu[1][i];
-							if(c1==c2) {
-								accu[1][i]=baseStream.next();
-							} else if(c2==1) {
-								// mono -> stereo
-								accu[1][i]=i==0?baseStream.next():accu[1][0];
-							} else {
-								// stereo -> mono
-								accu[1][i]=(baseStream.next()+baseStream.next())>>1;
-							}
-						}
-						done=accu[1][accu[1].length-1]>Short.MAX_VALUE;
-					}
-					
-					@Override
-					public int next() throws IOException {
-						if(done) {
-							return Integer.MAX_VALUE;
-						}
-						if(channelOffset==accu[0].length-1) {
-							while(offset>=1) {
-								fill();
-								if(done) {
-									return Integer.MAX_VALUE;
-								}
-								offset-=1f;
-							}
-							offset+=ratio;
-							channelOffset=0;
-						} else {
-							channelOffset++;
-						}
-						int o=(int)((1-offset)*accu[0][channelOffset]+offset*accu[1][channelOffset]);
-						//System.out.println("O="+o+" (offset="+channelOffset+", x="+offset+")");
-						return o;
-					}
-					
-					@Override
-					public boolean isStream() {
-						return baseStream.isStream();
-					}
-					
-					@Override
-					public AudioFormat getFormat() {
-						return format;
-					}
-
-					@Override
-					public void close() {
-						baseStream.close();
-					}
-				};
-			} catch(Throwable t) {
-				return null;
-			}
+			return ResamplingStream.create(this,format,Quality.MEDIUM);
 		}
 	}
 	
+	/**
+	 * Status returned by {@link #read(int[], int, int)} if the end of the stream is reached.
+	 */
+	public static final int END_OF_STREAM=-1;
+	
+	/**
+	 * Status returned by {@link #read(int[], int, int)} if no data is available currently (a <i>blocking condition</i>).
+	 * Bulk operations <b>must</b> stop processing data.
+	 */
+	public static final int BLOCKED=-2;
+	
+	/**
+	 * The maximal number of samples processed in one block by the default {@link #update(boolean, int, int, byte[], int, int)} implementation.
+	 */
+	public static final int BLOCK_SIZE=2048;
+	
 	/**
 	 * Get the next sample of this stream according to the current format. Special values indicate exceptional situations:
 	 * <ul>
 	 * <li>A value of {@code Integer.MAX_VALUE} indicates the <i>end of the stream</i>.
 	 * <li>A value of {@code Integer.MAX_VALUE-1} indicates a <i>blocking condition</i>. Bulk operations <b>must</b> stop processing data.
 	 * </ul>
+	 * This method is a compatibility shim for {@link #read(int[], int, int)} which should be used instead. The default implementation reads one sample using
+	 * this method (into a per thread buffer, so no memory is allocated per sample). Implementations must override at least one of both methods.
 	 * 
 	 * @return the next sample of this stream or one of the exceptional values
 	 * @throws IOException if an error occurs
 	 */
-	public int next() throws IOException;
+	public default int next() throws IOException {
+		int[] sample=SampleBuffers.borrowSample();
+		try {
+			switch(read(sample,0,1)) {
+				case 1:return sample[0];
+				case END_OF_STREAM:return Integer.MAX_VALUE;
+				default:return Integer.MAX_VALUE-1;
+			}
+		} finally {
+			SampleBuffers.release(sample);
+		}
+	}
+	
+	/**
+	 * Read samples of this stream according to the current format. The method reads at least one sample (if {@code length>0}) or returns
+	 * one of the status values {@link #END_OF_STREAM} or {@link #BLOCKED}. Reading less samples than requested doesn't indicate the end of the stream.
+	 * <br>The default implementation calls {@link #next()} for every sample. Implementations should override this method.
+	 * 
+	 * @param samples the array to read the samples into
+	 * @param offset the offset inside the array
+	 * @param length the maximal number of samples to read
+	 * @return the number of samples read or one of the status values
+	 * @throws IOException if an error occurs
+	 */
+	public default int read(int[] samples,int offset,int length) throws IOException {
+		for(int i=0;i<length;i++) {
+			int n=next();
+			if(n>0x10000) {
+				return i>0?i:n==Integer.MAX_VALUE?END_OF_STREAM:BLOCKED;
+			}
+			samples[offset+i]=n;
+		}
+		return length;
+	}
 	
 	/**
 	 * Update a buffer with data from this audio stream. The buffer <b>is not empty if {@code primary} is {@code false}</b> but filled with the data of another stream (typically the 
 	 * <i>primary</i> stream). The method should return the number of updated samples.
 	 * <br>If {@code primary} flag is {@code true}, the stream <b>must</b> fill the buffer ignoring any data in the buffer.
 	 * If {@code totalVolume==volume}, the stream <b>must</b> scale the audio stream but <b>must</b> ignore the data in the buffer (this stream overrides any stream inside the buffer). 
+	 * <br>The default implementation reads blocks of samples using {@link #read(int[], int, int)} into a per thread buffer.
 	 * 
 	 * @param primary if {@code true}, fill the buffer, otherwise update the buffer. If set, no corrections are supposed to be done to the stream.
 	 * @param totalVolume the total volume (a value 0&leq;v&leq;256)
@@ -199,35 +172,39 @@ public interface AudioStream extends AutoCloseable, LineListener {
 	 */
 	public default int update(boolean primary,int totalVolume,int volume,byte[] buffer,int offset,int length) throws IOException {
 		int savedOffset=offset;
-		if(primary||totalVolume==volume) {
-			while(length>0) {
-				int n=next();
-				if(n>0x10000) {
-					return n==Integer.MAX_VALUE&&offset==savedOffset?-1:offset-savedOffset;
+		if(length<2) {
+			return 0;
+		}
+		boolean override=primary||totalVolume==volume;
+		int secondaryGain=Math.min(Math.max(0,volume),totalVolume);
+		int primaryGain=totalVolume-secondaryGain;
+		int[] samples=SampleBuffers.borrowBlock();
+		try {
+			while(length>1) {
+				int n=read(samples,0,Math.min(samples.length,length>>1));
+				if(n<=0) {
+					return n==END_OF_STREAM&&offset==savedOffset?-1:offset-savedOffset;
 				}
-				n=(n*totalVolume)>>8;
-				buffer[offset]=(byte)n;
-				buffer[offset+1]=(byte)(n>>8);
-				offset+=2;
-				length-=2;
-			}
-		} else if(length>0) {
-			int secondaryGain=Math.min(Math.max(0,volume),totalVolume);
-			int primaryGain=totalVolume-secondaryGain;
-			while(length>0) {
-				int n=next();
-				if(n>0x10000) {
-					return n==Integer.MAX_VALUE&&offset==savedOffset?-1:offset-savedOffset;
+				if(override) {
+					for(int i=0;i<n;i++) {
+						int s=(samples[i]*totalVolume)>>8;
+						buffer[offset++]=(byte)s;
+						buffer[offset++]=(byte)(s>>8);
+					}
+				} else {
+					for(int i=0;i<n;i++) {
+						int o=(buffer[offset]&0xff)+(buffer[offset+1]<<8);
+						o=(primaryGain*o+secondaryGain*samples[i])>>8;
+						buffer[offset++]=(byte)o;
+						buffer[offset++]=(byte)(o>>8);
+					}
 				}
-				int o=(buffer[offset]&0xff)+(buffer[offset+1]<<8);
-				o=(primaryGain*o+secondaryGain*n)>>8;
-				buffer[offset]=(byte)o;
-				buffer[offset+1]=(byte)(o>>8);
-				offset+=2;
-				length-=2;
+				length-=2*n;
 			}
+			return offset-savedOffset;
+		} finally {
+			SampleBuffers.release(samples);
 		}
-		return offset-savedOffset;
 	}
 
 	/**
@@ -18,6 +18,7 @@ package not.alexa.hermes.media;
 import java.text.MessageFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
@@ -34,12 +35,14 @@ import not.alexa.hermes.HermesApi.Slot;
 import not.alexa.hermes.HermesComponent;
 import not.alexa.hermes.HermesMessage;
 import not.alexa.hermes.audio.AudioPlayBytes;
+import not.alexa.hermes.audio.AudioPlayBytesStreaming;
 import not.alexa.hermes.audio.AudioToggleOff;
 import not.alexa.hermes.audio.AudioToggleOn;
 import not.alexa.hermes.intent.handling.IntentHandler;
 import not.alexa.hermes.media.AudioSink.Listener;
 import not.alexa.hermes.media.AudioStream.AudioInfo;
 import not.alexa.hermes.media.AudioStream.AudioStreamListener;
+import not.alexa.hermes.media.streams.ChunkedWavStream;
 import not.alexa.hermes.media.streams.PrePostSilence;
 import not.alexa.hermes.media.streams.SourceDataLineDecorator;
 import not.alexa.hermes.media.streams.WavAudioStream;
@@ -72,6 +75,7 @@ public class HermesPlayer implements IntentHandler, HermesComponent, Listener {
 	
 	private AudioControls controls;
 	private boolean audioPlay=true;
+	private final Map<String,ChunkedWavStream> chunkedStreams=new ConcurrentHashMap<>();
 	
 	private ScheduledExecutorService executor=Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
 		@Override
@@ -97,6 +101,7 @@ public class HermesPlayer implements IntentHandler, HermesComponent, Listener {
 		resources.put(HermesPlayer.class,this);
 		extensions.put("notalexa/mediaplayer/state",StateMessage.class);
 		overlays.add(AudioPlayBytesHandler.class);
+		overlays.add(AudioPlayBytesStreamingHandler.class);
 		overlays.add(ToggleOnHandler.class);
 		overlays.add(ToggleOffHandler.class);
 		overlays.add(StateMessageHandler.class);
@@ -317,6 +322,40 @@ public class HermesPlayer implements IntentHandler, HermesComponent, Listener {
 		}
 	}
 
+	/**
+	 * Plays audio chunks while they arrive. The stream of a request is added with the first chunk received.
+	 */
+	@Overlay
+	public class AudioPlayBytesStreamingHandler extends AudioPlayBytesStreaming {
+		public AudioPlayBytesStreamingHandler() {
+		}
+
+		@SuppressWarnings("resource")
+		@Override
+		public void received(HermesApi api) throws BaseException {
+			if(controls!=null&&audioPlay&&data!=null) {
+				String requestId=getRequestId();
+				ChunkedWavStream stream=chunkedStreams.get(requestId);
+				if(stream==null) {
+					// Forget streams which terminated without a last chunk
+					chunkedStreams.values().removeIf(ChunkedWavStream::isFinished);
+					stream=new ChunkedWavStream(data);
+					if(stream.getFormat()==null) {
+						return;
+					}
+					chunkedStreams.put(requestId,stream);
+					stream.add(getChunkIndex(),isLastChunk(),data);
+					controls.addStream(player.hasAudio()?new PrePostSilence(0.5f, 0.5f,stream):stream);
+				} else {
+					stream.add(getChunkIndex(),isLastChunk(),data);
+				}
+				if(stream.isComplete()) {
+					chunkedStreams.remove(requestId);
+				}
+			}
+		}
+	}
+
 	@Overlay
 	public class ToggleOnHandler extends AudioToggleOn {
 		public ToggleOnHandler() {
@@ -373,6 +412,7 @@ public class HermesPlayer implements IntentHandler, HermesComponent, Listener {
 			controls.close();
 		}
 		player.close();
+		player.shutdown();
 	}
 	
 	public enum Commands {
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import not.alexa.hermes.media.streams.SourceDataLineDecorator;
+
+/**
+ * Resolver for the source data lines of an {@link AudioSink}. Enumerating the mixers of the {@link AudioSystem} is expensive, therefore
+ * the mixer supporting a line is cached per format and profile. Released lines are kept open (but stopped) in standby such that
+ * resuming or switching back to a recently used format doesn't need to open a line again.
+ * <br>If a decorator is configured, lines carry state outside of this process (for example an applied DSP profile). In this case, only
+ * one line is kept in standby and it is closed before another line is opened.
+ * <br>Plugging or unplugging devices is detected by {@link #rescan()} or by a failure opening a line on a cached mixer. In both cases,
+ * the cache is cleared and all lines in standby are closed.
+ *
+ * @author notalexa
+ */
+class LineResolver {
+	private static final Logger LOGGER=LoggerFactory.getLogger(LineResolver.class);
+	private static final int STANDBY_LINES=2;
+	private final SourceDataLineDecorator lineDecorator;
+	private final int capacity;
+	private final Map<LineKey,Mixer> mixers=new HashMap<>();
+	private final List<Standby> standby=new ArrayList<>();
+	private String signature;
+	private boolean mixerLogged;
+	private boolean closed;
+
+	LineResolver(SourceDataLineDecorator lineDecorator) {
+		this.lineDecorator=lineDecorator;
+		this.capacity=lineDecorator==null?STANDBY_LINES:1;
+	}
+
+	/**
+	 * Acquire an open line for the given format. The line is taken from standby if possible. Otherwise a new (decorated) line is opened.
+	 * The line is opened but not started.
+	 *
+	 * @param format the format of the line
+	 * @return the line or {@code null} if no mixer supports the format
+	 * @throws LineUnavailableException if the line cannot be opened
+	 */
+	synchronized SourceDataLine acquire(AudioFormat format) throws LineUnavailableException {
+		LineKey key=new LineKey(format);
+		for(Iterator<Standby> itr=standby.iterator();itr.hasNext();) {
+			Standby entry=itr.next();
+			if(entry.key.equals(key)) {
+				itr.remove();
+				if(entry.line.isOpen()) {
+					return entry.line;
+				}
+				close(entry.line);
+			}
+		}
+		if(lineDecorator!=null) {
+			closeStandby();
+		}
+		Mixer mixer=mixers.get(key);
+		if(mixer!=null) try {
+			return open(mixer,format);
+		} catch(LineUnavailableException|IllegalArgumentException|SecurityException e) {
+			// The device may be gone. Resolve again.
+			LOGGER.info("Mixer {} failed for format {}. Rescan mixers.",mixer.getMixerInfo(),format);
+			invalidate();
+		}
+		mixer=resolve(key,format);
+		if(mixer==null) {
+			return null;
+		}
+		try {
+			return open(mixer,format);
+		} catch(LineUnavailableException e) {
+			// The device may be busy with a line in standby
+			if(standby.isEmpty()) {
+				throw e;
+			}
+			closeStandby();
+			return open(mixer,format);
+		}
+	}
+
+	private SourceDataLine open(Mixer mixer,AudioFormat format) throws LineUnavailableException {
+		SourceDataLine out=(SourceDataLine)mixer.getLine(new DataLine.Info(SourceDataLine.class,format,AudioSystem.NOT_SPECIFIED));
+		if(lineDecorator!=null) {
+			out=lineDecorator.decorate(out);
+		}
+		out.open(format);
+		return out;
+	}
+
+	private Mixer resolve(LineKey key,AudioFormat format) {
+		Mixer.Info[] infos=AudioSystem.getMixerInfo();
+		signature=signature(infos);
+		if(!mixerLogged) for(Mixer.Info o:infos) {
+			mixerLogged=true;
+			LOGGER.info("Mixer: {} from {} (name={}, version={})",o.getDescription(),o.getVendor(),o.getName(),o.getVersion());
+		}
+		DataLine.Info info=new DataLine.Info(SourceDataLine.class,format,AudioSystem.NOT_SPECIFIED);
+		for(Mixer.Info mixerInfo:infos) {
+			Mixer mixer=AudioSystem.getMixer(mixerInfo);
+			if(mixer.isLineSupported(info)) {
+				LOGGER.info("Use mixer {} for format {}.",mixerInfo,format);
+				mixers.put(key,mixer);
+				return mixer;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Put the line into standby. The line is stopped and flushed but kept open. If the resolver is full, the oldest line
+	 * in standby is closed.
+	 *
+	 * @param line the line to put into standby
+	 * @param format the format the line was acquired for
+	 */
+	synchronized void standby(SourceDataLine line,AudioFormat format) {
+		if(closed||!line.isOpen()) {
+			close(line);
+			return;
+		}
+		try {
+			line.stop();
+			line.flush();
+		} catch(Throwable t) {
+			close(line);
+			return;
+		}
+		standby.add(new Standby(line,format));
+		while(standby.size()>capacity) {
+			close(standby.remove(0).line);
+		}
+	}
+
+	/**
+	 * Close all lines which are in standby for at least {@code millis} milliseconds.
+	 *
+	 * @param millis the maximal standby time
+	 */
+	synchronized void expire(long millis) {
+		long time=System.currentTimeMillis()-millis;
+		for(Iterator<Standby> itr=standby.iterator();itr.hasNext();) {
+			Standby entry=itr.next();
+			if(entry.time<=time) {
+				itr.remove();
+				close(entry.line);
+			}
+		}
+	}
+
+	/**
+	 * Check if the mixers of the audio system changed since the last resolution. If so, the cache is invalidated.
+	 *
+	 * @return {@code true} if the cache was invalidated
+	 */
+	boolean rescan() {
+		synchronized(this) {
+			if(signature==null) {
+				return false;
+			}
+		}
+		// Enumerate outside of the lock. Acquiring a line shouldn't wait for the scan.
+		String current=signature(AudioSystem.getMixerInfo());
+		synchronized(this) {
+			if(signature!=null&&!signature.equals(current)) {
+				LOGGER.info("Mixers changed. Invalidate line cache.");
+				invalidate();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Forget all resolved mixers and close all lines in standby.
+	 */
+	synchronized void invalidate() {
+		mixers.clear();
+		signature=null;
+		closeStandby();
+	}
+
+	private void closeStandby() {
+		for(Standby entry:standby) {
+			close(entry.line);
+		}
+		standby.clear();
+	}
+
+	/**
+	 * Close the line and dispose it.
+	 *
+	 * @param line the line to close
+	 */
+	void close(SourceDataLine line) {
+		try {
+			line.stop();
+			line.flush();
+			line.close();
+		} catch(Throwable t) {
+			LOGGER.warn("Closing line failed.",t);
+		}
+		if(lineDecorator!=null) {
+			lineDecorator.dispose(line);
+		}
+	}
+
+	/**
+	 * Close all lines in standby. Lines put into standby afterwards are closed immediately.
+	 */
+	synchronized void close() {
+		closed=true;
+		invalidate();
+	}
+
+	private static String signature(Mixer.Info[] infos) {
+		StringBuilder builder=new StringBuilder();
+		for(Mixer.Info info:infos) {
+			builder.append(info.getName()).append('|').append(info.getVendor()).append('|').append(info.getDescription()).append('|').append(info.getVersion()).append('\n');
+		}
+		return builder.toString();
+	}
+
+	private static class Standby {
+		private final SourceDataLine line;
+		private final LineKey key;
+		private final long time=System.currentTimeMillis();
+
+		private Standby(SourceDataLine line,AudioFormat format) {
+			this.line=line;
+			this.key=new LineKey(format);
+		}
+	}
+
+	/**
+	 * Key of a line. {@link AudioFormat} doesn't implement {@code equals()} and {@link AudioFormat#matches(AudioFormat)} ignores the profile.
+	 */
+	private static class LineKey {
+		private final String encoding;
+		private final float sampleRate;
+		private final int sampleSize;
+		private final int channels;
+		private final int frameSize;
+		private final float frameRate;
+		private final boolean bigEndian;
+		private final Object profile;
+
+		private LineKey(AudioFormat format) {
+			encoding=format.getEncoding().toString();
+			sampleRate=format.getSampleRate();
+			sampleSize=format.getSampleSizeInBits();
+			channels=format.getChannels();
+			frameSize=format.getFrameSize();
+			frameRate=format.getFrameRate();
+			bigEndian=format.isBigEndian();
+			Object p=format.getProperty("profile");
+			profile=p==null?null:p.toString();
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(encoding,sampleRate,sampleSize,channels,profile);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(obj instanceof LineKey) {
+				LineKey other=(LineKey)obj;
+				return encoding.equals(other.encoding)
+						&&Float.compare(sampleRate,other.sampleRate)==0
+						&&sampleSize==other.sampleSize
+						&&channels==other.channels
+						&&frameSize==other.frameSize
+						&&Float.compare(frameRate,other.frameRate)==0
+						&&(bigEndian==other.bigEndian||sampleSize<=8)
+						&&Objects.equals(profile,other.profile);
+			}
+			return false;
+		}
+	}
+}
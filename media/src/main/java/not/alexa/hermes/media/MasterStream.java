@@ -29,10 +29,18 @@ import javax.sound.sampled.LineListener;
  * @author notalexa
  */
 public class MasterStream implements AudioControls, LineListener {
+	/**
+	 * The number of frames the gain of the primary stream is ramped over when secondary lines start or stop.
+	 */
+	public static final int DUCK_FRAMES=2048;
+	private static final int DUCK_BITS=8;
 	private AudioStream stream;
 	private AudioFormat format;
 	private AudioSink sink;
 	private SecondaryLines secondaryLines;
+	// The gain of the primary stream (with additional precision for ramping)
+	private int duck=SecondaryLines.UNITY<<DUCK_BITS;
+	private final int[] mixBlock=new int[AudioStream.BLOCK_SIZE];
 	private int volume=256;
 	private float normalizedVolume=1f;
 	private boolean pausing;
@@ -210,7 +218,10 @@ public class MasterStream implements AudioControls, LineListener {
 	@Override
 	public void addStream(AudioStream secondaryStream) {
 		if(sink!=null) {
-			secondaryLines.add(secondaryStream.resample(stream.getFormat()));
+			AudioStream resampled=secondaryStream.resample(stream.getFormat());
+			synchronized(streamLock) {
+				secondaryLines.add(resampled);
+			}
 			sink.resume();
 		}
 	}
@@ -240,10 +251,8 @@ public class MasterStream implements AudioControls, LineListener {
 		} else {
 			n=stream.update(primary,totalVolume,totalVolume, buffer, offset, length);
 		}
-		if(secondaryLines.hasStreams()) {
-			int vol=(7*totalVolume)>>3;
-			secondaryLines.update(false,vol, (3*vol)>>2, buffer, offset, n);
-			secondaryLines.update();
+		if(n>0&&(secondaryLines.hasStreams()||duck!=SecondaryLines.UNITY<<DUCK_BITS)) {
+			mix(totalVolume,buffer,offset,n);
 		}
 		if(n<0&&sink!=null) {
 			sink.pause();
@@ -251,6 +260,36 @@ public class MasterStream implements AudioControls, LineListener {
 		return n;
 	}
 
+	/**
+	 * Mix the secondary lines into the buffer. While secondary lines are playing, the primary stream is ducked. The gain of the primary stream ramps within
+	 * {@value #DUCK_FRAMES} frames to the ducked gain and back afterwards.
+	 */
+	private void mix(int totalVolume,byte[] buffer,int offset,int length) throws IOException {
+		int vol=(7*totalVolume)>>3;
+		int secondaryGain=((3*vol)>>2)<<(SecondaryLines.GAIN_BITS-8);
+		int duckStep=(SecondaryLines.UNITY<<DUCK_BITS)/(DUCK_FRAMES*Math.max(1,format.getChannels()));
+		int end=offset+(length&~1);
+		while(offset<end) {
+			int n=Math.min(mixBlock.length,(end-offset)>>1);
+			int k=secondaryLines.hasStreams()?secondaryLines.read(mixBlock,0,n):0;
+			if(k<=0) {
+				k=0;
+			}
+			int target=k>0?(vol-((3*vol)>>2))<<(SecondaryLines.GAIN_BITS-8+DUCK_BITS):SecondaryLines.UNITY<<DUCK_BITS;
+			for(int i=0;i<n;i++) {
+				if(duck!=target) {
+					duck=duck<target?Math.min(target,duck+duckStep):Math.max(target,duck-duckStep);
+				}
+				int o=(buffer[offset]&0xff)+(buffer[offset+1]<<8);
+				int s=o*(duck>>DUCK_BITS)+(i<k?mixBlock[i]*secondaryGain:0);
+				s>>=SecondaryLines.GAIN_BITS;
+				s=s>Short.MAX_VALUE?Short.MAX_VALUE:s<Short.MIN_VALUE?Short.MIN_VALUE:s;
+				buffer[offset++]=(byte)s;
+				buffer[offset++]=(byte)(s>>8);
+			}
+		}
+	}
+
 	@Override
 	public boolean isPlaying() {
 		return sink!=null&&!sink.paused;
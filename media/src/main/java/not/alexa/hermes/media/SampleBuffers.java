@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media;
+
+import java.util.ArrayDeque;
+
+/**
+ * Per thread scratch buffers of the default implementations in {@link AudioStream}. A buffer is borrowed for the duration of a call and
+ * returned afterwards. Every thread keeps a stack of buffers such that nested calls (like a stream reading from another stream) use different buffers.
+ *
+ * @author notalexa
+ */
+final class SampleBuffers {
+	private static final ThreadLocal<ArrayDeque<int[]>> SAMPLE=ThreadLocal.withInitial(ArrayDeque::new);
+	private static final ThreadLocal<ArrayDeque<int[]>> BLOCK=ThreadLocal.withInitial(ArrayDeque::new);
+
+	private SampleBuffers() {
+	}
+
+	/**
+	 *
+	 * @return a buffer for one sample
+	 */
+	static int[] borrowSample() {
+		return borrow(SAMPLE,1);
+	}
+
+	/**
+	 *
+	 * @return a buffer of {@link AudioStream#BLOCK_SIZE} samples
+	 */
+	static int[] borrowBlock() {
+		return borrow(BLOCK,AudioStream.BLOCK_SIZE);
+	}
+
+	/**
+	 * Return a borrowed buffer.
+	 *
+	 * @param buffer the buffer
+	 */
+	static void release(int[] buffer) {
+		(buffer.length==1?SAMPLE:BLOCK).get().push(buffer);
+	}
+
+	private static int[] borrow(ThreadLocal<ArrayDeque<int[]>> local,int size) {
+		int[] buffer=local.get().poll();
+		return buffer==null?new int[size]:buffer;
+	}
+}
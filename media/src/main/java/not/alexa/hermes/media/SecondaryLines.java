@@ -16,103 +16,208 @@
 package not.alexa.hermes.media;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
 
 import javax.sound.sampled.AudioFormat;
 
-import not.alexa.hermes.media.streams.Silence;
-
 /**
  * Class representing an audio stream consisting of several (typically short) streams. This class
  * is used to mix in additional streams into the main stream by {@link MasterStream}. Streams in this
  * class are for example generated using TTS software.
- * 
+ * <br>The streams are mixed in blocks of up to {@link AudioStream#BLOCK_SIZE} samples. Every stream contributes with the same gain
+ * (the average of all streams is played). If the number of streams changes, the gains ramp to their new value within {@value #RAMP_FRAMES} frames
+ * (new streams fade in) such that no clicks are audible. Samples are accumulated in integers with {@value #GAIN_BITS} bits of gain
+ * and clamped to 16 bits afterwards. Adding and removing streams doesn't allocate memory (unless more than the current capacity of streams are mixed).
+ *
  * @see MasterStream
  */
 public class SecondaryLines implements AudioStream {
-	private AudioStream first;
-	private List<AudioStream> streams=new ArrayList<>();
-	private int sampleSize;
-	private Set<Integer> remove=new HashSet<>();
+	/**
+	 * The number of fractional bits of gains.
+	 */
+	public static final int GAIN_BITS=12;
+	/**
+	 * The gain of {@code 1}.
+	 */
+	public static final int UNITY=1<<GAIN_BITS;
+	/**
+	 * The number of frames a gain change is spread over.
+	 */
+	public static final int RAMP_FRAMES=512;
+	// Gains are ramped with 8 additional bits of precision
+	private static final int RAMP_BITS=8;
+	private AudioStream[] streams=new AudioStream[4];
+	private int[] gains=new int[4];
+	private int[] targets=new int[4];
+	private int[] steps=new int[4];
+	private int[] ramps=new int[4];
+	private int count;
+	private final int[] block=new int[BLOCK_SIZE];
+	private final int[] accu=new int[BLOCK_SIZE];
+	private final int[] single=new int[1];
 	private AudioFormat format;
-	
+
 	public SecondaryLines(AudioFormat format) {
 		this.format=format;
 	}
-	
+
+	@Override
 	public int next() throws IOException {
-		int accu=first==null?0:first.next();
-		int audioAccu=0;
-		if(accu==Integer.MAX_VALUE) {
-			remove.add(-1);
-			first=new Silence(first.getFormat());
-		} else {
-			audioAccu=accu;
+		switch(read(single,0,1)) {
+			case 1:return single[0];
+			case END_OF_STREAM:return Integer.MAX_VALUE;
+			default:return Integer.MAX_VALUE-1;
 		}
-		switch(sampleSize) {
-			case 0:return Integer.MAX_VALUE;
-			case 1:return accu;
-			default:for(int i=0;i<sampleSize-1;i++) {
-					int a=streams.get(i).next();
-					if(a==Integer.MAX_VALUE) {
-						streams.set(i,new Silence(streams.get(i).getFormat()));
-						remove.add(i);
-					} else {
-						audioAccu+=a;
+	}
+
+	@Override
+	public int read(int[] samples,int offset,int length) throws IOException {
+		if(count==0) {
+			return END_OF_STREAM;
+		}
+		length=Math.min(length,BLOCK_SIZE);
+		Arrays.fill(accu,0,length,0);
+		for(int i=0;i<count;i++) {
+			int n=0;
+			while(n<length) {
+				int r=streams[i].read(block,n,length-n);
+				if(r<=0) {
+					if(r==END_OF_STREAM) {
+						// Mark the stream as finished
+						ramps[i]=-1;
 					}
+					break;
 				}
-				return audioAccu/sampleSize;
+				n+=r;
+			}
+			accumulate(i,n);
 		}
+		for(int i=0;i<length;i++) {
+			int s=accu[i]>>GAIN_BITS;
+			samples[offset+i]=s>Short.MAX_VALUE?Short.MAX_VALUE:s<Short.MIN_VALUE?Short.MIN_VALUE:s;
+		}
+		int removed=0;
+		for(int i=count-1;i>=0;i--) {
+			if(ramps[i]<0) {
+				streams[i].close();
+				remove(i);
+				removed++;
+			}
+		}
+		if(removed>0) {
+			retarget();
+		}
+		return length;
 	}
-	
-	public boolean hasStreams() {
-		return first!=null;
+
+	/**
+	 * Add the first {@code n} samples of the block scaled by the gain of stream {@code i} to the accumulator.
+	 */
+	private void accumulate(int i,int n) {
+		int gain=gains[i];
+		int k=0;
+		if(ramps[i]>0) {
+			int step=steps[i];
+			int end=Math.min(n,ramps[i]);
+			for(;k<end;k++) {
+				gain+=step;
+				accu[k]+=block[k]*(gain>>RAMP_BITS);
+			}
+			ramps[i]-=end;
+			if(ramps[i]==0) {
+				gain=targets[i];
+			}
+			gains[i]=gain;
+		} else if(ramps[i]==0&&n>0) {
+			gains[i]=gain=targets[i];
+		}
+		int g=gain>>RAMP_BITS;
+		// Constant gain: A simple loop the JIT is able to vectorize
+		for(;k<n;k++) {
+			accu[k]+=block[k]*g;
+		}
 	}
-	
-	public boolean update() {
-		if(first!=null) {
-			if(!remove.isEmpty()) for(Integer i:remove) {
-				if(i<0) {
-					if(streams.size()>0) {
-						first=streams.remove(0);
-					} else {
-						first=null;
-					}
-				} else {
-					streams.remove(i.intValue());
+
+	/**
+	 * Remove stream {@code i} by moving the last stream into its place.
+	 */
+	private void remove(int i) {
+		int last=--count;
+		streams[i]=streams[last];
+		gains[i]=gains[last];
+		targets[i]=targets[last];
+		steps[i]=steps[last];
+		ramps[i]=ramps[last];
+		streams[last]=null;
+	}
+
+	/**
+	 * Ramp every stream to the gain {@code 1/count}.
+	 */
+	private void retarget() {
+		if(count>0) {
+			int target=(UNITY<<RAMP_BITS)/count;
+			int length=RAMP_FRAMES*Math.max(1,format.getChannels());
+			for(int i=0;i<count;i++) {
+				if(ramps[i]>=0) {
+					targets[i]=target;
+					steps[i]=(target-gains[i])/length;
+					ramps[i]=length;
 				}
 			}
-			remove.clear();
-			if(first==null) {
-				sampleSize=0;
-			} else {
-				sampleSize=streams.size()+1;
-			}
-		} else {
-			sampleSize=0;
 		}
+	}
+
+	public boolean hasStreams() {
+		return count>0;
+	}
+
+	/**
+	 * Streams are removed while reading. This method is kept for compatibility.
+	 *
+	 * @return {@code true} if no streams are left
+	 */
+	public boolean update() {
 		return !hasStreams();
 	}
-	
+
 	public void add(AudioStream stream) {
-		if(first==null) {
-			first=stream;
-			sampleSize=1;
-		} else {
-			streams.add(stream);
+		if(stream==null) {
+			return;
+		}
+		if(count==streams.length) {
+			int capacity=2*count;
+			streams=Arrays.copyOf(streams,capacity);
+			gains=Arrays.copyOf(gains,capacity);
+			targets=Arrays.copyOf(targets,capacity);
+			steps=Arrays.copyOf(steps,capacity);
+			ramps=Arrays.copyOf(ramps,capacity);
 		}
+		streams[count]=stream;
+		// Fade in
+		gains[count]=0;
+		ramps[count]=0;
+		count++;
+		retarget();
 	}
-	
+
 	public SecondaryLines resample(AudioFormat format) {
-		if(first!=null) {
-			first=first.resample(format);
-			for(int i=0;i<streams.size();i++) {
-				streams.set(i,streams.get(i).resample(format));
+		this.format=format;
+		for(int i=0;i<count;i++) {
+			AudioStream resampled=streams[i].resample(format);
+			if(resampled==null) {
+				streams[i].close();
+				ramps[i]=-1;
+			} else {
+				streams[i]=resampled;
+			}
+		}
+		for(int i=count-1;i>=0;i--) {
+			if(ramps[i]<0) {
+				remove(i);
 			}
 		}
+		retarget();
 		return this;
 	}
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.io;
+
+import java.io.IOException;
+
+/**
+ * A buffered {@link SeekableInputStream}. Contrary to a {@code BufferedInputStream}, seeking is supported: Seeking inside the buffer
+ * only moves the position in the buffer, otherwise the buffer is discarded and the underlying stream is positioned. Reads larger than the buffer
+ * bypass the buffer.
+ * <br>Streams which don't need buffering (like the {@link MappedFileInputStream}) shouldn't be wrapped.
+ *
+ * @author notalexa
+ */
+public class BufferedSeekableInputStream extends SeekableInputStream {
+	private final SeekableInputStream in;
+	private final byte[] buffer;
+	// The position of the first byte of the buffer in the underlying stream
+	private long base;
+	private int count;
+	private int pos;
+	private long mark=-1;
+
+	/**
+	 *
+	 * @param in the stream to buffer
+	 * @param size the size of the buffer
+	 */
+	public BufferedSeekableInputStream(SeekableInputStream in,int size) {
+		this.in=in;
+		buffer=new byte[size];
+		base=in.currentPosition();
+	}
+
+	private boolean fill() throws IOException {
+		base+=count;
+		pos=count=0;
+		int n=in.read(buffer,0,buffer.length);
+		if(n>0) {
+			count=n;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(pos>=count&&!fill()) {
+			return -1;
+		}
+		return buffer[pos++]&0xff;
+	}
+
+	@Override
+	public int read(byte[] b,int off,int len) throws IOException {
+		if(len==0) {
+			return 0;
+		}
+		if(pos>=count) {
+			if(len>=buffer.length) {
+				int n=in.read(b,off,len);
+				if(n>0) {
+					base+=count+n;
+					pos=count=0;
+				}
+				return n;
+			}
+			if(!fill()) {
+				return -1;
+			}
+		}
+		len=Math.min(len,count-pos);
+		System.arraycopy(buffer,pos,b,off,len);
+		pos+=len;
+		return len;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if(n<=0) {
+			return 0;
+		}
+		if(pos<count) {
+			int skipped=(int)Math.min(n,count-pos);
+			pos+=skipped;
+			return skipped;
+		}
+		long skipped=in.skip(n);
+		if(skipped>0) {
+			base+=count+skipped;
+			pos=count=0;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return count-pos+in.available();
+	}
+
+	@Override
+	public boolean seekTo(long position) {
+		if(position>=base&&position<=base+count) {
+			pos=(int)(position-base);
+			return true;
+		}
+		if(in.seekTo(position)) {
+			base=in.currentPosition();
+			pos=count=0;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public long currentPosition() {
+		return base<0?-1:base+pos;
+	}
+
+	@Override
+	public long size() {
+		return in.size();
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		mark=currentPosition();
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		if(mark<0||!seekTo(mark)) {
+			throw new IOException("Resetting to invalid mark");
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
@@ -15,15 +15,29 @@
  */
 package not.alexa.hermes.media.io;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 import not.alexa.hermes.media.playback.Album;
 import not.alexa.netobjects.coding.ByteEncoder;
@@ -36,8 +50,11 @@ import not.alexa.hermes.media.AudioStream;
 import not.alexa.hermes.media.AudioStream.AudioInfo;
 import not.alexa.hermes.media.AudioStream.MediaType;
 import not.alexa.hermes.media.playback.Callback;
+import not.alexa.hermes.media.playback.Callback.DownloadEvent;
 import not.alexa.hermes.media.playback.PlaybackTrack;
 import not.alexa.hermes.media.playback.PlaybackTrackFacade;
+import not.alexa.hermes.media.streams.MP3AudioStream;
+import not.alexa.hermes.media.streams.MP3SeekTable;
 import not.alexa.netobjects.BaseException;
 import not.alexa.netobjects.Context;
 import not.alexa.netobjects.coding.json.JsonCodingScheme;
@@ -45,15 +62,52 @@ import not.alexa.netobjects.coding.json.JsonCodingScheme;
 /**
  * {@link PlaybackTrackFacade} implementing a simple cache. Configurable is the cache size limit and
  * the location (directory) of the cache.
+ * <br>The cache is safe for concurrent use: Lookups don't lock and the least recently used entries are evicted
+ * if the limit is exceeded. An entry consists of the audio file, the meta data and (for MP3 streams) the seek index. Files are
+ * written under a temporary name and renamed when complete, the meta data (containing the size and checksum of the audio file) last.
+ * The checksum is verified when the entry is used the first time. Invalid entries are removed.
+ * <br>Additions, accesses and removals are appended to a journal. On startup, the cache is rebuild from the journal (without reading
+ * the meta data of the entries). Files not referenced by the journal (left over by a crash) are removed.
+ * <br>Partial downloads (see {@link Callback#getPartialFile()}) are kept to resume the download later, but only as long as they fit into the space
+ * not used by the entries (the most recent first).
+ * <br>In front of the files, a {@link PcmCache} keeps the decoded audio of short tracks played completely. These tracks are
+ * played from memory without decoding.
  */
 public class CacheManager implements PlaybackTrackFacade {
 	private static final Logger LOGGER=LoggerFactory.getLogger(CacheManager.class);
+	private static final String JOURNAL="cache.journal";
+	private static final String JOURNAL_HEADER="cache-journal 1";
+	private static final char ADDED='+';
+	private static final char ACCESSED='*';
+	private static final char REMOVED='-';
+	/**
+	 * The default size of the in-memory tier (16MB).
+	 */
+	public static final long DEFAULT_MEMORY_LIMIT=16*1024*1024;
+	/**
+	 * The default maximal entry size of the in-memory tier (4MB which is about 24 seconds of 44.1kHz stereo audio).
+	 */
+	public static final int DEFAULT_MEMORY_ENTRY_SIZE=4*1024*1024;
+	/**
+	 * The default number of tracks downloaded concurrently when caching an album.
+	 */
+	public static final int DEFAULT_ALBUM_CONCURRENCY=3;
 	private Context context;
 	private File cacheDir;
 	private long limit;
-	private CacheMap metadataMap=new CacheMap();
+	private final Map<String,Metadata> entries=new ConcurrentHashMap<>();
+	private final AtomicLong totals=new AtomicLong();
+	private final AtomicLong clock=new AtomicLong();
+	private final Object evictionLock=new Object();
+	private final Object journalLock=new Object();
+	private volatile PcmCache memoryCache=new PcmCache(DEFAULT_MEMORY_LIMIT,DEFAULT_MEMORY_ENTRY_SIZE);
+	private Writer journal;
+	private int journalRecords;
 	private boolean unusable;
-	private Thread downloadThread;
+	private volatile int albumConcurrency=DEFAULT_ALBUM_CONCURRENCY;
+	private AlbumJob albumJob;
+	// The track played most recently (which is never evicted)
+	private volatile String playing;
 	
 	/**
 	 * Creates a cache manager at the given location with a limit of 20Mb.
@@ -83,34 +137,303 @@ public class CacheManager implements PlaybackTrackFacade {
 		}
 		unusable|=!(this.cacheDir.isDirectory()&&this.cacheDir.canRead()&&this.cacheDir.canWrite());
 		if(!unusable) {
-			File[] metaData=this.cacheDir.listFiles(new FilenameFilter() {
+			String[] files=this.cacheDir.list();
+			unusable|=files==null;
+			if(!unusable) {
+				if(!readJournal()) {
+					readMetadata();
+				}
+				cleanup(files);
+				compactJournal();
+				evict();
+				trimPartialFiles();
+			} else {
+				LOGGER.warn("Caching is disabled (location={}).",this.cacheDir.getAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Rebuild the cache from the journal.
+	 * 
+	 * @return {@code true} if the journal exists and is valid
+	 */
+	private boolean readJournal() {
+		File file=new File(cacheDir,JOURNAL);
+		if(!file.exists()) {
+			return false;
+		}
+		try(BufferedReader reader=new BufferedReader(new InputStreamReader(new FileInputStream(file),StandardCharsets.UTF_8))) {
+			if(!JOURNAL_HEADER.equals(reader.readLine())) {
+				return false;
+			}
+			String line;
+			while((line=reader.readLine())!=null) {
+				String[] record=line.split("\t");
+				if(record.length<2||record[0].length()!=1) {
+					// Incomplete (last) record
+					continue;
+				}
+				switch(record[0].charAt(0)) {
+					case ADDED:
+						if(record.length==3) try {
+							add(new Metadata(record[1],Long.parseLong(record[2])));
+						} catch(NumberFormatException e) {
+						}
+						break;
+					case ACCESSED:
+						Metadata metadata=entries.get(record[1]);
+						if(metadata!=null) {
+							metadata.access=clock.incrementAndGet();
+						}
+						break;
+					case REMOVED:
+						metadata=entries.remove(record[1]);
+						if(metadata!=null) {
+							totals.addAndGet(-metadata.length);
+						}
+						break;
+				}
+			}
+			return true;
+		} catch(IOException e) {
+			LOGGER.warn("Unable to read cache journal. Reading meta data.",e);
+			entries.clear();
+			totals.set(0);
+			return false;
+		}
+	}
+
+	/**
+	 * Rebuild the cache from the meta data files (if the journal doesn't exist).
+	 */
+	private void readMetadata() {
+		File[] metaData=cacheDir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".meta");
+			}
+		});
+		if(metaData!=null) {
+			Arrays.sort(metaData,new Comparator<File>() {
 				@Override
-				public boolean accept(File dir, String name) {
-					return name.endsWith(".meta");
+				public int compare(File o1, File o2) {
+					if(o1.lastModified()<o2.lastModified()) {
+						return -1;
+					} else if(o1.lastModified()>o2.lastModified()) {
+						return 1;
+					}
+					return o1.getName().compareTo(o2.getName());
 				}
 			});
-			unusable|=metaData==null;
-			if(!unusable) {
-				Arrays.sort(metaData,new Comparator<File>() {
-					@Override
-					public int compare(File o1, File o2) {
-						if(o1.lastModified()<o2.lastModified()) {
-							return -1;
-						} else if(o1.lastModified()>o2.lastModified()) {
-							return 1;
+			for(File f:metaData) {
+				String name=f.getName().substring(0,f.getName().length()-5);
+				add(new Metadata(name,new File(cacheDir,name+".audio").length()));
+			}
+		}
+	}
+
+	/**
+	 * Remove entries with missing files, files not belonging to an entry, temporary files and incomplete partial downloads.
+	 * 
+	 * @param files the files of the cache directory
+	 */
+	private void cleanup(String[] files) {
+		Set<String> existing=new HashSet<>(Arrays.asList(files));
+		for(Metadata metadata:new ArrayList<>(entries.values())) {
+			if(!existing.contains(metadata.name+".meta")||!existing.contains(metadata.name+".audio")) {
+				LOGGER.info("Remove incomplete cache entry {}.",metadata.name);
+				entries.remove(metadata.name);
+				totals.addAndGet(-metadata.length);
+				metadata.delete();
+			}
+		}
+		for(String file:files) {
+			int index=file.lastIndexOf('.');
+			String suffix=index<0?"":file.substring(index);
+			switch(suffix) {
+				case ".meta":
+				case ".audio":
+				case ".index":
+					if(entries.containsKey(file.substring(0,index))) {
+						break;
+					}
+					// Fall through
+				case ".tmp":
+					LOGGER.info("Remove stale cache file {}.",file);
+					new File(cacheDir,file).delete();
+					break;
+				case ".part":
+					if(existing.contains(file+".chunks")&&!entries.containsKey(file.substring(0,index))) {
+						break;
+					}
+					LOGGER.info("Remove stale cache file {}.",file);
+					new File(cacheDir,file).delete();
+					break;
+				case ".chunks":
+					// A partial download consists of the files <name>.part and <name>.part.chunks
+					if(file.endsWith(".part.chunks")&&existing.contains(file.substring(0,index))&&!entries.containsKey(file.substring(0,index-5))) {
+						break;
+					}
+					LOGGER.info("Remove stale cache file {}.",file);
+					new File(cacheDir,file).delete();
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Remove partial downloads not fitting into the space left by the entries (the oldest first). The partial download of the currently playing
+	 * track is kept.
+	 */
+	private void trimPartialFiles() {
+		File[] parts=cacheDir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(".part");
+			}
+		});
+		if(parts!=null) {
+			Arrays.sort(parts,(f1,f2)->Long.compare(f2.lastModified(),f1.lastModified()));
+			long available=limit-totals.get();
+			String playing=this.playing;
+			for(File part:parts) {
+				String name=part.getName().substring(0,part.getName().length()-5);
+				available-=part.length();
+				if(!name.equals(playing)&&(available<0||entries.containsKey(name))) {
+					LOGGER.info("Remove partial download {}.",name);
+					deletePartialFile(part);
+				}
+			}
+		}
+	}
+
+	private static void deletePartialFile(File part) {
+		part.delete();
+		new File(part.getPath()+".chunks").delete();
+	}
+
+	/**
+	 * Rewrite the journal containing the current entries only.
+	 */
+	private void compactJournal() {
+		synchronized (journalLock) {
+			closeJournal();
+			List<Metadata> sorted=new ArrayList<>(entries.values());
+			sorted.sort((m1,m2)->Long.compare(m1.access,m2.access));
+			File file=new File(cacheDir,JOURNAL);
+			File tmp=new File(cacheDir,JOURNAL+".tmp");
+			try(FileOutputStream out=new FileOutputStream(tmp)) {
+				Writer writer=new BufferedWriter(new OutputStreamWriter(out,StandardCharsets.UTF_8));
+				writer.write(JOURNAL_HEADER);
+				writer.write('\n');
+				for(Metadata metadata:sorted) {
+					writer.write(ADDED+"\t"+metadata.name+"\t"+metadata.length+"\n");
+				}
+				writer.flush();
+				out.getFD().sync();
+			} catch(IOException e) {
+				LOGGER.warn("Unable to write cache journal.",e);
+				tmp.delete();
+				return;
+			}
+			try {
+				Files.move(tmp.toPath(),file.toPath(),StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+				journal=new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file,true),StandardCharsets.UTF_8));
+				journalRecords=sorted.size();
+			} catch(IOException e) {
+				LOGGER.warn("Unable to write cache journal.",e);
+			}
+		}
+	}
+
+	private void closeJournal() {
+		if(journal!=null) {
+			try {
+				journal.close();
+			} catch(IOException e) {
+			}
+			journal=null;
+		}
+	}
+
+	private void append(char type,Metadata metadata) {
+		synchronized (journalLock) {
+			if(journal!=null) try {
+				journal.write(type+"\t"+metadata.name+(type==ADDED?"\t"+metadata.length:"")+"\n");
+				journal.flush();
+				if(++journalRecords>2*entries.size()+64) {
+					compactJournal();
+				}
+			} catch(IOException e) {
+				LOGGER.warn("Unable to write cache journal. Journaling is disabled.",e);
+				closeJournal();
+			}
+		}
+	}
+
+	/**
+	 * Add the entry (replacing an existing entry with the same name) as most recently used entry.
+	 * 
+	 * @return the replaced entry
+	 */
+	private Metadata add(Metadata metadata) {
+		metadata.access=clock.incrementAndGet();
+		Metadata old=entries.put(metadata.name,metadata);
+		totals.addAndGet(metadata.length-(old==null?0:old.length));
+		return old;
+	}
+
+	private void remove(Metadata metadata) {
+		if(entries.remove(metadata.name,metadata)) {
+			totals.addAndGet(-metadata.length);
+			append(REMOVED,metadata);
+			metadata.delete();
+		}
+	}
+
+	/**
+	 * Remove least recently used entries until the cache size is below the limit. The currently playing track is kept.
+	 */
+	private void evict() {
+		if(totals.get()>limit) {
+			synchronized (evictionLock) {
+				if(totals.get()>limit) {
+					List<Metadata> sorted=new ArrayList<>(entries.values());
+					sorted.sort((m1,m2)->Long.compare(m1.access,m2.access));
+					String playing=this.playing;
+					for(Metadata metadata:sorted) {
+						if(totals.get()<=limit) {
+							break;
+						}
+						if(metadata.name.equals(playing)) {
+							continue;
 						}
-						return o1.getName().compareTo(o2.getName());
+						LOGGER.info("Evict cache entry {}.",metadata.name);
+						remove(metadata);
 					}
-				});
-				for(File f:metaData) {
-					metadataMap.put(new Metadata(f));
 				}
-			} else {
-				LOGGER.warn("Caching is disabled (location={}).",this.cacheDir.getAbsolutePath());
 			}
 		}
 	}
 
+	/**
+	 * Set the in-memory tier of decoded audio.
+	 * 
+	 * @param memoryCache the cache to use or {@code null} to disable the in-memory tier
+	 */
+	public void setMemoryCache(PcmCache memoryCache) {
+		this.memoryCache=memoryCache;
+	}
+
+	/**
+	 * 
+	 * @return the in-memory tier of decoded audio (or {@code null} if disabled)
+	 */
+	public PcmCache getMemoryCache() {
+		return memoryCache;
+	}
+
 	public boolean isAlbumCachingSupported() {
 		return false;
 	}
@@ -119,41 +442,66 @@ public class CacheManager implements PlaybackTrackFacade {
 		return null;
 	}
 
+	/**
+	 * Set the number of tracks downloaded concurrently by {@link #cacheAlbum()}.
+	 * 
+	 * @param albumConcurrency the number of concurrent downloads (at least one)
+	 */
+	public void setAlbumConcurrency(int albumConcurrency) {
+		this.albumConcurrency=Math.max(1,albumConcurrency);
+	}
+
+	/**
+	 * 
+	 * @return the number of tracks downloaded concurrently by {@link #cacheAlbum()}
+	 */
+	public int getAlbumConcurrency() {
+		return albumConcurrency;
+	}
+
+	/**
+	 * Cache the tracks of the current album. Up to {@link #getAlbumConcurrency()} tracks are downloaded concurrently, the tracks following the
+	 * currently playing track first. Caching stops if the album is cached, the tracks already cached fill the cache (without the currently playing track)
+	 * or another album is played (or cached).
+	 * 
+	 * @return {@code true} if caching of the album started
+	 */
 	public synchronized boolean cacheAlbum() {
-		if(downloadThread!=null||!isAlbumCachingSupported()) {
-			LOGGER.info("Download already running. Exiting....");
+		if(!isAlbumCachingSupported()) {
 			return false;
 		}
 		Album album=getCurrentAlbum();
-		List<? extends PlaybackTrack> items=(album==null?Collections.<PlaybackTrack>emptyList():album.getAlbumTracks()).stream().filter(track -> {
-			String id=track.getId()+".meta";
-			return metadataMap.get(id)==null;
-		}).collect(Collectors.toList());
+		if(album==null) {
+			return false;
+		}
+		if(albumJob!=null) {
+			if(album.getId()!=null&&album.getId().equals(albumJob.album.getId())) {
+				LOGGER.info("Album {} is already cached. Exiting....",album.getName());
+				return false;
+			}
+			albumJob.cancel();
+		}
+		List<? extends PlaybackTrack> tracks=album.getAlbumTracks();
+		String playing=this.playing;
+		int current=-1;
+		for(int i=0;i<tracks.size()&&current<0;i++) {
+			if(tracks.get(i).getId().equals(playing)) {
+				current=i;
+			}
+		}
+		// The tracks following the current track first
+		List<PlaybackTrack> items=new ArrayList<>();
+		for(int i=1;i<=tracks.size();i++) {
+			PlaybackTrack track=tracks.get((current+i)%tracks.size());
+			if(!entries.containsKey(track.getId())&&!track.getId().equals(playing)) {
+				items.add(track);
+			}
+		}
 		LOGGER.info("Download list of size #{}",items.size());
 		if(!items.isEmpty()) {
-			downloadThread=new Thread("album-cacher") {
-				public void run() {
-					byte[] buffer=new byte[8192];
-					for(PlaybackTrack track:items) try {
-						LOGGER.info("Download track #{}",track.getId());
-						try (AudioStream stream = load(track, null)) {
-							int n;
-							while((n=stream.update(true, 100, 100, buffer, 0, buffer.length))>=0) {
-								if(n==0) {
-									System.out.println("N=0");
-								}
-							};
-						}
-						Thread.sleep(1000);
-					} catch(InterruptedException e) {
-					} catch (IOException e) {
-						LOGGER.warn("Caching track {} failed.",track.getId(),e);
-					}
-					downloadThread=null;
-				}
-			};
-			downloadThread.setDaemon(true);
-			downloadThread.start();
+			Metadata pinned=playing==null?null:entries.get(playing);
+			albumJob=new AlbumJob(album,items,limit-(pinned==null?0:pinned.length));
+			albumJob.start(Math.min(albumConcurrency,items.size()));
 		}
 		if(album.getId()!=null) try(OutputStream out=new FileOutputStream(new File(cacheDir,album.getId()+".album"));
 									ByteEncoder encoder=JsonCodingScheme.DEFAULT_SCHEME.createEncoder(context)) {
@@ -164,6 +512,108 @@ public class CacheManager implements PlaybackTrackFacade {
 		return true;
 
 	}
+
+	/**
+	 * Cancel caching of the current album (if any).
+	 */
+	public synchronized void cancelAlbumCaching() {
+		if(albumJob!=null) {
+			albumJob.cancel();
+			albumJob=null;
+		}
+	}
+
+	/**
+	 * A track is played. Caching of another album is cancelled.
+	 */
+	private void playing(String name) {
+		playing=name;
+		AlbumJob job=albumJob;
+		if(job!=null&&!job.contains(name)) {
+			synchronized (this) {
+				if(albumJob==job) {
+					LOGGER.info("Track {} is not part of album {}. Cancel caching.",name,job.album.getName());
+					cancelAlbumCaching();
+				}
+			}
+		}
+	}
+
+	private synchronized void finished(AlbumJob job) {
+		if(albumJob==job) {
+			albumJob=null;
+		}
+	}
+
+	/**
+	 * Job caching the tracks of an album. The tracks are taken from a queue by the worker threads.
+	 */
+	private class AlbumJob {
+		private final Album album;
+		private final Set<String> tracks=new HashSet<>();
+		private final Queue<PlaybackTrack> queue;
+		private final long budget;
+		private final AtomicLong cached=new AtomicLong();
+		private final AtomicInteger running=new AtomicInteger();
+		private volatile boolean cancelled;
+
+		private AlbumJob(Album album,List<PlaybackTrack> items,long budget) {
+			this.album=album;
+			this.budget=budget;
+			queue=new ConcurrentLinkedQueue<>(items);
+			for(PlaybackTrack track:album.getAlbumTracks()) {
+				tracks.add(track.getId());
+			}
+		}
+
+		private boolean contains(String name) {
+			return tracks.contains(name);
+		}
+
+		private void start(int concurrency) {
+			running.set(concurrency);
+			for(int i=0;i<concurrency;i++) {
+				Thread thread=new Thread(this::run,"album-cacher-"+i);
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+
+		private void cancel() {
+			cancelled=true;
+			queue.clear();
+		}
+
+		private void run() {
+			byte[] buffer=new byte[8192];
+			PlaybackTrack track;
+			while(!cancelled&&(track=queue.poll())!=null) {
+				if(cached.get()>=budget) {
+					LOGGER.info("Cache is full. Stop caching album {}.",album.getName());
+					cancel();
+					break;
+				}
+				if(entries.containsKey(track.getId())) {
+					continue;
+				}
+				LOGGER.info("Download track #{}",track.getId());
+				// Bypass the in-memory tier: Cached tracks are not played yet
+				try (AudioStream stream=loadStream(track,null)) {
+					while(!cancelled&&stream.update(true,100,100,buffer,0,buffer.length)>=0) {
+					}
+				} catch (IOException e) {
+					LOGGER.warn("Caching track {} failed.",track.getId(),e);
+				}
+				Metadata metadata=entries.get(track.getId());
+				if(metadata!=null) {
+					cached.addAndGet(metadata.length);
+				}
+			}
+			if(running.decrementAndGet()==0) {
+				finished(this);
+			}
+		}
+	}
 	
 	@Override
 	public PlaybackTrack decorate(PlaybackTrack info) {
@@ -176,6 +626,7 @@ public class CacheManager implements PlaybackTrackFacade {
 			
 			@Override
 			public AudioStream load(Callback listener) throws IOException {
+				playing(info.getId());
 				return CacheManager.this.load(info,listener);
 			}
 			
@@ -206,148 +657,212 @@ public class CacheManager implements PlaybackTrackFacade {
 	}
 
 	private AudioStream load(PlaybackTrack spec, Callback haltListener) throws IOException {
-		String id=spec.getId()+".meta";
-		Metadata cached=metadataMap.get(id);
-		while(true) {
-			if(cached==null) {
-				DownloadHandler downloadHandler=new DownloadHandler(haltListener);
-				AudioStream stream=spec.load(downloadHandler);
-				downloadHandler.metadata=new Metadata(new File(cacheDir,id),new CacheEntry(spec.getMediaType(),stream.getCurrentInfo()));
+		String name=spec.getId();
+		PcmCache memoryCache=this.memoryCache;
+		if(memoryCache!=null) {
+			AudioStream stream=memoryCache.get(name);
+			if(stream!=null) {
+				LOGGER.info("Track {} found in memory.",name);
 				return stream;
 			}
-			LOGGER.info("Track {} found in cache.",spec.getId());
-			cached.file.setLastModified(System.currentTimeMillis());
-			metadataMap.put(cached);
-			AudioStream stream=cached.create();
+		}
+		AudioStream stream=loadStream(spec,haltListener);
+		return memoryCache==null?stream:memoryCache.record(name,stream);
+	}
+
+	private AudioStream loadStream(PlaybackTrack spec, Callback haltListener) throws IOException {
+		String name=spec.getId();
+		Metadata cached=entries.get(name);
+		if(cached!=null) {
+			AudioStream stream=null;
+			try {
+				stream=cached.create();
+			} catch(IOException e) {
+				LOGGER.warn("Unable to open cache entry {}.",name,e);
+			}
 			if(stream!=null) {
+				LOGGER.info("Track {} found in cache.",name);
+				cached.access=clock.incrementAndGet();
+				append(ACCESSED,cached);
 				return stream;
-			} else {
-				System.out.println("Invalid cache entry");
-				cached=null;
+			}
+			LOGGER.warn("Invalid cache entry {}. Removing it.",name);
+			remove(cached);
+		}
+		DownloadHandler downloadHandler=new DownloadHandler(name,haltListener);
+		AudioStream stream=spec.load(downloadHandler);
+		downloadHandler.setMetadata(new Metadata(name,new CacheEntry(spec.getMediaType(),stream.getCurrentInfo())));
+		return stream;
+	}
+
+	/**
+	 * Write the download into the cache and add the entry.
+	 */
+	private void commit(Metadata metadata,DownloadEvent download) {
+		File audioTmp=null;
+		File metaTmp=null;
+		try {
+			audioTmp=Files.createTempFile(cacheDir.toPath(),metadata.name+".",".tmp").toFile();
+			CRC32 crc=new CRC32();
+			try(FileOutputStream fileOut=new FileOutputStream(audioTmp);
+				OutputStream out=new CheckedOutputStream(fileOut,crc)) {
+				metadata.entry.info=download.downloaded(metadata.entry.info,out);
+				out.flush();
+				fileOut.getFD().sync();
+			}
+			metadata.entry.length=audioTmp.length();
+			metadata.entry.crc=crc.getValue();
+			metadata.length=metadata.entry.length;
+			metadata.verified=true;
+			metaTmp=Files.createTempFile(cacheDir.toPath(),metadata.name+".",".tmp").toFile();
+			try(FileOutputStream out=new FileOutputStream(metaTmp)) {
+				out.write(JsonCodingScheme.REST_SCHEME.createEncoder(context).encode(metadata.entry).asBytes());
+				out.getFD().sync();
+			}
+			// An index of a replaced entry is outdated
+			metadata.getIndexFile().delete();
+			Files.move(audioTmp.toPath(),metadata.getAudioFile().toPath(),StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+			Files.move(metaTmp.toPath(),metadata.getMetaFile().toPath(),StandardCopyOption.ATOMIC_MOVE,StandardCopyOption.REPLACE_EXISTING);
+			add(metadata);
+			append(ADDED,metadata);
+			evict();
+			trimPartialFiles();
+		} catch(IOException|BaseException e) {
+			LOGGER.warn("Caching track {} failed.",metadata.name,e);
+			if(audioTmp!=null) {
+				audioTmp.delete();
+			}
+			if(metaTmp!=null) {
+				metaTmp.delete();
 			}
 		}
 	}
 	
 	private class Metadata {
-		Metadata next;
-		Metadata prev;
-		File file;
-		CacheEntry entry;
+		final String name;
+		volatile long length;
+		volatile long access;
+		volatile CacheEntry entry;
+		volatile boolean verified;
 		
-		Metadata(File file) {
-			this.file=file;
+		Metadata(String name,long length) {
+			this.name=name;
+			this.length=length;
 		}
 
-		Metadata(File file,CacheEntry entry) {
-			this.file=file;
+		Metadata(String name,CacheEntry entry) {
+			this.name=name;
 			this.entry=entry;
 		}
 		
-		protected void prepare() throws IOException, BaseException {
-			try(OutputStream out=new FileOutputStream(file)) {
-				out.write(JsonCodingScheme.REST_SCHEME.createEncoder(context).encode(entry).asBytes());
-			}
-		}
-		
 		protected AudioStream create() throws IOException {
 			File audioFile=getAudioFile();
 			CacheEntry entry=getWrapper();
-			return entry==null?null:entry.create(new SeekableFileInputStream(audioFile),(int)audioFile.length());
+			if(entry==null||!verify(entry,audioFile)) {
+				return null;
+			}
+			return entry.create(MappedFileInputStream.open(audioFile),(int)audioFile.length(),getIndexFile());
+		}
+
+		/**
+		 * Verify the size and checksum of the audio file (once). Entries written before checksums were introduced are accepted
+		 * if the file isn't empty.
+		 */
+		private boolean verify(CacheEntry entry,File audioFile) throws IOException {
+			if(!verified) {
+				if(entry.length<=0) {
+					verified=audioFile.length()>0;
+				} else if(audioFile.length()==entry.length) {
+					CRC32 crc=new CRC32();
+					try(InputStream in=new CheckedInputStream(new FileInputStream(audioFile),crc)) {
+						byte[] buffer=new byte[65536];
+						while(in.read(buffer)>=0);
+					}
+					verified=crc.getValue()==entry.crc;
+				}
+			}
+			return verified;
 		}
 
 		CacheEntry getWrapper() {
 			if(entry==null) {
 				synchronized (this) {
-					if(entry==null) try(InputStream in=new FileInputStream(file)) {
+					if(entry==null) try(InputStream in=new FileInputStream(getMetaFile())) {
 						entry=JsonCodingScheme.REST_SCHEME.createDecoder(context, in).decode(CacheEntry.class);
 					} catch(IOException|BaseException e) {
-						e.printStackTrace();
+						LOGGER.warn("Unable to read meta data of cache entry {}.",name,e);
 					}
 				}
 			}
 			return entry;
 		}
 		
+		public File getMetaFile() {
+			return new File(cacheDir,name+".meta");
+		}
+
 		public File getAudioFile() {
-			String name=file.getName().substring(0,file.getName().lastIndexOf('.'))+".audio";
-			return new File(cacheDir,name);
+			return new File(cacheDir,name+".audio");
+		}
+
+		public File getIndexFile() {
+			return new File(cacheDir,name+".index");
 		}
 
-		public void invalidate() {
-			file.delete();
+		public void delete() {
+			// The meta data first: An entry without meta data is invalid
+			getMetaFile().delete();
 			getAudioFile().delete();
+			getIndexFile().delete();
+			deletePartialFile(new File(cacheDir,name+".part"));
 		}		
 	}
 	
-	private class CacheMap extends HashMap<String,Metadata> {
-		private static final long serialVersionUID = 1L;
-		Metadata first;
-		Metadata last;
-		long totals;
-		
-		public void put(Metadata metadata) {
-			Metadata old=put(metadata.file.getName(),metadata);
-			if(old==null) {
-				totals+=metadata.getAudioFile().length();
-				while(totals>limit&&last!=null) {
-					totals-=last.getAudioFile().length();
-					last.invalidate();
-					remove(last.file.getName());
-					if(last.prev!=null) {
-						last.prev.next=null;
-					} else {
-						first=null;
-					}
-					last=last.prev;					
-				}
-				// Check for space
-			} else {
-				if(old.next!=null) {
-					old.next.prev=old.prev;
-				} else {
-					last=old.prev;
-				}
-				if(old.prev!=null) {
-					old.prev.next=old.next;
-				} else {
-					first=old.next;
-				}
-			}
-			if(first!=null) {
-				first.prev=metadata;
-			}
-			metadata.next=first;
-			first=metadata;
-			if(last==null) {
-				last=first;
-			}
-		}
-	}
-	
+	/**
+	 * Handler committing the download into the cache. The meta data is known after the stream is loaded only. If the download completes
+	 * before (for example if the partial download is complete already), the commit is deferred until the meta data is set.
+	 */
 	public class DownloadHandler implements Callback {
+		final String name;
 		Callback delegate;
-		Metadata metadata;
-		private DownloadHandler(Callback delegate) {
+		private Metadata metadata;
+		private DownloadEvent pending;
+		private DownloadHandler(String name,Callback delegate) {
+			this.name=name;
 			this.delegate=delegate;
 		}
 		
+		@Override
+		public File getPartialFile() {
+			return new File(cacheDir,name+".part");
+		}
+
+		private void setMetadata(Metadata metadata) {
+			DownloadEvent download;
+			synchronized (this) {
+				this.metadata=metadata;
+				download=pending;
+				pending=null;
+			}
+			if(download!=null) {
+				commit(metadata,download);
+			}
+		}
 
 		@Override
 		public void downloadComplete(DownloadEvent download) {
 			if(delegate!=null) {
 				delegate.downloadComplete(download);
 			}
-			if(metadata!=null) {
-				try(OutputStream out=new FileOutputStream(metadata.getAudioFile())) {
-					metadata.entry.info=download.downloaded(metadata.entry.info,out);
-					metadata.prepare();
-					metadataMap.put(metadata);
-				} catch(IOException|BaseException e) {
-					e.printStackTrace();
-					metadata.invalidate();
+			Metadata metadata;
+			synchronized (this) {
+				metadata=this.metadata;
+				if(metadata==null) {
+					pending=download;
+					return;
 				}
-
 			}
+			commit(metadata,download);
 		}
 
 		@Override
@@ -361,6 +876,8 @@ public class CacheManager implements PlaybackTrackFacade {
 	static class CacheEntry {
 		@JsonProperty AudioInfo info;
 		@JsonProperty MediaType type;
+		@JsonProperty long length;
+		@JsonProperty long crc;
 		CacheEntry() {}
 		public CacheEntry(MediaType type,AudioInfo info) {
 			this.type=type;
@@ -377,5 +894,36 @@ public class CacheManager implements PlaybackTrackFacade {
 		public AudioStream create(InputStream in,int size) throws IOException {
 			return type.create(in, size, info, getNormalizationFactor());
 		}
+
+		/**
+		 * Create the stream using the seek table persisted in the given index file (if the stream is an MP3 stream).
+		 * If the index file doesn't exist (or is outdated), the seek table of the stream is saved for later use (as soon as the stream is indexed).
+		 * 
+		 * @param in the stream
+		 * @param size the size of the stream
+		 * @param indexFile the index file of the entry
+		 * @return the stream
+		 * @throws IOException if creating the stream fails
+		 */
+		public AudioStream create(InputStream in,int size,File indexFile) throws IOException {
+			if(type!=MediaType.MP3) {
+				return create(in,size);
+			}
+			MP3SeekTable seekTable=MP3SeekTable.load(indexFile,size);
+			if(seekTable!=null) {
+				return new MP3AudioStream(in, info, getNormalizationFactor(), size, seekTable);
+			}
+			return new MP3AudioStream(in, info, getNormalizationFactor(), size, null) {
+				@Override
+				protected void onIndexed(MP3SeekTable seekTable) {
+					try {
+						seekTable.save(indexFile);
+					} catch(IOException e) {
+						LOGGER.warn("Unable to save seek table {}",indexFile.getName(),e);
+						indexFile.delete();
+					}
+				}
+			};
+		}
 	}
 }
@@ -15,50 +15,102 @@
  */
 package not.alexa.hermes.media.io;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import not.alexa.hermes.media.AudioStream.AudioInfo;
 import not.alexa.hermes.media.playback.Callback;
 
 /**
  * A seekable input stream based on a {@link ChunkProvider}.
- * 
+ * <br>Chunks ahead of the current position are prefetched. The size of the prefetch window adapts to the measured latency of
+ * chunk requests and the rate the stream is consumed with: The window covers twice the latency (but at least {@value #MIN_WINDOW}
+ * and at most {@value #MAX_WINDOW} chunks). If the window reaches the end of the stream, chunks skipped by seeking are requested too
+ * such that the download completes.
+ * <br>If a partial file is given (see {@link Callback#getPartialFile()}), completed chunks are written to this file and chunks
+ * behind the current position are released from memory. A partially downloaded stream continues with the chunks found in the file
+ * after a restart. The file is deleted when the stream is closed after the download completed. The download complete callback owns the file
+ * until it returns, closing the stream while the callback reads the chunks is safe.
+ *
  * @author notalexa
  * @see ChunkProvider
  */
 public class ChunkedInputStream extends SeekableInputStream {
+	private static final Logger LOGGER=LoggerFactory.getLogger(ChunkedInputStream.class);
+	/**
+	 * The minimal number of chunks prefetched.
+	 */
+	public static final int MIN_WINDOW=2;
+	/**
+	 * The maximal number of chunks prefetched.
+	 */
+	public static final int MAX_WINDOW=32;
+	// The window until measurements are available
+	private static final int INITIAL_WINDOW=5;
+	private static final double SMOOTHING=0.25;
 	private final long size;
 	private long pos;
 	private final int chunkSize;
 	private int chunk;
 	private int offset;
 	private final byte[][] chunks;
+	private final boolean[] requested;
+	private final long[] requestTime;
 	private int chunksLoaded;
-	private final Object waitLock=new Object();
+	private final ReentrantLock lock=new ReentrantLock();
+	private final Condition arrived=lock.newCondition();
 	private final int timeout;
 	private final ChunkProvider chunkProvider;
-	private IOException loaderException;
+	private final PartialFile partialFile;
+	private final AtomicBoolean complete=new AtomicBoolean();
+	private final AtomicBoolean closed=new AtomicBoolean();
+	private volatile IOException loaderException;
 	private boolean exceptionThrown;
-	
+	// Smoothed latency of a chunk request and time to consume a chunk (in nanoseconds)
+	private volatile double latency=-1;
+	private double consumeTime=-1;
+	private long chunkEntered;
+
 	/**
-	 * 
+	 *
 	 * @param timeout the timeout for loading a chunk
 	 * @param chunkProvider the chunk provider responsible for loading chunks
 	 */
 	public ChunkedInputStream(int timeout,ChunkProvider chunkProvider) {
-		this(timeout,chunkProvider,new byte[1+(int)((chunkProvider.size()/chunkProvider.chunkSize()))][]);
+		this(timeout,chunkProvider,chunkProvider.getPartialFile());
 	}
-	
-	private ChunkedInputStream(int timeout,ChunkProvider chunkProvider,byte[][] chunks) {
-		this.chunks=chunks;
+
+	/**
+	 *
+	 * @param timeout the timeout for loading a chunk
+	 * @param chunkProvider the chunk provider responsible for loading chunks
+	 * @param partialFile the file to persist completed chunks in (or {@code null})
+	 */
+	public ChunkedInputStream(int timeout,ChunkProvider chunkProvider,File partialFile) {
 		this.timeout=timeout;
 		this.chunkProvider=chunkProvider;
 		this.chunkSize=chunkProvider.chunkSize();
 		this.size=chunkProvider.size();
-		preload(0);
+		int n=1+(int)(size/chunkSize);
+		chunks=new byte[n][];
+		requested=new boolean[n];
+		requestTime=new long[n];
+		this.partialFile=partialFile==null?null:PartialFile.open(partialFile,size,chunkSize,n);
+		if(this.partialFile!=null) {
+			chunksLoaded=this.partialFile.stored();
+		}
+		enter(0);
 	}
-	
+
 	@Override
 	public int read() throws IOException {
 		if(pos==size) {
@@ -67,21 +119,9 @@ public class ChunkedInputStream extends SeekableInputStream {
 			}
 			return -1;
 		}
-		if(offset==chunkSize) {
-			this.chunk++;
-			this.offset=0;
-		}
-		try {
-			byte[] chunk=requestChunk(this.chunk,true);
-			pos++;
-			return chunk[offset++]&0xff;
-		} catch(IOException e) {
-			if(!exceptionThrown) {
-				exceptionThrown=true;
-				chunkProvider.downloadFailed(e);
-			}
-			throw e;
-		}
+		byte[] chunk=current();
+		pos++;
+		return chunk[offset++]&0xff;
 	}
 
 	@Override
@@ -92,21 +132,30 @@ public class ChunkedInputStream extends SeekableInputStream {
 			}
 			return -1;
 		}
+		byte[] chunk=current();
+		int n=(int)Math.min(length,Math.min(chunkSize-offset,size-pos));
+		System.arraycopy(chunk,offset, buffer,index, n);
+		pos+=n;
+		offset+=n;
+		return n;
+	}
+
+	/**
+	 *
+	 * @return the chunk at the current position (waiting for it if necessary)
+	 * @throws IOException if loading the chunk fails
+	 */
+	private byte[] current() throws IOException {
 		if(offset==chunkSize) {
-			this.chunk++;
-			preload(this.chunk);
 			this.offset=0;
+			enter(this.chunk+1);
 		}
 		try {
 			byte[] chunk=requestChunk(this.chunk,true);
-			if(buffer==null||chunk==null) {
-				throw new IOException("Internal chunk error"+buffer+", "+chunk);
+			if(chunk==null) {
+				throw new IOException("Internal chunk error (chunk #"+this.chunk+")");
 			}
-			int n=(int)Math.min(length,Math.min(chunkSize-offset,size-pos));
-			System.arraycopy(chunk,offset, buffer,index, n);
-			pos+=n;
-			offset+=n;
-			return n;
+			return chunk;
 		} catch(IOException e) {
 			if(!exceptionThrown) {
 				exceptionThrown=true;
@@ -121,20 +170,23 @@ public class ChunkedInputStream extends SeekableInputStream {
 		try {
 			int chunk=(int)(pos/chunkSize);
 			requestChunk(chunk,false);
-			this.chunk=chunk;
+			if(chunk!=this.chunk) {
+				chunkEntered=0;
+				enter(chunk);
+			}
 			offset=(int)(pos%chunkSize);
 			this.pos=(int)pos;
 			return true;
 		} catch(Throwable t) {
-			return false;			
+			return false;
 		}
 	}
-	
+
 	@Override
 	public long size() {
 		return size;
 	}
-	
+
 	@Override
 	public long currentPosition() {
 		return pos;
@@ -142,67 +194,204 @@ public class ChunkedInputStream extends SeekableInputStream {
 
 	@Override
 	public void close() {
+		if(closed.compareAndSet(false,true)) {
+			// The last chunk may have arrived without being reported yet
+			checkComplete();
+			if(partialFile!=null) {
+				partialFile.release(complete.get());
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the current size of the prefetch window (in chunks)
+	 */
+	public int getWindow() {
+		double latency=this.latency;
+		double consumeTime=this.consumeTime;
+		if(latency<0||consumeTime<=0) {
+			return INITIAL_WINDOW;
+		}
+		return (int)Math.max(MIN_WINDOW,Math.min(MAX_WINDOW,Math.ceil(2*latency/consumeTime)));
 	}
-	
+
 	public void writeChunk(int c,byte[] buffer) {
 		if(buffer.length>chunkSize||(buffer.length<chunkSize&&c!=chunks.length-1)) {
-			loaderException=new IOException("Illegal chunk size");
-			pos=size;
-		} else if(chunks[c]==null){
+			lock.lock();
+			try {
+				loaderException=new IOException("Illegal chunk size");
+				pos=size;
+				arrived.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			return;
+		}
+		lock.lock();
+		try {
+			if(isAvailable(c)) {
+				return;
+			}
 			chunks[c]=buffer;
-			synchronized (waitLock) {
-				chunksLoaded++;
-				waitLock.notifyAll();
-			}
-			if(chunksLoaded==chunks.length) {
-				chunkProvider.downloadComplete(new Callback.DownloadEvent() {
-					@Override
-					public AudioInfo downloaded(AudioInfo info,OutputStream out) throws IOException {
-						for(int i=0;i<chunks.length-1;i++) {
-							out.write(chunks[i],0,chunkSize);
-						}
-						out.write(chunks[chunks.length-1],0,(int)(size%chunkSize));
-						return info;
+			chunksLoaded++;
+			if(requestTime[c]>0) {
+				latency=smooth(latency,System.nanoTime()-requestTime[c]);
+			}
+			arrived.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if(partialFile!=null) {
+			partialFile.write(c,buffer);
+		}
+		checkComplete();
+	}
+
+	private void checkComplete() {
+		if(chunksLoaded==chunks.length&&complete.compareAndSet(false,true)) {
+			// Keep the partial file open while the chunks are read
+			boolean acquired=partialFile!=null&&partialFile.acquire();
+			try {
+				downloadComplete();
+			} finally {
+				if(acquired) {
+					partialFile.release(true);
+				}
+			}
+		}
+	}
+
+	private void downloadComplete() {
+		chunkProvider.downloadComplete(new Callback.DownloadEvent() {
+			@Override
+			public AudioInfo downloaded(AudioInfo info,OutputStream out) throws IOException {
+				for(int i=0;i<chunks.length;i++) {
+					byte[] chunk=chunk(i);
+					int length=i<chunks.length-1?chunkSize:(int)(size%chunkSize);
+					if(chunk==null||chunk.length<length) {
+						throw new IOException("Chunk #"+i+" is not available");
 					}
-				});
+					out.write(chunk,0,length);
+				}
+				return info;
+			}
+		});
+	}
+
+	/**
+	 * Enter the given chunk: Update the consumption rate, release chunks behind it and prefetch chunks ahead.
+	 *
+	 * @param chunk the chunk entered
+	 */
+	private void enter(int chunk) {
+		long now=System.nanoTime();
+		if(chunk==this.chunk+1&&chunkEntered>0) {
+			consumeTime=smooth(consumeTime,now-chunkEntered);
+		}
+		chunkEntered=now;
+		this.chunk=chunk;
+		if(partialFile!=null) {
+			// Chunks behind the current position are read from the file if needed again
+			for(int i=0;i<chunk-1;i++) {
+				if(chunks[i]!=null&&partialFile.isStored(i)) {
+					chunks[i]=null;
+				}
 			}
 		}
+		prefetch(chunk);
+		checkComplete();
 	}
-	
+
 	protected void preload(int chunk) {
-		int to=Math.min(chunks.length,chunk+(chunk<5?5:chunks.length));
+		prefetch(chunk);
+	}
+
+	private void prefetch(int chunk) {
+		int window=getWindow();
+		int to=Math.min(chunks.length,chunk+1+window);
 		try {
 			for(int i=chunk+1;i<to;i++) {
-				if(chunks[i]==null) {
-					requestChunk(i, false);
+				request(i);
+			}
+			if(to==chunks.length) {
+				// Complete the download
+				for(int i=0;i<chunk&&window>0;i++) {
+					if(!isAvailable(i)&&!requested[i]) {
+						request(i);
+						window--;
+					}
 				}
 			}
 		} catch(Throwable t) {
 		}
 	}
-	
+
+	private static double smooth(double average,long value) {
+		return average<0?value:average+SMOOTHING*(value-average);
+	}
+
+	private boolean isAvailable(int chunk) {
+		return chunks[chunk]!=null||(partialFile!=null&&partialFile.isStored(chunk));
+	}
+
+	/**
+	 *
+	 * @param chunk the chunk
+	 * @return the chunk if available in memory or in the partial file, {@code null} otherwise
+	 */
+	private byte[] chunk(int chunk) throws IOException {
+		byte[] buffer=chunks[chunk];
+		if(buffer==null&&partialFile!=null&&partialFile.isStored(chunk)) {
+			buffer=partialFile.read(chunk);
+		}
+		return buffer;
+	}
+
+	/**
+	 * Request the chunk from the provider (if not requested yet).
+	 *
+	 * @param chunk the chunk to request
+	 */
+	private void request(int chunk) {
+		byte[] buffer=null;
+		synchronized(this) {
+			if(requested[chunk]||isAvailable(chunk)) {
+				return;
+			}
+			requested[chunk]=true;
+			requestTime[chunk]=System.nanoTime();
+			buffer=chunkProvider.requestChunk(chunk,this::writeChunk);
+		}
+		if(buffer!=null) {
+			writeChunk(chunk,buffer);
+		}
+	}
+
 	protected byte[] requestChunk(int chunk,boolean wait) throws IOException {
 		byte[] buffer=chunks[chunk];
+		if(buffer==null&&partialFile!=null&&partialFile.isStored(chunk)) {
+			buffer=chunks[chunk]=partialFile.read(chunk);
+		}
 		if(buffer==null) {
-			synchronized(this) {
-				if(buffer==null) {
-					buffer=chunkProvider.requestChunk(chunk,this::writeChunk);
-				}
-			}
+			request(chunk);
 			if(wait) {
-				long waitTime=0;
-				while(buffer==null&&loaderException==null) try {
-					synchronized (waitLock) {
-						waitLock.wait(100);
-						buffer=chunks[chunk];
-						waitTime+=100;
-						if(waitTime>timeout) {
+				lock.lock();
+				try {
+					long remaining=TimeUnit.MILLISECONDS.toNanos(timeout);
+					while(!isAvailable(chunk)&&loaderException==null) {
+						if(remaining<=0) {
 							throw new IOException("Timeout while waiting for chunk #"+chunk);
 						}
+						remaining=arrived.awaitNanos(remaining);
 					}
 				} catch(InterruptedException e) {
 					throw new IOException(e);
+				} finally {
+					lock.unlock();
 				}
+				buffer=chunk(chunk);
+				chunks[chunk]=buffer;
 			}
 			if(loaderException!=null) {
 				throw loaderException;
@@ -210,4 +399,123 @@ public class ChunkedInputStream extends SeekableInputStream {
 		}
 		return buffer;
 	}
+
+	/**
+	 * File containing the chunks downloaded so far. The chunks are written at their position in the stream. A second file (with suffix {@code .chunks})
+	 * contains the size and chunk size of the stream and one byte per chunk marking the chunks written completely.
+	 */
+	private static class PartialFile {
+		private static final int HEADER_SIZE=12;
+		private final File file;
+		private final File markers;
+		private final RandomAccessFile data;
+		private final RandomAccessFile stored;
+		private final boolean[] flags;
+		private final long size;
+		private final int chunkSize;
+		private int users=1;
+		private boolean complete;
+		private boolean closed;
+
+		private PartialFile(File file,File markers,long size,int chunkSize,int chunks) throws IOException {
+			this.file=file;
+			this.markers=markers;
+			this.size=size;
+			this.chunkSize=chunkSize;
+			flags=new boolean[chunks];
+			data=new RandomAccessFile(file,"rw");
+			stored=new RandomAccessFile(markers,"rw");
+			if(stored.length()==HEADER_SIZE+chunks&&data.length()==size&&stored.readLong()==size&&stored.readInt()==chunkSize) {
+				byte[] marks=new byte[chunks];
+				stored.readFully(marks);
+				for(int i=0;i<chunks;i++) {
+					flags[i]=marks[i]!=0;
+				}
+			} else {
+				data.setLength(size);
+				stored.setLength(0);
+				stored.writeLong(size);
+				stored.writeInt(chunkSize);
+				stored.write(new byte[chunks]);
+			}
+		}
+
+		private static PartialFile open(File file,long size,int chunkSize,int chunks) {
+			try {
+				return new PartialFile(file,new File(file.getPath()+".chunks"),size,chunkSize,chunks);
+			} catch(IOException e) {
+				LOGGER.warn("Unable to open partial file {}. Chunks are kept in memory.",file,e);
+				return null;
+			}
+		}
+
+		private synchronized int stored() {
+			int n=0;
+			for(boolean flag:flags) {
+				if(flag) {
+					n++;
+				}
+			}
+			return n;
+		}
+
+		private synchronized boolean isStored(int chunk) {
+			return flags[chunk];
+		}
+
+		private synchronized void write(int chunk,byte[] buffer) {
+			if(!closed&&!flags[chunk]) try {
+				data.seek((long)chunk*chunkSize);
+				data.write(buffer);
+				// Mark the chunk after writing the data
+				stored.seek(HEADER_SIZE+chunk);
+				stored.write(1);
+				flags[chunk]=true;
+			} catch(IOException e) {
+				LOGGER.warn("Unable to write chunk #{} to {}.",chunk,file,e);
+			}
+		}
+
+		private synchronized byte[] read(int chunk) throws IOException {
+			long position=(long)chunk*chunkSize;
+			byte[] buffer=new byte[(int)Math.min(chunkSize,size-position)];
+			data.seek(position);
+			data.readFully(buffer);
+			return buffer;
+		}
+
+		/**
+		 * Acquire the file (which is used by the stream initially).
+		 *
+		 * @return {@code true} if the file is acquired, {@code false} if the file is closed already
+		 */
+		private synchronized boolean acquire() {
+			if(closed) {
+				return false;
+			}
+			users++;
+			return true;
+		}
+
+		/**
+		 * Release the file. The file is closed if released by the last user and deleted if one of the users completed the download.
+		 *
+		 * @param complete {@code true} if the download is complete
+		 */
+		private synchronized void release(boolean complete) {
+			this.complete|=complete;
+			if(!closed&&--users==0) {
+				closed=true;
+				try {
+					data.close();
+					stored.close();
+				} catch(IOException e) {
+				}
+				if(this.complete) {
+					file.delete();
+					markers.delete();
+				}
+			}
+		}
+	}
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link SeekableInputStream} based on a memory mapped file. Reading copies directly from the page cache
+ * and seeking only sets the position of the buffer, neither needs a system call.
+ * <br>Files are typically opened using {@link #open(File)} which falls back to a {@link SeekableFileInputStream}
+ * if mapping isn't worth it (small files) or not possible (files larger than 2GB or file systems not supporting mapping).
+ * <br>Note that the mapping is released when the stream is garbage collected (and not on {@link #close()}).
+ *
+ * @author notalexa
+ */
+public class MappedFileInputStream extends SeekableInputStream {
+	private static final Logger LOGGER=LoggerFactory.getLogger(MappedFileInputStream.class);
+	/**
+	 * Files smaller than this size (in bytes) are not mapped by {@link #open(File)}.
+	 */
+	public static final int MAPPING_THRESHOLD=64*1024;
+	private MappedByteBuffer buffer;
+	private int mark;
+
+	public MappedFileInputStream(String file) throws IOException {
+		this(new File(file));
+	}
+
+	public MappedFileInputStream(File file) throws IOException {
+		try(FileChannel channel=FileChannel.open(file.toPath(),StandardOpenOption.READ)) {
+			long size=channel.size();
+			if(size>Integer.MAX_VALUE) {
+				throw new IOException("File "+file+" too large for mapping");
+			}
+			buffer=channel.map(MapMode.READ_ONLY,0,size);
+		}
+	}
+
+	/**
+	 * Open a seekable stream for the given file.
+	 *
+	 * @param file the file to open
+	 * @return a memory mapped stream if the file size is at least {@link #MAPPING_THRESHOLD} and mapping succeeds, a {@link SeekableFileInputStream} otherwise
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static SeekableInputStream open(File file) throws IOException {
+		long size=file.length();
+		if(size>=MAPPING_THRESHOLD&&size<=Integer.MAX_VALUE) try {
+			return new MappedFileInputStream(file);
+		} catch(IOException|UnsupportedOperationException e) {
+			LOGGER.debug("Mapping of {} failed. Fall back to file access.",file,e);
+		}
+		return new SeekableFileInputStream(file);
+	}
+
+	private MappedByteBuffer buffer() throws IOException {
+		MappedByteBuffer buffer=this.buffer;
+		if(buffer==null) {
+			throw new IOException("Stream closed");
+		}
+		return buffer;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return buffer().remaining();
+	}
+
+	@Override
+	public long size() {
+		MappedByteBuffer buffer=this.buffer;
+		return buffer==null?-1:buffer.capacity();
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer=null;
+	}
+
+	@Override
+	public synchronized void mark(int readlimit) {
+		if(buffer!=null) {
+			mark=buffer.position();
+		}
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		buffer().position(mark);
+	}
+
+	@Override
+	public int read() throws IOException {
+		MappedByteBuffer buffer=buffer();
+		return buffer.hasRemaining()?buffer.get()&0xff:-1;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		MappedByteBuffer buffer=buffer();
+		if(len==0) {
+			return 0;
+		}
+		len=Math.min(len,buffer.remaining());
+		if(len==0) {
+			return -1;
+		}
+		buffer.get(b,off,len);
+		return len;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		MappedByteBuffer buffer=buffer();
+		int skipped=(int)Math.max(0,Math.min(n,buffer.remaining()));
+		buffer.position(buffer.position()+skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean seekTo(long position) {
+		MappedByteBuffer buffer=this.buffer;
+		if(buffer==null) {
+			return false;
+		}
+		buffer.position((int)Math.max(0,Math.min(position,buffer.limit())));
+		return true;
+	}
+
+	@Override
+	public long currentPosition() {
+		MappedByteBuffer buffer=this.buffer;
+		return buffer==null?-1:buffer.position();
+	}
+}
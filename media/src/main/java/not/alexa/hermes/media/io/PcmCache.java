@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.io;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+import javax.sound.sampled.LineEvent;
+
+import not.alexa.hermes.media.AudioControls;
+import not.alexa.hermes.media.AudioStream;
+import not.alexa.hermes.media.streams.ByteArrayAudioStream;
+
+/**
+ * Bounded in-memory cache of decoded audio (16 bit signed little endian PCM). A stream is recorded while it's played
+ * (see {@link #record(String, AudioStream)}) and added to the cache if it was played completely without seeking.
+ * Afterwards, the audio is served from memory without decoding (see {@link #get(String)}).
+ * <br>The size of the cache is the total size of the PCM data. If it exceeds the limit, the least recently used entries are evicted.
+ * Streams larger than the maximal entry size are neither recorded nor cached.
+ *
+ * @author notalexa
+ */
+public class PcmCache {
+	private final long limit;
+	private final int maxEntrySize;
+	private final LinkedHashMap<String,Entry> entries=new LinkedHashMap<>(16,0.75f,true);
+	private long size;
+	private final AtomicLong hits=new AtomicLong();
+	private final AtomicLong misses=new AtomicLong();
+	private final AtomicLong evictions=new AtomicLong();
+
+	/**
+	 *
+	 * @param limit the maximal size of the cache in bytes
+	 * @param maxEntrySize the maximal size of one entry in bytes
+	 */
+	public PcmCache(long limit,int maxEntrySize) {
+		this.limit=limit;
+		this.maxEntrySize=(int)Math.min(limit,maxEntrySize);
+	}
+
+	/**
+	 *
+	 * @param key the key
+	 * @return a stream playing the cached audio or {@code null} if the key isn't cached
+	 */
+	public AudioStream get(String key) {
+		Entry entry;
+		synchronized (this) {
+			entry=entries.get(key);
+		}
+		if(entry==null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return new CachedStream(entry);
+	}
+
+	/**
+	 * Record the given stream. If the stream can't be cached (because it's an infinite stream, not in 16 bit PCM format or known to be too large),
+	 * the stream itself is returned.
+	 *
+	 * @param key the key
+	 * @param stream the stream to record
+	 * @return the recording stream
+	 */
+	public AudioStream record(String key,AudioStream stream) {
+		AudioFormat format=stream.getFormat();
+		AudioStream.AudioInfo info=stream.getCurrentInfo();
+		if(stream.isStream()||!isSupported(format)) {
+			return stream;
+		}
+		long expected=info==null||info.getDuration()<=0?0:(long)(info.getDuration()*format.getFrameRate()*format.getFrameSize());
+		return expected>maxEntrySize?stream:new Recorder(key,stream,(int)expected);
+	}
+
+	/**
+	 * Add audio data to the cache.
+	 *
+	 * @param key the key
+	 * @param format the format of the data
+	 * @param info the info of the stream
+	 * @param data the data (which must not be modified afterwards)
+	 * @return {@code true} if the data was added
+	 */
+	public boolean put(String key,AudioFormat format,AudioStream.AudioInfo info,byte[] data) {
+		if(data.length>maxEntrySize||!isSupported(format)) {
+			return false;
+		}
+		synchronized (this) {
+			Entry old=entries.put(key,new Entry(format,info,data));
+			size+=data.length-(old==null?0:old.data.length);
+			Iterator<Entry> iterator=entries.values().iterator();
+			while(size>limit&&iterator.hasNext()) {
+				Entry eldest=iterator.next();
+				iterator.remove();
+				size-=eldest.data.length;
+				evictions.incrementAndGet();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Remove an entry.
+	 *
+	 * @param key the key of the entry
+	 */
+	public synchronized void remove(String key) {
+		Entry entry=entries.remove(key);
+		if(entry!=null) {
+			size-=entry.data.length;
+		}
+	}
+
+	/**
+	 * Remove all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size=0;
+	}
+
+	/**
+	 *
+	 * @return the size of the cached data in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the number of cached entries
+	 */
+	public synchronized int getEntries() {
+		return entries.size();
+	}
+
+	/**
+	 *
+	 * @return the number of successful lookups
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 *
+	 * @return the number of failed lookups
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 *
+	 * @return the number of entries evicted so far
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	private static boolean isSupported(AudioFormat format) {
+		return format!=null
+				&&format.getEncoding().equals(Encoding.PCM_SIGNED)
+				&&format.getSampleSizeInBits()==16
+				&&!format.isBigEndian();
+	}
+
+	private static class Entry {
+		private final AudioFormat format;
+		private final AudioStream.AudioInfo info;
+		private final byte[] data;
+
+		private Entry(AudioFormat format,AudioStream.AudioInfo info,byte[] data) {
+			this.format=format;
+			this.info=info;
+			this.data=data;
+		}
+	}
+
+	private static class CachedStream extends ByteArrayAudioStream {
+		private final AudioStream.AudioInfo info;
+
+		private CachedStream(Entry entry) {
+			super(entry.format,0,entry.data);
+			this.info=entry.info;
+		}
+
+		@Override
+		public AudioStream.AudioInfo getCurrentInfo() {
+			return info==null?null:info.forPosition(time());
+		}
+	}
+
+	/**
+	 * Stream recording the samples of the delegate while they are read. The recording is added to the cache if the end of the stream is reached.
+	 * Seeking or exceeding the maximal entry size stops recording.
+	 */
+	private class Recorder implements AudioStream {
+		private final String key;
+		private final AudioStream delegate;
+		private byte[] data;
+		private int size;
+
+		private Recorder(String key,AudioStream delegate,int expected) {
+			this.key=key;
+			this.delegate=delegate;
+			data=new byte[Math.min(maxEntrySize,Math.max(expected,65536))];
+		}
+
+		private void record(int[] samples,int offset,int length) {
+			if(data!=null&&ensure(2*length)) {
+				for(int i=0;i<length;i++) {
+					int sample=samples[offset+i];
+					data[size++]=(byte)sample;
+					data[size++]=(byte)(sample>>8);
+				}
+			}
+		}
+
+		private boolean ensure(int length) {
+			if(size+length>data.length) {
+				if(size+length>maxEntrySize) {
+					data=null;
+					return false;
+				}
+				byte[] newData=new byte[(int)Math.min(maxEntrySize,Math.max(size+length,2L*data.length))];
+				System.arraycopy(data,0,newData,0,size);
+				data=newData;
+			}
+			return true;
+		}
+
+		private void finish() {
+			if(data!=null) {
+				byte[] recorded=data;
+				if(recorded.length!=size) {
+					recorded=new byte[size];
+					System.arraycopy(data,0,recorded,0,size);
+				}
+				data=null;
+				put(key,delegate.getFormat(),delegate.getCurrentInfo(),recorded);
+			}
+		}
+
+		@Override
+		public int next() throws IOException {
+			int sample=delegate.next();
+			if(sample==Integer.MAX_VALUE) {
+				finish();
+			} else if(sample<=0x10000&&data!=null&&ensure(2)) {
+				data[size++]=(byte)sample;
+				data[size++]=(byte)(sample>>8);
+			}
+			return sample;
+		}
+
+		@Override
+		public int read(int[] samples,int offset,int length) throws IOException {
+			int n=delegate.read(samples,offset,length);
+			if(n>0) {
+				record(samples,offset,n);
+			} else if(n==END_OF_STREAM) {
+				finish();
+			}
+			return n;
+		}
+
+		/**
+		 * Updates are read using {@link #read(int[], int, int)} such that the unscaled samples are recorded.
+		 */
+		@Override
+		public int update(boolean primary,int totalVolume,int volume,byte[] buffer,int offset,int length) throws IOException {
+			return AudioStream.super.update(primary,totalVolume,volume,buffer,offset,length);
+		}
+
+		@Override
+		public boolean seekTo(float time) {
+			data=null;
+			return delegate.seekTo(time);
+		}
+
+		@Override
+		public AudioFormat getFormat() {
+			return delegate.getFormat();
+		}
+
+		@Override
+		public boolean isStream() {
+			return delegate.isStream();
+		}
+
+		@Override
+		public AudioStream.AudioInfo getCurrentInfo() {
+			return delegate.getCurrentInfo();
+		}
+
+		@Override
+		public void setAudioControls(AudioControls controls) {
+			delegate.setAudioControls(controls);
+		}
+
+		@Override
+		public void onAudioStateChanged() {
+			delegate.onAudioStateChanged();
+		}
+
+		@Override
+		public void update(LineEvent event) {
+			delegate.update(event);
+		}
+
+		@Override
+		public void close() {
+			data=null;
+			delegate.close();
+		}
+	}
+}
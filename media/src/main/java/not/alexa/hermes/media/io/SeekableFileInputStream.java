@@ -30,6 +30,7 @@ public class SeekableFileInputStream extends SeekableInputStream {
 	private final File file;
 	private final RandomAccessFile randomAccessFile;
 	private final FileInputStream in;
+	private long mark;
 
 	public SeekableFileInputStream(String file) throws IOException {
 		this(new File(file));
@@ -60,11 +61,11 @@ public class SeekableFileInputStream extends SeekableInputStream {
 	}
 
 	public void mark(int readlimit) {
-		in.mark(readlimit);
+		mark=currentPosition();
 	}
 
 	public boolean markSupported() {
-		return in.markSupported();
+		return true;
 	}
 
 	public int read() throws IOException {
@@ -80,7 +81,7 @@ public class SeekableFileInputStream extends SeekableInputStream {
 	}
 
 	public void reset() throws IOException {
-		in.reset();
+		randomAccessFile.seek(mark);
 	}
 
 	public long skip(long n) throws IOException {
@@ -15,6 +15,7 @@
  */
 package not.alexa.hermes.media.playback;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -43,6 +44,16 @@ public interface Callback {
 	public default void downloadFailed(Throwable cause) {
 	}
 	
+	/**
+	 * File for keeping the chunks downloaded so far. If the download is interrupted, it can be resumed
+	 * with the chunks contained in this file.
+	 * 
+	 * @return the file for partial downloads or {@code null} if partial downloads shouldn't be persisted
+	 */
+	public default File getPartialFile() {
+		return null;
+	}
+	
 	/**
 	 * Parameter to {@link Callback#downloadComplete(DownloadEvent). Allows to
 	 * get the (complete) audio stream as a file.
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.playback;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+
+import not.alexa.hermes.media.AudioStream;
+
+/**
+ * Preallocated ring buffer for PCM samples between exactly one producer (the decoder) and exactly one consumer (the audio sink).
+ * Neither side locks: The producer publishes samples by advancing the (volatile) write position, the consumer frees space by
+ * advancing the (volatile) read position. Reading never waits. If the buffer is full, the producer is expected to retry later.
+ * <br>The buffer counts
+ * <ul>
+ * <li><i>underruns</i>: the number of reads which found the buffer empty after data has been written and before the producer finished.
+ * <li><i>overruns</i>: the number of times the producer found the buffer full. Since the decoder is typically faster than the playback,
+ * this is the normal state and indicates that the buffer is well filled.
+ * </ul>
+ *
+ * @author notalexa
+ */
+public class PcmRingBuffer {
+	private final int[] buffer;
+	private final int mask;
+	private volatile long readPos;
+	private volatile long writePos;
+	// Samples before this position are skipped by the consumer
+	private volatile long discardPos;
+	private volatile boolean finished;
+	private volatile long underruns;
+	private volatile long overruns;
+	// Producer only
+	private boolean full;
+
+	/**
+	 *
+	 * @param capacity the minimal capacity of this buffer in samples (rounded up to the next power of two)
+	 */
+	public PcmRingBuffer(int capacity) {
+		int n=Integer.highestOneBit(Math.max(2,capacity)-1)<<1;
+		buffer=new int[n];
+		mask=n-1;
+	}
+
+	/**
+	 *
+	 * @param format the format of the samples
+	 * @param millis the depth of the buffer in milliseconds
+	 * @return a buffer holding (at least) the given duration of audio data
+	 */
+	public static PcmRingBuffer forDuration(AudioFormat format,int millis) {
+		return new PcmRingBuffer((int)(format.getSampleRate()*format.getChannels()*millis/1000));
+	}
+
+	/**
+	 *
+	 * @return the capacity of this buffer in samples
+	 */
+	public int capacity() {
+		return buffer.length;
+	}
+
+	/**
+	 *
+	 * @return the number of samples available for reading
+	 */
+	public int available() {
+		return (int)(writePos-Math.max(readPos,discardPos));
+	}
+
+	/**
+	 * Fill the free space of the buffer with samples of the given stream. The samples are read into the buffer directly.
+	 * <br>This method must be called by the producer only.
+	 *
+	 * @param stream the stream to read from
+	 * @return the number of samples written, {@code 0} if the buffer is full or one of the status values of {@link AudioStream#read(int[], int, int)}
+	 * @throws IOException if reading the stream fails
+	 */
+	public int fill(AudioStream stream) throws IOException {
+		long w=writePos;
+		int free=buffer.length-(int)(w-readPos);
+		if(free==0) {
+			if(!full) {
+				full=true;
+				overruns++;
+			}
+			return 0;
+		}
+		full=false;
+		int index=(int)w&mask;
+		int n=stream.read(buffer,index,Math.min(free,buffer.length-index));
+		if(n>0) {
+			writePos=w+n;
+		}
+		return n;
+	}
+
+	/**
+	 * Write samples into the buffer.
+	 * <br>This method must be called by the producer only.
+	 *
+	 * @param samples the samples
+	 * @param offset the offset of the first sample
+	 * @param length the number of samples to write
+	 * @return the number of samples written which is less than {@code length} if the buffer is full
+	 */
+	public int write(int[] samples,int offset,int length) {
+		long w=writePos;
+		int n=Math.min(length,buffer.length-(int)(w-readPos));
+		if(n<length&&!full) {
+			overruns++;
+		}
+		full=n<length;
+		int index=(int)w&mask;
+		int first=Math.min(n,buffer.length-index);
+		System.arraycopy(samples,offset,buffer,index,first);
+		System.arraycopy(samples,offset+first,buffer,0,n-first);
+		writePos=w+n;
+		return n;
+	}
+
+	/**
+	 * Signal that no more samples will be written. Reading continues until the buffer is empty.
+	 * <br>This method must be called by the producer only.
+	 */
+	public void finish() {
+		finished=true;
+	}
+
+	/**
+	 *
+	 * @return {@code true} if the producer finished writing
+	 */
+	public boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Read samples from the buffer. This method never waits.
+	 * <br>This method must be called by the consumer only.
+	 *
+	 * @param samples the array to read into
+	 * @param offset the offset inside the array
+	 * @param length the maximal number of samples to read
+	 * @return the number of samples read, {@code 0} if the buffer is empty (an underrun) or {@link AudioStream#END_OF_STREAM} if the buffer is empty and the producer finished
+	 */
+	public int read(int[] samples,int offset,int length) {
+		// Read the flag first: Samples written before finishing are visible afterwards
+		boolean finished=this.finished;
+		long r=Math.max(readPos,discardPos);
+		long w=writePos;
+		int n=Math.min(length,(int)(w-r));
+		if(n<=0) {
+			if(finished) {
+				return AudioStream.END_OF_STREAM;
+			}
+			if(w>0&&length>0) {
+				underruns++;
+			}
+			readPos=r;
+			return 0;
+		}
+		int index=(int)r&mask;
+		int first=Math.min(n,buffer.length-index);
+		System.arraycopy(buffer,index,samples,offset,first);
+		System.arraycopy(buffer,0,samples,offset+first,n-first);
+		readPos=r+n;
+		return n;
+	}
+
+	/**
+	 * Discard all samples available for reading.
+	 * <br>This method must be called by the consumer only.
+	 */
+	public void clear() {
+		readPos=writePos;
+	}
+
+	/**
+	 * Discard all samples written so far (for example if the producer repositioned its input). Samples written afterwards are not affected.
+	 * The consumer skips the discarded samples on its next read, the space is freed by this read too.
+	 * <br>This method must be called by the producer only.
+	 */
+	public void discard() {
+		discardPos=writePos;
+	}
+
+	/**
+	 *
+	 * @return the number of underruns so far
+	 */
+	public long getUnderruns() {
+		return underruns;
+	}
+
+	/**
+	 *
+	 * @return the number of overruns so far
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+}
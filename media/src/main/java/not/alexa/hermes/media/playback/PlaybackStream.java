@@ -17,6 +17,7 @@ package not.alexa.hermes.media.playback;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -32,11 +33,30 @@ import not.alexa.hermes.media.streams.Silence;
 
 /**
  * A playback stream plays a sequence of tracks continously one after the other.
+ * <br>The next track is loaded and its head decoded before the current track ends. If the current track ends, the next track
+ * continues in the same block of samples (if the formats are equal) such that the transition is gapless. Optionally, the end of
+ * the current track is crossfaded with the start of the next track (see {@link #setCrossfade(int)}). Tracks started explicitly fade
+ * out the current track within the crossfade duration.
  * 
  * @author notalexa
  */
 public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStream {
     private static final Logger LOGGER = LoggerFactory.getLogger(PlaybackStream.class);
+    /**
+     * The default depth of the buffer between decoder and sink in milliseconds.
+     */
+    public static final int DEFAULT_BUFFER_DEPTH=1000;
+    // Resolution of the crossfade curves
+    private static final int FADE_STEPS=1024;
+    private static final int FADE_BITS=14;
+    // Equal power curves: The gain of the fading in track is FADE[i], the gain of the fading out track FADE[FADE_STEPS-i]
+    private static final int[] FADE=new int[FADE_STEPS+1];
+    
+    static {
+    	for(int i=0;i<=FADE_STEPS;i++) {
+    		FADE[i]=(int)Math.round((1<<FADE_BITS)*Math.sin(Math.PI/2*i/FADE_STEPS));
+    	}
+    }
     private final ExecutorService executorService = Executors.newCachedThreadPool(new ThreadFactory() {
 		@Override
 		public Thread newThread(Runnable r) {
@@ -51,7 +71,20 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
     private StreamEntry head;
     private StreamEntry currentTrack;
     private StreamEntry fadeoutTrack;
+    // The track following the current track after its remaining samples
+    private StreamEntry pendingTrack;
+    // Position and length of the crossfade (in frames)
+    private int fadePosition;
+    private int fadeChannel;
+    private int fadeLength;
+    private final int[] fadeBlock=new int[BLOCK_SIZE];
+    private final int[] single=new int[1];
+    private int crossfade;
+    private volatile boolean pendingEnded;
     private Runnable onPlaybackEnded;
+    private int bufferDepth=DEFAULT_BUFFER_DEPTH;
+    private long underruns;
+    private long overruns;
 
     public PlaybackStream(PlaybackPlayer player, Listener listener) {
     	this.player=player;
@@ -67,8 +100,56 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
     	this.onPlaybackEnded=onPlaybackEnded;
     }
 
+    /**
+     * Set the depth of the buffer between the decoder and the sink. The depth applies to tracks added afterwards.
+     * 
+     * @param millis the depth in milliseconds
+     */
+    public void setBufferDepth(int millis) {
+    	this.bufferDepth=Math.max(10,millis);
+    }
+
+    public int getBufferDepth() {
+    	return bufferDepth;
+    }
+
+    /**
+     * Set the duration of crossfades. The crossfade is limited by the samples buffered when the decoder of the current track finished.
+     * Therefore, the buffer depth is raised to the crossfade duration (plus 500ms) if necessary.
+     * 
+     * @param millis the duration in milliseconds ({@code 0} disables crossfading)
+     */
+    public void setCrossfade(int millis) {
+    	crossfade=Math.max(0,millis);
+    	if(crossfade>0) {
+    		bufferDepth=Math.max(bufferDepth,crossfade+500);
+    	}
+    }
+
+    public int getCrossfade() {
+    	return crossfade;
+    }
+
+    /**
+     * 
+     * @return the number of times the sink found no decoded data (and played silence instead)
+     */
+    public long getUnderruns() {
+    	StreamEntry track=currentTrack;
+    	return underruns+(track==null?0:track.getUnderruns());
+    }
+
+    /**
+     * 
+     * @return the number of times the decoder found the buffer full
+     */
+    public long getOverruns() {
+    	StreamEntry track=currentTrack;
+    	return overruns+(track==null?0:track.getOverruns());
+    }
+
     private StreamEntry add(PlaybackTrack playable) {
-    	StreamEntry newEntry=new StreamEntry(player,playable,this);
+    	StreamEntry newEntry=new StreamEntry(player,playable,this,bufferDepth);
     	newEntry.next=head;
     	// This is the only strong reference if not playing.
     	// Setting head to null makes all (possibly initialized) entries unavailable
@@ -102,12 +183,15 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
         	}
             return;
         }
-        playInternal(next);
+        playInternal(next,true);
     }
 
     @Override
     public void playbackEnded(StreamEntry entry,int time) {
-    	if(entry==currentTrack||currentTrack==null) {
+    	if(entry==pendingTrack) {
+    		// A short track decoded completely before it started playing
+    		pendingEnded=true;
+    	} else if(entry==currentTrack||currentTrack==null) {
     		LOGGER.info("{} ended.",entry.spec);
     		// Because of potentially undelivered chunks we do not set currentTrack to null at this point.
 	        listener.playbackFinished(entry.playbackId, time);
@@ -161,13 +245,18 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
 		    	head=null;
 //		    	head=entry;
 		    	if(listener.ready(entry.playbackId, entry.spec,pos)) {
-		    		if(currentTrack!=null&&currentTrack!=fadeoutTrack) {
-		    			currentTrack.close();
-		    		}
 		    		synchronized (controls.getStreamLock()) {
-				    	currentTrack=entry;
-				    	controls.onAudioFormatChanged(entry.getFormat());
-				    	controls.onStateChanged();
+		    			if(entry.gapless&&currentTrack!=null) {
+		    				// Played (or crossfaded) after the remaining samples of the current track
+		    				if(pendingTrack!=null) {
+		    					pendingTrack.close();
+		    				}
+		    				pendingEnded=false;
+		    				pendingTrack=entry;
+		    			} else {
+		    				switchTo(entry);
+		    				controls.onStateChanged();
+		    			}
 					}
 		    	}
     		}
@@ -204,11 +293,10 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
     }
 
 
-    private synchronized String playInternal(PlaybackTrack playable) {
+    private synchronized String playInternal(PlaybackTrack playable,boolean gapless) {
     	if(currentTrack!=null) {
     		currentTrack.disableNextTrack();
     	}
-        fadeoutTrack=currentTrack;
         StreamEntry next=head;
 		while(true) {
 			if(next==null) {
@@ -221,9 +309,7 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
 		    	next=next.next;
 		    }
 		}
-        if(fadeoutTrack!=null) {
-        	fadeoutTrack=null;
-        }
+        next.gapless=gapless;
         return playInternal(next);
     }
 
@@ -233,7 +319,7 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
      * @param track the content to be played
      */
     public String play(PlaybackTrack track) {
-        return playInternal(track);
+        return playInternal(track,false);
     }
 
     /**
@@ -245,8 +331,11 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
     	if(currentTrack==null) {
     		return false;
     	}
-    	if(fadeoutTrack!=null) {
-    		fadeoutTrack=null;
+    	synchronized (controls.getStreamLock()) {
+	    	if(fadeoutTrack!=null) {
+	    		fadeoutTrack.close();
+	    		fadeoutTrack=null;
+	    	}
     	}
     	if(currentTrack.seek(pos)) {
     		controls.flush();
@@ -269,22 +358,149 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
 
 	@Override
 	public int next() throws IOException {
-		int n1=0;
-		if(fadeoutTrack!=null) {
-			n1=fadeoutTrack.next();
-			if(n1>0x10000) {
-				fadeoutTrack=null;
-				n1=0;
+		return read(single,0,1)==1?single[0]:0;
+	}
+
+	@Override
+	public int read(int[] samples, int offset, int length) throws IOException {
+		int total=0;
+		while(total<length) {
+			StreamEntry track=currentTrack;
+			if(track==null) {
+				break;
+			}
+			StreamEntry pending=pendingTrack;
+			if(pending!=null&&fadeoutTrack==null&&crossfade>0&&track.isFinished()&&sameFormat(track,pending)) {
+				int frames=track.available()/track.getFormat().getChannels();
+				if(frames>0&&frames<=crossfadeFrames(track)) {
+					// Crossfade the remaining samples of the current track with the head of the next track
+					pendingTrack=null;
+					fadeout(track,frames);
+					activate(pending);
+					continue;
+				}
+			}
+			int n=fadeoutTrack==null?track.read(samples,offset+total,length-total):crossfade(track,samples,offset+total,length-total);
+			if(n==END_OF_STREAM) {
+				finished(track);
+				if(pending!=null) {
+					pendingTrack=null;
+					activate(pending);
+					if(sameFormat(track,pending)) {
+						// Gapless: Continue with the next track
+						continue;
+					}
+					controls.onAudioFormatChanged(pending.getFormat());
+				}
+				break;
+			}
+			total+=n;
+		}
+		if(total==0) {
+			Arrays.fill(samples, offset, offset+length, 0);
+			return length;
+		}
+		return total;
+	}
+
+	/**
+	 * Read the current track and mix in the track fading out. The fade ends if the track fading out has no more samples.
+	 */
+	private int crossfade(StreamEntry track,int[] samples,int offset,int length) {
+		int channels=track.getFormat().getChannels();
+		int n=track.read(samples,offset,Math.min(length,fadeBlock.length));
+		if(n<=0) {
+			return n;
+		}
+		int m=fadeoutTrack.read(fadeBlock,0,n);
+		for(int i=0;i<n;i++) {
+			int step=(int)((long)Math.min(fadeLength,fadePosition)*FADE_STEPS/fadeLength);
+			int s=samples[offset+i]*FADE[step];
+			if(i<m) {
+				s+=fadeBlock[i]*FADE[FADE_STEPS-step];
+			}
+			s>>=FADE_BITS;
+			samples[offset+i]=s>Short.MAX_VALUE?Short.MAX_VALUE:s<Short.MIN_VALUE?Short.MIN_VALUE:s;
+			if(++fadeChannel==channels) {
+				fadeChannel=0;
+				fadePosition++;
 			}
 		}
-		int n=currentTrack==null?0:currentTrack.next();
-		if(n>0x10000) {
-			currentTrack=null;
-			return 0;
+		if(m<n||fadePosition>=fadeLength) {
+			endFade();
 		}
 		return n;
 	}
 
+	private void endFade() {
+		if(fadeoutTrack!=null) {
+			fadeoutTrack.close();
+			fadeoutTrack=null;
+		}
+	}
+
+	/**
+	 * Start fading out the given track. The track stops decoding, the samples buffered are faded out.
+	 */
+	private void fadeout(StreamEntry track,int frames) {
+		endFade();
+		track.close();
+		finished(track);
+		fadeoutTrack=track;
+		fadePosition=0;
+		fadeChannel=0;
+		fadeLength=frames;
+	}
+
+	/**
+	 * Make the entry the current track.
+	 */
+	private void activate(StreamEntry entry) {
+		currentTrack=entry;
+		executorService.execute(controls::onStateChanged);
+		if(pendingEnded) {
+			pendingEnded=false;
+			executorService.execute(()->playbackEnded(entry,0));
+		}
+	}
+
+	/**
+	 * Switch to the given entry immediately. If crossfading is enabled, the current track fades out.
+	 */
+	private void switchTo(StreamEntry entry) {
+		StreamEntry current=currentTrack;
+		if(pendingTrack!=null&&pendingTrack!=entry) {
+			pendingTrack.close();
+		}
+		pendingTrack=null;
+		if(current!=null) {
+			int frames=Math.min(crossfadeFrames(current),current.available()/current.getFormat().getChannels());
+			if(frames>0&&sameFormat(current,entry)) {
+				fadeout(current,frames);
+			} else {
+				endFade();
+				current.close();
+				finished(current);
+			}
+		}
+		currentTrack=entry;
+		controls.onAudioFormatChanged(entry.getFormat());
+	}
+
+	private int crossfadeFrames(StreamEntry track) {
+		return (int)(track.getFormat().getFrameRate()*crossfade/1000);
+	}
+
+	private static boolean sameFormat(StreamEntry track1,StreamEntry track2) {
+		return track1.getFormat().matches(track2.getFormat());
+	}
+
+	private void finished(StreamEntry track) {
+		underruns+=track.getUnderruns();
+		overruns+=track.getOverruns();
+		currentTrack=null;
+	}
+
 	@Override
 	public boolean isStream() {
 		return false;
@@ -300,6 +516,9 @@ public class PlaybackStream implements Closeable, StreamEntry.Listener, AudioStr
         if(fadeoutTrack!=null) {
         	fadeoutTrack.close();
         } 
+        if(pendingTrack!=null) {
+        	pendingTrack.close();
+        }
         if(currentTrack!=null) {
         	currentTrack.close();
         }
@@ -17,12 +17,12 @@ package not.alexa.hermes.media.playback;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFormat;
 
@@ -41,23 +41,31 @@ import not.alexa.hermes.media.AudioStream.AudioInfo;
 class StreamEntry {
     private static final Logger LOGGER = LoggerFactory.getLogger(StreamEntry.class);
     private static final int PRELOAD_INTERVAL=15;
+    // Time the decoder waits if the buffer is full
+    private static final long FULL_WAIT=TimeUnit.MILLISECONDS.toNanos(5);
+    // Time after which a buffer not consumed is considered stuck
+    private static final long STUCK_TIMEOUT=60000;
     final String playbackId;
     Listener listener;
     private AudioStream audioStream;
     int initialSeektime = -1;
-    private int state;
-    private AudioChunk currentChunk;
-    private LinkedBlockingQueue<AudioChunk> audioQueue=new LinkedBlockingQueue<>();
-    private LinkedBlockingQueue<AudioChunk> decoderQueue=null;
+    private volatile int state;
+    private final int bufferDepth;
+    private volatile PcmRingBuffer buffer;
+    private volatile boolean flush;
+    private final int[] sample=new int[1];
     private Semaphore loadingSemaphore;
     private Worker worker;
     StreamEntry next;
     PlaybackPlayer player;
     PlaybackTrack spec;
     boolean disableNextTrack;
+    // The entry follows the current entry without gap
+    volatile boolean gapless;
     
-    StreamEntry(PlaybackPlayer player, PlaybackTrack spec, Listener listener) {
+    StreamEntry(PlaybackPlayer player, PlaybackTrack spec, Listener listener,int bufferDepth) {
     	this.player=player;
+    	this.bufferDepth=bufferDepth;
         this.playbackId = UUID.randomUUID().toString();
         this.listener=listener;
         this.spec=spec;
@@ -94,33 +102,82 @@ class StreamEntry {
     }
     
     int next() {
-    	while(currentChunk==null ) try {
-    		currentChunk=audioQueue.poll(100,TimeUnit.MILLISECONDS);
-    		if(currentChunk==null&&state<3) {
-    			return 0;
-    		}
-    	} catch(Throwable t) {
-    		listener.playbackEnded(this,0);
-    		return Integer.MAX_VALUE;
+    	return read(sample,0,1)==1?sample[0]:Integer.MAX_VALUE;
+    }
+
+    /**
+     * Read samples from the buffer filled by the decoder. This method never waits: If no data is available (the track is not ready
+     * or the decoder can't keep up), silence is returned.
+     * 
+     * @param samples the array to read into
+     * @param offset the offset inside the array
+     * @param length the number of samples to read
+     * @return the number of samples read or {@link AudioStream#END_OF_STREAM}
+     */
+    int read(int[] samples,int offset,int length) {
+    	if(length==0) {
+    		return 0;
     	}
-    	if(currentChunk.endMarker) {
-    		return Integer.MAX_VALUE;
+    	PcmRingBuffer buffer=this.buffer;
+    	if(buffer==null) {
+    		if(state>3) {
+    			return AudioStream.END_OF_STREAM;
+    		}
     	} else {
-    		int n=currentChunk.next();
-    		if(n==Integer.MAX_VALUE) {
-    			AudioChunk chunk=currentChunk;
-    			currentChunk=null;
-    			decoderQueue.offer(chunk);
-    			return next();
+    		if(flush) {
+    			flush=false;
+    			buffer.clear();
+    		}
+    		int n=buffer.read(samples,offset,length);
+    		if(n!=0) {
+    			return n;
     		}
-    		return n;
     	}
+    	Arrays.fill(samples,offset,offset+length,0);
+    	return length;
+    }
+
+    /**
+     * 
+     * @return the number of decoded samples available for reading
+     */
+    int available() {
+    	PcmRingBuffer buffer=this.buffer;
+    	return buffer==null||flush?0:buffer.available();
+    }
+
+    /**
+     * 
+     * @return {@code true} if the decoder finished (and the samples available are the last samples of this entry)
+     */
+    boolean isFinished() {
+    	PcmRingBuffer buffer=this.buffer;
+    	return buffer==null?state>3:buffer.isFinished();
+    }
+
+    /**
+     * 
+     * @return the number of underruns of the buffer between decoder and sink
+     */
+    long getUnderruns() {
+    	PcmRingBuffer buffer=this.buffer;
+    	return buffer==null?0:buffer.getUnderruns();
+    }
+
+    /**
+     * 
+     * @return the number of overruns of the buffer between decoder and sink
+     */
+    long getOverruns() {
+    	PcmRingBuffer buffer=this.buffer;
+    	return buffer==null?0:buffer.getOverruns();
     }
 
     boolean seek(int pos) {
     	boolean ret=audioStream.seekTo(pos/1000f);
     	if(ret) {
     		worker.seekTo(pos);
+    		flush=true;
     		listener.playbackSeeked(this, pos);
     	}
     	return ret;
@@ -179,35 +236,6 @@ class StreamEntry {
 		void playbackSeeked(StreamEntry entry, int seekTime);
     }
 	
-    /**
-     * One chunk in the audio stream
-     * 
-     * @author notalexa
-     */
-	private static class AudioChunk {
-		private boolean endMarker;
-		private int[] buffer;
-		private int offset;
-		private int len;
-		
-		private AudioChunk() {
-			this(false);
-		}
-		private AudioChunk(boolean endMarker) {
-			this.endMarker=endMarker;
-			if(!endMarker) {
-				buffer=new int[1024*8];
-			}
-		}
-		private int next() {
-			if(offset<len) {
-				return buffer[offset++];
-			} else {
-				return Integer.MAX_VALUE;
-			}
-		}
-	}
-	
 	/**
 	 * Handler for delivering the playback audio stream until either
 	 * <ul>
@@ -224,6 +252,10 @@ class StreamEntry {
 		PlaybackTrack spec;
 		boolean closed;
 		private int samplesDelivered;
+		// Samples decoded before the start (negated minus one if the buffer is full)
+		private int prerolled;
+		// The decoder was repositioned after preroll
+		private boolean restarted;
 		AudioFormat format;
 		
 	    public Worker(StreamEntry playerQueueEntry) {
@@ -247,15 +279,21 @@ class StreamEntry {
 			closed=true;
 		}
 
-	    private boolean ready() {
+	    private boolean ready(boolean prerolled) {
 			StreamEntry entry=ref.get();
 			if(entry!=null) {
 				LOGGER.debug("Seek to {}ms.",entry.initialSeektime);
-				if(entry.initialSeektime>=0) {
+				// Without preroll, seeking to the start is a noop
+				if(entry.initialSeektime>0||(entry.initialSeektime==0&&!prerolled)) {
 					if(!entry.audioStream.seekTo(entry.initialSeektime/1000f)) {
 						entry.initialSeektime=0;
 						System.out.println("Seeking failed.");
 					} else {
+						if(prerolled) {
+							// The decoded head is invalid
+							entry.buffer.discard();
+							restarted=true;
+						}
 						seekTo(entry.initialSeektime);
 					}
 				}
@@ -269,97 +307,109 @@ class StreamEntry {
 			}
 		}
 	    
-	    private boolean offer(AudioChunk chunk,boolean terminate) {
-	    	StreamEntry track=ref.get();
-	    	if(track!=null) {
-				track.audioQueue.offer(chunk);
-				if(terminate) {
-					track.audioQueue.add(new AudioChunk(true));
-				}
-				return true;
-	    	} else {
-	    		return false;
-	    	}
-	    }
-	    
 	    private int runInternal() {
-	   		LinkedBlockingQueue<AudioChunk> decoderQueue=entry.decoderQueue=new LinkedBlockingQueue<>();
-	   		decoderQueue.add(new AudioChunk());
-	   		decoderQueue.add(new AudioChunk());
 	   		AudioStream audioStream=entry.audioStream;
 	   		AudioInfo metadata=entry.audioStream.getCurrentInfo();
 	   		float time=metadata==null||audioStream.isStream()?-1:metadata.getDuration();
 	   		format=audioStream.getFormat();
+	   		PcmRingBuffer buffer=entry.buffer=PcmRingBuffer.forDuration(format, entry.bufferDepth);
 	   		int totalSamples=(int)(time*format.getSampleRate());
 	   		int threshold=totalSamples-(int)(PRELOAD_INTERVAL*format.getSampleRate());
 	        entry=null;
-	        AtomicInteger chunks=new AtomicInteger();
+	        int blocks=0;
 	        boolean closed=false;
-			int blockCount=0;
+	        long progress=System.currentTimeMillis();
 	        try {
-				while(!latch.await(500,TimeUnit.MILLISECONDS)) {
+	        	// Decode the head of the track while waiting for the start: The track starts without decoding delay
+	        	prerolled=0;
+	        	boolean eos=false;
+	        	IOException failure=null;
+				while(!latch.await(prerolled<0?500:0,TimeUnit.MILLISECONDS)) {
 					if(ref.get()==null) {
 						closed=true;
 						break;
+					} else if(prerolled>=0) {
+						int n;
+						try {
+							n=buffer.fill(audioStream);
+						} catch(IOException e) {
+							// Reported when the track starts
+							failure=e;
+							n=AudioStream.END_OF_STREAM;
+						}
+						if(n>0) {
+							prerolled+=n;
+						} else if(n==AudioStream.END_OF_STREAM) {
+							// The track is shorter than the buffer
+							eos=true;
+							prerolled=-prerolled-1;
+						} else if(n==0) {
+							prerolled=-prerolled-1;
+						} else {
+							LockSupport.parkNanos(FULL_WAIT);
+						}
 					}
 				}
-				if(!ready()) {
+				int decoded=prerolled<0?-prerolled-1:prerolled;
+				samplesDelivered+=decoded/format.getChannels();
+				if(!ready(decoded>0)) {
 					closed=true;
+				} else if(failure!=null&&!restarted) {
+	            	StreamEntry track=ref.get();
+	            	if(track!=null) {
+	            		track.listener.playbackError(track, failure);
+	            	}
+                    return blocks;
+				} else if(eos&&!restarted) {
+					closed=true;
+				}
+				if(samplesDelivered>threshold) {
+					StreamEntry track=get();
+					if(track!=null) {
+						track.listener.trackIsFinishing(track,samplesDelivered,threshold);
+					}
+					threshold=Integer.MAX_VALUE;
 				}
 		        while(!closed) {
 		        	if(Worker.this.closed||ref.get()==null) {
 		        		closed=true;
 		        		continue;
 		        	} else try {
-						AudioChunk chunk=decoderQueue.poll(100, TimeUnit.MILLISECONDS);
-						if(chunk!=null) {
-							//chunks.incrementAndGet();
-							chunk.len=chunk.offset=blockCount=0;
-						} else {
-							blockCount++;
-							if(blockCount>600) {
-								// 600*100ms=60000ms=1min The decoderqueue seems to be stuck.
-								LOGGER.warn("DecoderQueue is empty for 1min. Close input");
+		        		int n=buffer.fill(audioStream);
+		        		if(n==AudioStream.END_OF_STREAM) {
+		        			closed=true;
+		        		} else if(n<=0) {
+		        			// Buffer full or decoder blocked
+		        			if(System.currentTimeMillis()-progress>STUCK_TIMEOUT) {
+								LOGGER.warn("Buffer is not consumed for 1min. Close input");
 								closed=true;
-							}
-							// Blocked
-							continue;
-						}
-						int n=chunk.buffer.length;
-						for(int i=0;i<n;i++) {
-							int a=audioStream.next();
-							if(a==Integer.MAX_VALUE) {
-								if(i>0) {
-									offer(chunk,true);
-									closed=true;
-									continue;
+		        			} else {
+		        				LockSupport.parkNanos(FULL_WAIT);
+		        			}
+		        		} else {
+		        			progress=System.currentTimeMillis();
+		        			blocks++;
+							samplesDelivered+=n/format.getChannels();
+							if(samplesDelivered>threshold) {
+								StreamEntry track=get();
+								if(track!=null) {
+									track.listener.trackIsFinishing(track,samplesDelivered,threshold);
 								}
-							} else {
-								chunk.buffer[chunk.len++]=a;
+								threshold=Integer.MAX_VALUE;
 							}
-						}
-						samplesDelivered+=n/format.getChannels();
-						if(samplesDelivered>threshold) {
-							StreamEntry track=get();
-							if(track!=null) {
-								track.listener.trackIsFinishing(track,samplesDelivered,threshold);
-							}
-							threshold=Integer.MAX_VALUE;
-						}
-						offer(chunk,false);
-						chunks.incrementAndGet();
+		        		}
 		            } catch (IOException ex) {
 		            	StreamEntry track=ref.get();
 		            	if(track!=null) {
 		            		track.listener.playbackError(track, ex);
 		            	}
-	                    return chunks.get();
+	                    return blocks;
 		            }
 		        }
 	        } catch(InterruptedException e) {
 	        }
 	        LOGGER.debug("Samples delivered: {} of estimated {}.",samplesDelivered,totalSamples);
-	        return chunks.get();
+	        return blocks;
 	    }
 	    
 	    @Override
@@ -374,7 +424,7 @@ class StreamEntry {
 		            return;
 	        	}
 	        }
-	        int chunks=0;
+	        int blocks=0;
 	   		AudioStream decoder=entry.audioStream;
             entry.listener.loadingFinished(entry, decoder.getCurrentInfo());
 	   		String playbackId=entry.playbackId;	        
@@ -382,16 +432,20 @@ class StreamEntry {
 	        	if(!entry.loadingSemaphore.tryAcquire(1000L, TimeUnit.MILLISECONDS)) {
 	        		LOGGER.warn("Unable to aquire loading semaphore!");
 	        	} else {
-		        	chunks=runInternal();
+		        	blocks=runInternal();
 	        	}
 	        } catch(InterruptedException e) {
         		LOGGER.warn("Playback interrupted");
 	        }
-	        LOGGER.info("{} terminated with {} chunks written.", playbackId,chunks);
+	        LOGGER.info("{} terminated with {} blocks written.", playbackId,blocks);
 	        StreamEntry entry=ref.get();
 	        if(entry!=null) {
+	        	// Finish the buffer first: The next entry plays after the remaining samples
+	        	PcmRingBuffer buffer=entry.buffer;
+	        	if(buffer!=null) {
+	        		buffer.finish();
+	        	}
 	        	entry.listener.playbackEnded(entry,0);
-	        	entry.audioQueue.offer(new AudioChunk(true));
 	        	entry.state=4;
 	        	entry.loadingSemaphore.release();
 	        }
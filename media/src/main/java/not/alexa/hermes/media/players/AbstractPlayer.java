@@ -146,6 +146,27 @@ public abstract class AbstractPlayer<T> implements AudioPlayer {
 		return Integer.MAX_VALUE-1;
 	}
 
+	@Override
+	public int read(int[] samples, int offset, int length) throws IOException {
+		try {
+			synchronized(controls.getStreamLock()) {
+				int n=currentStream.read(samples, offset, length);
+				if(n!=END_OF_STREAM) {
+					return n;
+				}
+			}
+		} catch(Throwable t) {
+			LOGGER.error("Failed to get next samples",t);
+		}
+		try {
+			currentStream.close();
+		} catch(Throwable t) {
+		}
+		currentStream=new Silence(currentFormat);
+		nextTrack();
+		return BLOCKED;
+	}
+
 	@Override
 	public int update(boolean primary,int totalVolume, int volume, byte[] buffer, int offset, int length) throws IOException {
 		try {
@@ -147,6 +147,13 @@ public class AudioPlayers extends AbstractPlayer<Void> {
 		}
 	}
 
+	@Override
+	public void shutdown() {
+		if(players!=null) for(AudioPlayer player:players) {
+			player.shutdown();
+		}
+	}
+
 	@Override
 	public boolean cacheAlbum() {
 		if(currentPlayer!=null) {
@@ -20,7 +20,6 @@ import java.io.FileFilter;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,9 +29,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import not.alexa.hermes.media.AudioPlayer;
 import not.alexa.hermes.media.AudioStream;
 import not.alexa.hermes.media.PlayerState;
-import not.alexa.hermes.media.io.SeekableFileInputStream;
+import not.alexa.hermes.media.io.MappedFileInputStream;
 import not.alexa.hermes.media.streams.MP3AudioStream;
 import not.alexa.hermes.media.streams.Silence;
+import not.alexa.netobjects.Context;
 
 /**
  * A jukebox resolves audio streams from files. 
@@ -55,6 +55,16 @@ import not.alexa.hermes.media.streams.Silence;
  *   baseDir: ${user.home}/Music/Classical_Music
  * </pre>
  * (in {@link AudioPlayers}) defines three boxes, one for all music, one for pop and one for classic.
+ * <p>Lookups are answered by a {@link LibraryIndex} persisted in {@code indexFile} (defaults to {@code ${user.home}/.jukebox/<name>.idx}). The index
+ * tracks changes of the library using a watch service. Since changes on network mounts are typically not reported, the library can additionally be
+ * rescanned every {@code rescanInterval} minutes:
+ * <pre>
+ * - class: not.alexa.hermes.media.players.JukeBox
+ *   name: jukebox
+ *   baseDir: /mnt/nas/Music
+ *   indexFile: ${user.home}/.jukebox/nas.idx  # optional
+ *   rescanInterval: 60                         # optional, defaults to 0 (rescan on startup only)
+ * </pre>
  * 
  * <p><b>Restrictions:</b> Currently onyl MP3 files are supported and the peek operations are not implemented.
  * 
@@ -64,19 +74,14 @@ import not.alexa.hermes.media.streams.Silence;
 public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 	private static Logger LOGGER=LoggerFactory.getLogger(JukeBox.class);
 	
-	private static final FileFilter TRACK_FILTER=new FileFilter() {
-		
+	private static final FileFilter TRACK_FILTER=LibraryIndex.TRACK_FILTER;
+	private static final FileFilter DIRECTORY_FILTER=new FileFilter() {
 		@Override
 		public boolean accept(File f) {
-			return f.isFile()&&f.canRead()&&f.getName().endsWith(".mp3")&&f.length()>10240;
-		}
-	};
-	private static final java.util.Comparator<File> NAME_COMPARATOR=new java.util.Comparator<File>() {
-		@Override
-		public int compare(File o1, File o2) {
-			return o1.getName().compareToIgnoreCase(o2.getName());
+			return f.isDirectory();
 		}
 	};
+	private static final java.util.Comparator<File> NAME_COMPARATOR=LibraryIndex.NAME_COMPARATOR;
 	private static final java.util.Comparator<File> REVERSE_NAME_COMPARATOR=new java.util.Comparator<File>() {
 		@Override
 		public int compare(File o1, File o2) {
@@ -86,11 +91,14 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 	
 	@JsonProperty String baseDir;
 	@JsonProperty String name;
+	@JsonProperty String indexFile;
+	@JsonProperty(defaultValue = "0") int rescanInterval;
 	private Random random=new SecureRandom();
 	private boolean repeatTrack;
 	private boolean repeatAlbum;
 	private Track currentTrack;
 	private File base;
+	private LibraryIndex index;
 	
 	protected JukeBox() {
 		state.capabilities|=PlayerState.NEXT_ALBUM|PlayerState.NEXT_TRACK
@@ -114,6 +122,51 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 		}
 		return base;
 	}
+	
+	private synchronized LibraryIndex index() {
+		if(index==null) {
+			File file=indexFile==null?new File(System.getProperty("user.home"),".jukebox/"+name+".idx"):new File(indexFile);
+			index=new LibraryIndex(name,baseDir(),file,rescanInterval);
+			index.start();
+		}
+		return index;
+	}
+	
+	@Override
+	public void startup(Context context) {
+		index();
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		// A stopped index isn't restarted but keeps answering lookups
+		if(index!=null) {
+			index.stop();
+		}
+	}
+	
+	/**
+	 * 
+	 * @param dir the directory
+	 * @return the tracks inside the directory (from the index if possible)
+	 */
+	protected File[] listTracks(File dir) {
+		File[] tracks=index().tracks(dir);
+		return tracks==null?dir.listFiles(TRACK_FILTER):tracks;
+	}
+	
+	/**
+	 * 
+	 * @param dir the directory
+	 * @return the sub directories of the directory (from the index if possible)
+	 */
+	protected File[] listDirectories(File dir) {
+		File[] directories=index().directories(dir);
+		if(directories==null) {
+			directories=dir.listFiles(DIRECTORY_FILTER);
+		}
+		return directories==null?new File[0]:directories;
+	}
 		
 	private void play(Track track) {
 		if(track!=null) {
@@ -217,14 +270,28 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 		if(src.startsWith("player:")&&name.equalsIgnoreCase(src.substring("player:".length()))) {
 			return 0;
 		} else if(src.startsWith("album:")) {
-			return findAlbum(baseDir(),src.substring("album:".length()))!=null?0:Integer.MAX_VALUE;
+			return findAlbum(src.substring("album:".length()))!=null?0:Integer.MAX_VALUE;
 		} else if(src.startsWith("track:")) {
-			return findTrack(baseDir(),src.substring("track:".length())+".mp3")!=null?0:Integer.MAX_VALUE;
+			return findTrack(src.substring("track:".length())+".mp3")!=null?0:Integer.MAX_VALUE;
 		} else {
 			return Integer.MAX_VALUE;
 		}
 	}
 	
+	protected Album findAlbum(String name) {
+		LibraryIndex index=index();
+		if(index.isReady()) {
+			File dir=index.findAlbum(name);
+			return dir==null?null:new Album(dir);
+		}
+		return findAlbum(baseDir(),name);
+	}
+	
+	protected File findTrack(String name) {
+		LibraryIndex index=index();
+		return index.isReady()?index.findTrack(name):findTrack(baseDir(),name);
+	}
+	
 	protected Album findAlbum(File f,String name) {
 		if(f.isDirectory()) {
 			if(f.getName().equalsIgnoreCase(name)) {
@@ -265,10 +332,10 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 			controls.onStateChanged();
 			return true;
 		} else if(src.startsWith("album:")) {
-			Album album=findAlbum(baseDir(),src.substring("album:".length()));
+			Album album=findAlbum(src.substring("album:".length()));
 			mediaSource=album!=null&&!album.isEmpty()?album.files[0]:null;//(baseDir(),src.substring("album:".length())).files[0];
 		} else if(src.startsWith("track:")) {
-			mediaSource=findTrack(baseDir(),src.substring("track:".length())+".mp3");
+			mediaSource=findTrack(src.substring("track:".length())+".mp3");
 		}
 		if(mediaSource!=null) {
 			play(new Track(mediaSource));
@@ -278,14 +345,14 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 	}
 	
 	protected Album getAlbum(File f) {
-		return new Album(f.getParentFile(),f.getParentFile().listFiles(TRACK_FILTER));
+		return new Album(f.getParentFile(),listTracks(f.getParentFile()));
 	}
 	
 	public class Album {
 		File  dir;
 		File[] files;
 		public Album(File parent) {
-			this(parent,parent.listFiles(TRACK_FILTER));
+			this(parent,listTracks(parent));
 		}
 		
 		public Album(File parent,File[] files) {
@@ -329,12 +396,7 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 		
 		private Album findAlbum(File dir,int step)  {
 			File p=dir.getParentFile();
-			File[] directories=p.listFiles(new FileFilter() {
-				@Override
-				public boolean accept(File f) {
-					return f.isDirectory();
-				}
-			});
+			File[] directories=listDirectories(p).clone();
 			Arrays.sort(directories,step>0?NAME_COMPARATOR:REVERSE_NAME_COMPARATOR);
 			for(int i=0;i<directories.length;i++) {
 				if(directories[i].getName().equals(dir.getName())) {
@@ -361,21 +423,16 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 		}
 		
 		private Album goUp(File dir,boolean ignoreDir,int step) {
-			AtomicBoolean  admissable=new AtomicBoolean(false);
-			File[] directories=dir.listFiles(new FileFilter() {
-				@Override
-				public boolean accept(File f) {
-					admissable.set(admissable.get()||TRACK_FILTER.accept(f));
-					return f.isDirectory();
-				}
-			});
-			if(admissable.get()&&!ignoreDir) {
-				return new Album(dir);
-			} else if(admissable.get()||directories.length>0) {
+			File[] tracks=listTracks(dir);
+			boolean admissable=tracks!=null&&tracks.length>0;
+			File[] directories=listDirectories(dir).clone();
+			if(admissable&&!ignoreDir) {
+				return new Album(dir,tracks);
+			} else if(admissable||directories.length>0) {
 				Arrays.sort(directories,step>0?NAME_COMPARATOR:REVERSE_NAME_COMPARATOR);
-				int offset=step==0?random.nextInt(directories.length+(admissable.get()?1:0)):0;
+				int offset=step==0?random.nextInt(directories.length+(admissable?1:0)):0;
 				if(step==0&&offset==directories.length) {
-					return new Album(dir);
+					return new Album(dir,tracks);
 				}
 				for(int i=offset;i<offset+directories.length;i++) {
 					Album candidate=goUp(directories[i%directories.length],false,step);
@@ -439,7 +496,7 @@ public class JukeBox extends AbstractPlayer<File> implements AudioPlayer {
 		public AudioStream open() {
 			Track candidate=this;
 			for(int i=0;i<10;i++) try {
-				return new MP3AudioStream(new SeekableFileInputStream(candidate.f),candidate.getInfo(), 1f, candidate.f.length());
+				return new MP3AudioStream(MappedFileInputStream.open(candidate.f),candidate.getInfo(), 1f, candidate.f.length());
 			} catch(Throwable t) {
 				LoggerFactory.getLogger(JukeBox.class).error("Getting "+f.getAbsolutePath()+" failed.",t);
 				candidate=new Album(baseDir()).randomTrack();
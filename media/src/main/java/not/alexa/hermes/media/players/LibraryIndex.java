@@ -0,0 +1,570 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.players;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import not.alexa.hermes.media.AudioStream.AudioInfo;
+import not.alexa.hermes.media.streams.MP3AudioStream;
+
+/**
+ * Persistent in memory index of a music library (a directory tree of MP3 files). The index holds the directories (albums) and the tracks
+ * (including size, duration and the ID3 fields title, artist and album) and answers all lookups from memory.
+ * <br>The index is loaded from the index file on {@link #start()} and is verified in the background afterwards. Verifying is incremental:
+ * Only directories with a changed modification time are listed again and only new or modified files are parsed. Afterwards, changes
+ * are tracked using a {@link WatchService}. Since network mounts typically don't report changes made by other hosts, the library can be
+ * rescanned periodically in addition.
+ * <br>Until the index is {@link #isReady() ready} (that is, on the very first start without an index file), lookups return {@code null}
+ * and callers are expected to fall back to the file system.
+ *
+ * @author notalexa
+ */
+public class LibraryIndex {
+	private static final Logger LOGGER=LoggerFactory.getLogger(LibraryIndex.class);
+	private static final int VERSION=2;
+	// Time without further events before changes are applied
+	private static final long QUIET_TIME=1000;
+	private static final File[] NO_FILES=new File[0];
+	static final Comparator<File> NAME_COMPARATOR=new Comparator<File>() {
+		@Override
+		public int compare(File o1, File o2) {
+			return o1.getName().compareToIgnoreCase(o2.getName());
+		}
+	};
+	static final FileFilter TRACK_FILTER=new FileFilter() {
+		@Override
+		public boolean accept(File f) {
+			return f.isFile()&&f.canRead()&&f.getName().endsWith(".mp3")&&f.length()>10240;
+		}
+	};
+
+	private final String name;
+	private final File base;
+	private final File indexFile;
+	private final long rescanInterval;
+	private final Map<File,Directory> directories=new ConcurrentHashMap<>();
+	private final Map<File,TrackInfo> tracks=new ConcurrentHashMap<>();
+	private volatile Map<String,File> albumsByName=new HashMap<>();
+	private volatile Map<String,File> tracksByName=new HashMap<>();
+	private volatile boolean ready;
+	private volatile boolean stopped;
+	private WatchService watcher;
+	private Map<WatchKey,File> watchKeys=new HashMap<>();
+	private Set<File> watched=new HashSet<>();
+	private Thread thread;
+
+	/**
+	 *
+	 * @param name the name of the library (used for logging)
+	 * @param base the base directory of the library
+	 * @param indexFile the file to persist the index to
+	 * @param rescanInterval the interval (in minutes) of full rescans or {@code 0} if the library is rescanned on startup only
+	 */
+	public LibraryIndex(String name,File base,File indexFile,int rescanInterval) {
+		this.name=name;
+		this.base=base;
+		this.indexFile=indexFile;
+		this.rescanInterval=TimeUnit.MINUTES.toMillis(Math.max(0,rescanInterval));
+	}
+
+	/**
+	 * Load the index and start verifying and watching the library in the background.
+	 */
+	public synchronized void start() {
+		if(thread==null&&!stopped) {
+			load();
+			thread=new Thread(this::run,"library-index-"+name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop watching the library.
+	 */
+	public synchronized void stop() {
+		stopped=true;
+		if(thread!=null) {
+			thread.interrupt();
+		}
+		if(watcher!=null) try {
+			watcher.close();
+		} catch(Throwable t) {
+		}
+	}
+
+	/**
+	 *
+	 * @return {@code true} if the index can answer lookups
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 *
+	 * @param dir the directory
+	 * @return the tracks in the given directory sorted by name or {@code null} if the directory is not indexed
+	 */
+	public File[] tracks(File dir) {
+		Directory directory=ready?directories.get(dir):null;
+		return directory==null?null:directory.tracks;
+	}
+
+	/**
+	 *
+	 * @param dir the directory
+	 * @return the sub directories of the given directory sorted by name or {@code null} if the directory is not indexed
+	 */
+	public File[] directories(File dir) {
+		Directory directory=ready?directories.get(dir):null;
+		return directory==null?null:directory.directories;
+	}
+
+	/**
+	 *
+	 * @param name the name of the directory (ignoring case)
+	 * @return a directory with the given name or {@code null} if no such directory exists (or the index is not ready)
+	 */
+	public File findAlbum(String name) {
+		return albumsByName.get(name.toLowerCase());
+	}
+
+	/**
+	 *
+	 * @param name the file name of the track (ignoring case)
+	 * @return a track with the given file name or {@code null} if no such track exists (or the index is not ready)
+	 */
+	public File findTrack(String name) {
+		return tracksByName.get(name.toLowerCase());
+	}
+
+	/**
+	 *
+	 * @param f the track
+	 * @return the info of the given track or {@code null} if the track is not indexed
+	 */
+	public TrackInfo getTrack(File f) {
+		return tracks.get(f);
+	}
+
+	/**
+	 *
+	 * @return the number of indexed tracks
+	 */
+	public int size() {
+		return tracks.size();
+	}
+
+	private void run() {
+		try {
+			watcher=FileSystems.getDefault().newWatchService();
+		} catch(Throwable t) {
+			LOGGER.warn("Library {}: Watching {} is not supported. Changes are not tracked.",name,base,t);
+		}
+		long lastScan=0;
+		Set<File> changed=new LinkedHashSet<>();
+		while(!stopped) {
+			try {
+				if(lastScan==0||rescanInterval>0&&System.currentTimeMillis()-lastScan>rescanInterval) {
+					long time=System.currentTimeMillis();
+					if(scan(base,false)) {
+						rebuild();
+						save();
+					}
+					ready=true;
+					lastScan=System.currentTimeMillis();
+					LOGGER.info("Library {}: {} tracks in {} directories indexed in {}ms.",name,tracks.size(),directories.size(),lastScan-time);
+				}
+				WatchKey key=watcher==null?null:watcher.poll(QUIET_TIME,TimeUnit.MILLISECONDS);
+				if(key==null) {
+					if(watcher==null) {
+						Thread.sleep(rescanInterval>0?rescanInterval:Long.MAX_VALUE);
+					} else if(!changed.isEmpty()) {
+						boolean modified=false;
+						for(File dir:changed) {
+							modified|=scan(dir,true);
+						}
+						changed.clear();
+						if(modified) {
+							rebuild();
+							save();
+						}
+					}
+				} else {
+					File dir=watchKeys.get(key);
+					if(dir!=null) {
+						for(WatchEvent<?> event:key.pollEvents()) {
+							if(event.kind()==StandardWatchEventKinds.OVERFLOW) {
+								changed.add(base);
+							} else {
+								changed.add(dir);
+							}
+						}
+					}
+					if(!key.reset()) {
+						watched.remove(watchKeys.remove(key));
+					}
+				}
+			} catch(InterruptedException|ClosedWatchServiceException e) {
+				break;
+			} catch(Throwable t) {
+				LOGGER.error("Library {}: Indexing failed.",name,t);
+			}
+		}
+	}
+
+	/**
+	 * Scan the given directory.
+	 *
+	 * @param dir the directory to scan
+	 * @param force if {@code true} the directory is listed even if its modification time didn't change
+	 * @return {@code true} if the index changed
+	 */
+	private boolean scan(File dir,boolean force) {
+		Directory directory=directories.get(dir);
+		long modified=dir.lastModified();
+		if(modified==0||!dir.isDirectory()) {
+			return directory!=null&&remove(directory);
+		}
+		boolean changed=false;
+		if(directory==null||force||directory.modified!=modified) {
+			boolean modifiedTracks=false;
+			File[] children=dir.listFiles();
+			if(children==null) {
+				return directory!=null&&remove(directory);
+			}
+			List<File> trackList=new ArrayList<>();
+			List<File> directoryList=new ArrayList<>();
+			for(File child:children) {
+				if(child.isDirectory()) {
+					directoryList.add(child);
+				} else if(TRACK_FILTER.accept(child)) {
+					TrackInfo info=tracks.get(child);
+					if(info==null||info.size!=child.length()||info.modified!=child.lastModified()) {
+						tracks.put(child,TrackInfo.read(child));
+						modifiedTracks=true;
+					}
+					trackList.add(child);
+				}
+			}
+			Directory updated=new Directory(dir,modified,sort(trackList),sort(directoryList));
+			if(directory!=null) {
+				for(File f:directory.tracks) {
+					if(!trackList.contains(f)) {
+						tracks.remove(f);
+					}
+				}
+				for(File f:directory.directories) {
+					if(!directoryList.contains(f)) {
+						Directory removed=directories.get(f);
+						if(removed!=null) {
+							remove(removed);
+						}
+					}
+				}
+			}
+			changed=modifiedTracks||directory==null||!Arrays.equals(directory.tracks,updated.tracks)||!Arrays.equals(directory.directories,updated.directories);
+			directories.put(dir,directory=updated);
+			watch(dir);
+		}
+		for(File sub:directory.directories) {
+			if(stopped) {
+				break;
+			}
+			// Sub directories are listed again only if they changed
+			changed|=scan(sub,false);
+		}
+		return changed;
+	}
+
+	private boolean remove(Directory directory) {
+		directories.remove(directory.dir);
+		for(File f:directory.tracks) {
+			tracks.remove(f);
+		}
+		for(File f:directory.directories) {
+			Directory sub=directories.get(f);
+			if(sub!=null) {
+				remove(sub);
+			}
+		}
+		return true;
+	}
+
+	private void watch(File dir) {
+		if(watcher!=null&&watched.add(dir)) try {
+			watchKeys.put(dir.toPath().register(watcher,StandardWatchEventKinds.ENTRY_CREATE,StandardWatchEventKinds.ENTRY_DELETE,StandardWatchEventKinds.ENTRY_MODIFY),dir);
+		} catch(Throwable t) {
+			LOGGER.debug("Library {}: Unable to watch {}.",name,dir,t);
+		}
+	}
+
+	private static File[] sort(List<File> files) {
+		if(files.isEmpty()) {
+			return NO_FILES;
+		}
+		File[] array=files.toArray(new File[files.size()]);
+		Arrays.sort(array,NAME_COMPARATOR);
+		return array;
+	}
+
+	/**
+	 * Rebuild the name lookups (first match in depth first order wins).
+	 */
+	private void rebuild() {
+		Map<String,File> albums=new HashMap<>();
+		Map<String,File> tracks=new HashMap<>();
+		rebuild(base,albums,tracks);
+		albumsByName=albums;
+		tracksByName=tracks;
+	}
+
+	private void rebuild(File dir,Map<String,File> albums,Map<String,File> tracks) {
+		Directory directory=directories.get(dir);
+		if(directory!=null) {
+			albums.putIfAbsent(dir.getName().toLowerCase(),dir);
+			for(File f:directory.tracks) {
+				tracks.putIfAbsent(f.getName().toLowerCase(),f);
+			}
+			for(File f:directory.directories) {
+				rebuild(f,albums,tracks);
+			}
+		}
+	}
+
+	private void load() {
+		if(indexFile==null||!indexFile.exists()) {
+			return;
+		}
+		try(DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile),65536))) {
+			if(in.readInt()!=VERSION||!in.readUTF().equals(base.getAbsolutePath())) {
+				LOGGER.info("Library {}: Ignore index {} of a different version or library.",name,indexFile);
+				return;
+			}
+			for(int n=in.readInt();n>0;n--) {
+				File dir=new File(in.readUTF());
+				long modified=in.readLong();
+				File[] tracks=new File[in.readInt()];
+				for(int i=0;i<tracks.length;i++) {
+					File f=new File(dir,in.readUTF());
+					tracks[i]=f;
+					this.tracks.put(f,TrackInfo.read(f,in));
+				}
+				File[] directories=new File[in.readInt()];
+				for(int i=0;i<directories.length;i++) {
+					directories[i]=new File(dir,in.readUTF());
+				}
+				this.directories.put(dir,new Directory(dir,modified,tracks,directories));
+			}
+			rebuild();
+			ready=true;
+			LOGGER.info("Library {}: {} tracks loaded from {}.",name,this.tracks.size(),indexFile);
+		} catch(Throwable t) {
+			LOGGER.warn("Library {}: Failed to load index {}. Rebuild the index.",name,indexFile,t);
+			directories.clear();
+			tracks.clear();
+		}
+	}
+
+	private void save() {
+		if(indexFile==null) {
+			return;
+		}
+		File tmp=new File(indexFile.getPath()+".tmp");
+		try {
+			File parent=indexFile.getAbsoluteFile().getParentFile();
+			if(parent!=null) {
+				parent.mkdirs();
+			}
+			try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp),65536))) {
+				out.writeInt(VERSION);
+				out.writeUTF(base.getAbsolutePath());
+				List<Directory> list=new ArrayList<>(directories.values());
+				out.writeInt(list.size());
+				for(Directory directory:list) {
+					out.writeUTF(directory.dir.getPath());
+					out.writeLong(directory.modified);
+					out.writeInt(directory.tracks.length);
+					for(File f:directory.tracks) {
+						out.writeUTF(f.getName());
+						TrackInfo info=tracks.get(f);
+						(info==null?TrackInfo.read(f):info).write(out);
+					}
+					out.writeInt(directory.directories.length);
+					for(File f:directory.directories) {
+						out.writeUTF(f.getName());
+					}
+				}
+			}
+			Path target=indexFile.toPath();
+			try {
+				Files.move(tmp.toPath(),target,StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+			} catch(IOException e) {
+				Files.move(tmp.toPath(),target,StandardCopyOption.REPLACE_EXISTING);
+			}
+		} catch(Throwable t) {
+			LOGGER.warn("Library {}: Failed to save index {}.",name,indexFile,t);
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * An indexed directory. Instances are immutable and replaced if the directory changes.
+	 */
+	private static class Directory {
+		private final File dir;
+		private final long modified;
+		private final File[] tracks;
+		private final File[] directories;
+
+		private Directory(File dir,long modified,File[] tracks,File[] directories) {
+			this.dir=dir;
+			this.modified=modified;
+			this.tracks=tracks;
+			this.directories=directories;
+		}
+	}
+
+	/**
+	 * The indexed data of a track.
+	 */
+	public static class TrackInfo {
+		private final long size;
+		private final long modified;
+		private final float duration;
+		private final String title;
+		private final String artist;
+		private final String album;
+
+		private TrackInfo(long size,long modified,float duration,String title,String artist,String album) {
+			this.size=size;
+			this.modified=modified;
+			this.duration=duration;
+			this.title=title;
+			this.artist=artist;
+			this.album=album;
+		}
+
+		private static TrackInfo read(File f) {
+			long size=f.length();
+			long modified=f.lastModified();
+			try(InputStream in=new FileInputStream(f)) {
+				AudioInfo info=MP3AudioStream.readInfo(in,new AudioInfo(null,null,null,-1),size);
+				return new TrackInfo(size,modified,info.getDuration(),info.getTitle(),info.getArtist(),info.getAlbum());
+			} catch(Throwable t) {
+				LOGGER.debug("Unable to read meta data of {}.",f,t);
+				return new TrackInfo(size,modified,-1,null,null,null);
+			}
+		}
+
+		private static TrackInfo read(File f,DataInputStream in) throws IOException {
+			return new TrackInfo(in.readLong(),in.readLong(),in.readFloat(),readString(in),readString(in),readString(in));
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeLong(size);
+			out.writeLong(modified);
+			out.writeFloat(duration);
+			writeString(out,title);
+			writeString(out,artist);
+			writeString(out,album);
+		}
+
+		private static String readString(DataInputStream in) throws IOException {
+			return in.readBoolean()?in.readUTF():null;
+		}
+
+		private static void writeString(DataOutputStream out,String s) throws IOException {
+			out.writeBoolean(s!=null);
+			if(s!=null) {
+				out.writeUTF(s);
+			}
+		}
+
+		/**
+		 *
+		 * @return the size of the file in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 *
+		 * @return the duration in seconds or a negative value if unknown
+		 */
+		public float getDuration() {
+			return duration;
+		}
+
+		/**
+		 *
+		 * @return the title (as defined by the ID3 tag) or {@code null}
+		 */
+		public String getTitle() {
+			return title;
+		}
+
+		/**
+		 *
+		 * @return the artist (as defined by the ID3 tag) or {@code null}
+		 */
+		public String getArtist() {
+			return artist;
+		}
+
+		/**
+		 *
+		 * @return the album (as defined by the ID3 tag) or {@code null}
+		 */
+		public String getAlbum() {
+			return album;
+		}
+	}
+}
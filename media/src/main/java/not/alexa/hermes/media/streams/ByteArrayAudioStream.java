@@ -28,11 +28,13 @@ import not.alexa.hermes.media.AudioStream;
  */
 public class ByteArrayAudioStream implements AudioStream {
 	private AudioFormat format;
+	private int headerOffset;
 	private int offset;
 	private byte[] data;
 	
 
 	public ByteArrayAudioStream(AudioFormat format,int headerOffset,byte[] data) {
+		this.headerOffset=headerOffset;
 		offset=headerOffset;
 		this.data=data;
 		this.format=format;
@@ -45,6 +47,27 @@ public class ByteArrayAudioStream implements AudioStream {
 	}
 
 
+	@Override
+	public boolean seekTo(float time) {
+		int frameSize=format.getFrameSize();
+		if(frameSize<=0||format.getFrameRate()<=0) {
+			return AudioStream.super.seekTo(time);
+		}
+		long frame=Math.max(0,(long)(time*format.getFrameRate()));
+		offset=(int)Math.min(data.length,headerOffset+frame*frameSize);
+		return true;
+	}
+
+	/**
+	 * 
+	 * @return the current position in seconds
+	 */
+	protected float time() {
+		int frameSize=format.getFrameSize();
+		return frameSize<=0||format.getFrameRate()<=0?0:(offset-headerOffset)/frameSize/format.getFrameRate();
+	}
+
+
 	@Override
 	public int next() throws IOException {
 		if(offset>=data.length) {
@@ -55,6 +78,22 @@ public class ByteArrayAudioStream implements AudioStream {
 	}
 
 
+	@Override
+	public int read(int[] samples, int offset, int length) throws IOException {
+		int n=Math.min(length, (data.length-this.offset)>>1);
+		if(n<=0) {
+			return length==0?0:END_OF_STREAM;
+		}
+		int o=this.offset;
+		for(int i=0;i<n;i++) {
+			samples[offset+i]=(data[o]&0xff)+(data[o+1]<<8);
+			o+=2;
+		}
+		this.offset=o;
+		return n;
+	}
+
+
 	@Override
 	public int update(boolean primary,int totalVolume,int volume, byte[] buffer, int offset, int length) throws IOException {
 		if(primary) {
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineEvent;
+
+import not.alexa.hermes.media.AudioControls;
+import not.alexa.hermes.media.AudioStream;
+
+/**
+ * Conversion of a stream into a format with the same sample rate. Channels are mapped as in {@link ResamplingStream} and samples are shifted to the
+ * sample size of the target format. No filter is applied, so a conversion with the same number of channels and the same sample size is bit-exact.
+ *
+ * @author notalexa
+ */
+public class ChannelMappedStream implements AudioStream {
+	private final AudioStream baseStream;
+	private final AudioFormat format;
+	private final int sourceChannels;
+	private final int channels;
+	private final int shift;
+	private final int[] raw;
+	private final int[] frame;
+	private int rawCount;
+	private int channel;
+	private boolean eos;
+
+	/**
+	 *
+	 * @param baseStream the stream to convert
+	 * @param format the target format (with the sample rate of the base stream)
+	 */
+	public ChannelMappedStream(AudioStream baseStream,AudioFormat format) {
+		AudioFormat source=baseStream.getFormat();
+		this.baseStream=baseStream;
+		this.format=format;
+		sourceChannels=source.getChannels();
+		channels=format.getChannels();
+		shift=format.getSampleSizeInBits()-source.getSampleSizeInBits();
+		raw=new int[AudioStream.BLOCK_SIZE*sourceChannels];
+		frame=new int[sourceChannels];
+		reset();
+	}
+
+	private void reset() {
+		rawCount=0;
+		channel=0;
+		eos=false;
+	}
+
+	@Override
+	public int read(int[] samples,int offset,int length) throws IOException {
+		if(length==0) {
+			return 0;
+		}
+		if(sourceChannels==channels&&shift==0&&channel==0&&rawCount==0) {
+			return baseStream.read(samples,offset,length);
+		}
+		int n=0;
+		while(n<length) {
+			if(channel>0) {
+				// Complete the current frame
+				samples[offset+n++]=map(channel++);
+				if(channel==channels) {
+					channel=0;
+				}
+				continue;
+			}
+			if(rawCount<sourceChannels) {
+				if(eos) {
+					break;
+				}
+				int count=baseStream.read(raw,rawCount,Math.min(raw.length-rawCount,(length-n)*sourceChannels/channels+sourceChannels));
+				if(count==END_OF_STREAM) {
+					eos=true;
+					break;
+				} else if(count<=0) {
+					return n>0?n:count;
+				}
+				rawCount+=count;
+				continue;
+			}
+			System.arraycopy(raw,0,frame,0,sourceChannels);
+			rawCount-=sourceChannels;
+			System.arraycopy(raw,sourceChannels,raw,0,rawCount);
+			samples[offset+n++]=map(0);
+			channel=channels>1?1:0;
+		}
+		return n>0?n:END_OF_STREAM;
+	}
+
+	/**
+	 *
+	 * @param c the target channel
+	 * @return the sample of the target channel of the current frame
+	 */
+	private int map(int c) {
+		int value;
+		if(sourceChannels==channels) {
+			value=frame[c];
+		} else if(channels==1) {
+			long sum=0;
+			for(int i=0;i<sourceChannels;i++) {
+				sum+=frame[i];
+			}
+			value=(int)(sum/sourceChannels);
+		} else {
+			value=frame[c%sourceChannels];
+		}
+		return shift>=0?value<<shift:value>>-shift;
+	}
+
+	@Override
+	public boolean seekTo(float time) {
+		if(baseStream.seekTo(time)) {
+			reset();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public boolean isStream() {
+		return baseStream.isStream();
+	}
+
+	@Override
+	public AudioInfo getCurrentInfo() {
+		return baseStream.getCurrentInfo();
+	}
+
+	@Override
+	public void setAudioControls(AudioControls controls) {
+		baseStream.setAudioControls(controls);
+	}
+
+	@Override
+	public void update(LineEvent event) {
+		baseStream.update(event);
+	}
+
+	@Override
+	public void close() {
+		baseStream.close();
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.TreeMap;
+
+import javax.sound.sampled.AudioFormat;
+
+import not.alexa.hermes.media.AudioStream;
+
+/**
+ * Audio stream playing a sequence of WAV chunks while they arrive. Chunks are numbered sequentially and may arrive out of order.
+ * While the next chunk is missing, the stream is {@link AudioStream#BLOCKED}. If later chunks already arrived, missing chunks are skipped after
+ * {@value #GAP_TIMEOUT}ms (and dropped if they arrive afterwards). The stream ends after the last chunk was played or if no chunk arrived
+ * for {@value #STALL_TIMEOUT}ms.
+ * <br>Like {@link WavAudioStream}, the chunks are expected to contain 16 bit signed little endian PCM data.
+ *
+ * @author notalexa
+ */
+public class ChunkedWavStream implements AudioStream {
+	/**
+	 * The time in milliseconds after which a blocked stream terminates.
+	 */
+	public static final long STALL_TIMEOUT=10000;
+	/**
+	 * The time in milliseconds a blocked stream waits for missing chunks if later chunks arrived.
+	 */
+	public static final long GAP_TIMEOUT=500;
+	private final AudioFormat format;
+	private final ArrayDeque<byte[]> chunks=new ArrayDeque<>();
+	private final TreeMap<Integer,byte[]> early=new TreeMap<>();
+	private int nextIndex;
+	private int lastIndex=-1;
+	private long lastArrival=System.currentTimeMillis();
+	// The time the stream blocked on a gap (or -1)
+	private long gapSince=-1;
+	private boolean finished;
+	private byte[] current;
+	private int offset;
+
+	/**
+	 *
+	 * @param wavData the first chunk received (which need not be the chunk with index {@code 0}) providing the format of the stream
+	 */
+	public ChunkedWavStream(byte[] wavData) {
+		format=WavAudioStream.getFormat(wavData);
+	}
+
+	/**
+	 * Add a chunk.
+	 *
+	 * @param index the index of the chunk
+	 * @param last {@code true} if this is the last chunk
+	 * @param wavData the chunk
+	 * @return {@code false} if the stream already terminated
+	 */
+	public synchronized boolean add(int index,boolean last,byte[] wavData) {
+		if(finished) {
+			return false;
+		}
+		lastArrival=System.currentTimeMillis();
+		if(last) {
+			lastIndex=index;
+		}
+		if(index==nextIndex) {
+			gapSince=-1;
+			append(wavData);
+			byte[] next;
+			while((next=early.remove(nextIndex))!=null) {
+				append(next);
+			}
+		} else if(index>nextIndex) {
+			early.put(index,wavData);
+		}
+		return true;
+	}
+
+	private void append(byte[] wavData) {
+		int dataOffset=WavAudioStream.getDataOffset(wavData);
+		if(dataOffset>=0&&dataOffset<wavData.length) {
+			byte[] pcm=new byte[(wavData.length-dataOffset)&~1];
+			System.arraycopy(wavData,dataOffset,pcm,0,pcm.length);
+			chunks.add(pcm);
+		}
+		nextIndex++;
+	}
+
+	/**
+	 * Skip the missing chunks if the stream blocked on a gap for more than {@value #GAP_TIMEOUT}ms.
+	 *
+	 * @return {@code true} if chunks were skipped
+	 */
+	private boolean skipGap() {
+		if(early.isEmpty()) {
+			gapSince=-1;
+			return false;
+		}
+		long now=System.currentTimeMillis();
+		if(gapSince<0) {
+			gapSince=now;
+			return false;
+		} else if(now-gapSince<GAP_TIMEOUT) {
+			return false;
+		}
+		gapSince=-1;
+		nextIndex=early.firstKey();
+		byte[] next;
+		while((next=early.remove(nextIndex))!=null) {
+			append(next);
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return {@code true} if all chunks (including the last chunk) were added
+	 */
+	public synchronized boolean isComplete() {
+		return lastIndex>=0&&nextIndex>lastIndex;
+	}
+
+	/**
+	 *
+	 * @return {@code true} if the stream terminated (all chunks were played or the stream stalled)
+	 */
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	@Override
+	public int read(int[] samples,int offset,int length) throws IOException {
+		int n=0;
+		while(n<length) {
+			if(current==null||this.offset>=current.length) {
+				synchronized (this) {
+					current=chunks.poll();
+					if(current==null&&skipGap()) {
+						current=chunks.poll();
+					}
+					this.offset=0;
+					if(current==null) {
+						if(finished||isComplete()||System.currentTimeMillis()-lastArrival>STALL_TIMEOUT) {
+							finished=true;
+							return n>0?n:END_OF_STREAM;
+						}
+						return n>0?n:BLOCKED;
+					}
+				}
+			}
+			int o=this.offset;
+			int m=Math.min(length-n,(current.length-o)>>1);
+			for(int i=0;i<m;i++) {
+				samples[offset+n+i]=(current[o]&0xff)+(current[o+1]<<8);
+				o+=2;
+			}
+			this.offset=o;
+			n+=m;
+		}
+		return n;
+	}
+
+	@Override
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public boolean isStream() {
+		return false;
+	}
+
+	@Override
+	public synchronized void close() {
+		finished=true;
+		chunks.clear();
+		early.clear();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import java.io.IOException;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+import javax.sound.sampled.LineEvent;
+
+import not.alexa.hermes.media.AudioStream;
+
+/**
+ * Resampling by linear interpolation (see {@link ResamplingStream.Quality#LINEAR}). The stream processes one sample at a time and
+ * is restricted to 16 bit signed pcm data (little endian) in mono or stereo format.
+ *
+ * @author notalexa
+ */
+public class LinearResampledStream implements AudioStream {
+	private final AudioStream baseStream;
+	private final AudioFormat format;
+	private final float ratio;
+	private final int[][] accu;
+	private float offset=1f;
+	private int channelOffset=0;
+	private boolean done;
+
+	/**
+	 *
+	 * @param baseStream the stream to resample
+	 * @param format the target format
+	 * @throws IOException if reading the first sample fails
+	 */
+	public LinearResampledStream(AudioStream baseStream,AudioFormat format) throws IOException {
+		this.baseStream=baseStream;
+		this.format=format;
+		ratio=baseStream.getFormat().getSampleRate()/format.getSampleRate();
+		accu=new int[2][format.getChannels()];
+		fill();
+	}
+
+	/**
+	 *
+	 * @param format the target format
+	 * @return {@code true} if the target format is supported
+	 */
+	public static boolean isSupported(AudioFormat format) {
+		return format.getEncoding().equals(Encoding.PCM_SIGNED)
+				&&!format.isBigEndian()
+				&&format.getChannels()<=2
+				&&format.getSampleSizeInBits()==16;
+	}
+
+	@Override
+	public void update(LineEvent event) {
+		baseStream.update(event);
+	}
+
+	private void fill() throws IOException {
+		int c1=accu[0].length;
+		int c2=baseStream.getFormat().getChannels();
+		for(int i=0;i<c1;i++) {
+			accu[0][i]=accu[1][i];
+			if(c1==c2) {
+				accu[1][i]=baseStream.next();
+			} else if(c2==1) {
+				// mono -> stereo
+				accu[1][i]=i==0?baseStream.next():accu[1][0];
+			} else {
+				// stereo -> mono
+				accu[1][i]=(baseStream.next()+baseStream.next())>>1;
+			}
+		}
+		done=accu[1][accu[1].length-1]>Short.MAX_VALUE;
+	}
+
+	@Override
+	public int next() throws IOException {
+		if(done) {
+			return Integer.MAX_VALUE;
+		}
+		if(channelOffset==accu[0].length-1) {
+			while(offset>=1) {
+				fill();
+				if(done) {
+					return Integer.MAX_VALUE;
+				}
+				offset-=1f;
+			}
+			offset+=ratio;
+			channelOffset=0;
+		} else {
+			channelOffset++;
+		}
+		return (int)((1-offset)*accu[0][channelOffset]+offset*accu[1][channelOffset]);
+	}
+
+	@Override
+	public boolean isStream() {
+		return baseStream.isStream();
+	}
+
+	@Override
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public void close() {
+		baseStream.close();
+	}
+}
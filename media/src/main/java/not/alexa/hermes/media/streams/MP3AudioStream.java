@@ -30,6 +30,8 @@ import javazoom.jl.decoder.Header;
 import javazoom.jl.decoder.MP3Decoder;
 import javazoom.jl.decoder.OutputBuffer;
 import not.alexa.hermes.media.AudioStream;
+import not.alexa.hermes.media.io.BufferedSeekableInputStream;
+import not.alexa.hermes.media.io.MappedFileInputStream;
 import not.alexa.hermes.media.io.SeekableInputStream;
 
 /**
@@ -40,6 +42,8 @@ import not.alexa.hermes.media.io.SeekableInputStream;
 public class MP3AudioStream implements AudioStream {
 	private final SeekableInputStream seek;
     private final MP3InputStream in;
+    private MP3SeekTable seekTable;
+    private boolean indexed;
     private AudioInfo info;
     private int offset;
     protected final long size;
@@ -49,15 +53,48 @@ public class MP3AudioStream implements AudioStream {
     }
     
     public MP3AudioStream(InputStream audioIn, AudioInfo info,float normalizationFactor, long size) throws IOException {
-    	audioIn=new BufferedInputStream(audioIn,2048);
-    	seek=audioIn instanceof SeekableInputStream?(SeekableInputStream)audioIn:null;
+    	this(audioIn,info,normalizationFactor,size,null);
+    }
+
+    /**
+     * 
+     * @param audioIn the stream to decode
+     * @param info the info of the stream
+     * @param normalizationFactor the normalization factor
+     * @param size the size of the stream
+     * @param seekTable the seek table of the stream. If {@code null} and the stream is seekable, the table is read from the stream (if the stream has
+     * no Xing or VBRI header, the frames are indexed on the first seek).
+     * @throws IOException if reading the stream fails
+     */
+    public MP3AudioStream(InputStream audioIn, AudioInfo info,float normalizationFactor, long size,MP3SeekTable seekTable) throws IOException {
+    	// Mapped files are read directly, other seekable streams get a buffer supporting seeks
+    	if(audioIn instanceof MappedFileInputStream) {
+    		seek=(SeekableInputStream)audioIn;
+    	} else if(audioIn instanceof SeekableInputStream) {
+    		audioIn=seek=new BufferedSeekableInputStream((SeekableInputStream)audioIn,2048);
+    	} else {
+    		seek=null;
+    		audioIn=new BufferedInputStream(audioIn,2048);
+    	}
     	this.size=size;
-    	this.info=info;
-    	offset=new ID3Handler().parse(audioIn);
+    	InfoReader reader=new InfoReader(info);
+    	offset=reader.parse(audioIn);
+    	this.info=reader.info;
+    	if(seek!=null&&size>0&&seekTable==null) {
+    		// Scanning the frames delays playback, so it's deferred until the first seek
+    		seekTable=MP3SeekTable.read(seek,offset,size,false);
+    	}
+    	this.seekTable=seek==null?null:seekTable;
+    	indexed=seek==null||size<=0||seekTable!=null;
     	try {
 	        this.in = new MP3InputStream(audioIn, normalizationFactor,size-offset);
+	        if(this.seekTable!=null) {
+	        	in.duration=this.seekTable.getDuration()*1000;
+	        	in.skip=this.seekTable.getLeadingSamples();
+	        	in.samples=this.seekTable.getSamples();
+	        }
 	        if(in.duration>0) {
-	        	info=info.forDuration(in.duration/1000f);
+	        	this.info=this.info.forDuration(in.duration/1000f);
 	        }
     	} catch(BitstreamException t) {
     		throw new IOException(t);
@@ -66,7 +103,35 @@ public class MP3AudioStream implements AudioStream {
         
     @Override
 	public boolean seekTo(float time) {
-    	if(in.duration>0) {
+    	if(!indexed) {
+    		indexed=true;
+    		try {
+    			seekTable=MP3SeekTable.read(seek,offset,size);
+    		} catch(IOException e) {
+    		}
+    		if(seekTable!=null) {
+    			in.duration=seekTable.getDuration()*1000;
+    			in.samples=seekTable.getSamples();
+    			info=info.forDuration(seekTable.getDuration());
+    			onIndexed(seekTable);
+    		}
+    	}
+    	if(seekTable!=null) {
+    		try {
+	    		long decoded=seekTable.seek(seek,time);
+	    		if(decoded>=0) {
+	    			in.position=1000f*decoded/in.audioFormat.getSampleRate();
+	    			in.clear();
+	    			// The position includes the encoder delay which is neither played nor counted
+	    			int leading=seekTable.getLeadingSamples();
+	    			in.skip=(int)Math.max(0,leading-decoded);
+	    			in.played=Math.max(0,decoded-leading);
+	    			return true;
+	    		}
+    		} catch(IOException e) {
+    		}
+    		return false;
+    	} else if(in.duration>0) {
     		if(seekBytes(offset+(long)((size-offset)*time*1000/in.duration))) {
     			in.position=1000*time;
         		in.clear();
@@ -89,6 +154,22 @@ public class MP3AudioStream implements AudioStream {
 		}
 	}
 
+    /**
+     * 
+     * @return the seek table of this stream or {@code null} if the stream isn't seekable (or not indexed yet)
+     */
+    public MP3SeekTable getSeekTable() {
+    	return seekTable;
+    }
+
+    /**
+     * Called if the frames of the stream were indexed (on the first seek). This defaults to noop.
+     * 
+     * @param seekTable the (exact) seek table of the stream
+     */
+    protected void onIndexed(MP3SeekTable seekTable) {
+    }
+
     protected boolean seekBytes(long bytes) {
     	return seek==null?false:seek.seekTo(bytes);
     }
@@ -113,7 +194,43 @@ public class MP3AudioStream implements AudioStream {
     	return in.audioFormat;
     }
     
-    private class ID3Handler extends ID3 {
+    /**
+     * Read the meta data (the ID3 tags title, artist and album and the duration) of an MP3 stream without decoding it.
+     * 
+     * @param in the stream to read
+     * @param info the info to complete
+     * @param size the size of the stream
+     * @return the info completed with the meta data found
+     * @throws IOException if reading fails
+     */
+    public static AudioInfo readInfo(InputStream in,AudioInfo info,long size) throws IOException {
+    	in=new BufferedInputStream(in,2048);
+    	InfoReader reader=new InfoReader(info);
+    	int offset=reader.parse(in);
+    	// The Xing or VBRI header (if any) defines the duration of VBR streams
+    	in.mark(16384);
+    	float duration=MP3SeekTable.readDuration(in);
+    	if(duration>0) {
+    		return reader.info.forDuration(duration);
+    	}
+    	in.reset();
+    	try {
+    		Header header=new Bitstream(in).readFrame();
+    		if(header!=null&&size>0) {
+    			reader.info=reader.info.forDuration(header.total_ms((int)(size-offset))/1000f);
+    		}
+    	} catch(BitstreamException e) {
+    		throw new IOException(e);
+    	}
+    	return reader.info;
+    }
+    
+    private static class InfoReader extends ID3 {
+    	private AudioInfo info;
+    	
+    	private InfoReader(AudioInfo info) {
+    		this.info=info;
+    	}
 
 		@Override
 		protected void handleTag(String tag, byte[] data, int size) throws IOException {
@@ -147,9 +264,15 @@ public class MP3AudioStream implements AudioStream {
         private final OutputBuffer outputBuffer;
         private boolean eos;
         private boolean fullyRead;
+        // The first frame is pushed back into the bitstream until it's read
+        private boolean unread;
         private float position;
         private float frameTime;
         private float duration;
+        // Gapless playback: The samples (per channel) to skip, the total number of samples to play (or -1) and the samples played so far 
+        private int skip;
+        private long samples=-1;
+        private long played;
 
         /**
          * Initializes the stream, reads the first header, retrieves important stream information and unreads the header
@@ -169,6 +292,7 @@ public class MP3AudioStream implements AudioStream {
             frameTime=header.ms_per_frame();
             duration=size>0?header.total_ms((int)size):-1;
             bitstream.unreadFrame();
+            unread=true;
             audioFormat=decorate(new AudioFormat(header.getSampleRate(), 16, header.mode() == Header.SINGLE_CHANNEL ? 1 : 2, true, false));
             outputBuffer = new OutputBuffer(audioFormat.getChannels(), false);
             decoder.setOutputBuffer(outputBuffer);
@@ -176,6 +300,14 @@ public class MP3AudioStream implements AudioStream {
         }
         
         private void clear() {
+        	if(unread) try {
+        		// The stream was positioned before the first frame was read: Drop the frame pushed back
+        		unread=false;
+        		bitstream.readFrame();
+        		bitstream.closeFrame();
+        	} catch(BitstreamException e) {
+        	}
+        	eos=fullyRead=false;
         	buffer.clear();
         	buffer.flip();
         }
@@ -187,6 +319,7 @@ public class MP3AudioStream implements AudioStream {
 	            while(total < MAX_READ_SIZE) {
 	                Header header;
                     header = bitstream.readFrame();
+                    unread=false;
 	                if(header==null) {
 	                    fullyRead=true;
                     	eos=total==0&&handleEOS(buffer);
@@ -196,8 +329,25 @@ public class MP3AudioStream implements AudioStream {
 	                bitstream.closeFrame();
 	                position+=frameTime;
 	                int bytesRead = outputBuffer.reset();
-	                buffer.put(outputBuffer.getBuffer(), 0, bytesRead);
-	                total += bytesRead;
+	                int frameSize = 2*audioFormat.getChannels();
+	                int from = 0;
+	                if(skip>0) {
+	                	from = Math.min(bytesRead, skip*frameSize);
+	                	skip -= from/frameSize;
+	                }
+	                int length = bytesRead-from;
+	                if(samples>=0) {
+	                	length = (int)Math.min(length, (samples-played)*frameSize);
+	                	played += length/frameSize;
+	                }
+	                buffer.put(outputBuffer.getBuffer(), from, length);
+	                total += length;
+	                if(samples>=0&&played>=samples) {
+	                	// Encoder padding: The rest of the stream is not played
+	                	fullyRead=true;
+                    	eos=total==0&&handleEOS(buffer);
+	                	break;
+	                }
 	            }
             } catch(BitstreamException|DecoderException e) {
             	throw new IOException(e);
@@ -258,6 +408,22 @@ public class MP3AudioStream implements AudioStream {
             }
         	return buffer.getShort();
         }
+
+		int readShorts(int[] samples,int offset,int length) throws IOException {
+        	if(eos) {
+        		return END_OF_STREAM;
+        	}
+            if (buffer.remaining()<=1) {
+                if(!fillBuffer()) {
+                	return END_OF_STREAM;
+                }
+            }
+            length=Math.min(length,buffer.remaining()>>1);
+            for(int i=0;i<length;i++) {
+            	samples[offset+i]=buffer.getShort();
+            }
+            return length;
+		}
     }
 
 	@Override
@@ -265,6 +431,11 @@ public class MP3AudioStream implements AudioStream {
 		return in.readShort();
 	}
 
+	@Override
+	public int read(int[] samples, int offset, int length) throws IOException {
+		return length==0?0:in.readShorts(samples, offset, length);
+	}
+
 	@Override
 	public boolean isStream() {
 		return size<=0;
@@ -0,0 +1,541 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import not.alexa.hermes.media.io.SeekableInputStream;
+
+/**
+ * Seek table of an MP3 stream. The table is taken from the header frame of the stream if present:
+ * <ul>
+ * <li>A <i>Xing</i> (or <i>Info</i>) header contains the number of frames (which makes the duration exact)
+ * and a table of contents mapping percentages of the duration to byte positions. The encoder delay and padding
+ * of a <i>LAME</i> extension are taken into account for the duration.
+ * <li>A <i>VBRI</i> header contains the number of frames and a table of the byte sizes of fixed size groups of frames.
+ * </ul>
+ * Both tables are approximations only: After seeking, the stream is resynchronized to the next frame verified by its successor.
+ * If the stream doesn't have such a header, the table is build by scanning the frame headers (without decoding).
+ * This index contains the offset of every frame and seeking lands on the exact frame. Since scanning reads the whole stream, it may be deferred until the first
+ * seek (see {@link #read(SeekableInputStream, long, long, boolean)}). An index can be persisted
+ * (see {@link #save(File)}) to avoid scanning when the stream is opened the next time.
+ * <br>For gapless playback, the table provides the number of samples to skip at the beginning and the number of samples to play
+ * (see {@link #getLeadingSamples()} and {@link #getSamples()}).
+ *
+ * @author notalexa
+ */
+public class MP3SeekTable {
+	private static final int VERSION=2;
+	// The delay of the decoder (in samples) compensated by the LAME encoder delay
+	private static final int DECODER_DELAY=529;
+	// Sync, version, layer and sample rate must be equal for all frames of a stream
+	private static final int HEADER_MASK=0xfffe0c00;
+	private static final int SYNC_WINDOW=8192;
+	private static final int MAX_FRAME_SIZE=2881;
+	// The frame headers are scanned in windows of this size
+	private static final int SCAN_WINDOW=65536;
+	private static final int[][] BITRATES=new int[][] {
+		// MPEG 1, Layer I, II, III
+		{ 0,32,64,96,128,160,192,224,256,288,320,352,384,416,448 },
+		{ 0,32,48,56,64,80,96,112,128,160,192,224,256,320,384 },
+		{ 0,32,40,48,56,64,80,96,112,128,160,192,224,256,320 },
+		// MPEG 2 and 2.5, Layer I, II and III
+		{ 0,32,48,56,64,80,96,112,128,144,160,176,192,224,256 },
+		{ 0,8,16,24,32,40,48,56,64,80,96,112,128,144,160 },
+	};
+	private static final int[][] SAMPLE_RATES=new int[][] {
+		{ 11025,12000,8000 },
+		null,
+		{ 22050,24000,16000 },
+		{ 44100,48000,32000 },
+	};
+	private static final int INDEX=0;
+	private static final int TOC=1;
+	private static final int VBRI=2;
+
+	private final int type;
+	private final int header;
+	private final int sampleRate;
+	private final int samplesPerFrame;
+	private final long start;
+	private final long size;
+	private final int frames;
+	private final int skippedSamples;
+	private final int leadingSamples;
+	private final int framesPerEntry;
+	private final int[] table;
+
+	private MP3SeekTable(int type,int header,long start,long size,int frames,int skippedSamples,int leadingSamples,int framesPerEntry,int[] table) {
+		this.type=type;
+		this.header=header;
+		this.sampleRate=sampleRate(header);
+		this.samplesPerFrame=samplesPerFrame(header);
+		this.start=start;
+		this.size=size;
+		this.frames=frames;
+		this.skippedSamples=skippedSamples;
+		this.leadingSamples=leadingSamples;
+		this.framesPerEntry=framesPerEntry;
+		this.table=table;
+	}
+
+	/**
+	 * Read the seek table of the given stream. The position of the stream is unchanged afterwards.
+	 *
+	 * @param in the stream
+	 * @param offset the offset of the audio data (after the ID3 tag)
+	 * @param size the size of the stream
+	 * @return the seek table or {@code null} if no table can be constructed (e.g. for free format streams)
+	 * @throws IOException if reading the stream fails
+	 */
+	public static MP3SeekTable read(SeekableInputStream in,long offset,long size) throws IOException {
+		return read(in,offset,size,true);
+	}
+
+	/**
+	 * Read the seek table of the given stream. The position of the stream is unchanged afterwards.
+	 *
+	 * @param in the stream
+	 * @param offset the offset of the audio data (after the ID3 tag)
+	 * @param size the size of the stream
+	 * @param scan if {@code false}, only the table of a Xing or VBRI header is read and the (expensive) scan of the frame headers is omitted
+	 * @return the seek table or {@code null} if no table can be constructed (e.g. for free format streams) or the stream has to be scanned
+	 * @throws IOException if reading the stream fails
+	 */
+	public static MP3SeekTable read(SeekableInputStream in,long offset,long size,boolean scan) throws IOException {
+		long position=in.currentPosition();
+		try {
+			long first=sync(in,offset,0,0);
+			if(first<0) {
+				return null;
+			}
+			int h=readHeader(in,first);
+			byte[] frame=new byte[frameSize(h)];
+			in.seekTo(first);
+			if(readFully(in,frame)<frame.length) {
+				return null;
+			}
+			MP3SeekTable table=fromXing(h,frame,first,size);
+			if(table==null) {
+				table=fromVBRI(h,frame,first,size);
+			}
+			if(table==null&&scan) {
+				// A Xing header without table of contents is skipped
+				table=scan(in,h,first,isXing(frame,xingOffset(h))?frame.length:0,size);
+			}
+			return table;
+		} finally {
+			in.seekTo(position);
+		}
+	}
+
+	/**
+	 * Read the duration of the given stream from the Xing or VBRI header (the first frame). Contrary to the duration derived from the bitrate of the first frame,
+	 * this duration is correct for VBR streams. The stream is not reset afterwards.
+	 *
+	 * @param in the stream positioned at the audio data (after the ID3 tag)
+	 * @return the duration in seconds or a negative value if the stream has no Xing or VBRI header containing the number of frames
+	 * @throws IOException if reading the stream fails
+	 */
+	public static float readDuration(InputStream in) throws IOException {
+		byte[] window=new byte[SYNC_WINDOW+MAX_FRAME_SIZE+4];
+		int n=readFully(in,window);
+		for(int i=0;i+4<=n&&i<SYNC_WINDOW;i++) {
+			int h=getInt(window,i);
+			if(isHeader(h)) {
+				byte[] frame=Arrays.copyOfRange(window,i,Math.min(n,i+frameSize(h)));
+				int offset=xingOffset(h);
+				long samples=-1;
+				if(isXing(frame,offset)&&frame.length>=offset+12&&(getInt(frame,offset+4)&1)!=0) {
+					samples=(getInt(frame,offset+8)&0xffffffffL)*samplesPerFrame(h);
+					int lame=offset+120;
+					if(frame.length>=lame+24&&"LAME".equals(tag(frame,lame))) {
+						int delayAndPadding=getInt(frame,lame+20)&0xffffff;
+						samples-=(delayAndPadding>>12)+(delayAndPadding&0xfff);
+					}
+				} else if("VBRI".equals(tag(frame,36))&&frame.length>=36+18) {
+					samples=(getInt(frame,36+14)&0xffffffffL)*samplesPerFrame(h);
+				}
+				return samples>0?(float)samples/sampleRate(h):-1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 *
+	 * @return {@code true} if this table is an index of every frame (and seeking is exact)
+	 */
+	public boolean isExact() {
+		return type==INDEX;
+	}
+
+	/**
+	 *
+	 * @return the duration of the stream in seconds
+	 */
+	public float getDuration() {
+		return Math.max(0,(long)frames*samplesPerFrame-skippedSamples)/(float)sampleRate;
+	}
+
+	/**
+	 *
+	 * @return the number of samples (per channel) of the stream without encoder delay and padding
+	 */
+	public long getSamples() {
+		return Math.max(0,(long)frames*samplesPerFrame-skippedSamples);
+	}
+
+	/**
+	 * Samples (per channel) decoded from the beginning of the stream which are not part of the audio: The silent samples of
+	 * a <i>Xing</i> or <i>VBRI</i> header frame and (if a <i>LAME</i> extension is present) the encoder and decoder delay.
+	 * Skipping these samples and playing {@link #getSamples()} samples afterwards plays the stream gapless.
+	 *
+	 * @return the number of leading samples
+	 */
+	public int getLeadingSamples() {
+		return leadingSamples;
+	}
+
+	/**
+	 *
+	 * @return the number of (audio) frames of the stream
+	 */
+	public int getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Seek to the frame containing the given time. The position is returned in samples to keep it exact for long streams.
+	 *
+	 * @param in the stream to seek
+	 * @param time the time in seconds
+	 * @return the number of samples (per channel) decoded from the beginning of the stream up to the frame the stream is positioned at
+	 * (including the {@link #getLeadingSamples() leading samples}) or {@code -1} if seeking failed
+	 * @throws IOException if reading the stream fails
+	 */
+	public long seek(SeekableInputStream in,float time) throws IOException {
+		int frame=(int)Math.max(0,Math.min(frames-1,(long)(time*sampleRate/samplesPerFrame)));
+		long position;
+		switch(type) {
+			case INDEX:
+				// The index starts behind the header frame (if any) which is decoded from the beginning of the stream
+				return in.seekTo(start+table[frame])?leadingSamples+(long)frame*samplesPerFrame:-1;
+			case VBRI:
+				int entry=Math.min(table.length-1,frame/framesPerEntry);
+				frame=entry*framesPerEntry;
+				position=start+table[entry];
+				break;
+			default:
+				float percent=Math.max(0,Math.min(99.99f,100f*frame/frames));
+				int i=(int)percent;
+				float a=table[i];
+				float b=i<99?table[i+1]:256;
+				position=start+(long)((a+(b-a)*(percent-i))*size/256);
+				break;
+		}
+		position=sync(in,position,header,HEADER_MASK);
+		return position>=0&&in.seekTo(position)?(long)frame*samplesPerFrame:-1;
+	}
+
+	/**
+	 * Save this table. The file can be read by {@link #load(File, long)}. Only an exact table (an index of every frame)
+	 * can be saved, the other tables are cheap to read from the stream.
+	 *
+	 * @param file the file to save to
+	 * @throws IOException if writing fails
+	 * @throws IllegalStateException if this table isn't exact
+	 */
+	public void save(File file) throws IOException {
+		if(!isExact()) {
+			throw new IllegalStateException("Only exact tables can be saved");
+		}
+		try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(VERSION);
+			out.writeInt(header);
+			out.writeLong(start);
+			out.writeLong(size);
+			out.writeInt(frames);
+			out.writeInt(leadingSamples);
+			// Offsets are increasing and written as deltas (the frame sizes)
+			int last=0;
+			for(int offset:table) {
+				out.writeShort(offset-last);
+				last=offset;
+			}
+		}
+	}
+
+	/**
+	 * Load a table saved by {@link #save(File)}.
+	 *
+	 * @param file the file to load
+	 * @param size the size of the stream the table was created for
+	 * @return the table or {@code null} if the file doesn't exist, is invalid or was created for another stream size
+	 */
+	public static MP3SeekTable load(File file,long size) {
+		if(!file.exists()) {
+			return null;
+		}
+		try(DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(in.readInt()!=VERSION) {
+				return null;
+			}
+			int header=in.readInt();
+			long start=in.readLong();
+			if(in.readLong()!=size||!isHeader(header)) {
+				return null;
+			}
+			int[] table=new int[in.readInt()];
+			int leading=in.readInt();
+			int last=0;
+			for(int i=0;i<table.length;i++) {
+				table[i]=last+=in.readUnsignedShort();
+			}
+			return table.length==0?null:new MP3SeekTable(INDEX,header,start,size,table.length,0,leading,1,table);
+		} catch(IOException|RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static MP3SeekTable fromXing(int h,byte[] frame,long first,long size) {
+		int offset=xingOffset(h);
+		if(!isXing(frame,offset)||frame.length<offset+8) {
+			return null;
+		}
+		int flags=getInt(frame,offset+4);
+		int p=offset+8;
+		int frames=-1;
+		long bytes=size-first;
+		int[] toc=null;
+		if((flags&1)!=0) {
+			frames=getInt(frame,p);
+			p+=4;
+		}
+		if((flags&2)!=0) {
+			bytes=getInt(frame,p)&0xffffffffL;
+			p+=4;
+		}
+		if((flags&4)!=0&&p+100<=frame.length) {
+			toc=new int[100];
+			for(int i=0;i<100;i++) {
+				toc[i]=frame[p+i]&0xff;
+			}
+		}
+		if(frames<=0||toc==null) {
+			return null;
+		}
+		int skipped=0;
+		// The header frame is decoded as silence
+		int leading=samplesPerFrame(h);
+		int lame=offset+120;
+		if(frame.length>=lame+24&&"LAME".equals(tag(frame,lame))) {
+			int delayAndPadding=getInt(frame,lame+20)&0xffffff;
+			skipped=(delayAndPadding>>12)+(delayAndPadding&0xfff);
+			leading+=(delayAndPadding>>12)+DECODER_DELAY;
+		}
+		return new MP3SeekTable(TOC,h,first,bytes,frames,skipped,leading,0,toc);
+	}
+
+	private static MP3SeekTable fromVBRI(int h,byte[] frame,long first,long size) {
+		int offset=36;
+		if(!"VBRI".equals(tag(frame,offset))||frame.length<offset+26) {
+			return null;
+		}
+		int frames=getInt(frame,offset+14);
+		int entries=getShort(frame,offset+18);
+		int scale=getShort(frame,offset+20);
+		int entrySize=getShort(frame,offset+22);
+		int framesPerEntry=getShort(frame,offset+24);
+		int p=offset+26;
+		if(frames<=0||entries<=0||framesPerEntry<=0||entrySize<1||entrySize>4||frame.length<p+entries*entrySize) {
+			return null;
+		}
+		int[] table=new int[entries];
+		int position=0;
+		for(int i=0;i<entries;i++) {
+			table[i]=position;
+			int value=0;
+			for(int j=0;j<entrySize;j++) {
+				value=(value<<8)|(frame[p++]&0xff);
+			}
+			position+=value*scale;
+		}
+		// The table starts after the VBRI frame
+		return new MP3SeekTable(VBRI,h,first+frame.length,size,frames,0,samplesPerFrame(h),framesPerEntry,table);
+	}
+
+	private static MP3SeekTable scan(SeekableInputStream in,int h,long first,int header,long size) throws IOException {
+		// The header frame is skipped (but decoded as silence)
+		int leading=header>0?samplesPerFrame(h):0;
+		first+=header;
+		int[] offsets=new int[1024];
+		int frames=0;
+		// The window contains the bytes starting at base (the headers are read sequentially instead of seeking to every frame)
+		byte[] window=new byte[SCAN_WINDOW];
+		long base=first;
+		int n=0;
+		long position=first;
+		while(position+4<=size&&position-first<=Integer.MAX_VALUE) {
+			if(position<base||position+4>base+n) {
+				base=position;
+				n=in.seekTo(base)?readFully(in,window):0;
+				if(n<4) {
+					break;
+				}
+			}
+			int next=getInt(window,(int)(position-base));
+			if(!isHeader(next)||(next&HEADER_MASK)!=(h&HEADER_MASK)) {
+				// Junk between frames or trailing tags
+				position=sync(in,position+1,h,HEADER_MASK);
+				if(position<0) {
+					break;
+				}
+				continue;
+			}
+			if(frames==offsets.length) {
+				int[] newOffsets=new int[offsets.length*2];
+				System.arraycopy(offsets,0,newOffsets,0,frames);
+				offsets=newOffsets;
+			}
+			offsets[frames++]=(int)(position-first);
+			position+=frameSize(next);
+		}
+		if(frames==0) {
+			return null;
+		}
+		int[] table=new int[frames];
+		System.arraycopy(offsets,0,table,0,frames);
+		return new MP3SeekTable(INDEX,h,first,size,frames,0,leading,1,table);
+	}
+
+	/**
+	 * Find the next frame starting at the given position. A frame is accepted if its successor is a frame header too
+	 * (or the successor is behind the end of the stream).
+	 *
+	 * @return the position of the frame found or {@code -1}
+	 */
+	private static long sync(SeekableInputStream in,long position,int h,int mask) throws IOException {
+		byte[] window=new byte[SYNC_WINDOW+MAX_FRAME_SIZE+4];
+		if(!in.seekTo(position)) {
+			return -1;
+		}
+		int n=readFully(in,window);
+		for(int i=0;i+4<=n&&i<SYNC_WINDOW;i++) {
+			int candidate=getInt(window,i);
+			if(isHeader(candidate)&&(candidate&mask)==(h&mask)) {
+				int next=i+frameSize(candidate);
+				if(next+4>n) {
+					if(n<window.length) {
+						return position+i;
+					}
+				} else {
+					int successor=getInt(window,next);
+					if(isHeader(successor)&&(successor&HEADER_MASK)==(candidate&HEADER_MASK)) {
+						return position+i;
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static int readHeader(SeekableInputStream in,long position) throws IOException {
+		byte[] header=new byte[4];
+		return in.seekTo(position)&&readFully(in,header)==4?getInt(header,0):0;
+	}
+
+	private static int readFully(InputStream in,byte[] buffer) throws IOException {
+		int total=0;
+		int n;
+		while(total<buffer.length&&(n=in.read(buffer,total,buffer.length-total))>0) {
+			total+=n;
+		}
+		return total;
+	}
+
+	private static boolean isHeader(int h) {
+		return (h&0xffe00000)==0xffe00000
+				&&((h>>>19)&3)!=1
+				&&((h>>>17)&3)!=0
+				&&((h>>>12)&15)!=0
+				&&((h>>>12)&15)!=15
+				&&((h>>>10)&3)!=3;
+	}
+
+	private static int layer(int h) {
+		return 4-((h>>>17)&3);
+	}
+
+	private static boolean isMPEG1(int h) {
+		return ((h>>>19)&3)==3;
+	}
+
+	private static int sampleRate(int h) {
+		return SAMPLE_RATES[(h>>>19)&3][(h>>>10)&3];
+	}
+
+	private static int samplesPerFrame(int h) {
+		switch(layer(h)) {
+			case 1: return 384;
+			case 2: return 1152;
+			default: return isMPEG1(h)?1152:576;
+		}
+	}
+
+	private static int frameSize(int h) {
+		int layer=layer(h);
+		int bitrate=BITRATES[isMPEG1(h)?layer-1:Math.min(layer,2)+2][(h>>>12)&15]*1000;
+		int padding=(h>>>9)&1;
+		if(layer==1) {
+			return (12*bitrate/sampleRate(h)+padding)*4;
+		} else {
+			return samplesPerFrame(h)/8*bitrate/sampleRate(h)+padding;
+		}
+	}
+
+	private static int xingOffset(int h) {
+		boolean mono=((h>>>6)&3)==3;
+		return 4+(isMPEG1(h)?(mono?17:32):(mono?9:17));
+	}
+
+	private static boolean isXing(byte[] frame,int offset) {
+		String tag=tag(frame,offset);
+		return "Xing".equals(tag)||"Info".equals(tag);
+	}
+
+	private static String tag(byte[] frame,int offset) {
+		return frame.length>=offset+4?new String(frame,offset,4,StandardCharsets.ISO_8859_1):null;
+	}
+
+	private static int getInt(byte[] b,int offset) {
+		return ((b[offset]&0xff)<<24)|((b[offset+1]&0xff)<<16)|((b[offset+2]&0xff)<<8)|(b[offset+3]&0xff);
+	}
+
+	private static int getShort(byte[] b,int offset) {
+		return ((b[offset]&0xff)<<8)|(b[offset+1]&0xff);
+	}
+}
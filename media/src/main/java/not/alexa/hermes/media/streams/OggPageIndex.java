@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import not.alexa.hermes.media.io.SeekableInputStream;
+
+/**
+ * Locates pages of one logical stream in a seekable ogg container by their granule position.
+ * The search bisects the byte range of the stream and needs O(log n) page reads. Pages found on the way are cached
+ * (up to {@link #CACHE_SIZE} pages) and narrow the range of subsequent searches.
+ * <br>Only the page headers are read. A page is accepted if it is followed by another page (or the end of the stream).
+ *
+ * @author notalexa
+ */
+public class OggPageIndex {
+	/**
+	 * The maximal number of cached pages.
+	 */
+	public static final int CACHE_SIZE=256;
+	private static final int HEADER_SIZE=27;
+	// Below this range, pages are read sequentially
+	private static final int LINEAR_THRESHOLD=16*1024;
+	private static final int CHUNK_SIZE=4096;
+	private final SeekableInputStream in;
+	private final int serial;
+	private final long size;
+	private final TreeMap<Long,Long> pages=new TreeMap<>();
+	private final byte[] chunk=new byte[CHUNK_SIZE];
+	private final byte[] header=new byte[HEADER_SIZE+255];
+	private int reads;
+
+	/**
+	 *
+	 * @param in the stream
+	 * @param serial the serial number of the logical stream to search pages of
+	 * @param size the size of the stream
+	 */
+	public OggPageIndex(SeekableInputStream in,int serial,long size) {
+		this.in=in;
+		this.serial=serial;
+		this.size=size;
+	}
+
+	/**
+	 * Find the last page with a granule position less than or equal to the given granule position. Decoding the stream
+	 * starting at this page yields the sample at the given granule position after the first packet with a granule position.
+	 * The position of the stream is undefined afterwards.
+	 *
+	 * @param granule the granule position
+	 * @return the offset and the granule position of the page found (as array of length two) or {@code null} if no such page exists
+	 * @throws IOException if reading the stream fails
+	 */
+	public synchronized long[] find(long granule) throws IOException {
+		long lo=0;
+		long hi=size;
+		long[] best=null;
+		Map.Entry<Long,Long> floor=pages.floorEntry(granule);
+		if(floor!=null) {
+			lo=floor.getValue();
+			best=new long[] { floor.getValue(),floor.getKey() };
+		}
+		Map.Entry<Long,Long> ceiling=pages.higherEntry(granule);
+		if(ceiling!=null) {
+			hi=ceiling.getValue();
+		}
+		while(hi-lo>LINEAR_THRESHOLD) {
+			long mid=(lo+hi)>>>1;
+			long[] page=nextPage(mid,hi);
+			if(page==null) {
+				hi=mid;
+			} else if(page[1]<=granule) {
+				best=page;
+				lo=page[0]+page[2];
+			} else {
+				hi=page[0];
+			}
+		}
+		long[] page;
+		while((page=nextPage(lo,hi))!=null&&page[1]<=granule) {
+			best=page;
+			lo=page[0]+page[2];
+		}
+		return best==null?null:new long[] { best[0],best[1] };
+	}
+
+	/**
+	 *
+	 * @return the number of pages read so far
+	 */
+	public int getReads() {
+		return reads;
+	}
+
+	/**
+	 * Find the next page of the logical stream with a granule position starting in the given range.
+	 *
+	 * @return the offset, granule position and size of the page or {@code null}
+	 */
+	private long[] nextPage(long from,long limit) throws IOException {
+		long position=from;
+		while(position<limit) {
+			if(!in.seekTo(position)) {
+				return null;
+			}
+			int n=readFully(chunk,0,CHUNK_SIZE);
+			if(n<4) {
+				return null;
+			}
+			int i=0;
+			long skip=-1;
+			for(;i+4<=n&&position+i<limit;i++) {
+				if(chunk[i]=='O'&&chunk[i+1]=='g'&&chunk[i+2]=='g'&&chunk[i+3]=='S') {
+					long[] page=readPage(position+i);
+					if(page!=null) {
+						if((int)page[3]==serial&&page[1]!=-1) {
+							cache(page);
+							return page;
+						}
+						// A page of another stream (or without granule position): Continue behind it
+						skip=page[0]+page[2];
+						break;
+					}
+				}
+			}
+			// Otherwise, the last three bytes may start a capture pattern
+			position=skip>0?skip:position+Math.max(1,i);
+		}
+		return null;
+	}
+
+	/**
+	 * Read the page header at the given position.
+	 *
+	 * @return the offset, granule position, size and serial number of the page or {@code null} if there is no valid page at this position
+	 */
+	private long[] readPage(long position) throws IOException {
+		in.seekTo(position);
+		reads++;
+		if(readFully(header,0,HEADER_SIZE)<HEADER_SIZE||header[4]!=0) {
+			return null;
+		}
+		int segments=header[26]&0xff;
+		if(readFully(header,HEADER_SIZE,segments)<segments) {
+			return null;
+		}
+		int size=HEADER_SIZE+segments;
+		for(int i=0;i<segments;i++) {
+			size+=header[HEADER_SIZE+i]&0xff;
+		}
+		long granule=getLong(header,6);
+		long serial=getInt(header,14)&0xffffffffL;
+		long next=position+size;
+		if(next<this.size) {
+			// Verify the capture pattern of the following page
+			in.seekTo(next);
+			if(readFully(header,0,4)<4||header[0]!='O'||header[1]!='g'||header[2]!='g'||header[3]!='S') {
+				return null;
+			}
+		} else if(next>this.size) {
+			return null;
+		}
+		return new long[] { position,granule,size,serial };
+	}
+
+	private void cache(long[] page) {
+		if(pages.size()>=CACHE_SIZE) {
+			pages.clear();
+		}
+		pages.put(page[1],page[0]);
+	}
+
+	private int readFully(byte[] buffer,int offset,int length) throws IOException {
+		int total=0;
+		int n;
+		while(total<length&&(n=in.read(buffer,offset+total,length-total))>0) {
+			total+=n;
+		}
+		return total;
+	}
+
+	private static int getInt(byte[] b,int offset) {
+		return (b[offset]&0xff)|((b[offset+1]&0xff)<<8)|((b[offset+2]&0xff)<<16)|((b[offset+3]&0xff)<<24);
+	}
+
+	private static long getLong(byte[] b,int offset) {
+		return (getInt(b,offset)&0xffffffffL)|((long)getInt(b,offset+4)<<32);
+	}
+}
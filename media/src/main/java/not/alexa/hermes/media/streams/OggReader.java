@@ -35,6 +35,7 @@ class OggReader {
 	private Page joggPage = new Page();
 	private StreamState joggStreamState = new StreamState();
 	private SyncState joggSyncState = new SyncState();
+	private boolean resynced;
 	
 	public OggReader(InputStream stream) {
 		this.stream=stream;
@@ -61,6 +62,20 @@ class OggReader {
 		}
 	}
 	
+	/**
+	 * Continue reading the logical stream with the given serial number at the current position of the underlying stream
+	 * (typically after seeking to the start of a page). A packet continued from the previous page is dropped.
+	 * 
+	 * @param serialno the serial number of the stream
+	 */
+	public void resync(int serialno) {
+		joggSyncState.reset();
+		joggStreamState=new StreamState();
+		joggStreamState.init(serialno);
+		joggPacket=new Packet();
+		resynced=true;
+	}
+	
 	public int pageOffset() {
 		return 0;
 	}
@@ -69,9 +84,14 @@ class OggReader {
 		outerloop: while(true) {
 			if(joggPacket!=null) {
 				switch(joggStreamState.packetout(joggPacket)) {
-				case -1: throw new IOException("There is a hole in the data");
+				case -1: if(resynced) {
+						resynced=false;
+						continue outerloop;
+					}
+					throw new IOException("There is a hole in the data");
 				case 0: break;
-				case 1: return joggPacket;
+				case 1: resynced=false;
+					return joggPacket;
 				}
 			}
 			while(true) {
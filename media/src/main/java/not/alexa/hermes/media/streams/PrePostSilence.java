@@ -16,6 +16,7 @@
 package not.alexa.hermes.media.streams;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.sound.sampled.AudioFormat;
 
@@ -48,7 +49,7 @@ public class PrePostSilence implements AudioStream {
 			countDown--;
 			return 0;
 		} else if(countDown<0) {
-			if(countDown<=postSilence) {
+			if(countDown<postSilence) {
 				return Integer.MAX_VALUE;
 			} else {
 				countDown--;
@@ -57,12 +58,37 @@ public class PrePostSilence implements AudioStream {
 		} else {
 			int n=stream.next();
 			if(n==Integer.MAX_VALUE) {
-				countDown--;
-				if(postSilence==0) {
-					return Integer.MAX_VALUE;
-				} else {
-					return 0;
-				}
+				// Start post silence
+				countDown=-1;
+				return next();
+			}
+			return n;
+		}
+	}
+
+	@Override
+	public int read(int[] samples, int offset, int length) throws IOException {
+		if(length==0) {
+			return 0;
+		} else if(countDown>0) {
+			int n=Math.min(countDown, length);
+			Arrays.fill(samples, offset, offset+n, 0);
+			countDown-=n;
+			return n;
+		} else if(countDown<0) {
+			int n=Math.min(countDown-postSilence+1, length);
+			if(n<=0) {
+				return END_OF_STREAM;
+			}
+			Arrays.fill(samples, offset, offset+n, 0);
+			countDown-=n;
+			return n;
+		} else {
+			int n=stream.read(samples, offset, length);
+			if(n==END_OF_STREAM) {
+				// Start post silence
+				countDown=-1;
+				return read(samples, offset, length);
 			}
 			return n;
 		}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioFormat.Encoding;
+import javax.sound.sampled.LineEvent;
+
+import not.alexa.hermes.media.AudioControls;
+import not.alexa.hermes.media.AudioStream;
+
+/**
+ * Band-limited resampling using a polyphase filter bank. The ratio of the sample rates is reduced to {@code L/M}. For every output frame, one
+ * of {@code L} phases of a windowed sinc filter (Kaiser window) is applied to the surrounding input frames. The cutoff frequency is the smaller of both nyquist
+ * frequencies (such that downsampling doesn't alias). Filter banks are computed once per ratio and quality and shared between streams. The banks
+ * of common ratios (like 44.1kHz&rarr;48kHz or 22.05kHz&rarr;16kHz) are precomputed.
+ * <br>Signed pcm data with 8, 16 or 24 bits and any number of channels is supported. Source channels are mapped to target channels
+ * as follows: Mono is copied to all target channels, multiple channels are mixed down to mono and otherwise target channel {@code c} is taken
+ * from source channel {@code c} (modulo the number of source channels). Samples are scaled to the sample size of the target format.
+ * <br>If the ratio cannot be reduced to at most {@value #MAX_PHASES} phases, the nearest ratio with {@value #MAX_PHASES} phases is used (which changes the
+ * pitch by less than 0.1%).
+ *
+ * @author notalexa
+ */
+public class ResamplingStream implements AudioStream {
+	/**
+	 * The maximal number of phases of a filter bank.
+	 */
+	public static final int MAX_PHASES=1024;
+	// The number of frames read from the base stream at once
+	private static final int BLOCK_FRAMES=1024;
+	private static final int[][] COMMON_RATES= {
+		{ 44100,48000 },
+		{ 48000,44100 },
+		{ 22050,16000 },
+		{ 16000,22050 },
+		{ 32000,48000 },
+	};
+	private static final Map<String,FilterBank> BANKS=new ConcurrentHashMap<>();
+
+	static {
+		for(int[] rates:COMMON_RATES) {
+			filterBank(rates[0],rates[1],Quality.MEDIUM);
+		}
+	}
+
+	/**
+	 * The quality of resampling.
+	 */
+	public enum Quality {
+		/**
+		 * Linear interpolation of 16 bit mono or stereo data (see {@link LinearResampledStream}). Cheap but audible aliasing.
+		 */
+		LINEAR(0,0,0),
+		/**
+		 * 8 taps per phase, 80% passband.
+		 */
+		LOW(8,0.80,5),
+		/**
+		 * 16 taps per phase, 90% passband. The default.
+		 */
+		MEDIUM(16,0.90,7),
+		/**
+		 * 32 taps per phase, 95% passband.
+		 */
+		HIGH(32,0.95,9);
+
+		private final int taps;
+		private final double passband;
+		private final double beta;
+
+		private Quality(int taps,double passband,double beta) {
+			this.taps=taps;
+			this.passband=passband;
+			this.beta=beta;
+		}
+	}
+
+	private final AudioStream baseStream;
+	private final AudioFormat format;
+	private final FilterBank bank;
+	private final int sourceChannels;
+	private final int channels;
+	private final float scale;
+	private final int maxValue;
+	private final int minValue;
+	private final float[][] buffer;
+	private final int[] raw;
+	private final int[] frame;
+	private final int[] single=new int[1];
+	private int rawCount;
+	private int frames;
+	private int index;
+	private int phase;
+	private int channel;
+	private boolean eos;
+	private int flush;
+
+	/**
+	 *
+	 * @param baseStream the stream to resample
+	 * @param format the target format
+	 * @param quality the quality (which must not be {@link Quality#LINEAR})
+	 */
+	public ResamplingStream(AudioStream baseStream,AudioFormat format,Quality quality) {
+		if(quality==Quality.LINEAR) {
+			throw new IllegalArgumentException("Use LinearResampledStream for linear interpolation");
+		}
+		AudioFormat source=baseStream.getFormat();
+		this.baseStream=baseStream;
+		this.format=format;
+		bank=filterBank(Math.round(source.getSampleRate()),Math.round(format.getSampleRate()),quality);
+		sourceChannels=source.getChannels();
+		channels=format.getChannels();
+		scale=(float)Math.pow(2,format.getSampleSizeInBits()-source.getSampleSizeInBits());
+		maxValue=(1<<(format.getSampleSizeInBits()-1))-1;
+		minValue=-maxValue-1;
+		buffer=new float[channels][bank.taps+BLOCK_FRAMES];
+		raw=new int[BLOCK_FRAMES*sourceChannels];
+		frame=new int[channels];
+		reset();
+	}
+
+	/**
+	 * Resample the stream. If the sample rates are equal, no filter is applied and the stream is {@link ChannelMappedStream mapped} only.
+	 *
+	 * @param stream the stream to resample
+	 * @param format the target format
+	 * @param quality the quality of resampling
+	 * @return the resampled stream or {@code null} if the conversion isn't supported
+	 */
+	public static AudioStream create(AudioStream stream,AudioFormat format,Quality quality) {
+		try {
+			if(isSupported(stream.getFormat())&&isSupported(format)&&Math.round(stream.getFormat().getSampleRate())==Math.round(format.getSampleRate())) {
+				return new ChannelMappedStream(stream,format);
+			}
+			if(quality==Quality.LINEAR) {
+				return LinearResampledStream.isSupported(format)?new LinearResampledStream(stream,format):null;
+			}
+			return isSupported(stream.getFormat())&&isSupported(format)?new ResamplingStream(stream,format,quality):null;
+		} catch(Throwable t) {
+			return null;
+		}
+	}
+
+	/**
+	 *
+	 * @param format the format
+	 * @return {@code true} if the format is supported as source or target format
+	 */
+	public static boolean isSupported(AudioFormat format) {
+		int bits=format.getSampleSizeInBits();
+		return format.getEncoding().equals(Encoding.PCM_SIGNED)
+				&&(bits==8||bits==16||bits==24)
+				&&format.getChannels()>0
+				&&format.getSampleRate()>0;
+	}
+
+	private void reset() {
+		// Center the filter of the first phase on the first frame
+		for(float[] b:buffer) {
+			Arrays.fill(b,0f);
+		}
+		frames=bank.taps/2-1;
+		index=0;
+		phase=0;
+		rawCount=0;
+		channel=channels;
+		eos=false;
+		flush=bank.taps/2+1;
+	}
+
+	@Override
+	public int next() throws IOException {
+		switch(read(single,0,1)) {
+			case 1:return single[0];
+			case END_OF_STREAM:return Integer.MAX_VALUE;
+			default:return Integer.MAX_VALUE-1;
+		}
+	}
+
+	@Override
+	public int read(int[] samples,int offset,int length) throws IOException {
+		int n=0;
+		int taps=bank.taps;
+		float[] coefficients=bank.coefficients;
+		while(n<length) {
+			if(channel<channels) {
+				samples[offset+n++]=frame[channel++];
+				continue;
+			}
+			if(index+taps>frames) {
+				int status=fill();
+				if(status<0) {
+					return n>0?n:status;
+				}
+				continue;
+			}
+			int base=phase*taps;
+			for(int c=0;c<channels;c++) {
+				float[] b=buffer[c];
+				float accu=0f;
+				for(int k=0;k<taps;k++) {
+					accu+=b[index+k]*coefficients[base+k];
+				}
+				int value=Math.round(accu);
+				frame[c]=value>maxValue?maxValue:value<minValue?minValue:value;
+			}
+			phase+=bank.step;
+			index+=phase/bank.phases;
+			phase%=bank.phases;
+			channel=0;
+		}
+		return n;
+	}
+
+	/**
+	 * Fill the buffer with frames of the base stream.
+	 *
+	 * @return a positive number if frames were added or one of the status values
+	 */
+	private int fill() throws IOException {
+		if(index>0) {
+			for(float[] b:buffer) {
+				System.arraycopy(b,index,b,0,frames-index);
+			}
+			frames-=index;
+			index=0;
+		}
+		int capacity=buffer[0].length-frames;
+		if(eos) {
+			if(flush==0) {
+				return END_OF_STREAM;
+			}
+			int n=Math.min(flush,capacity);
+			for(float[] b:buffer) {
+				Arrays.fill(b,frames,frames+n,0f);
+			}
+			frames+=n;
+			flush-=n;
+			return n;
+		}
+		int n=baseStream.read(raw,rawCount,Math.min(raw.length,capacity*sourceChannels)-rawCount);
+		if(n==END_OF_STREAM) {
+			eos=true;
+			return 1;
+		} else if(n<=0) {
+			return BLOCKED;
+		}
+		int total=rawCount+n;
+		int complete=total/sourceChannels;
+		for(int i=0;i<complete;i++) {
+			int s=i*sourceChannels;
+			if(sourceChannels==channels) {
+				for(int c=0;c<channels;c++) {
+					buffer[c][frames]=raw[s+c]*scale;
+				}
+			} else if(channels==1) {
+				long sum=0;
+				for(int c=0;c<sourceChannels;c++) {
+					sum+=raw[s+c];
+				}
+				buffer[0][frames]=sum*scale/sourceChannels;
+			} else {
+				for(int c=0;c<channels;c++) {
+					buffer[c][frames]=raw[s+c%sourceChannels]*scale;
+				}
+			}
+			frames++;
+		}
+		rawCount=total-complete*sourceChannels;
+		System.arraycopy(raw,complete*sourceChannels,raw,0,rawCount);
+		return Math.max(1,complete);
+	}
+
+	@Override
+	public boolean seekTo(float time) {
+		if(baseStream.seekTo(time)) {
+			reset();
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public AudioFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public boolean isStream() {
+		return baseStream.isStream();
+	}
+
+	@Override
+	public AudioInfo getCurrentInfo() {
+		return baseStream.getCurrentInfo();
+	}
+
+	@Override
+	public void setAudioControls(AudioControls controls) {
+		baseStream.setAudioControls(controls);
+	}
+
+	@Override
+	public void update(LineEvent event) {
+		baseStream.update(event);
+	}
+
+	@Override
+	public void close() {
+		baseStream.close();
+	}
+
+	/**
+	 *
+	 * @param from the source sample rate
+	 * @param to the target sample rate
+	 * @param quality the quality
+	 * @return the (shared) filter bank for the given rates and quality
+	 */
+	static FilterBank filterBank(int from,int to,Quality quality) {
+		int gcd=gcd(from,to);
+		int phases=to/gcd;
+		int step=from/gcd;
+		if(phases>MAX_PHASES) {
+			step=(int)Math.round((double)from*MAX_PHASES/to);
+			phases=MAX_PHASES;
+		}
+		int l=phases;
+		int m=step;
+		return BANKS.computeIfAbsent(l+"/"+m+"/"+quality,key->new FilterBank(l,m,quality));
+	}
+
+	private static int gcd(int a,int b) {
+		while(b!=0) {
+			int t=a%b;
+			a=b;
+			b=t;
+		}
+		return a;
+	}
+
+	/**
+	 * The coefficients of a polyphase filter. Phase {@code p} (the output frame is located {@code p/phases} frames behind the input frame {@code taps/2-1}) consists of
+	 * {@code taps} coefficients starting at {@code p*taps}. The coefficients of every phase sum up to one.
+	 */
+	static class FilterBank {
+		final int phases;
+		final int step;
+		final int taps;
+		final float[] coefficients;
+
+		FilterBank(int phases,int step,Quality quality) {
+			this.phases=phases;
+			this.step=step;
+			// Relative to the nyquist frequency of the input
+			double ratio=Math.min(1.0,(double)phases/step);
+			int taps=(int)Math.ceil(quality.taps/ratio);
+			this.taps=taps+(taps&1);
+			double cutoff=0.5*ratio*quality.passband;
+			double half=this.taps/2.0;
+			double norm=bessel(quality.beta);
+			coefficients=new float[phases*this.taps];
+			for(int p=0;p<phases;p++) {
+				double sum=0;
+				double[] h=new double[this.taps];
+				for(int k=0;k<this.taps;k++) {
+					double d=k-(this.taps/2-1)-(double)p/phases;
+					double x=d/half;
+					double window=Math.abs(x)>=1?0:bessel(quality.beta*Math.sqrt(1-x*x))/norm;
+					h[k]=window*sinc(2*cutoff*d);
+					sum+=h[k];
+				}
+				for(int k=0;k<this.taps;k++) {
+					coefficients[p*this.taps+k]=(float)(h[k]/sum);
+				}
+			}
+		}
+
+		private static double sinc(double x) {
+			return x==0?1:Math.sin(Math.PI*x)/(Math.PI*x);
+		}
+
+		/**
+		 * The modified bessel function of the first kind (order 0).
+		 */
+		private static double bessel(double x) {
+			double sum=1;
+			double term=1;
+			for(int k=1;k<32;k++) {
+				term*=(x/(2*k))*(x/(2*k));
+				sum+=term;
+			}
+			return sum;
+		}
+	}
+}
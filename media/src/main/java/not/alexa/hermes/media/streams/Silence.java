@@ -49,6 +49,12 @@ public class Silence implements AudioStream {
 		return 0;
 	}
 
+	@Override
+	public int read(int[] samples, int offset, int length) throws IOException {
+		Arrays.fill(samples, offset, offset+length, 0);
+		return length;
+	}
+
 	@Override
 	public boolean isStream() {
 		return true;
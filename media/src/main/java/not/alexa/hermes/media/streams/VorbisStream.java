@@ -65,6 +65,7 @@ public class VorbisStream implements AudioStream {
 	private float peak=1;
 	private long frame;
 	private SeekableInputStream input;
+	private OggPageIndex pageIndex;
 	
 	public VorbisStream(InputStream stream,AudioInfo info,float normalizationFactor,long size) throws IOException {
 		this(new OggReader(stream),info,normalizationFactor,size);
@@ -107,16 +108,34 @@ public class VorbisStream implements AudioStream {
 	@Override
 	public synchronized boolean seekTo(float time) {
 		long frame=(long)(time*jorbisInfo.rate);
+		if(input!=null&&fileSize>0&&audioStream>=0) try {
+			if(pageIndex==null) {
+				pageIndex=new OggPageIndex(input,audioStream,fileSize);
+			}
+			long[] page=pageIndex.find(frame);
+			if(page!=null&&page[1]>0&&input.seekTo(page[0])) {
+				LOGGER.debug("Seek to page at {} with granulepos {} (frame={}).",page[0],page[1],frame);
+				// Decoding starts from scratch at this page
+				jorbisDspState=new DspState();
+				jorbisDspState.synthesis_init(jorbisInfo);
+				jorbisBlock=new Block(jorbisDspState);
+				jorbisBlock.init(jorbisDspState);
+				reader.resync(audioStream);
+				size=offset=0;
+				return skipTo(frame,false);
+			} else if(page!=null||frame<this.frame) {
+				// The frame is on the first audio page
+				restart();
+				return skipTo(frame,true);
+			}
+		} catch(Throwable t) {
+			LOGGER.debug("Seeking to {} failed.",time,t);
+			return false;
+		}
 		long refFrame=this.frame;
 		if(frame<refFrame&&input!=null) {
-			refFrame=this.frame=0;
-			jorbisDspState = new DspState();
-			jorbisBlock = new Block(jorbisDspState);
-			jorbisComment = new Comment();
-			jorbisInfo=new Info();
-			audioStream=-1;
-			input.seekTo(0);
-			reader=new OggReader(input);
+			restart();
+			refFrame=0;
 		}
 		if(frame>refFrame) {
 			LOGGER.debug("Skip forward from frame {} to {} (rate={}, time={})...",refFrame,frame,jorbisInfo.rate,time);
@@ -142,6 +161,47 @@ public class VorbisStream implements AudioStream {
 		return AudioStream.super.seekTo(time);
 	}
 
+	/**
+	 * Read the stream from the beginning.
+	 */
+	private void restart() {
+		frame=0;
+		size=offset=0;
+		jorbisDspState = new DspState();
+		jorbisBlock = new Block(jorbisDspState);
+		jorbisComment = new Comment();
+		jorbisInfo=new Info();
+		audioStream=-1;
+		input.seekTo(0);
+		reader=new OggReader(input);
+	}
+
+	/**
+	 * Decode until the given frame is in the decoding buffer. Samples before this frame are dropped.
+	 * 
+	 * @param target the frame to skip to
+	 * @param synced if the current frame is known. Otherwise, all packets up to the first packet with a granule position are dropped.
+	 * @return {@code true}
+	 * @throws IOException if decoding fails
+	 */
+	private boolean skipTo(long target,boolean synced) throws IOException {
+		Packet packet;
+		while((packet=nextAudioPacket())!=null) {
+			boolean exact=packet.granulepos!=-1;
+			fillBuffer(packet);
+			if(synced) {
+				int channels=jorbisInfo.channels;
+				if(frame+size/channels>target) {
+					offset=(int)Math.max(0,target-frame)*channels;
+					return true;
+				}
+			}
+			synced|=exact;
+		}
+		offset=size;
+		return true;
+	}
+
 	public boolean fillBuffer(Packet audioPacket) throws IOException {
 		if(audioPacket==null) {
 			return false;
@@ -153,6 +213,8 @@ public class VorbisStream implements AudioStream {
 		}
 		
 		int samples=jorbisDspState.synthesis_pcmout(pcmInfo, pcmIndex);
+		// The frame following the current buffer
+		long nextFrame=frame+size/jorbisInfo.channels;
 		size=samples*jorbisInfo.channels;
 		if(decodingBuffer==null||decodingBuffer.length<size) {
 			decodingBuffer=new int[size];
@@ -176,6 +238,15 @@ public class VorbisStream implements AudioStream {
         long granulepos = audioPacket.granulepos;
         if (granulepos != -1 && audioPacket.e_o_s == 0) {
             frame = granulepos-samples;
+        } else {
+        	frame = nextFrame;
+        }
+        // Gapless playback: The granule position of the last packet is the end of the stream, a negative start frame marks samples before the beginning
+        if (granulepos != -1 && audioPacket.e_o_s != 0 && granulepos-frame < samples) {
+        	size = (int)Math.max(0, granulepos-frame)*jorbisInfo.channels;
+        }
+        if (frame < 0) {
+        	offset = (int)Math.min(size, -frame*jorbisInfo.channels);
         }
 		return true;
 	}
@@ -196,6 +267,24 @@ public class VorbisStream implements AudioStream {
 		return ret;
 	}
 	
+	@Override
+	public int read(int[] samples, int offset, int length) throws IOException {
+		if(length==0) {
+			return 0;
+		}
+		while(size<=this.offset) {
+			synchronized(this) {
+				if(!fillBuffer(nextAudioPacket())) {
+					return END_OF_STREAM;
+				}
+			}
+		}
+		length=Math.min(length, size-this.offset);
+		System.arraycopy(decodingBuffer, this.offset, samples, offset, length);
+		this.offset+=length;
+		return length;
+	}
+	
 	protected void handleUnknownPacket(Packet packet) {
 		if(packet.b_o_s!=0&&packet.e_o_s!=0&&packet.bytes==139) {
 			ByteBuffer buffer=ByteBuffer.wrap(packet.packet_base,packet.packet+(144-28), 16);
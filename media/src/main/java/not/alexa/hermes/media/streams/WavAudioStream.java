@@ -35,7 +35,7 @@ public class WavAudioStream extends ByteArrayAudioStream {
 	 * @param wavData the data
 	 * @return the audio format of the data
 	 */
-	private static AudioFormat getFormat(byte[] wavData) {
+	static AudioFormat getFormat(byte[] wavData) {
 		int offset=0;
 		outerloop: while(offset<wavData.length-4) {
 			for(Part part:Part.values()) {
@@ -61,6 +61,31 @@ public class WavAudioStream extends ByteArrayAudioStream {
 		return null;
 	}
 	
+	/**
+	 * Return the offset of the audio data in the WAV data
+	 * 
+	 * @param wavData the data
+	 * @return the offset of the first sample or {@code -1} if no data chunk was found
+	 */
+	static int getDataOffset(byte[] wavData) {
+		if(wavData.length<12||!Part.RIFF.matches(wavData,0)) {
+			return -1;
+		}
+		int offset=12;
+		while(offset+8<=wavData.length) {
+			if(Part.DATA.matches(wavData,offset)) {
+				return offset+8;
+			}
+			int size=length4(offset+4,wavData);
+			if(size<0||size>wavData.length) {
+				return -1;
+			}
+			// Chunks are padded to an even size
+			offset+=8+size+(size&1);
+		}
+		return -1;
+	}
+	
 	private static int length2(int offset,byte[] wav) {
 		return ((wav[offset+1]&0xff)<<8)+(wav[offset+0]&0xff);
 	}
@@ -85,5 +110,9 @@ public class WavAudioStream extends ByteArrayAudioStream {
 		public byte[] getId() {
 			return id;
 		}
+		
+		boolean matches(byte[] wav,int offset) {
+			return wav[offset]==id[0]&&wav[offset+1]==id[1]&&wav[offset+2]==id[2]&&wav[offset+3]==id[3];
+		}
 	}
 }
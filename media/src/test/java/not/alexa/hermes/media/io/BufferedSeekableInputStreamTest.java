@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BufferedSeekableInputStreamTest {
+
+	public BufferedSeekableInputStreamTest() {
+	}
+
+	@Test
+	void testSeek(@TempDir Path tmp) throws IOException {
+		File f=new File(tmp.toFile(),"data");
+		byte[] data=new byte[10000];
+		for(int i=0;i<data.length;i++) {
+			data[i]=(byte)(i*7+i/256);
+		}
+		try(OutputStream out=new FileOutputStream(f)) {
+			out.write(data);
+		}
+		int[] reads=new int[1];
+		SeekableFileInputStream file=new SeekableFileInputStream(f) {
+			@Override
+			public int read(byte[] b,int off,int len) throws IOException {
+				reads[0]++;
+				return super.read(b,off,len);
+			}
+		};
+		try(BufferedSeekableInputStream in=new BufferedSeekableInputStream(file,1024)) {
+			// Small reads are served from the buffer
+			for(int i=0;i<1000;i++) {
+				assertEquals(data[i]&0xff,in.read());
+			}
+			assertEquals(1,reads[0]);
+			// Seeking inside the buffer
+			assertTrue(in.seekTo(10));
+			assertEquals(10,in.currentPosition());
+			assertEquals(data[10]&0xff,in.read());
+			assertEquals(1,reads[0]);
+			// Seeking outside the buffer
+			assertTrue(in.seekTo(5000));
+			byte[] b=new byte[100];
+			assertEquals(100,in.read(b,0,100));
+			for(int i=0;i<100;i++) {
+				assertEquals(data[5000+i],b[i]);
+			}
+			assertEquals(5100,in.currentPosition());
+			assertEquals(900,in.skip(900));
+			assertEquals(6000,in.currentPosition());
+			in.mark(-1);
+			b=new byte[5000];
+			int n=0;
+			int count;
+			while((count=in.read(b,n,b.length-n))>0) {
+				n+=count;
+			}
+			assertEquals(4000,n);
+			in.reset();
+			assertEquals(6000,in.currentPosition());
+			assertEquals(data[6000]&0xff,in.read());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CacheManagerTest {
+
+	public CacheManagerTest() {
+	}
+
+	@Test
+	void testJournalReplay(@TempDir Path tmp) throws IOException {
+		File dir=tmp.toFile();
+		// The state after a crash: b was removed but its files are still there, c was added but its audio file is missing and the
+		// record of d is incomplete
+		write(dir,"cache.journal","cache-journal 1\n+\ta\t10\n+\tb\t20\n*\ta\n-\tb\n+\tc\t5\n+\td");
+		write(dir,"a.meta","{}");
+		write(dir,"a.audio","0123456789");
+		write(dir,"a.index","index");
+		write(dir,"b.meta","{}");
+		write(dir,"b.audio","01234567890123456789");
+		write(dir,"c.meta","{}");
+		write(dir,"d.audio","audio");
+		write(dir,"a.123.tmp","tmp");
+		// A partial download is kept, a partial file without chunk map is incomplete
+		write(dir,"e.part","part");
+		write(dir,"e.part.chunks","chunks");
+		write(dir,"f.part","part");
+		new CacheManager(null,dir.getPath(),1024*1024);
+		assertEquals(new HashSet<>(Arrays.asList("cache.journal","a.meta","a.audio","a.index","e.part","e.part.chunks")),new HashSet<>(Arrays.asList(dir.list())));
+		// The journal is compacted
+		assertEquals(Arrays.asList("cache-journal 1","+\ta\t10"),read(dir,"cache.journal"));
+		// Replaying the compacted journal keeps the entry
+		new CacheManager(null,dir.getPath(),1024*1024);
+		assertTrue(new File(dir,"a.audio").exists());
+		assertEquals(Arrays.asList("cache-journal 1","+\ta\t10"),read(dir,"cache.journal"));
+	}
+
+	@Test
+	void testMissingJournal(@TempDir Path tmp) throws IOException {
+		File dir=tmp.toFile();
+		// Without (valid) journal, the entries are rebuilt from the meta data in the order of modification
+		write(dir,"cache.journal","invalid");
+		write(dir,"a.meta","{}");
+		write(dir,"a.audio","0123456789");
+		write(dir,"b.meta","{}");
+		write(dir,"b.audio","01234");
+		new File(dir,"a.meta").setLastModified(System.currentTimeMillis()-10000);
+		new CacheManager(null,dir.getPath(),1024*1024);
+		assertEquals(Arrays.asList("cache-journal 1","+\ta\t10","+\tb\t5"),read(dir,"cache.journal"));
+	}
+
+	@Test
+	void testEviction(@TempDir Path tmp) throws IOException {
+		File dir=tmp.toFile();
+		write(dir,"cache.journal","cache-journal 1\n+\ta\t10\n+\tb\t10\n+\tc\t10\n*\ta\n");
+		for(String name:new String[] { "a","b","c" }) {
+			write(dir,name+".meta","{}");
+			write(dir,name+".audio","0123456789");
+		}
+		// The least recently used entry is evicted
+		new CacheManager(null,dir.getPath(),25);
+		assertFalse(new File(dir,"b.audio").exists());
+		assertFalse(new File(dir,"b.meta").exists());
+		assertTrue(new File(dir,"a.audio").exists());
+		assertTrue(new File(dir,"c.audio").exists());
+		List<String> journal=read(dir,"cache.journal");
+		assertEquals("cache-journal 1",journal.get(0));
+		assertTrue(journal.contains("-\tb"));
+		// The removal is replayed
+		new CacheManager(null,dir.getPath(),25);
+		assertEquals(Arrays.asList("cache-journal 1","+\tc\t10","+\ta\t10"),read(dir,"cache.journal"));
+	}
+
+	private static void write(File dir,String name,String content) throws IOException {
+		try(OutputStream out=new FileOutputStream(new File(dir,name))) {
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	private static List<String> read(File dir,String name) throws IOException {
+		return Files.readAllLines(new File(dir,name).toPath(),StandardCharsets.UTF_8);
+	}
+}
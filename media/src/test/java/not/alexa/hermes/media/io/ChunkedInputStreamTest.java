@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.io;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import not.alexa.hermes.media.playback.Callback.DownloadEvent;
+
+public class ChunkedInputStreamTest {
+	private static final int CHUNK=1000;
+
+	public ChunkedInputStreamTest() {
+	}
+
+	@Test
+	void testCloseWhileCommitting(@TempDir Path tmp) throws Throwable {
+		byte[] data=data(10500);
+		File part=new File(tmp.toFile(),"track.part");
+		CountDownLatch committing=new CountDownLatch(1);
+		CountDownLatch closed=new CountDownLatch(1);
+		CountDownLatch committed=new CountDownLatch(1);
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		Throwable[] failure=new Throwable[1];
+		@SuppressWarnings("unchecked")
+		BiConsumer<Integer,byte[]>[] held=new BiConsumer[1];
+		Provider provider=new Provider(data,part) {
+			@Override
+			public synchronized byte[] requestChunk(int chunk,BiConsumer<Integer,byte[]> callback) {
+				if(chunk==3) {
+					// Hold back chunk #3 to complete the download on the provider's thread
+					requested.add(chunk);
+					held[0]=callback;
+					return null;
+				}
+				return super.requestChunk(chunk,callback);
+			}
+
+			@Override
+			public void downloadComplete(DownloadEvent event) {
+				committing.countDown();
+				try {
+					// The consumer closes the stream before the chunks are read
+					closed.await();
+					event.downloaded(null,out);
+				} catch(Throwable t) {
+					failure[0]=t;
+				}
+				committed.countDown();
+			}
+		};
+		try {
+			ChunkedInputStream in=new ChunkedInputStream(10000,provider);
+			assertTrue(in.seekTo(4*CHUNK));
+			byte[] buffer=new byte[777];
+			ByteArrayOutputStream read=new ByteArrayOutputStream();
+			int n;
+			while((n=in.read(buffer,0,buffer.length))>0) {
+				read.write(buffer,0,n);
+			}
+			assertArrayEquals(Arrays.copyOfRange(data,4*CHUNK,data.length),read.toByteArray());
+			// Release the chunks from memory, the commit has to read them from the partial file
+			assertTrue(in.seekTo(0));
+			assertTrue(in.seekTo(data.length-1));
+			assertEquals(1,committing.getCount());
+			provider.executor.execute(()->held[0].accept(3,Arrays.copyOfRange(data,3*CHUNK,4*CHUNK)));
+			assertTrue(committing.await(10,TimeUnit.SECONDS));
+			in.close();
+			closed.countDown();
+			assertTrue(committed.await(10,TimeUnit.SECONDS));
+			assertNull(failure[0]);
+			assertArrayEquals(data,out.toByteArray());
+			// The commit releases the file last (after the callback returned)
+			provider.executor.shutdown();
+			assertTrue(provider.executor.awaitTermination(10,TimeUnit.SECONDS));
+			assertFalse(part.exists());
+			assertFalse(new File(part.getPath()+".chunks").exists());
+		} finally {
+			provider.executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testResume(@TempDir Path tmp) throws Throwable {
+		byte[] data=data(10500);
+		File part=new File(tmp.toFile(),"track.part");
+		// The first download stops after chunk #5
+		Provider provider=new Provider(data,part) {
+			@Override
+			public synchronized byte[] requestChunk(int chunk,BiConsumer<Integer,byte[]> callback) {
+				return chunk<6?super.requestChunk(chunk,callback):null;
+			}
+		};
+		try {
+			ChunkedInputStream in=new ChunkedInputStream(10000,provider);
+			assertArrayEquals(Arrays.copyOf(data,5500),read(in,5500));
+			// Wait until the delivered chunks are written
+			provider.executor.shutdown();
+			assertTrue(provider.executor.awaitTermination(10,TimeUnit.SECONDS));
+			in.close();
+		} finally {
+			provider.executor.shutdownNow();
+		}
+		assertTrue(part.exists());
+		assertTrue(new File(part.getPath()+".chunks").exists());
+		// The second download continues with the chunks found in the partial file
+		provider=new Provider(data,part);
+		try {
+			ChunkedInputStream in=new ChunkedInputStream(10000,provider);
+			byte[] buffer=new byte[777];
+			ByteArrayOutputStream read=new ByteArrayOutputStream();
+			int n;
+			while((n=in.read(buffer,0,buffer.length))>0) {
+				read.write(buffer,0,n);
+			}
+			in.close();
+			assertArrayEquals(data,read.toByteArray());
+			assertEquals(new TreeSet<>(Arrays.asList(6,7,8,9,10)),provider.requested);
+		} finally {
+			provider.executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testWindow() throws Throwable {
+		byte[] data=data(100*CHUNK+1);
+		// Chunks are loaded synchronously
+		Provider provider=new Provider(data,null) {
+			@Override
+			public synchronized byte[] requestChunk(int chunk,BiConsumer<Integer,byte[]> callback) {
+				requested.add(chunk);
+				int from=chunk*CHUNK;
+				return Arrays.copyOfRange(data,from,Math.min(data.length,from+CHUNK));
+			}
+		};
+		try {
+			ChunkedInputStream in=new ChunkedInputStream(10000,provider);
+			// The initial window
+			assertEquals(new TreeSet<>(Arrays.asList(1,2,3,4,5)),provider.requested);
+			byte[] buffer=new byte[CHUNK];
+			for(int i=0;i<10;i++) {
+				assertEquals(CHUNK,in.read(buffer,0,buffer.length));
+				assertArrayEquals(Arrays.copyOfRange(data,i*CHUNK,(i+1)*CHUNK),buffer);
+				Thread.sleep(5);
+			}
+			// The latency is low compared to the consumption rate
+			assertEquals(ChunkedInputStream.MIN_WINDOW,in.getWindow());
+			int next=provider.requested.size();
+			assertFalse(provider.requested.contains(next));
+			// If the window reaches the end of the stream, the skipped chunks are requested too
+			assertTrue(in.seekTo(99*CHUNK));
+			assertTrue(provider.requested.containsAll(Arrays.asList(next,next+1,99,100)));
+			assertFalse(provider.requested.contains(next+2));
+			assertArrayEquals(Arrays.copyOfRange(data,99*CHUNK,99*CHUNK+100),read(in,100));
+			in.close();
+		} finally {
+			provider.executor.shutdownNow();
+		}
+	}
+
+	private static byte[] read(ChunkedInputStream in,int length) throws Throwable {
+		byte[] buffer=new byte[length];
+		int n=0;
+		int count;
+		while(n<length&&(count=in.read(buffer,n,length-n))>0) {
+			n+=count;
+		}
+		return buffer;
+	}
+
+	static byte[] data(int size) {
+		byte[] data=new byte[size];
+		for(int i=0;i<size;i++) {
+			data[i]=(byte)(i*31+i/CHUNK);
+		}
+		return data;
+	}
+
+	/**
+	 * Provider delivering the chunks asynchronously.
+	 */
+	static class Provider implements ChunkProvider {
+		final ExecutorService executor=Executors.newSingleThreadExecutor();
+		final byte[] data;
+		final File part;
+		final Set<Integer> requested=new TreeSet<>();
+
+		Provider(byte[] data,File part) {
+			this.data=data;
+			this.part=part;
+		}
+
+		@Override
+		public File getPartialFile() {
+			return part;
+		}
+
+		@Override
+		public int chunkSize() {
+			return CHUNK;
+		}
+
+		@Override
+		public long size() {
+			return data.length;
+		}
+
+		@Override
+		public synchronized byte[] requestChunk(int chunk,BiConsumer<Integer,byte[]> callback) {
+			requested.add(chunk);
+			int from=chunk*CHUNK;
+			byte[] buffer=new byte[Math.min(CHUNK,data.length-from)];
+			System.arraycopy(data,from,buffer,0,buffer.length);
+			executor.execute(()->callback.accept(chunk,buffer));
+			return null;
+		}
+	}
+}
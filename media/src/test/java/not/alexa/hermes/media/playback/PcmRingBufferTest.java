@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.playback;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class PcmRingBufferTest {
+
+	public PcmRingBufferTest() {
+	}
+
+	@Test
+	void testDiscard() {
+		PcmRingBuffer buffer=new PcmRingBuffer(8);
+		int[] samples=new int[] { 1,2,3,4,5,6,7,8 };
+		int[] read=new int[8];
+		// The producer fills the buffer and repositions before the consumer started
+		assertEquals(8,buffer.write(samples,0,8));
+		buffer.discard();
+		assertEquals(0,buffer.available());
+		// The space is freed by the next read of the consumer
+		assertEquals(0,buffer.write(samples,0,2));
+		assertEquals(0,buffer.read(read,0,8));
+		assertEquals(2,buffer.write(new int[] { 10,11 },0,2));
+		assertEquals(2,buffer.read(read,0,8));
+		assertArrayEquals(new int[] { 10,11 },Arrays.copyOf(read,2));
+		// Discarding after a partial read skips the rest of the samples written before
+		assertEquals(5,buffer.write(samples,0,5));
+		assertEquals(2,buffer.read(read,0,2));
+		buffer.discard();
+		assertEquals(3,buffer.write(new int[] { 20,21,22 },0,3));
+		assertEquals(3,buffer.read(read,0,8));
+		assertArrayEquals(new int[] { 20,21,22 },Arrays.copyOf(read,3));
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.players;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LibraryIndexTest {
+	// MPEG 1 Layer III, 128kbit/s, 44.1kHz, stereo (417 bytes per frame)
+	private static final int HEADER=0xfffb9000;
+	private static final int FRAME_SIZE=417;
+
+	public LibraryIndexTest() {
+	}
+
+	@Test
+	void testIndex(@TempDir Path tmp) throws Throwable {
+		File base=new File(tmp.toFile(),"Music");
+		File pop=new File(base,"Pop");
+		File album=new File(pop,"Album");
+		File classical=new File(base,"Classical");
+		File b=track(album,"b.mp3",0);
+		File a=track(album,"A.mp3",0);
+		File c=track(classical,"c.mp3",0);
+		track(classical,"small.mp3",-1);
+		File indexFile=new File(tmp.toFile(),"index/music.idx");
+		LibraryIndex index=new LibraryIndex("test",base,indexFile,0);
+		try {
+			assertNull(index.tracks(album));
+			index.start();
+			awaitReady(index);
+			assertEquals(3,index.size());
+			assertArrayEquals(new File[] { a,b },index.tracks(album));
+			assertArrayEquals(new File[] { c },index.tracks(classical));
+			assertArrayEquals(new File[] { classical,pop },index.directories(base));
+			assertEquals(album,index.findAlbum("ALBUM"));
+			assertEquals(c,index.findTrack("C.mp3"));
+			assertNull(index.findTrack("small.mp3"));
+			assertNull(index.findAlbum("Jazz"));
+		} finally {
+			index.stop();
+		}
+		assertTrue(indexFile.exists());
+		// The persisted index answers lookups before the library is verified
+		LibraryIndex loaded=new LibraryIndex("test",base,indexFile,0);
+		try {
+			loaded.start();
+			assertTrue(loaded.isReady());
+			assertEquals(3,loaded.size());
+			assertArrayEquals(new File[] { a,b },loaded.tracks(album));
+			assertEquals(b,loaded.findTrack("b.mp3"));
+		} finally {
+			loaded.stop();
+		}
+		// A stopped index isn't restarted
+		loaded.start();
+		assertTrue(loaded.isReady());
+	}
+
+	@Test
+	void testDuration(@TempDir Path tmp) throws Throwable {
+		File base=tmp.toFile();
+		// 1000 frames announced by the Xing header while the file contains 30 frames only
+		File f=track(base,"vbr.mp3",1000);
+		LibraryIndex index=new LibraryIndex("test",base,null,0);
+		try {
+			index.start();
+			awaitReady(index);
+			assertEquals(1000*1152/44100f,index.getTrack(f).getDuration(),0.01f);
+		} finally {
+			index.stop();
+		}
+	}
+
+	private static void awaitReady(LibraryIndex index) throws InterruptedException {
+		for(int i=0;i<100&&!index.isReady();i++) {
+			Thread.sleep(100);
+		}
+		assertTrue(index.isReady());
+	}
+
+	/**
+	 * Create a track of 30 (empty) frames.
+	 *
+	 * @param dir the directory of the track
+	 * @param name the name of the track
+	 * @param frames the number of frames announced in a Xing header, {@code 0} if the track has no Xing header and {@code -1}
+	 * for a file too small to be a track
+	 * @return the track
+	 */
+	private static File track(File dir,String name,int frames) throws IOException {
+		dir.mkdirs();
+		File f=new File(dir,name);
+		try(OutputStream out=new FileOutputStream(f)) {
+			for(int i=0;i<(frames<0?1:30);i++) {
+				byte[] frame=new byte[FRAME_SIZE];
+				putInt(frame,0,HEADER);
+				if(i==0&&frames>0) {
+					frame[36]='X';
+					frame[37]='i';
+					frame[38]='n';
+					frame[39]='g';
+					putInt(frame,40,1);
+					putInt(frame,44,frames);
+				}
+				out.write(frame);
+			}
+		}
+		return f;
+	}
+
+	private static void putInt(byte[] b,int offset,int value) {
+		b[offset]=(byte)(value>>24);
+		b[offset+1]=(byte)(value>>16);
+		b[offset+2]=(byte)(value>>8);
+		b[offset+3]=(byte)value;
+	}
+}
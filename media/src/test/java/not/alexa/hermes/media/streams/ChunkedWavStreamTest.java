@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.hermes.media.AudioStream;
+
+public class ChunkedWavStreamTest {
+
+	public ChunkedWavStreamTest() {
+	}
+
+	@Test
+	void testGap() throws IOException, InterruptedException {
+		ChunkedWavStream stream=new ChunkedWavStream(chunk(0,10));
+		stream.add(0,false,chunk(0,10));
+		stream.add(2,false,chunk(2,10));
+		stream.add(3,true,chunk(3,10));
+		int[] samples=new int[100];
+		assertEquals(10,stream.read(samples,0,samples.length));
+		assertEquals(0,samples[9]);
+		// Chunk 1 is missing
+		assertEquals(AudioStream.BLOCKED,stream.read(samples,0,samples.length));
+		Thread.sleep(ChunkedWavStream.GAP_TIMEOUT/2);
+		assertEquals(AudioStream.BLOCKED,stream.read(samples,0,samples.length));
+		Thread.sleep(ChunkedWavStream.GAP_TIMEOUT);
+		// The gap is skipped
+		assertEquals(20,stream.read(samples,0,samples.length));
+		assertEquals(2,samples[0]);
+		assertEquals(3,samples[19]);
+		assertTrue(stream.isComplete());
+		// The missing chunk arrives too late
+		stream.add(1,false,chunk(1,10));
+		assertEquals(AudioStream.END_OF_STREAM,stream.read(samples,0,samples.length));
+		assertTrue(stream.isFinished());
+	}
+
+	@Test
+	void testReorder() throws IOException {
+		ChunkedWavStream stream=new ChunkedWavStream(chunk(1,10));
+		stream.add(1,true,chunk(1,10));
+		int[] samples=new int[100];
+		assertEquals(AudioStream.BLOCKED,stream.read(samples,0,samples.length));
+		stream.add(0,false,chunk(0,10));
+		assertEquals(20,stream.read(samples,0,samples.length));
+		assertEquals(0,samples[0]);
+		assertEquals(1,samples[10]);
+		assertEquals(AudioStream.END_OF_STREAM,stream.read(samples,0,samples.length));
+	}
+
+	/**
+	 *
+	 * @param value the value of every sample
+	 * @param samples the number of samples
+	 * @return a WAV chunk (16kHz, mono, 16 bit)
+	 */
+	private static byte[] chunk(int value,int samples) {
+		byte[] data=new byte[44+2*samples];
+		put(data,0,"RIFF");
+		putInt(data,4,data.length-8);
+		put(data,8,"WAVE");
+		put(data,12,"fmt ");
+		putInt(data,16,16);
+		putShort(data,20,1);
+		putShort(data,22,1);
+		putInt(data,24,16000);
+		putInt(data,28,32000);
+		putShort(data,32,2);
+		putShort(data,34,16);
+		put(data,36,"data");
+		putInt(data,40,2*samples);
+		for(int i=0;i<samples;i++) {
+			putShort(data,44+2*i,value);
+		}
+		return data;
+	}
+
+	private static void put(byte[] b,int offset,String tag) {
+		for(int i=0;i<4;i++) {
+			b[offset+i]=(byte)tag.charAt(i);
+		}
+	}
+
+	private static void putShort(byte[] b,int offset,int value) {
+		b[offset]=(byte)value;
+		b[offset+1]=(byte)(value>>8);
+	}
+
+	private static void putInt(byte[] b,int offset,int value) {
+		putShort(b,offset,value);
+		putShort(b,offset+2,value>>16);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import not.alexa.hermes.media.AudioStream;
+import not.alexa.hermes.media.io.SeekableFileInputStream;
+
+public class MP3AudioStreamTest {
+	// MPEG 1 Layer III, 128kbit/s, 44.1kHz, stereo (417 bytes per frame)
+	private static final int HEADER=0xfffb9000;
+	private static final int SAMPLES_PER_FRAME=1152;
+
+	public MP3AudioStreamTest() {
+	}
+
+	@Test
+	void testSeek(@TempDir Path tmp) throws IOException {
+		// A Xing header without table of contents: The frames are indexed on the first seek
+		File f=track(tmp,300,false);
+		MP3AudioStream stream=new MP3AudioStream(new SeekableFileInputStream(f),"Test",1f,f.length());
+		try {
+			assertTrue(stream.seekTo(0));
+			assertEquals(300*SAMPLES_PER_FRAME,samples(stream));
+			for(int frame:new int[] { 1,100,299 }) {
+				assertTrue(stream.seekTo((frame+0.5f)*SAMPLES_PER_FRAME/44100f));
+				assertEquals((300-frame)*SAMPLES_PER_FRAME,samples(stream));
+			}
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	void testRewind(@TempDir Path tmp) throws IOException {
+		// Without size, the stream has no seek table and every frame (including the header frame) is played
+		File f=track(tmp,10,false);
+		MP3AudioStream stream=new MP3AudioStream(new SeekableFileInputStream(f),"Test",1f,-1);
+		try {
+			// Seeking before the first read: The first frame read ahead isn't played twice
+			assertTrue(stream.seekTo(0));
+			assertEquals(11*SAMPLES_PER_FRAME,samples(stream));
+			assertTrue(stream.seekTo(0));
+			assertEquals(11*SAMPLES_PER_FRAME,samples(stream));
+		} finally {
+			stream.close();
+		}
+	}
+
+	@Test
+	void testGapless(@TempDir Path tmp) throws IOException {
+		// The LAME extension defines an encoder delay of 576 and a padding of 1000 samples
+		File f=track(tmp,100,true);
+		MP3AudioStream stream=new MP3AudioStream(new SeekableFileInputStream(f),"Test",1f,f.length());
+		try {
+			// The header frame, the encoder and the decoder delay are skipped, the padding is not played
+			assertEquals(100*SAMPLES_PER_FRAME-576-1000,samples(stream));
+			assertTrue(stream.seekTo(0));
+			assertEquals(100*SAMPLES_PER_FRAME-576-1000,samples(stream));
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 *
+	 * @param stream the stream to read
+	 * @return the number of samples (per channel) read until the end of the stream
+	 */
+	private static int samples(AudioStream stream) throws IOException {
+		int[] samples=new int[4096];
+		int total=0;
+		int n;
+		while((n=stream.read(samples,0,samples.length))!=AudioStream.END_OF_STREAM) {
+			assertTrue(n>=0);
+			total+=n;
+		}
+		return total/2;
+	}
+
+	/**
+	 * Create a track of silent frames with a Xing header frame.
+	 *
+	 * @param frames the number of frames (without the header frame)
+	 * @param lame if {@code true}, the header contains a table of contents and a LAME extension
+	 * @return the track
+	 */
+	private static File track(Path dir,int frames,boolean lame) throws IOException {
+		File f=new File(dir.toFile(),"track.mp3");
+		try(OutputStream out=new FileOutputStream(f)) {
+			byte[] frame=new byte[417];
+			putInt(frame,0,HEADER);
+			putTag(frame,36,"Xing");
+			putInt(frame,40,lame?5:1);
+			putInt(frame,44,frames);
+			if(lame) {
+				for(int i=0;i<100;i++) {
+					frame[48+i]=(byte)(i*256/100);
+				}
+				putTag(frame,156,"LAME");
+				putInt(frame,176,(576<<12)|1000);
+			}
+			out.write(frame);
+			for(int i=0;i<frames;i++) {
+				frame=new byte[417];
+				putInt(frame,0,HEADER);
+				out.write(frame);
+			}
+		}
+		return f;
+	}
+
+	private static void putInt(byte[] b,int offset,int value) {
+		b[offset]=(byte)(value>>24);
+		b[offset+1]=(byte)(value>>16);
+		b[offset+2]=(byte)(value>>8);
+		b[offset+3]=(byte)value;
+	}
+
+	private static void putTag(byte[] b,int offset,String tag) {
+		for(int i=0;i<4;i++) {
+			b[offset+i]=(byte)tag.charAt(i);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import not.alexa.hermes.media.io.SeekableFileInputStream;
+
+public class MP3SeekTableTest {
+	// MPEG 1 Layer III, 128kbit/s, 44.1kHz, stereo (417 bytes per frame, 418 bytes if padded)
+	private static final int HEADER=0xfffb9000;
+	private static final int PADDING=0x200;
+	private static final int SAMPLES_PER_FRAME=1152;
+
+	public MP3SeekTableTest() {
+	}
+
+	@Test
+	void testScan(@TempDir Path tmp) throws IOException {
+		List<Long> offsets=new ArrayList<>();
+		File f=track(tmp,200,false,offsets);
+		try(Counting in=new Counting(f)) {
+			// Without Xing or VBRI header, the frames are scanned on demand only
+			assertNull(MP3SeekTable.read(in,0,f.length(),false));
+			in.seeks=0;
+			MP3SeekTable table=MP3SeekTable.read(in,0,f.length());
+			assertNotNull(table);
+			assertTrue(table.isExact());
+			assertEquals(200,table.getFrames());
+			assertEquals(0,table.getLeadingSamples());
+			assertEquals(200*SAMPLES_PER_FRAME,table.getSamples());
+			// The headers are read in windows (and junk is skipped by resynchronization)
+			assertTrue(in.seeks<10,"Seeks: "+in.seeks);
+			for(int frame:new int[] { 0,1,99,100,101,150,199 }) {
+				float time=frame*SAMPLES_PER_FRAME/44100f;
+				assertEquals((long)frame*SAMPLES_PER_FRAME,table.seek(in,time+0.001f));
+				assertEquals((long)offsets.get(frame),in.currentPosition());
+			}
+		}
+	}
+
+	@Test
+	void testSaveLoad(@TempDir Path tmp) throws IOException {
+		List<Long> offsets=new ArrayList<>();
+		File f=track(tmp,300,true,offsets);
+		File index=new File(tmp.toFile(),"track.idx");
+		try(SeekableFileInputStream in=new SeekableFileInputStream(f)) {
+			MP3SeekTable table=MP3SeekTable.read(in,0,f.length());
+			// The Xing header without table of contents is skipped but decoded as silence
+			assertEquals(299,table.getFrames());
+			assertEquals(SAMPLES_PER_FRAME,table.getLeadingSamples());
+			table.save(index);
+			assertNull(MP3SeekTable.load(index,f.length()+1));
+			MP3SeekTable loaded=MP3SeekTable.load(index,f.length());
+			assertNotNull(loaded);
+			assertTrue(loaded.isExact());
+			assertEquals(table.getFrames(),loaded.getFrames());
+			assertEquals(table.getLeadingSamples(),loaded.getLeadingSamples());
+			assertEquals(table.getDuration(),loaded.getDuration(),1e-6f);
+			for(int frame=0;frame<loaded.getFrames();frame++) {
+				float time=(frame+0.5f)*SAMPLES_PER_FRAME/44100f;
+				assertEquals(table.seek(in,time),loaded.seek(in,time));
+				// The skipped header frame is decoded before the frame
+				assertEquals((frame+1L)*SAMPLES_PER_FRAME,loaded.seek(in,time));
+				assertEquals((long)offsets.get(frame+1),in.currentPosition());
+			}
+		}
+		assertNull(MP3SeekTable.load(new File(tmp.toFile(),"missing.idx"),f.length()));
+	}
+
+	@Test
+	void testLeadingSamples(@TempDir Path tmp) throws IOException {
+		ByteArrayOutputStream out=new ByteArrayOutputStream();
+		byte[] frame=new byte[417];
+		putInt(frame,0,HEADER);
+		putTag(frame,36,"Xing");
+		// Frames and table of contents
+		putInt(frame,40,5);
+		putInt(frame,44,100);
+		for(int i=0;i<100;i++) {
+			frame[48+i]=(byte)(i*256/100);
+		}
+		putTag(frame,156,"LAME");
+		// Encoder delay 576, padding 1000
+		putInt(frame,176,(576<<12)|1000);
+		out.write(frame);
+		for(int i=0;i<100;i++) {
+			frame=new byte[417];
+			putInt(frame,0,HEADER);
+			out.write(frame);
+		}
+		File f=new File(tmp.toFile(),"lame.mp3");
+		try(OutputStream o=new FileOutputStream(f)) {
+			out.writeTo(o);
+		}
+		try(SeekableFileInputStream in=new SeekableFileInputStream(f)) {
+			MP3SeekTable table=MP3SeekTable.read(in,0,f.length(),false);
+			assertNotNull(table);
+			assertFalse(table.isExact());
+			assertEquals(100,table.getFrames());
+			// Header frame, encoder delay and decoder delay
+			assertEquals(SAMPLES_PER_FRAME+576+529,table.getLeadingSamples());
+			assertEquals(100*SAMPLES_PER_FRAME-576-1000,table.getSamples());
+			assertEquals((100*SAMPLES_PER_FRAME-576-1000)/44100f,table.getDuration(),1e-6f);
+		}
+	}
+
+	/**
+	 * Create a track of (empty) frames with every third frame padded and some junk after frame 100.
+	 *
+	 * @param frames the number of frames
+	 * @param xing if {@code true}, the first frame is a Xing header without table of contents
+	 * @param offsets the offsets of the frames
+	 * @return the track
+	 */
+	private static File track(Path dir,int frames,boolean xing,List<Long> offsets) throws IOException {
+		File f=new File(dir.toFile(),"track.mp3");
+		long position=0;
+		try(OutputStream out=new FileOutputStream(f)) {
+			for(int i=0;i<frames;i++) {
+				if(i==100) {
+					byte[] junk=new byte[100];
+					junk[50]=(byte)0xff;
+					out.write(junk);
+					position+=junk.length;
+				}
+				boolean padded=i%3==1;
+				byte[] frame=new byte[padded?418:417];
+				putInt(frame,0,padded?HEADER|PADDING:HEADER);
+				if(i==0&&xing) {
+					putTag(frame,36,"Xing");
+					putInt(frame,40,1);
+					putInt(frame,44,frames-1);
+				}
+				out.write(frame);
+				offsets.add(position);
+				position+=frame.length;
+			}
+		}
+		return f;
+	}
+
+	private static void putInt(byte[] b,int offset,int value) {
+		b[offset]=(byte)(value>>24);
+		b[offset+1]=(byte)(value>>16);
+		b[offset+2]=(byte)(value>>8);
+		b[offset+3]=(byte)value;
+	}
+
+	private static void putTag(byte[] b,int offset,String tag) {
+		for(int i=0;i<4;i++) {
+			b[offset+i]=(byte)tag.charAt(i);
+		}
+	}
+
+	/**
+	 * Stream counting the seeks.
+	 */
+	private static class Counting extends SeekableFileInputStream {
+		private int seeks;
+
+		Counting(File file) throws IOException {
+			super(file);
+		}
+
+		@Override
+		public boolean seekTo(long bytes) {
+			seeks++;
+			return super.seekTo(bytes);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import not.alexa.hermes.media.io.SeekableFileInputStream;
+
+public class OggPageIndexTest {
+	private static final int SERIAL=0x12345678;
+	private static final int PAGES=2000;
+	private static final long GRANULES_PER_PAGE=1000;
+
+	public OggPageIndexTest() {
+	}
+
+	@Test
+	void testFind(@TempDir Path tmp) throws IOException {
+		List<Long> offsets=new ArrayList<>();
+		File f=stream(tmp,offsets);
+		try(SeekableFileInputStream in=new SeekableFileInputStream(f)) {
+			OggPageIndex index=new OggPageIndex(in,SERIAL,f.length());
+			// Before the first page
+			assertNull(index.find(GRANULES_PER_PAGE-1));
+			for(int page:new int[] { 0,1,2,999,1000,1001,1536,PAGES-2,PAGES-1 }) {
+				long granule=(page+1)*GRANULES_PER_PAGE;
+				int reads=index.getReads();
+				long[] found=index.find(granule+GRANULES_PER_PAGE/2);
+				assertEquals((long)offsets.get(page),found[0]);
+				assertEquals(granule,found[1]);
+				// Bisection (and reading up to 16k linearly) instead of scanning 2000 pages
+				assertTrue(index.getReads()-reads<100,"Reads: "+(index.getReads()-reads));
+				// An exact match
+				found=index.find(granule);
+				assertEquals((long)offsets.get(page),found[0]);
+			}
+			// Behind the last page
+			long[] found=index.find(Long.MAX_VALUE);
+			assertEquals((long)offsets.get(PAGES-1),found[0]);
+		}
+	}
+
+	@Test
+	void testCache(@TempDir Path tmp) throws IOException {
+		List<Long> offsets=new ArrayList<>();
+		File f=stream(tmp,offsets);
+		try(SeekableFileInputStream in=new SeekableFileInputStream(f)) {
+			OggPageIndex index=new OggPageIndex(in,SERIAL,f.length());
+			long granule=1234*GRANULES_PER_PAGE;
+			index.find(granule);
+			int reads=index.getReads();
+			// The pages found on the way narrow the range of the next search
+			assertEquals((long)offsets.get(1233),index.find(granule)[0]);
+			assertTrue(index.getReads()-reads<reads,"Reads: "+reads+" -> "+(index.getReads()-reads));
+		}
+	}
+
+	/**
+	 * Create a stream of {@value #PAGES} pages. Every tenth page is followed by a page of another logical stream and a page without
+	 * granule position (continued packet).
+	 *
+	 * @param offsets the offsets of the pages of the logical stream with a granule position
+	 * @return the stream
+	 */
+	private static File stream(Path dir,List<Long> offsets) throws IOException {
+		File f=new File(dir.toFile(),"stream.ogg");
+		long position=0;
+		try(OutputStream out=new FileOutputStream(f)) {
+			for(int i=0;i<PAGES;i++) {
+				offsets.add(position);
+				position+=page(out,SERIAL,(i+1)*GRANULES_PER_PAGE,100+i%50);
+				if(i%10==5) {
+					position+=page(out,SERIAL+1,i,80);
+					position+=page(out,SERIAL,-1,255);
+				}
+			}
+		}
+		return f;
+	}
+
+	private static int page(OutputStream out,int serial,long granule,int size) throws IOException {
+		byte[] page=new byte[28+size];
+		page[0]='O';
+		page[1]='g';
+		page[2]='g';
+		page[3]='S';
+		for(int i=0;i<8;i++) {
+			page[6+i]=(byte)(granule>>(8*i));
+		}
+		for(int i=0;i<4;i++) {
+			page[14+i]=(byte)(serial>>(8*i));
+		}
+		page[26]=1;
+		page[27]=(byte)size;
+		// Payload
+		for(int i=28;i<page.length;i++) {
+			page[i]=(byte)(i*13);
+		}
+		out.write(page);
+		return page.length;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2024 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.media.streams;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.hermes.media.AudioStream;
+import not.alexa.hermes.media.streams.ResamplingStream.FilterBank;
+import not.alexa.hermes.media.streams.ResamplingStream.Quality;
+
+public class ResamplingStreamTest {
+
+	public ResamplingStreamTest() {
+	}
+
+	@Test
+	void testSameRate() throws IOException {
+		int[] samples=new int[2*4000];
+		for(int i=0;i<samples.length;i++) {
+			samples[i]=(i*7919)%65536-32768;
+		}
+		AudioFormat stereo=new AudioFormat(44100,16,2,true,false);
+		AudioStream stream=new Samples(stereo,samples);
+		// No conversion at all
+		assertTrue(stream==stream.resample(stereo));
+		// Same rate and channels but a different byte order
+		AudioStream converted=stream.resample(new AudioFormat(44100,16,2,true,true));
+		assertTrue(converted instanceof ChannelMappedStream);
+		assertArrayEquals(samples,readAll(converted,samples.length));
+		// Mono to stereo copies the samples
+		int[] mono=Arrays.copyOf(samples,4000);
+		converted=new Samples(new AudioFormat(44100,16,1,true,false),mono).resample(stereo);
+		int[] result=readAll(converted,2*mono.length);
+		for(int i=0;i<mono.length;i++) {
+			assertEquals(mono[i],result[2*i]);
+			assertEquals(mono[i],result[2*i+1]);
+		}
+		// 16 to 24 bits shifts the samples
+		converted=new Samples(stereo,samples).resample(new AudioFormat(44100,24,2,true,false));
+		result=readAll(converted,samples.length);
+		for(int i=0;i<samples.length;i++) {
+			assertEquals(samples[i]<<8,result[i]);
+		}
+	}
+
+	@Test
+	void testPhases() {
+		FilterBank bank=ResamplingStream.filterBank(44100,48000,Quality.MEDIUM);
+		assertEquals(160,bank.phases);
+		assertEquals(147,bank.step);
+		for(int p=0;p<bank.phases;p++) {
+			float sum=0;
+			for(int k=0;k<bank.taps;k++) {
+				sum+=bank.coefficients[p*bank.taps+k];
+			}
+			assertEquals(1f,sum,1e-4f);
+		}
+		// The ratio is approximated with the maximal number of phases
+		bank=ResamplingStream.filterBank(44100,47999,Quality.MEDIUM);
+		assertEquals(ResamplingStream.MAX_PHASES,bank.phases);
+		assertEquals(Math.round(44100.0*ResamplingStream.MAX_PHASES/47999),bank.step);
+	}
+
+	@Test
+	void testSine() throws IOException {
+		// A 1kHz sine resampled from 44.1kHz to 48kHz
+		int[] samples=new int[4410];
+		for(int i=0;i<samples.length;i++) {
+			samples[i]=(int)Math.round(10000*Math.sin(2*Math.PI*1000*i/44100));
+		}
+		AudioStream resampled=new Samples(new AudioFormat(44100,16,1,true,false),samples).resample(new AudioFormat(48000,16,1,true,false));
+		assertTrue(resampled instanceof ResamplingStream);
+		int[] result=readAll(resampled,-1);
+		assertEquals(4800,result.length,16);
+		// Output frame k is located at input frame k*147/160 (apart from the edges, where the filter sees silence)
+		for(int k=100;k<4700;k++) {
+			assertEquals(10000*Math.sin(2*Math.PI*1000*k/48000),result[k],100,"Frame "+k);
+		}
+	}
+
+	/**
+	 * Read the stream until the end.
+	 *
+	 * @param stream the stream to read
+	 * @param expected the number of samples expected or {@code -1} if unknown
+	 * @return the samples read
+	 */
+	private static int[] readAll(AudioStream stream,int expected) throws IOException {
+		int[] result=new int[1024];
+		int count=0;
+		int[] block=new int[333];
+		int n;
+		while((n=stream.read(block,0,block.length))!=AudioStream.END_OF_STREAM) {
+			assertTrue(n>0);
+			if(count+n>result.length) {
+				result=Arrays.copyOf(result,2*(count+n));
+			}
+			System.arraycopy(block,0,result,count,n);
+			count+=n;
+		}
+		if(expected>=0) {
+			assertEquals(expected,count);
+		}
+		return Arrays.copyOf(result,count);
+	}
+
+	/**
+	 * Stream of given samples delivered in odd sized blocks.
+	 */
+	static class Samples implements AudioStream {
+		private final AudioFormat format;
+		private final int[] samples;
+		private int position;
+
+		Samples(AudioFormat format,int[] samples) {
+			this.format=format;
+			this.samples=samples;
+		}
+
+		@Override
+		public AudioFormat getFormat() {
+			return format;
+		}
+
+		@Override
+		public boolean isStream() {
+			return false;
+		}
+
+		@Override
+		public int read(int[] buffer,int offset,int length) {
+			if(position==samples.length) {
+				return END_OF_STREAM;
+			}
+			length=Math.min(Math.min(length,101),samples.length-position);
+			System.arraycopy(samples,position,buffer,offset,length);
+			position+=length;
+			return length;
+		}
+	}
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content addressed cache of synthesized phrases. The key of a phrase is the hash of the voice, the language and the normalized text
+ * (see {@link #key(String, String, String)}). The cache consists of two tiers:
+ * <ul>
+ * <li>An in-memory tier holding the WAV data of the most recently used phrases.
+ * <li>An optional on-disk tier (one file per phrase) which survives restarts. Phrases found on disk are promoted into memory.
+ * </ul>
+ * Both tiers are bounded by their size in bytes. If a tier exceeds its limit, the least recently used phrases are evicted.
+ *
+ * @author notalexa
+ */
+public class PhraseCache {
+	private static final String SUFFIX=".wav";
+	private final long memoryLimit;
+	private final long diskLimit;
+	private final File dir;
+	private final LinkedHashMap<String,byte[]> memory=new LinkedHashMap<>(16,0.75f,true);
+	private final LinkedHashMap<String,Long> disk=new LinkedHashMap<>(16,0.75f,true);
+	private long memorySize;
+	private long diskSize;
+	private final AtomicLong hits=new AtomicLong();
+	private final AtomicLong diskHits=new AtomicLong();
+	private final AtomicLong misses=new AtomicLong();
+	private final AtomicLong evictions=new AtomicLong();
+
+	/**
+	 *
+	 * @param memoryLimit the maximal size of the in-memory tier in bytes
+	 * @param dir the directory of the on-disk tier or {@code null} if phrases shouldn't be persisted
+	 * @param diskLimit the maximal size of the on-disk tier in bytes
+	 */
+	public PhraseCache(long memoryLimit,File dir,long diskLimit) {
+		this.memoryLimit=memoryLimit;
+		this.diskLimit=diskLimit;
+		this.dir=dir==null||diskLimit<=0||!(dir.isDirectory()||dir.mkdirs())?null:dir;
+		if(this.dir!=null) {
+			index();
+		}
+	}
+
+	/**
+	 * Index the phrases on disk. The modification time of a file is the time of the last access.
+	 */
+	private void index() {
+		File[] stale=dir.listFiles((d,name) -> name.endsWith(".tmp"));
+		if(stale!=null) for(File f:stale) {
+			f.delete();
+		}
+		File[] files=dir.listFiles((d,name) -> name.endsWith(SUFFIX));
+		if(files!=null) {
+			Arrays.sort(files,Comparator.comparingLong(File::lastModified));
+			for(File f:files) {
+				String key=f.getName().substring(0,f.getName().length()-SUFFIX.length());
+				disk.put(key,f.length());
+				diskSize+=f.length();
+			}
+			shrinkDisk();
+		}
+	}
+
+	/**
+	 * Calculate the key of a phrase. The text is normalized (unicode normalization, leading and trailing whitespace removed, whitespace collapsed)
+	 * such that texts differing only in spacing share the same key.
+	 *
+	 * @param voice the voice (typically the script used for synthesis)
+	 * @param lang the language
+	 * @param text the text
+	 * @return the key of the phrase
+	 */
+	public static String key(String voice,String lang,String text) {
+		String normalized=Normalizer.normalize(text==null?"":text,Normalizer.Form.NFC).trim().replaceAll("\\s+"," ");
+		try {
+			MessageDigest digest=MessageDigest.getInstance("SHA-256");
+			byte[] hash=digest.digest((voice+'\n'+lang+'\n'+normalized).getBytes(StandardCharsets.UTF_8));
+			StringBuilder builder=new StringBuilder(2*hash.length);
+			for(byte b:hash) {
+				builder.append(Character.forDigit((b>>4)&0xf,16)).append(Character.forDigit(b&0xf,16));
+			}
+			return builder.toString();
+		} catch(NoSuchAlgorithmException e) {
+			// SHA-256 is supported by every JVM
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 *
+	 * @param key the key of the phrase
+	 * @return the WAV data of the phrase or {@code null} if the phrase isn't cached. The data must not be modified.
+	 */
+	public byte[] get(String key) {
+		synchronized (this) {
+			byte[] data=memory.get(key);
+			if(data!=null) {
+				hits.incrementAndGet();
+				return data;
+			}
+			if(dir==null||disk.get(key)==null) {
+				misses.incrementAndGet();
+				return null;
+			}
+		}
+		File f=file(key);
+		try {
+			byte[] data=Files.readAllBytes(f.toPath());
+			f.setLastModified(System.currentTimeMillis());
+			diskHits.incrementAndGet();
+			putMemory(key,data);
+			return data;
+		} catch(IOException e) {
+			synchronized (this) {
+				Long size=disk.remove(key);
+				if(size!=null) {
+					diskSize-=size;
+				}
+			}
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * Add a phrase to the cache.
+	 *
+	 * @param key the key of the phrase
+	 * @param data the WAV data of the phrase (which must not be modified afterwards)
+	 */
+	public void put(String key,byte[] data) {
+		putMemory(key,data);
+		if(dir!=null&&data.length<=diskLimit) {
+			File tmp=null;
+			try {
+				// Write to a temporary file first such that an interrupted write never leaves a truncated phrase
+				tmp=File.createTempFile("tmp-"+key,".tmp",dir);
+				Files.write(tmp.toPath(),data);
+				Files.move(tmp.toPath(),file(key).toPath(),StandardCopyOption.REPLACE_EXISTING,StandardCopyOption.ATOMIC_MOVE);
+				synchronized (this) {
+					Long old=disk.put(key,(long)data.length);
+					diskSize+=data.length-(old==null?0:old);
+					shrinkDisk();
+				}
+			} catch(IOException e) {
+				// The phrase is still cached in memory
+				if(tmp!=null) {
+					tmp.delete();
+				}
+			}
+		}
+	}
+
+	private void putMemory(String key,byte[] data) {
+		if(data.length>memoryLimit) {
+			return;
+		}
+		synchronized (this) {
+			byte[] old=memory.put(key,data);
+			memorySize+=data.length-(old==null?0:old.length);
+			Iterator<byte[]> iterator=memory.values().iterator();
+			while(memorySize>memoryLimit&&iterator.hasNext()) {
+				memorySize-=iterator.next().length;
+				iterator.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	private void shrinkDisk() {
+		Iterator<Map.Entry<String,Long>> iterator=disk.entrySet().iterator();
+		while(diskSize>diskLimit&&iterator.hasNext()) {
+			Map.Entry<String,Long> eldest=iterator.next();
+			iterator.remove();
+			diskSize-=eldest.getValue();
+			file(eldest.getKey()).delete();
+		}
+	}
+
+	private File file(String key) {
+		return new File(dir,key+SUFFIX);
+	}
+
+	/**
+	 * Remove all phrases from memory and disk.
+	 */
+	public synchronized void clear() {
+		memory.clear();
+		memorySize=0;
+		if(dir!=null) {
+			for(String key:disk.keySet()) {
+				file(key).delete();
+			}
+		}
+		disk.clear();
+		diskSize=0;
+	}
+
+	/**
+	 *
+	 * @return the size of the in-memory tier in bytes
+	 */
+	public synchronized long getMemorySize() {
+		return memorySize;
+	}
+
+	/**
+	 *
+	 * @return the size of the on-disk tier in bytes
+	 */
+	public synchronized long getDiskSize() {
+		return diskSize;
+	}
+
+	/**
+	 *
+	 * @return the number of lookups served from memory
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 *
+	 * @return the number of lookups served from disk
+	 */
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	/**
+	 *
+	 * @return the number of failed lookups
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 *
+	 * @return the number of phrases evicted from memory so far
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+}
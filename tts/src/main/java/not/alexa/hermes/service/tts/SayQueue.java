@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import not.alexa.hermes.HermesApi;
+import not.alexa.hermes.tts.Say;
+
+/**
+ * Bounded admission queue of say requests. Requests belonging to a dialogue session (interactive requests) are taken before
+ * background requests (like announcements of an automation). A request with the same site, language and text as a queued
+ * or running request is merged into this request. A queued background request is promoted if an interactive request is merged into it.
+ * If the queue is full, the oldest background request is shed in favour of an interactive request. Otherwise, the new request is rejected.
+ *
+ * @author notalexa
+ */
+class SayQueue {
+	private final int capacity;
+	private final ArrayDeque<Request> interactive=new ArrayDeque<>();
+	private final ArrayDeque<Request> background=new ArrayDeque<>();
+	private final Map<String,Request> inFlight=new HashMap<>();
+	private boolean closed;
+
+	/**
+	 *
+	 * @param capacity the maximal number of queued requests (not including running requests)
+	 */
+	SayQueue(int capacity) {
+		this.capacity=Math.max(1,capacity);
+	}
+
+	/**
+	 * Admit a request.
+	 *
+	 * @param request the request
+	 * @return the request to reject (the given request or a shed background request) or {@code null} if no request is rejected
+	 */
+	synchronized Request offer(Request request) {
+		if(closed) {
+			return request;
+		}
+		Request running=inFlight.get(request.key);
+		if(running!=null) {
+			running.merged.add(request.say);
+			if(request.interactive&&!running.interactive&&background.remove(running)) {
+				// Promote the queued request
+				running.interactive=true;
+				interactive.add(running);
+			}
+			return null;
+		}
+		Request shed=null;
+		if(interactive.size()+background.size()>=capacity) {
+			if(request.interactive&&!background.isEmpty()) {
+				shed=background.poll();
+				inFlight.remove(shed.key);
+			} else {
+				return request;
+			}
+		}
+		inFlight.put(request.key,request);
+		(request.interactive?interactive:background).add(request);
+		notifyAll();
+		return shed;
+	}
+
+	/**
+	 * Wait for the next request.
+	 *
+	 * @return the next request or {@code null} if the queue is closed
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	synchronized Request take() throws InterruptedException {
+		while(!closed&&interactive.isEmpty()&&background.isEmpty()) {
+			wait();
+		}
+		if(closed) {
+			return null;
+		}
+		Request request=interactive.poll();
+		return request==null?background.poll():request;
+	}
+
+	/**
+	 * Mark the request as done. Subsequent requests with the same text are not merged into this request any longer.
+	 *
+	 * @param request the request
+	 * @return the say messages of this request (including the merged messages)
+	 */
+	synchronized List<Say> done(Request request) {
+		inFlight.remove(request.key,request);
+		List<Say> says=new ArrayList<>(request.merged.size()+1);
+		says.add(request.say);
+		says.addAll(request.merged);
+		return says;
+	}
+
+	/**
+	 *
+	 * @return the number of queued requests
+	 */
+	synchronized int size() {
+		return interactive.size()+background.size();
+	}
+
+	/**
+	 * Close the queue.
+	 *
+	 * @return the queued requests (which will not be taken any more)
+	 */
+	synchronized List<Request> close() {
+		closed=true;
+		List<Request> requests=new ArrayList<>(interactive);
+		requests.addAll(background);
+		interactive.clear();
+		background.clear();
+		notifyAll();
+		return requests;
+	}
+
+	/**
+	 * A say request together with the API it was received on.
+	 */
+	static class Request {
+		final HermesApi api;
+		final Say say;
+		final String lang;
+		final String key;
+		private boolean interactive;
+		private final List<Say> merged=new ArrayList<>();
+
+		/**
+		 *
+		 * @param api the API the request was received on
+		 * @param say the message
+		 * @param lang the language of the message
+		 */
+		Request(HermesApi api,Say say,String lang) {
+			this.api=api;
+			this.say=say;
+			this.lang=lang;
+			this.key=say.getSiteId()+"\n"+lang+"\n"+(say.getText()==null?"":say.getText().trim());
+			this.interactive=say.getSessionId()!=null;
+		}
+	}
+}
@@ -16,12 +16,23 @@
 package not.alexa.hermes.service.tts;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.io.OutputStream;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.sound.sampled.AudioFormat;
 
@@ -30,12 +41,16 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import not.alexa.hermes.HermesApi;
 import not.alexa.hermes.HermesComponent;
 import not.alexa.hermes.HermesMessage;
+import not.alexa.hermes.TimingWheel;
 import not.alexa.hermes.audio.AudioPlayBytes;
+import not.alexa.hermes.audio.AudioPlayBytesStreaming;
 import not.alexa.hermes.audio.AudioPlayFinished;
+import not.alexa.hermes.audio.AudioStreamFinished;
 import not.alexa.hermes.tts.Say;
 import not.alexa.hermes.tts.SayFinished;
 import not.alexa.hermes.tts.TTSError;
 import not.alexa.netobjects.BaseException;
+import not.alexa.netobjects.Context;
 import not.alexa.netobjects.api.Overlay;
 
 /**
@@ -45,7 +60,25 @@ import not.alexa.netobjects.api.Overlay;
  * <li>{@code script} denotes the script which generates the WAV output (defaults to {@code tts.sh}).
  * <li>{@code defaultLanguage} denotes the language if the provided language is {@code null} or unknown.
  * <li>{@code languages} denotes a set of accepted languages
+ * <li>{@code memoryCache} denotes the size of the in-memory phrase cache in kB (defaults to 4096, {@code 0} disables the cache).
+ * <li>{@code cacheDir} denotes the directory of the persistent phrase cache (optional).
+ * <li>{@code diskCache} denotes the size of the persistent phrase cache in kB (defaults to 65536).
+ * <li>{@code worker} denotes the command of a long-lived synthesis worker (optional, see {@link WorkerPool} for the protocol).
+ * <li>{@code workers} denotes the number of workers (defaults to 2).
+ * <li>{@code streaming} enables the streaming mode (defaults to {@code false}).
+ * <li>{@code parallel} denotes the number of sentences synthesized in parallel (defaults to {@code 1} which disables the splitting of the text).
+ * <li>{@code sentencePause} denotes the silence between two sentences in milliseconds (defaults to 200).
+ * <li>{@code queueSize} denotes the maximal number of queued say requests (defaults to 16).
  * </ul>
+ * Say requests are queued and synthesized one after the other (see {@link SayQueue}). Requests of a dialogue session are synthesized before
+ * other requests and identical requests are merged. If the queue is full, a request is rejected with a {@link TTSError} followed by a {@link SayFinished}.
+ * A failed request is answered the same way.
+ * Synthesized phrases are cached (see {@link PhraseCache}). Repeated phrases are published without running the script.
+ * If a worker is configured, phrases are synthesized by a pool of workers. The script is used as a fallback if no worker is available.
+ * The worker is expected to speak with the same voice as the script.
+ * <br>Texts with more than one sentence are split into sentences which are synthesized in parallel and stitched together in order.
+ * <br>In streaming mode, the audio is published in chunks of {@link AudioPlayBytesStreaming} while it's synthesized (see {@link WavChunker}) such that
+ * playback starts with the first chunk. The playback is finished if the audio server answers with an {@link AudioPlayFinished} or an {@link AudioStreamFinished}.
  * Tested with {@code nanotts} in which case the script should look like
  * <pre>
  * #!/bin/bash
@@ -63,19 +96,35 @@ import not.alexa.netobjects.api.Overlay;
  * - es-ES
  * - fr-FR
  * - it-IT
+ * cacheDir: /var/cache/tts # optional
  * </pre>
  * 
  * @author notalexa
  *
  */
 public class TTS implements HermesComponent {
+	static final int MIN_SENTENCE=12;
 	@JsonProperty(defaultValue = "tts.sh") String script;
 	@JsonProperty(required = true) String defaultLanguage;
 	@JsonProperty(required = true) Set<String> languages;
+	@JsonProperty(defaultValue = "4096") int memoryCache=4096;
+	@JsonProperty String cacheDir;
+	@JsonProperty(defaultValue = "65536") int diskCache=65536;
+	@JsonProperty String worker;
+	@JsonProperty(defaultValue = "2") int workers=2;
+	@JsonProperty(defaultValue = "false") boolean streaming;
+	@JsonProperty(defaultValue = "1") int parallel=1;
+	@JsonProperty(defaultValue = "200") int sentencePause=200;
+	@JsonProperty(defaultValue = "16") int queueSize=16;
 	
 	long timeout=30000;
 	
-	private Map<String,Long> pending=new LinkedHashMap<>();
+	private final Map<String,Playback> pending=new ConcurrentHashMap<>();
+	private SayQueue queue;
+	private TimingWheel timer;
+	private PhraseCache cache;
+	private WorkerPool pool;
+	private ExecutorService executor;
 	
 	TTS() {
 	}
@@ -92,10 +141,117 @@ public class TTS implements HermesComponent {
 		resources.put(TTS.class,this);
 		overlays.add(SayHandler.class);
 		overlays.add(AudioPlayFinishedHandler.class);
+		overlays.add(AudioStreamFinishedHandler.class);
+	}
+
+	@Override
+	public void startup(HermesApi api,Context context) {
+		// Start the workers before the first request
+		getPool();
+	}
+
+	@Override
+	public void shutdown(HermesApi api,Context context) {
+		WorkerPool pool;
+		ExecutorService executor;
+		SayQueue queue;
+		TimingWheel timer;
+		synchronized (this) {
+			pool=this.pool;
+			executor=this.executor;
+			queue=this.queue;
+			timer=this.timer;
+			this.pool=null;
+			this.executor=null;
+			this.queue=null;
+			this.timer=null;
+		}
+		if(queue!=null) {
+			for(SayQueue.Request request:queue.close()) {
+				reject(queue,request,"TTS shut down");
+			}
+		}
+		if(timer!=null) {
+			timer.stop();
+		}
+		pending.clear();
+		if(executor!=null) {
+			executor.shutdownNow();
+		}
+		if(pool!=null) {
+			pool.close();
+		}
+	}
+
+	synchronized WorkerPool getPool() {
+		if(pool==null&&worker!=null&&workers>0) {
+			pool=new WorkerPool(worker,workers,timeout);
+		}
+		return pool;
+	}
+
+	/**
+	 * 
+	 * @return the queue of say requests (processed by a background thread)
+	 */
+	synchronized SayQueue getQueue() {
+		if(queue==null) {
+			SayQueue queue=new SayQueue(queueSize);
+			Thread consumer=new Thread(() -> {
+				try {
+					SayQueue.Request request;
+					while((request=queue.take())!=null) {
+						process(queue,request);
+					}
+				} catch(InterruptedException e) {
+				}
+			},"tts-say");
+			consumer.setDaemon(true);
+			consumer.start();
+			this.queue=queue;
+		}
+		return queue;
+	}
+
+	private synchronized TimingWheel getTimer() {
+		if(timer==null) {
+			timer=new TimingWheel("tts-pending",100,TimeUnit.MILLISECONDS,512);
+		}
+		return timer;
+	}
+
+	/**
+	 * 
+	 * @return the number of sentences synthesized in parallel ({@code 1} if not configured)
+	 */
+	int getParallelism() {
+		return Math.max(1,parallel);
+	}
+
+	private synchronized ExecutorService getExecutor() {
+		if(executor==null) {
+			executor=Executors.newFixedThreadPool(getParallelism(),r -> {
+				Thread t=new Thread(r,"tts-sentence");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * 
+	 * @return the phrase cache of this component
+	 */
+	public synchronized PhraseCache getCache() {
+		if(cache==null) {
+			cache=new PhraseCache(1024L*memoryCache,cacheDir==null?null:new File(cacheDir),1024L*diskCache);
+		}
+		return cache;
 	}
 
 	/**
-	 * Create a voice representation of the given text.
+	 * Create a voice representation of the given text. Phrases are served from the cache if possible.
 	 * 
 	 * @param lang the language to use
 	 * @param text the text to spec
@@ -103,14 +259,170 @@ public class TTS implements HermesComponent {
 	 * @throws BaseException if an error occurs
 	 */
 	public byte[] say(String lang,String text) throws BaseException {
+		return say(lang,text,null);
+	}
+
+	/**
+	 * Create a voice representation of the given text. The data is written to the given stream while it's synthesized (cached phrases
+	 * are written at once). Texts with more than one sentence are synthesized sentence by sentence in parallel.
+	 * 
+	 * @param lang the language to use
+	 * @param text the text to spec
+	 * @param out the stream receiving the data while it's synthesized or {@code null}
+	 * @return a wav representation of the text based on the given configuration
+	 * @throws BaseException if an error occurs
+	 */
+	public byte[] say(String lang,String text,OutputStream out) throws BaseException {
+		if(!languages.contains(lang)) {
+			lang=defaultLanguage;
+		}
+		List<String> sentences=text!=null&&getParallelism()>1?split(lang,text):Collections.singletonList(text);
+		if(sentences.size()>1) {
+			return stitch(lang,sentences,out);
+		} else {
+			return synthesize(lang,text,out);
+		}
+	}
+
+	/**
+	 * Synthesize a phrase (served from the cache if possible).
+	 */
+	private byte[] synthesize(String lang,String text,OutputStream out) throws BaseException {
+		try {
+			PhraseCache cache=getCache();
+			String key=PhraseCache.key(script,lang,text);
+			byte[] wavData=cache.get(key);
+			if(wavData!=null) {
+				if(out!=null) {
+					out.write(wavData);
+				}
+				return wavData;
+			}
+			WorkerPool pool=getPool();
+			if(pool!=null) {
+				wavData=pool.synthesize(lang,text,out);
+			}
+			if(wavData==null) {
+				wavData=fork(lang,text,out);
+			}
+			if(WavHeader.getFormat(wavData)!=null) {
+				cache.put(key,wavData);
+			}
+			return wavData;
+		} catch(Throwable t) {
+			return BaseException.throwException(t);
+		}
+	}
+
+	/**
+	 * Synthesize the sentences in parallel and concatenate the audio data in order, separated by {@code sentencePause} milliseconds
+	 * of silence. The data is written to the stream as soon as all preceding sentences are available. Since the length isn't known
+	 * in advance, the header written to the stream declares an unknown length (the returned data declares the correct length).
+	 */
+	private byte[] stitch(String lang,List<String> sentences,OutputStream out) throws BaseException {
+		ExecutorService executor=getExecutor();
+		List<Future<byte[]>> parts=new ArrayList<>(sentences.size());
+		for(String sentence:sentences) {
+			parts.add(executor.submit(() -> synthesize(lang,sentence,null)));
+		}
 		try {
-			if(!languages.contains(lang)) {
-				lang=defaultLanguage;
+			ByteArrayOutputStream data=new ByteArrayOutputStream();
+			AudioFormat format=null;
+			byte[] silence=null;
+			for(Future<byte[]> part:parts) {
+				byte[] wavData;
+				try {
+					wavData=part.get();
+				} catch(ExecutionException e) {
+					throw e.getCause();
+				}
+				AudioFormat partFormat=WavHeader.getFormat(wavData);
+				int offset=WavHeader.getDataOffset(wavData,wavData.length);
+				if(partFormat==null||offset<0||partFormat.getFrameSize()<=0) {
+					throw new BaseException(BaseException.BAD_REQUEST,"Illegal WAV data");
+				}
+				if(format==null) {
+					format=partFormat;
+					silence=new byte[(int)(format.getFrameRate()*sentencePause/1000)*format.getFrameSize()];
+					if(out!=null) {
+						out.write(WavHeader.create(format,-1));
+					}
+				} else if(!format.matches(partFormat)) {
+					throw new BaseException(BaseException.BAD_REQUEST,"Inconsistent audio format: "+partFormat+" (expected "+format+")");
+				} else {
+					data.write(silence);
+					if(out!=null) {
+						out.write(silence);
+					}
+				}
+				int length=wavData.length-offset;
+				length-=length%format.getFrameSize();
+				data.write(wavData,offset,length);
+				if(out!=null) {
+					out.write(wavData,offset,length);
+				}
+			}
+			byte[] header=WavHeader.create(format,data.size());
+			ByteArrayOutputStream wavData=new ByteArrayOutputStream(header.length+data.size());
+			wavData.write(header);
+			data.writeTo(wavData);
+			return wavData.toByteArray();
+		} catch(Throwable t) {
+			return BaseException.throwException(t);
+		} finally {
+			// Skip the remaining sentences on failure
+			for(Future<byte[]> part:parts) {
+				part.cancel(false);
 			}
+		}
+	}
+
+	/**
+	 * Split the text into sentences. Fragments shorter than {@value #MIN_SENTENCE} characters (like abbreviations or short
+	 * exclamations) are joined with the following sentence.
+	 * 
+	 * @param lang the language of the text
+	 * @param text the text
+	 * @return the sentences of the text
+	 */
+	static List<String> split(String lang,String text) {
+		List<String> sentences=new ArrayList<>();
+		BreakIterator iterator=BreakIterator.getSentenceInstance(lang==null?Locale.ROOT:Locale.forLanguageTag(lang));
+		iterator.setText(text);
+		StringBuilder sentence=new StringBuilder();
+		for(int start=iterator.first(),end=iterator.next();end!=BreakIterator.DONE;start=end,end=iterator.next()) {
+			sentence.append(text,start,end);
+			if(sentence.toString().trim().length()>=MIN_SENTENCE) {
+				sentences.add(sentence.toString().trim());
+				sentence.setLength(0);
+			}
+		}
+		String rest=sentence.toString().trim();
+		if(rest.length()>0) {
+			if(sentences.isEmpty()) {
+				sentences.add(rest);
+			} else {
+				sentences.set(sentences.size()-1,sentences.get(sentences.size()-1)+" "+rest);
+			}
+		}
+		return sentences;
+	}
+
+	/**
+	 * Synthesize the text by running the script.
+	 */
+	private byte[] fork(String lang,String text,OutputStream out) throws BaseException {
+		try {
 			Process process=new ProcessBuilder().command(script,lang,text).start();
-			ScriptOutput stdErr=new ScriptOutput(process.getErrorStream());
-			ScriptOutput stdOut=new ScriptOutput(process.getInputStream());
+			ScriptOutput stdErr=new ScriptOutput(process.getErrorStream(),null);
+			ScriptOutput stdOut=new ScriptOutput(process.getInputStream(),out);
  			process.waitFor();
+ 			// The output must be complete before it's cached
+ 			stdOut.join();
+ 			stdErr.join();
+ 			if(stdOut.failure!=null) {
+ 				throw stdOut.failure;
+ 			}
  			if(process.exitValue()==0) {
  				return stdOut.getContent();
  			} else {
@@ -135,27 +447,101 @@ public class TTS implements HermesComponent {
 		return -1f;
 	}
 	
+	/**
+	 * Synthesize the request and publish the audio.
+	 */
+	private void process(SayQueue queue,SayQueue.Request request) {
+		Say say=request.say;
+		HermesApi api=request.api;
+		String requestId=say.getId()==null?HermesApi.createId():say.getId();
+		try {
+			if(streaming) {
+				// Chunks are published while synthesizing
+				WavChunker chunker=new WavChunker((index,last,chunk) -> {
+					try {
+						api.publish(new AudioPlayBytesStreaming(say.getSiteId(),requestId,index,last,chunk));
+					} catch(BaseException e) {
+						throw new IOException(e);
+					}
+				});
+				Playback playback=null;
+				try {
+					say(request.lang,say.getText(),chunker);
+					// Identical requests are merged until the synthesis is done. The playback is tracked before the last chunk is published.
+					playback=track(requestId,queue.done(request));
+				} finally {
+					// Publish the last chunk in any case
+					chunker.close();
+					if(playback!=null) {
+						playback.expire(chunker.getTime());
+					}
+				}
+			} else {
+				byte[] wavData=say(request.lang,say.getText());
+				Playback playback=track(requestId,queue.done(request));
+				if(playback!=null) {
+					playback.expire(getTime(wavData));
+				}
+				api.publish(new AudioPlayBytes(say.getSiteId(),requestId,wavData));
+			}
+		} catch(Throwable t) {
+			api.getContext().getLogger().error("Say failed",t);
+			// No answer of the audio server is awaited
+			Playback playback=pending.remove(requestId);
+			if(playback!=null) {
+				playback.cancel();
+			}
+			reject(queue,request,t.getMessage());
+		}
+	}
+
+	/**
+	 * Track the playback of the request until the audio server answers (or the playback expires).
+	 * 
+	 * @return the playback or {@code null} if no message has an id
+	 */
+	private Playback track(String requestId,List<Say> says) {
+		List<String> ids=new ArrayList<>(says.size());
+		for(Say say:says) {
+			if(say.getId()!=null) {
+				ids.add(say.getId());
+			}
+		}
+		if(ids.isEmpty()) {
+			return null;
+		}
+		Playback playback=new Playback(requestId,ids);
+		pending.put(requestId,playback);
+		// The last chunk may be played before the synthesis terminates
+		playback.expire(0f);
+		return playback;
+	}
+
+	/**
+	 * Reject (or fail) the request with a {@link TTSError} followed by a {@link SayFinished} for every message of the request.
+	 */
+	private void reject(SayQueue queue,SayQueue.Request request,String reason) {
+		HermesApi api=request.api;
+		for(Say say:queue.done(request)) try {
+			api.publish(new TTSError(reason,null,say.getSiteId(),say.getSessionId()));
+			if(say.getId()!=null) {
+				api.publish(new SayFinished(api.getSiteId(),say.getId()));
+			}
+		} catch(BaseException e) {
+			api.getContext().getLogger().warn("Rejecting say failed",e);
+		}
+	}
+
 	@Overlay
 	public class SayHandler extends Say {
 		@Override
 		public void received(HermesApi api) throws BaseException {
-			if(!pending.isEmpty()) for(Iterator<Map.Entry<String,Long>> entries=pending.entrySet().iterator();entries.hasNext();) {
-				if(entries.next().getValue()<System.currentTimeMillis()-timeout) {
-					entries.remove();
-				} else {
-					break;
-				}
-			}
-			if(api.matches(getSiteId())) try {
-				byte[] wavData=say(getLang()==null?defaultLanguage:getLang(),getText());
-				if(getId()!=null) {
-					float time=getTime(wavData);
-					pending.put(getId(), System.currentTimeMillis()+(long)(1000*Math.max(time,0f)));
+			if(api.matches(getSiteId())) {
+				SayQueue queue=getQueue();
+				SayQueue.Request rejected=queue.offer(new SayQueue.Request(api,this,getLang()==null?defaultLanguage:getLang()));
+				if(rejected!=null) {
+					reject(queue,rejected,"TTS overloaded");
 				}
-				api.publish(new AudioPlayBytes(getSiteId(), getId()==null?HermesApi.createId():getId(), wavData));
-			} catch(Throwable t) {
-				api.getContext().getLogger().error("Say failed",t);
-				api.publish(new TTSError(t.getMessage()));
 			}
 		}
 	}
@@ -169,17 +555,79 @@ public class TTS implements HermesComponent {
 
 		@Override
 		public void received(HermesApi api) throws BaseException {
-			if(getRequestId()!=null&&pending.remove(getRequestId())!=null) {
-				api.publish(new SayFinished(api.getSiteId(),getRequestId()));
-			}
+			finished(api,getRequestId());
 		}	
 	}
+
+	/**
+	 * Rhasspy answers a streaming request with a {@code streamFinished} message.
+	 */
+	@Overlay
+	public class AudioStreamFinishedHandler extends AudioStreamFinished {
+
+		public AudioStreamFinishedHandler(@JsonProperty("id") String id,@JsonProperty("sessionId") String sessionId) {
+			super(id,sessionId);
+		}
+
+		@Override
+		public void received(HermesApi api) throws BaseException {
+			finished(api,getId());
+		}
+	}
+
+	/**
+	 * The audio server finished the playback of the request: Publish a {@link SayFinished} for every message of the request.
+	 */
+	private void finished(HermesApi api,String requestId) throws BaseException {
+		Playback playback=requestId==null?null:pending.remove(requestId);
+		if(playback!=null) {
+			playback.cancel();
+			for(String id:playback.ids) {
+				api.publish(new SayFinished(api.getSiteId(),id));
+			}
+		}
+	}
+	
+	/**
+	 * The playback of a request waiting for the answer of the audio server. The playback expires {@code timeout} milliseconds after the expected end
+	 * of the audio.
+	 */
+	private class Playback {
+		final String requestId;
+		final List<String> ids;
+		private TimingWheel.Timeout expiry;
+
+		Playback(String requestId,List<String> ids) {
+			this.requestId=requestId;
+			this.ids=ids;
+		}
+
+		synchronized void expire(float time) {
+			cancel();
+			if(pending.get(requestId)==this) try {
+				expiry=getTimer().schedule(() -> pending.remove(requestId,this),(long)(1000*Math.max(time,0f))+timeout,TimeUnit.MILLISECONDS);
+			} catch(IllegalStateException e) {
+				// Shut down
+				pending.remove(requestId,this);
+			}
+		}
+
+		synchronized void cancel() {
+			if(expiry!=null) {
+				expiry.cancel();
+				expiry=null;
+			}
+		}
+	}
 	
 	private class ScriptOutput extends Thread {
 		InputStream in;
 		ByteArrayOutputStream out=new ByteArrayOutputStream();
-		ScriptOutput(InputStream in) {
+		OutputStream target;
+		IOException failure;
+		ScriptOutput(InputStream in,OutputStream target) {
 			this.in=in;
+			this.target=target;
 			setDaemon(true);
 			start();
 		}
@@ -191,6 +639,11 @@ public class TTS implements HermesComponent {
 			try {
 				while((n=in.read(buffer))>=0) {
 					out.write(buffer,0,n);
+					if(target!=null&&failure==null) try {
+						target.write(buffer,0,n);
+					} catch(IOException e) {
+						failure=e;
+					}
 				}
 			} catch(Throwable t) {
 				t.printStackTrace();
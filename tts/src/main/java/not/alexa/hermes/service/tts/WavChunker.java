@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Output stream splitting WAV data into a sequence of WAV chunks while the data is written. The first chunk is emitted as soon as
+ * {@value #FIRST_CHUNK} seconds of audio are available, subsequent chunks contain at least {@value #CHUNK} seconds of audio. Closing the
+ * stream emits the last chunk (which may contain no audio at all).
+ *
+ * @author notalexa
+ */
+public class WavChunker extends OutputStream {
+	/**
+	 * The minimal length of the first chunk in seconds.
+	 */
+	public static final float FIRST_CHUNK=0.25f;
+	/**
+	 * The minimal length of the subsequent chunks in seconds.
+	 */
+	public static final float CHUNK=1f;
+	// The maximal size of the header (if the data chunk isn't found, the data isn't WAV data)
+	private static final int MAX_HEADER=4096;
+	private final ChunkListener listener;
+	private byte[] buffer=new byte[MAX_HEADER];
+	private int count;
+	private AudioFormat format;
+	private int frameSize;
+	private int chunkIndex;
+	private long total;
+	private boolean closed;
+
+	/**
+	 *
+	 * @param listener the listener receiving the chunks
+	 */
+	public WavChunker(ChunkListener listener) {
+		this.listener=listener;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte)b },0,1);
+	}
+
+	@Override
+	public void write(byte[] b,int off,int len) throws IOException {
+		if(closed) {
+			throw new IOException("Stream closed");
+		}
+		if(count+len>buffer.length) {
+			buffer=Arrays.copyOf(buffer,Math.max(2*buffer.length,count+len));
+		}
+		System.arraycopy(b,off,buffer,count,len);
+		count+=len;
+		if(format==null) {
+			int offset=WavHeader.getDataOffset(buffer,count);
+			if(offset<0) {
+				if(count>MAX_HEADER) {
+					throw new IOException("Illegal WAV data");
+				}
+				return;
+			}
+			format=WavHeader.getFormat(buffer);
+			if(format==null||format.getFrameSize()<=0) {
+				throw new IOException("Illegal WAV data");
+			}
+			frameSize=format.getFrameSize();
+			count-=offset;
+			System.arraycopy(buffer,offset,buffer,0,count);
+		}
+		int frames=count/frameSize;
+		if(frames>=(chunkIndex==0?FIRST_CHUNK:CHUNK)*format.getFrameRate()) {
+			emit(frames*frameSize,false);
+		}
+	}
+
+	private void emit(int length,boolean last) throws IOException {
+		byte[] header=WavHeader.create(format,length);
+		byte[] chunk=Arrays.copyOf(header,header.length+length);
+		System.arraycopy(buffer,0,chunk,header.length,length);
+		count-=length;
+		System.arraycopy(buffer,length,buffer,0,count);
+		total+=length;
+		listener.chunk(chunkIndex++,last,chunk);
+	}
+
+	/**
+	 * Emit the last chunk. If no data was written, no chunk is emitted.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(!closed) {
+			closed=true;
+			if(format!=null) {
+				emit(count-count%frameSize,true);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of chunks emitted so far
+	 */
+	public int getChunks() {
+		return chunkIndex;
+	}
+
+	/**
+	 *
+	 * @return the duration of the audio emitted so far in seconds
+	 */
+	public float getTime() {
+		return format==null?0f:total/(float)frameSize/format.getFrameRate();
+	}
+
+	/**
+	 * Listener receiving the chunks.
+	 */
+	public interface ChunkListener {
+		/**
+		 *
+		 * @param index the index of the chunk
+		 * @param last {@code true} if this is the last chunk
+		 * @param wavData the chunk (a complete WAV file)
+		 * @throws IOException if the chunk cannot be handled
+		 */
+		public void chunk(int index,boolean last,byte[] wavData) throws IOException;
+	}
+}
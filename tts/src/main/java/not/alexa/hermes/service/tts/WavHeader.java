@@ -60,6 +60,68 @@ public class WavHeader {
 		return null;
 	}
 	
+	/**
+	 * Return the offset of the audio data in the (possibly incomplete) WAV data.
+	 * 
+	 * @param wavData the data
+	 * @param length the number of valid bytes in the data
+	 * @return the offset of the first sample or {@code -1} if the header is incomplete (or the data isn't WAV data)
+	 */
+	public static int getDataOffset(byte[] wavData,int length) {
+		if(length<12||!Part.RIFF.matches(wavData,0)) {
+			return -1;
+		}
+		int offset=12;
+		while(offset+8<=length) {
+			if(Part.DATA.matches(wavData,offset)) {
+				return offset+8;
+			}
+			// Chunks are padded to an even size
+			int size=length4(offset+4,wavData);
+			if(size<0||size>length) {
+				return -1;
+			}
+			offset+=8+size+(size&1);
+		}
+		return -1;
+	}
+	
+	/**
+	 * Create a (canonical) WAV header for data of the given format.
+	 * 
+	 * @param format the format of the data
+	 * @param dataLength the length of the data in bytes or {@code -1} if the length is unknown (the length fields are set to their maximum in this case)
+	 * @return the header (of 44 bytes)
+	 */
+	public static byte[] create(AudioFormat format,int dataLength) {
+		byte[] header=new byte[44];
+		System.arraycopy(Part.RIFF.getId(),0,header,0,4);
+		write4(header,4,dataLength<0?-1:36+dataLength);
+		System.arraycopy("WAVE".getBytes(),0,header,8,4);
+		System.arraycopy(Part.FRMT.getId(),0,header,12,4);
+		write4(header,16,16);
+		// PCM
+		write2(header,20,1);
+		write2(header,22,format.getChannels());
+		write4(header,24,(int)format.getSampleRate());
+		write4(header,28,(int)format.getSampleRate()*format.getFrameSize());
+		write2(header,32,format.getFrameSize());
+		write2(header,34,format.getSampleSizeInBits());
+		System.arraycopy(Part.DATA.getId(),0,header,36,4);
+		write4(header,40,dataLength);
+		return header;
+	}
+	
+	private static void write2(byte[] wav,int offset,int value) {
+		wav[offset]=(byte)value;
+		wav[offset+1]=(byte)(value>>8);
+	}
+	
+	private static void write4(byte[] wav,int offset,int value) {
+		write2(wav,offset,value);
+		write2(wav,offset+2,value>>16);
+	}
+	
 	private static int length2(int offset,byte[] wav) {
 		int l=wav[offset+1]&0xff;
 		l=(l<<8)+(wav[offset+0]&0xff);
@@ -86,5 +148,9 @@ public class WavHeader {
 		public byte[] getId() {
 			return id;
 		}
+		
+		boolean matches(byte[] wav,int offset) {
+			return wav[offset]==id[0]&&wav[offset+1]==id[1]&&wav[offset+2]==id[2]&&wav[offset+3]==id[3];
+		}
 	}
 }
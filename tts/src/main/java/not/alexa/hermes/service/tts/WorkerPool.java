@@ -0,0 +1,413 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import not.alexa.netobjects.BaseException;
+
+/**
+ * Pool of long-lived synthesis workers. A worker is a process reading requests from stdin and writing responses to stdout:
+ * <ul>
+ * <li>{@code SAY <lang> <n>\n} followed by {@code n} bytes of UTF-8 text is answered by {@code OK <n>\n} followed by {@code n} bytes of WAV data
+ * or by {@code ERR <n>\n} followed by {@code n} bytes of UTF-8 error message.
+ * <li>{@code PING\n} is answered by {@code PONG\n}.
+ * </ul>
+ * Idle workers are pinged periodically. Workers which crash, fail a ping or exceed the timeout of a request are killed and restarted. If a worker cannot
+ * be started, the restart is retried with an increasing delay. While no worker is alive, {@link #synthesize(String, String, OutputStream)} returns {@code null} and
+ * the caller is expected to fall back to the one-shot mode.
+ *
+ * @author notalexa
+ */
+class WorkerPool implements AutoCloseable {
+	private static final Logger LOGGER=LoggerFactory.getLogger(WorkerPool.class);
+	private static final long HEALTH_INTERVAL=30000;
+	private static final long PING_TIMEOUT=5000;
+	private static final long MAX_RESTART_DELAY=60000;
+	private static final int MAX_RESPONSE=64<<20;
+	private final String command;
+	private final long timeout;
+	private final long pingTimeout;
+	private final BlockingQueue<Worker> idle=new LinkedBlockingQueue<>();
+	private final Set<Worker> workers=ConcurrentHashMap.newKeySet();
+	private final AtomicInteger restarts=new AtomicInteger();
+	private final ScheduledExecutorService scheduler=Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t=new Thread(r,"tts-worker-health");
+		t.setDaemon(true);
+		return t;
+	});
+	// The watchdog has its own thread since the health check blocks while a worker is pinged
+	private final ScheduledExecutorService watchdog=Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t=new Thread(r,"tts-worker-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+	private volatile boolean closed;
+	private int failures;
+
+	/**
+	 *
+	 * @param command the command starting a worker
+	 * @param size the number of workers
+	 * @param timeout the maximal time of a request in milliseconds
+	 */
+	WorkerPool(String command,int size,long timeout) {
+		this(command,size,timeout,HEALTH_INTERVAL,PING_TIMEOUT);
+	}
+
+	/**
+	 *
+	 * @param command the command starting a worker
+	 * @param size the number of workers
+	 * @param timeout the maximal time of a request in milliseconds
+	 * @param healthInterval the interval of the health check in milliseconds
+	 * @param pingTimeout the maximal time of a ping in milliseconds
+	 */
+	WorkerPool(String command,int size,long timeout,long healthInterval,long pingTimeout) {
+		this.command=command;
+		this.timeout=timeout;
+		this.pingTimeout=pingTimeout;
+		for(int i=0;i<size;i++) {
+			start();
+		}
+		scheduler.scheduleWithFixedDelay(this::check,healthInterval,healthInterval,TimeUnit.MILLISECONDS);
+		// The watchdog kills workers exceeding their deadline (of a request or a ping). The waiting reader fails afterwards.
+		long tick=Math.min(1000,Math.max(10,pingTimeout/4));
+		watchdog.scheduleWithFixedDelay(this::watchdog,tick,tick,TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Synthesize the text using the next free worker.
+	 *
+	 * @param lang the language
+	 * @param text the text
+	 * @param out the stream receiving the data while it's read or {@code null}
+	 * @return the WAV data or {@code null} if no worker is available
+	 * @throws BaseException if the worker rejected the request, the worker failed after data was written to the stream or writing to the stream failed
+	 */
+	byte[] synthesize(String lang,String text,OutputStream out) throws BaseException {
+		if(closed||workers.isEmpty()) {
+			return null;
+		}
+		Worker worker;
+		try {
+			worker=idle.poll(timeout,TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		if(worker==null) {
+			return null;
+		}
+		boolean healthy=false;
+		TargetStream target=out==null?null:new TargetStream(out);
+		try {
+			byte[] data=worker.say(lang,text,timeout,target);
+			healthy=true;
+			if(target!=null&&target.failure!=null) {
+				// The response was read completely, only the caller failed
+				throw new BaseException(BaseException.BAD_REQUEST,"Writing the synthesized data failed: "+target.failure.getMessage());
+			}
+			return data;
+		} catch(WorkerError e) {
+			healthy=true;
+			throw new BaseException(BaseException.BAD_REQUEST,e.getMessage());
+		} catch(IOException e) {
+			LOGGER.warn("TTS worker failed. Restart worker.",e);
+			if(target!=null&&target.count>0) {
+				// No fallback: The data written so far cannot be revoked.
+				throw new BaseException(BaseException.BAD_REQUEST,"TTS worker failed: "+e.getMessage());
+			}
+			return null;
+		} finally {
+			if(healthy) {
+				release(worker);
+			} else {
+				restart(worker);
+			}
+		}
+	}
+
+	private void release(Worker worker) {
+		synchronized (this) {
+			failures=0;
+		}
+		if(closed) {
+			worker.destroy();
+		} else {
+			idle.offer(worker);
+		}
+	}
+
+	private void restart(Worker worker) {
+		workers.remove(worker);
+		worker.destroy();
+		restarts.incrementAndGet();
+		if(!closed) {
+			// Restart in the background. Requests fall back to the one-shot mode if no worker is left.
+			scheduler.schedule(this::start,restartDelay(),TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * The first restart is immediate. Subsequent restarts without a successful request in between (a crash loop) are delayed
+	 * exponentially.
+	 */
+	private synchronized long restartDelay() {
+		int f=failures++;
+		return f==0?0:Math.min(MAX_RESTART_DELAY,500L<<Math.min(16,f-1));
+	}
+
+	private void start() {
+		if(closed) {
+			return;
+		}
+		try {
+			Worker worker=new Worker(command);
+			workers.add(worker);
+			idle.offer(worker);
+		} catch(IOException e) {
+			long delay=Math.max(1000,restartDelay());
+			LOGGER.warn("Starting TTS worker failed. Retry in {}ms.",delay,e);
+			if(!closed) {
+				scheduler.schedule(this::start,delay,TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Ping all idle workers and restart dead ones.
+	 */
+	private void check() {
+		List<Worker> current=new ArrayList<>();
+		idle.drainTo(current);
+		for(Worker worker:current) {
+			if(worker.ping(pingTimeout)) {
+				release(worker);
+			} else {
+				LOGGER.warn("TTS worker failed the health check. Restart worker.");
+				restart(worker);
+			}
+		}
+	}
+
+	private void watchdog() {
+		long time=System.currentTimeMillis();
+		for(Worker worker:workers) {
+			long deadline=worker.deadline;
+			if(deadline>0&&deadline<time) {
+				worker.destroy();
+			} else if(!worker.isAlive()&&idle.remove(worker)) {
+				LOGGER.warn("TTS worker terminated. Restart worker.");
+				restart(worker);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of running workers
+	 */
+	int getWorkers() {
+		return workers.size();
+	}
+
+	/**
+	 *
+	 * @return the number of restarted workers so far
+	 */
+	int getRestarts() {
+		return restarts.get();
+	}
+
+	@Override
+	public void close() {
+		closed=true;
+		scheduler.shutdownNow();
+		watchdog.shutdownNow();
+		List<Worker> current=new ArrayList<>();
+		idle.drainTo(current);
+		for(Worker worker:current) {
+			worker.destroy();
+		}
+		workers.clear();
+	}
+
+	/**
+	 * A worker rejected a request.
+	 */
+	private static class WorkerError extends Exception {
+		private static final long serialVersionUID=1L;
+
+		private WorkerError(String msg) {
+			super(msg);
+		}
+	}
+
+	/**
+	 * Stream receiving the response of a worker. A failure of the underlying stream is recorded and the remaining data is
+	 * dropped such that the worker isn't taken for broken.
+	 */
+	private static class TargetStream extends FilterOutputStream {
+		private long count;
+		private IOException failure;
+
+		private TargetStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b,int off,int len) {
+			if(failure==null) try {
+				count+=len;
+				out.write(b,off,len);
+			} catch(IOException e) {
+				failure=e;
+			}
+		}
+	}
+
+	private static class Worker {
+		private final Process process;
+		private final OutputStream out;
+		private final InputStream in;
+		private volatile long deadline;
+
+		private Worker(String command) throws IOException {
+			process=new ProcessBuilder(command).start();
+			out=new BufferedOutputStream(process.getOutputStream());
+			in=new BufferedInputStream(process.getInputStream());
+			Thread stdErr=new Thread(() -> {
+				try(BufferedReader reader=new BufferedReader(new InputStreamReader(process.getErrorStream(),StandardCharsets.UTF_8))) {
+					String line;
+					while((line=reader.readLine())!=null) {
+						LOGGER.info("TTS worker: {}",line);
+					}
+				} catch(IOException e) {
+				}
+			},"tts-worker-stderr");
+			stdErr.setDaemon(true);
+			stdErr.start();
+		}
+
+		private byte[] say(String lang,String text,long timeout,OutputStream target) throws IOException, WorkerError {
+			byte[] data=text.getBytes(StandardCharsets.UTF_8);
+			deadline=System.currentTimeMillis()+timeout;
+			try {
+				out.write(("SAY "+lang+" "+data.length+"\n").getBytes(StandardCharsets.UTF_8));
+				out.write(data);
+				out.flush();
+				String[] response=readLine().split(" ");
+				if(response.length!=2) {
+					throw new IOException("Illegal response: "+String.join(" ",response));
+				}
+				int n;
+				try {
+					n=Integer.parseInt(response[1]);
+				} catch(NumberFormatException e) {
+					throw new IOException("Illegal response: "+String.join(" ",response));
+				}
+				if(n<0||n>MAX_RESPONSE) {
+					throw new IOException("Illegal response length: "+n);
+				}
+				boolean ok="OK".equals(response[0]);
+				byte[] content=readFully(n,ok?target:null);
+				switch(response[0]) {
+					case "OK":return content;
+					case "ERR":throw new WorkerError(new String(content,StandardCharsets.UTF_8));
+					default:throw new IOException("Illegal response: "+response[0]);
+				}
+			} finally {
+				deadline=0;
+			}
+		}
+
+		private boolean ping(long timeout) {
+			deadline=System.currentTimeMillis()+timeout;
+			try {
+				out.write("PING\n".getBytes(StandardCharsets.UTF_8));
+				out.flush();
+				return "PONG".equals(readLine());
+			} catch(IOException e) {
+				return false;
+			} finally {
+				deadline=0;
+			}
+		}
+
+		private String readLine() throws IOException {
+			ByteArrayOutputStream line=new ByteArrayOutputStream();
+			int c;
+			while((c=in.read())!='\n') {
+				if(c<0) {
+					throw new EOFException("TTS worker terminated");
+				}
+				if(line.size()>=256) {
+					throw new IOException("Response line too long");
+				}
+				line.write(c);
+			}
+			return new String(line.toByteArray(),StandardCharsets.UTF_8).trim();
+		}
+
+		private byte[] readFully(int n,OutputStream target) throws IOException {
+			byte[] content=new byte[n];
+			int offset=0;
+			while(offset<n) {
+				int r=in.read(content,offset,n-offset);
+				if(r<0) {
+					throw new EOFException("TTS worker terminated");
+				}
+				if(target!=null) {
+					target.write(content,offset,r);
+				}
+				offset+=r;
+			}
+			return content;
+		}
+
+		private boolean isAlive() {
+			return process.isAlive();
+		}
+
+		private void destroy() {
+			process.destroyForcibly();
+		}
+	}
+}
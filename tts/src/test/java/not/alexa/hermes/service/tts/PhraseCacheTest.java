@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PhraseCacheTest {
+	@TempDir
+	File dir;
+
+	public PhraseCacheTest() {
+	}
+
+	@Test
+	void testKey() {
+		assertEquals(PhraseCache.key("tts.sh","de-DE","Timer gesetzt"),PhraseCache.key("tts.sh","de-DE"," Timer \t gesetzt\n"));
+		assertNotEquals(PhraseCache.key("tts.sh","de-DE","Timer gesetzt"),PhraseCache.key("tts.sh","en-US","Timer gesetzt"));
+		assertNotEquals(PhraseCache.key("tts.sh","de-DE","Timer gesetzt"),PhraseCache.key("other.sh","de-DE","Timer gesetzt"));
+	}
+
+	@Test
+	void testMemory() {
+		PhraseCache cache=new PhraseCache(100,null,0);
+		cache.put("a",new byte[60]);
+		cache.put("b",new byte[30]);
+		assertEquals(60,cache.get("a").length);
+		// b is the least recently used entry now
+		cache.put("c",new byte[30]);
+		assertNull(cache.get("b"));
+		assertEquals(90,cache.getMemorySize());
+		assertEquals(1,cache.getHits());
+		assertEquals(1,cache.getMisses());
+		assertEquals(1,cache.getEvictions());
+	}
+
+	@Test
+	void testDisk() {
+		byte[] data=new byte[] { 1,2,3,4 };
+		PhraseCache cache=new PhraseCache(100,dir,10);
+		cache.put("a",data);
+		cache.put("b",new byte[4]);
+		cache=new PhraseCache(100,dir,10);
+		assertEquals(8,cache.getDiskSize());
+		assertArrayEquals(data,cache.get("a"));
+		assertEquals(1,cache.getDiskHits());
+		// Served from memory now
+		cache.get("a");
+		assertEquals(1,cache.getHits());
+		cache.put("c",new byte[4]);
+		assertEquals(8,cache.getDiskSize());
+		assertEquals(false,new File(dir,"b.wav").exists());
+	}
+}
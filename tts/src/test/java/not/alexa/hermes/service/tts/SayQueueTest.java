@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.hermes.tts.Say;
+
+public class SayQueueTest {
+
+	public SayQueueTest() {
+	}
+
+	private static SayQueue.Request request(String text,String id,String sessionId) {
+		return new SayQueue.Request(null,new Say(text,"de-DE",id,-1f,"default",sessionId,null),"de-DE");
+	}
+
+	@Test
+	void testAdmission() throws Throwable {
+		SayQueue queue=new SayQueue(2);
+		SayQueue.Request a=request("Tür offen","a",null);
+		SayQueue.Request b=request("Fenster offen","b",null);
+		assertNull(queue.offer(a));
+		assertNull(queue.offer(b));
+		// Merged into a
+		assertNull(queue.offer(request(" Tür offen ","a2",null)));
+		assertEquals(2,queue.size());
+		// Full: Background requests are rejected
+		SayQueue.Request c=request("Licht an","c",null);
+		assertSame(c,queue.offer(c));
+		// Interactive requests shed the oldest background request
+		SayQueue.Request d=request("Wie spät ist es?","d","session");
+		assertSame(a,queue.offer(d));
+		assertEquals(2,queue.done(a).size());
+		assertSame(d,queue.take());
+		assertSame(b,queue.take());
+		// b is running: Identical requests are merged until b is done
+		assertNull(queue.offer(request("Fenster offen","b2",null)));
+		assertEquals(2,queue.done(b).size());
+		assertNull(queue.offer(request("Fenster offen","b3",null)));
+		assertEquals(1,queue.size());
+		assertEquals(1,queue.close().size());
+		assertNull(queue.take());
+	}
+
+	@Test
+	void testPromotion() throws Throwable {
+		SayQueue queue=new SayQueue(4);
+		SayQueue.Request a=request("Tür offen","a",null);
+		SayQueue.Request b=request("OK","b",null);
+		assertNull(queue.offer(a));
+		assertNull(queue.offer(b));
+		// The dialogue answer doesn't wait behind the announcements
+		assertNull(queue.offer(request("OK","c","session")));
+		assertSame(b,queue.take());
+		assertEquals(2,queue.done(b).size());
+		assertSame(a,queue.take());
+	}
+}
@@ -16,19 +16,25 @@
 package not.alexa.hermes.service.tts;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
+import javax.sound.sampled.AudioFormat;
+
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
 import not.alexa.hermes.HermesApi;
 import not.alexa.hermes.audio.AudioPlayBytes;
+import not.alexa.hermes.audio.AudioPlayBytesStreaming;
 import not.alexa.hermes.audio.AudioPlayFinished;
+import not.alexa.hermes.audio.AudioStreamFinished;
 import not.alexa.hermes.tts.Say;
 import not.alexa.hermes.tts.SayFinished;
 import not.alexa.netobjects.BaseException;
@@ -42,6 +48,7 @@ public class TTSTest {
 	}
 	
 	private boolean seen;
+	private final List<String> finished=Collections.synchronizedList(new ArrayList<>());
 	private static boolean valid;
 	private static String ttsCmd;
 	
@@ -66,6 +73,7 @@ public class TTSTest {
 		allOverlays.add(HermesApi.FeaturesRequestHandler.class);
 		allOverlays.add(TTS.SayHandler.class);
 		allOverlays.add(TTS.AudioPlayFinishedHandler.class);
+		allOverlays.add(TTS.AudioStreamFinishedHandler.class);
 		allOverlays.add(SayFinishedHandler.class);
 		if(!broken) {
 			allOverlays.add(AudioPlayBytesHandler.class);
@@ -85,7 +93,7 @@ public class TTSTest {
 			seen=false;
 			TTS tts=new TTS(ttsCmd,"de-DE",Collections.singleton("de-DE"));
 			new Say("Sag mal was").publish(prepareApi(tts,false,TTS.SayHandler.class));
-			assertEquals(true, seen);
+			assertEquals(true, awaitSeen(5000));
 		} catch(Throwable t) {
 		}
 	}
@@ -96,7 +104,7 @@ public class TTSTest {
 			seen=false;
 			TTS tts=new TTS(ttsCmd,"de",Collections.singleton("de-DE"));
 			new Say("Sag mal was").publish(prepareApi(tts,false,TTS.SayHandler.class));
-			assertEquals(false, seen);
+			assertEquals(false, awaitSeen(1000));
 		} catch(Throwable t) {
 			
 		}
@@ -121,6 +129,113 @@ public class TTSTest {
 		}
 	}
 
+	@Test
+	void testWorker() throws Throwable {
+		File worker=new File("test/bin/tts-worker.sh");
+		if(valid&&worker.exists()) {
+			worker.setExecutable(true);
+			seen=false;
+			TTS tts=new TTS(ttsCmd,"de-DE",new HashSet<>(Arrays.asList("de-DE","en-US")));
+			tts.worker=worker.getAbsolutePath();
+			tts.memoryCache=0;
+			HermesApi api=prepareApi(tts,false,TTS.SayHandler.class);
+			tts.startup(api,api.getContext());
+			try {
+				byte[] wavData=tts.say("de-DE","Sag mal was");
+				assertEquals(0,tts.getPool().getRestarts());
+				assertEquals(true,WavHeader.getFormat(wavData)!=null);
+				new Say("Sag mal was").publish(api);
+				assertEquals(true, awaitSeen(5000));
+				assertThrows(BaseException.class,() -> tts.say("en-US","Say something"));
+			} finally {
+				tts.shutdown(api,api.getContext());
+			}
+		}
+	}
+
+	@Test
+	void testOverload() throws Throwable {
+		if(valid) {
+			TTS tts=new TTS(ttsCmd,"de-DE",Collections.singleton("de-DE"));
+			tts.queueSize=1;
+			HermesApi api=prepareApi(tts,true,TTS.SayHandler.class);
+			// At most one request is running and one is queued, the third is rejected
+			new Say("Sag mal was",null,"id1",-1f,"default",null,null).publish(api);
+			new Say("Sag mal was, bitte",null,"id2",-1f,"default",null,null).publish(api);
+			new Say("Sag doch mal was",null,"id3",-1f,"default",null,null).publish(api);
+			assertEquals(true, awaitSeen(1000));
+			assertEquals(true, finished.contains("id3"));
+		}
+	}
+
+	@Test
+	void testFailure() throws Throwable {
+		seen=false;
+		TTS tts=new TTS(new File("test/bin/missing.sh").getAbsolutePath(),"de-DE",Collections.singleton("de-DE"));
+		tts.memoryCache=0;
+		HermesApi api=prepareApi(tts,false,TTS.SayHandler.class);
+		new Say("Sag mal was",null,"id1",-1f,"default",null,null).publish(api);
+		assertEquals(true, awaitSeen(5000));
+		assertEquals(Collections.singletonList("id1"), finished);
+	}
+
+	@Test
+	void testStreamFinished() throws Throwable {
+		if(valid) {
+			seen=false;
+			TTS tts=new TTS(ttsCmd,"de-DE",Collections.singleton("de-DE"));
+			tts.streaming=true;
+			HermesApi api=prepareApi(tts,true,TTS.SayHandler.class,AudioPlayBytesStreamingHandler.class);
+			new Say("Sag mal was",null,"id1",-1f,"default",null,null).publish(api);
+			assertEquals(true, awaitSeen(5000));
+			assertEquals(Collections.singletonList("id1"), finished);
+		}
+	}
+
+	@Test
+	void testSplit() {
+		assertEquals(Arrays.asList("Hallo. Der Timer ist auf 5 Minuten gesetzt.","Wie geht es dir? Gut."),TTS.split("de-DE","Hallo. Der Timer ist auf 5 Minuten gesetzt. Wie geht es dir? Gut."));
+		assertEquals(Collections.singletonList("Sag mal was"),TTS.split("de-DE","Sag mal was"));
+		// A trailing fragment is joined with the last sentence
+		assertEquals(Arrays.asList("Der Timer ist gesetzt.","Er dauert zehn Minuten. Ok."),TTS.split("de-DE","Der Timer ist gesetzt. Er dauert zehn Minuten. Ok."));
+	}
+
+	@Test
+	void testParallelism() {
+		TTS tts=new TTS("tts.sh","de-DE",Collections.singleton("de-DE"));
+		// Texts are split only if configured
+		assertEquals(1,tts.getParallelism());
+		tts.worker="tts-worker.sh";
+		assertEquals(1,tts.getParallelism());
+		tts.parallel=3;
+		assertEquals(3,tts.getParallelism());
+	}
+
+	@Test
+	void testSentences() throws Throwable {
+		if(valid) {
+			TTS tts=new TTS(ttsCmd,"de-DE",Collections.singleton("de-DE"));
+			tts.parallel=2;
+			tts.memoryCache=0;
+			byte[] sentence=tts.say("de-DE","Sag mal was");
+			byte[] wavData=tts.say("de-DE","Sag mal was. Sag mal was, bitte.");
+			AudioFormat format=WavHeader.getFormat(wavData);
+			int length=sentence.length-WavHeader.getDataOffset(sentence,sentence.length);
+			length-=length%format.getFrameSize();
+			int pause=(int)(format.getFrameRate()*tts.sentencePause/1000)*format.getFrameSize();
+			assertEquals(44+2*length+pause,wavData.length);
+			assertEquals(44,WavHeader.getDataOffset(wavData,wavData.length));
+		}
+	}
+
+	private boolean awaitSeen(long timeout) throws InterruptedException {
+		long end=System.currentTimeMillis()+timeout;
+		while(!seen&&System.currentTimeMillis()<end) {
+			Thread.sleep(10);
+		}
+		return seen;
+	}
+
 	@Overlay
 	public static class AudioPlayBytesHandler extends AudioPlayBytes {
 
@@ -134,6 +249,24 @@ public class TTSTest {
 		}
 	}
 	
+	/**
+	 * Answers the last chunk like Rhasspy.
+	 */
+	@Overlay
+	public static class AudioPlayBytesStreamingHandler extends AudioPlayBytesStreaming {
+
+		AudioPlayBytesStreamingHandler() {
+			super();
+		}
+
+		@Override
+		public void received(HermesApi api) throws BaseException {
+			if(isLastChunk()) {
+				api.publish(new AudioStreamFinished(getSiteId(),getRequestId(),null));
+			}
+		}
+	}
+
 	@Overlay
 	public class SayFinishedHandler extends SayFinished {
 
@@ -143,6 +276,7 @@ public class TTSTest {
 
 		@Override
 		public void received(HermesApi api) throws BaseException {
+			finished.add(getId());
 			seen=true;
 		}
 	}
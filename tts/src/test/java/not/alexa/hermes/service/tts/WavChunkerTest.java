@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.sampled.AudioFormat;
+
+import org.junit.jupiter.api.Test;
+
+public class WavChunkerTest {
+
+	public WavChunkerTest() {
+	}
+
+	@Test
+	void testChunks() throws Throwable {
+		AudioFormat format=new AudioFormat(16000,16,1,true,false);
+		byte[] pcm=new byte[80000];
+		for(int i=0;i<pcm.length;i++) {
+			pcm[i]=(byte)i;
+		}
+		byte[] wav=new byte[44+pcm.length];
+		System.arraycopy(WavHeader.create(format,pcm.length),0,wav,0,44);
+		System.arraycopy(pcm,0,wav,44,pcm.length);
+		List<byte[]> chunks=new ArrayList<>();
+		ByteArrayOutputStream data=new ByteArrayOutputStream();
+		try(WavChunker chunker=new WavChunker((index,last,chunk) -> {
+			assertEquals(chunks.size(),index);
+			assertEquals(format.toString(),WavHeader.getFormat(chunk).toString());
+			int offset=WavHeader.getDataOffset(chunk,chunk.length);
+			assertTrue(offset>0);
+			data.write(chunk,offset,chunk.length-offset);
+			chunks.add(chunk);
+		})) {
+			chunker.write(wav,0,44);
+			for(int i=44;i<wav.length;i+=2000) {
+				chunker.write(wav,i,2000);
+			}
+		}
+		// 0.25s, 1s, 1s and the rest
+		assertEquals(4,chunks.size());
+		assertEquals(8000+44,chunks.get(0).length);
+		assertEquals(32000+44,chunks.get(1).length);
+		assertEquals(8000+44,chunks.get(3).length);
+		assertArrayEquals(pcm,data.toByteArray());
+	}
+}
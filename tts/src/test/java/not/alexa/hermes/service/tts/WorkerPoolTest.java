@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2023 Not Alexa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package not.alexa.hermes.service.tts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import not.alexa.netobjects.BaseException;
+
+public class WorkerPoolTest {
+
+	public WorkerPoolTest() {
+	}
+
+	@Test
+	void testHangingPing() throws Throwable {
+		File worker=new File("test/bin/tts-worker-hang.sh");
+		if("Linux".equals(System.getProperty("os.name"))&&worker.exists()) {
+			worker.setExecutable(true);
+			try(WorkerPool pool=new WorkerPool(worker.getAbsolutePath(),1,5000,200,300)) {
+				long end=System.currentTimeMillis()+5000;
+				while(pool.getRestarts()<2&&System.currentTimeMillis()<end) {
+					Thread.sleep(50);
+				}
+				// The health check isn't blocked by the hanging worker
+				assertTrue(pool.getRestarts()>=2);
+				// Requests are served by the restarted workers
+				byte[] wavData=null;
+				end=System.currentTimeMillis()+10000;
+				while(wavData==null&&System.currentTimeMillis()<end) {
+					wavData=pool.synthesize("de-DE","Sag mal was",null);
+					if(wavData==null) {
+						Thread.sleep(50);
+					}
+				}
+				assertTrue(wavData!=null&&WavHeader.getFormat(wavData)!=null);
+			}
+		}
+	}
+
+	@Test
+	void testBrokenTarget() throws Throwable {
+		File worker=new File("test/bin/tts-worker.sh");
+		if("Linux".equals(System.getProperty("os.name"))&&worker.exists()) {
+			worker.setExecutable(true);
+			try(WorkerPool pool=new WorkerPool(worker.getAbsolutePath(),1,5000)) {
+				OutputStream broken=new OutputStream() {
+					@Override
+					public void write(int b) throws IOException {
+						throw new IOException("Broken");
+					}
+				};
+				assertThrows(BaseException.class,() -> pool.synthesize("de-DE","Sag mal was",broken));
+				// The worker is kept and in sync
+				assertEquals(0,pool.getRestarts());
+				byte[] wavData=pool.synthesize("de-DE","Sag mal was",null);
+				assertTrue(wavData!=null&&WavHeader.getFormat(wavData)!=null);
+			}
+		}
+	}
+}
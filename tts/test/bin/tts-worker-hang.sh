@@ -0,0 +1,19 @@
+#!/bin/bash
+#
+# Stand-in synthesis worker (see WorkerPool for the protocol) which never answers a ping.
+#
+wav="`dirname $0`/../sag_mal_was.wav"
+while read -r cmd lang n; do
+  case "$cmd" in
+  PING)
+    # Block until the worker is killed
+    read -r;;
+  SAY)
+    head -c "$n" >/dev/null
+    echo "OK `stat -c %s "$wav"`"
+    cat "$wav";;
+  *)
+    echo "Illegal command: $cmd" 1>&2
+    exit 1;;
+  esac
+done
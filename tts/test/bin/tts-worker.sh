@@ -0,0 +1,24 @@
+#!/bin/bash
+#
+# Stand-in synthesis worker (see WorkerPool for the protocol). Every german text is spoken as "Sag mal was".
+#
+wav="`dirname $0`/../sag_mal_was.wav"
+while read -r cmd lang n; do
+  case "$cmd" in
+  PING)
+    echo PONG;;
+  SAY)
+    head -c "$n" >/dev/null
+    if [ "de-DE" = "$lang" ]; then
+      echo "OK `stat -c %s "$wav"`"
+      cat "$wav"
+    else
+      msg="Illegal language: $lang"
+      echo "ERR ${#msg}"
+      printf '%s' "$msg"
+    fi;;
+  *)
+    echo "Illegal command: $cmd" 1>&2
+    exit 1;;
+  esac
+done